@@ -44,7 +44,12 @@ job "pscextract" {
       config {
         image = "busybox:latest"
         command = "sh"
-        args = ["-c", "mkdir -p /app/extract-repo/working-directory && chown -R 1:1 /app/extract-repo"]
+        args = ["-c", "mkdir -p /app/extract-repo/working-directory /app/extract-state && chown -R 1:1 /app/extract-repo /app/extract-state"]
+        // state kept out of files.directory : pending notifications, distributed extraction shards, page snapshots
+        volumes = [
+          "name=${nomad_namespace}-pscextract-state,io_priority=high,size=20,repl=3:/app/extract-state"
+        ]
+        volume_driver = "pxd"
       }
       resources {
         cpu = 200
@@ -71,7 +76,8 @@ job "pscextract" {
         extra_hosts = [ "psc-api-maj.internal:$\u007BNOMAD_IP_http\u007D" ]
         image = "${artifact.image}:${artifact.tag}"
         volumes = [
-          "name=${nomad_namespace}-pscextract-data,io_priority=high,size=10,repl=3:/app/extract-repo"
+          "name=${nomad_namespace}-pscextract-data,io_priority=high,size=10,repl=3:/app/extract-repo",
+          "name=${nomad_namespace}-pscextract-state,io_priority=high,size=20,repl=3:/app/extract-state"
         ]
         volume_driver = "pxd"
         ports = ["http"]
@@ -101,6 +107,48 @@ extract.name=Extraction_Pro_sante_connect
 extract.test.name={{ with secret "psc-ecosystem/${nomad_namespace}/pscextract" }}{{ .Data.data.test_file_name }}{{ end }}
 page.size=50000
 first.name.count=3
+extract.sync.block.size=65536
+extract.schedule.cron=-
+extract.schedule.jitter.seconds=0
+extract.fetch.offpeak.window=
+extract.fetch.peak.page.interval.ms=0
+extract.fetch.prefetch.pages=2
+extract.fetch.string.pool.size=1024
+extract.fetch.model=generated
+extract.dedup.expected.ps=2000000
+extract.memory.budget.mb=512
+extract.writer.mode=ring
+extract.writer.buffer.kb=1024
+extract.writer.buffer.count=4
+extract.writer.force=false
+extract.distributed.role=standalone
+extract.distributed.directory=/app/extract-state/shards
+extract.distributed.shard.pages=4
+extract.distributed.lease.ms=120000
+extract.distributed.poll.ms=1000
+extract.distributed.instance.id={{ env "NOMAD_ALLOC_ID" }}
+extract.profiles=
+extract.batch.notification.wait.ms=60000
+extract.snapshot.mode=off
+extract.snapshot.directory=/app/extract-state/snapshots
+extract.snapshot.replay.id=
+extract.snapshot.max.mb=10240
+extract.sort.enabled=false
+extract.sort.run.mb=64
+extract.treehash.chunk.kb=1024
+extract.treehash.threads=2
+extract.normalized.enabled=false
+extract.statistics.hll.precision=14
+extract.statistics.max.codes=1024
+extract.jfr.settings=default
+extract.jfr.max.age.minutes=60
+extract.jfr.max.size.mb=100
+extract.notification.outbox.directory=/app/extract-state/notification-outbox
+extract.notification.retry.initial.delay.ms=30000
+extract.notification.retry.max.delay.ms=3600000
+extract.notification.max.attempts=10
+extract.notification.webhook.url={{ with secret "psc-ecosystem/${nomad_namespace}/pscextract" }}{{ .Data.data.notification_webhook_url }}{{ end }}
+management.endpoints.web.exposure.include=health,prometheus
 server.servlet.context-path=/pscextract/v1
 
 spring.mail.host={{ with secret "psc-ecosystem/${nomad_namespace}/admin" }}{{ .Data.data.mail_server_host }}{{ end }}
@@ -109,6 +157,9 @@ spring.mail.username={{ with secret "psc-ecosystem/${nomad_namespace}/admin" }}{
 spring.mail.password={{ with secret "psc-ecosystem/${nomad_namespace}/admin" }}{{ .Data.data.mail_password }}{{ end }}
 spring.mail.properties.mail.smtp.auth={{ with secret "psc-ecosystem/${nomad_namespace}/admin" }}{{ .Data.data.mail_smtp_auth }}{{ end }}
 spring.mail.properties.mail.smtp.starttls.enable={{ with secret "psc-ecosystem/${nomad_namespace}/admin" }}{{ .Data.data.mail_enable_tls }}{{ end }}
+spring.mail.properties.mail.smtp.connectiontimeout=10000
+spring.mail.properties.mail.smtp.timeout=30000
+spring.mail.properties.mail.smtp.writetimeout=30000
 pscextract.mail.receiver={{ with secret "psc-ecosystem/${nomad_namespace}/admin" }}{{ .Data.data.mail_receiver }}{{ end }}
 secpsc.environment={{ with secret "psc-ecosystem/${nomad_namespace}/admin" }}{{ .Data.data.platform }}{{ end }}
 
@@ -0,0 +1,182 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract;
+
+import fr.ans.psc.pscextract.controller.ExtractionController;
+import fr.ans.psc.pscextract.service.job.ExtractionJob;
+import fr.ans.psc.pscextract.service.notification.NotificationOutbox;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * Command line mode running a single extraction without the web server : {@code --batch} starts a context without
+ * Tomcat whose beans are created on first use, runs an extraction, publishes it and returns an exit code telling
+ * its outcome. {@code --batch-check} only starts the context, to check the configuration or to record the classes
+ * of a class data sharing archive.
+ */
+public final class BatchExtraction {
+
+  private static final Logger log = LoggerFactory.getLogger(BatchExtraction.class);
+
+  public static final String BATCH_ARGUMENT = "--batch";
+
+  public static final String CHECK_ARGUMENT = "--batch-check";
+
+  public static final int EXIT_PUBLISHED = 0;
+
+  public static final int EXIT_FAILED = 1;
+
+  public static final int EXIT_CANCELLED = 2;
+
+  public static final int EXIT_UNCHANGED = 3;
+
+  public static final int EXIT_BUSY = 4;
+
+  private static final long NOTIFICATION_POLL_MS = 100;
+
+  private BatchExtraction() {
+  }
+
+  public static boolean isBatch(String[] args) {
+    return Arrays.asList(args).contains(BATCH_ARGUMENT) || Arrays.asList(args).contains(CHECK_ARGUMENT);
+  }
+
+  /**
+   * Runs and exits with the outcome. On SIGTERM, the process is halted once the context is closed, as System.exit
+   * would block behind the running shutdown hooks and the JVM would exit with 143 instead.
+   *
+   * @param args the command line, with {@link #BATCH_ARGUMENT} or {@link #CHECK_ARGUMENT}
+   */
+  public static void main(String[] args) {
+    int exitCode = run(args);
+    if (exitCode == EXIT_CANCELLED) {
+      Runtime.getRuntime().halt(exitCode);
+    }
+    System.exit(exitCode);
+  }
+
+  /**
+   * @param args the command line, with {@link #BATCH_ARGUMENT} or {@link #CHECK_ARGUMENT}
+   * @return the exit code
+   */
+  public static int run(String[] args) {
+    long startNanos = System.nanoTime();
+    boolean checkOnly = Arrays.asList(args).contains(CHECK_ARGUMENT);
+    String[] springArgs = Arrays.stream(args)
+            .filter(arg -> !BATCH_ARGUMENT.equals(arg) && !CHECK_ARGUMENT.equals(arg))
+            .toArray(String[]::new);
+    ConfigurableApplicationContext context = new SpringApplicationBuilder(PscextractApplication.class)
+            .web(WebApplicationType.NONE)
+            .lazyInitialization(true)
+            .registerShutdownHook(false)
+            .run(springArgs);
+    log.info("Batch context started in {} ms, {} ms after the JVM", (System.nanoTime() - startNanos) / 1_000_000,
+            ManagementFactory.getRuntimeMXBean().getUptime());
+    // on SIGTERM, cancels the extraction and keeps the JVM up until this thread returns its exit code
+    Thread batchThread = Thread.currentThread();
+    Thread shutdownHook = new Thread(() -> {
+      context.close();
+      try {
+        batchThread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }, "batch-shutdown");
+    Runtime.getRuntime().addShutdownHook(shutdownHook);
+    int exitCode;
+    try {
+      exitCode = checkOnly ? EXIT_PUBLISHED : extract(context);
+    } finally {
+      try {
+        Runtime.getRuntime().removeShutdownHook(shutdownHook);
+      } catch (IllegalStateException e) {
+        // already shutting down, the hook waits for this thread
+      }
+    }
+    if (!context.isActive()) {
+      // closed by the shutdown hook : waits for it to be done with the context
+      context.close();
+      return EXIT_CANCELLED;
+    }
+    return SpringApplication.exit(context, () -> exitCode);
+  }
+
+  private static int extract(ConfigurableApplicationContext context) {
+    ExtractionJob job = context.getBean(ExtractionController.class).submitExtraction(null);
+    if (job == null) {
+      log.warn("No extraction started, one is already running or this instance is a worker");
+      return EXIT_BUSY;
+    }
+    try {
+      job.awaitDone();
+      if (!context.isActive()) {
+        return EXIT_CANCELLED;
+      }
+      awaitNotifications(context);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return EXIT_CANCELLED;
+    }
+    log.info("Batch extraction {} after {} ms", job.getState() == ExtractionJob.State.FINISHED
+            ? job.getResult() : job.getState(), ManagementFactory.getRuntimeMXBean().getUptime());
+    return getExitCode(job);
+  }
+
+  /**
+   * Gives the notifications of the run a chance to be delivered before the process exits. Those still pending are
+   * delivered by the next instance started on the same outbox.
+   */
+  private static void awaitNotifications(ConfigurableApplicationContext context) throws InterruptedException {
+    long waitMs = context.getEnvironment().getRequiredProperty("extract.batch.notification.wait.ms", Long.class);
+    NotificationOutbox outbox = context.getBean(NotificationOutbox.class);
+    long deadline = System.currentTimeMillis() + waitMs;
+    try {
+      while (outbox.getPendingCount() > 0 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(NOTIFICATION_POLL_MS);
+      }
+      if (outbox.getPendingCount() > 0) {
+        log.warn("{} notifications still pending, left in the outbox", outbox.getPendingCount());
+      }
+    } catch (IOException e) {
+      log.warn("Unable to check the pending notifications", e);
+    }
+  }
+
+  static int getExitCode(ExtractionJob job) {
+    if (job.getState() == ExtractionJob.State.CANCELLED) {
+      return EXIT_CANCELLED;
+    }
+    if (job.getState() != ExtractionJob.State.FINISHED) {
+      return EXIT_FAILED;
+    }
+    switch (job.getResult()) {
+      case PUBLISHED:
+        return EXIT_PUBLISHED;
+      case UNCHANGED:
+        return EXIT_UNCHANGED;
+      default:
+        return EXIT_FAILED;
+    }
+  }
+}
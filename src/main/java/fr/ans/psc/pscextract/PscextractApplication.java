@@ -17,11 +17,16 @@ package fr.ans.psc.pscextract;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class PscextractApplication {
 
   public static void main(String[] args) {
+    if (BatchExtraction.isBatch(args)) {
+      BatchExtraction.main(args);
+    }
     SpringApplication.run(PscextractApplication.class, args);
   }
 
@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.controller;
+
+import fr.ans.psc.pscextract.service.sync.BlockChecksums;
+import fr.ans.psc.pscextract.service.sync.BlockRanges;
+import fr.ans.psc.pscextract.service.sync.BlockSyncService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Block level download of the latest extract data, for {@link fr.ans.psc.pscextract.service.sync.BlockSyncClient}.
+ */
+@RestController
+public class BlockSyncController {
+
+  private static final Logger log = LoggerFactory.getLogger(BlockSyncController.class);
+
+  @Autowired
+  private BlockSyncService blockSyncService;
+
+  @GetMapping(value = "/download/blocks/checksums")
+  public ResponseEntity<FileSystemResource> getLatestChecksums() {
+    File checksums = blockSyncService.getLatestChecksumsFile();
+    if (checksums == null) {
+      log.error("block checksums download failed");
+      return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+    }
+    HttpHeaders responseHeaders = new HttpHeaders();
+    responseHeaders.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + checksums.getName());
+    responseHeaders.add(HttpHeaders.CONTENT_TYPE, MediaType.TEXT_PLAIN_VALUE);
+    responseHeaders.add(HttpHeaders.CONTENT_LENGTH, String.valueOf(checksums.length()));
+    return new ResponseEntity<>(new FileSystemResource(checksums), responseHeaders, HttpStatus.OK);
+  }
+
+  /**
+   * @param extract the archive name given in the block checksums
+   * @param indexes ascending block ranges, eg 0-3,7,9-12
+   * @return the requested blocks of the uncompressed data entry, concatenated in order
+   */
+  @GetMapping(value = "/download/blocks")
+  public ResponseEntity<StreamingResponseBody> getBlocks(@RequestParam String extract, @RequestParam String indexes) {
+    File extractFile = blockSyncService.getPublishedExtract(extract);
+    if (extractFile == null) {
+      log.warn("blocks requested for unknown extract {}", extract);
+      return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+    }
+    BlockChecksums checksums;
+    try {
+      checksums = blockSyncService.readChecksums(extractFile);
+    } catch (IOException e) {
+      log.error("block checksums of {} unreadable", extract, e);
+      return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
+    }
+    // checked before the response is committed, a bad index would otherwise end the stream midway
+    List<Integer> sortedIndexes;
+    try {
+      sortedIndexes = BlockRanges.parse(indexes, checksums.getBlockCount());
+    } catch (IllegalArgumentException e) {
+      log.warn("Bad block ranges : {}", e.getMessage());
+      return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+    }
+    HttpHeaders responseHeaders = new HttpHeaders();
+    responseHeaders.add(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_OCTET_STREAM_VALUE);
+    return new ResponseEntity<>(out -> blockSyncService.writeBlocks(extractFile, checksums, sortedIndexes, out),
+            responseHeaders, HttpStatus.OK);
+  }
+}
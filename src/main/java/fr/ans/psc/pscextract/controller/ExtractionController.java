@@ -18,7 +18,21 @@ package fr.ans.psc.pscextract.controller;
 import fr.ans.psc.ApiClient;
 import fr.ans.psc.api.PsApi;
 import fr.ans.psc.pscextract.service.EmailService;
+import fr.ans.psc.pscextract.service.ExtractionResult;
 import fr.ans.psc.pscextract.service.TransformationService;
+import fr.ans.psc.pscextract.service.catalog.CatalogEntry;
+import fr.ans.psc.pscextract.service.catalog.ExtractCatalog;
+import fr.ans.psc.pscextract.service.distributed.DistributedExtractionService;
+import fr.ans.psc.pscextract.service.fetch.ResponseSizeInterceptor;
+import fr.ans.psc.pscextract.service.fetch.StringDeduplicationModule;
+import fr.ans.psc.pscextract.service.job.ExtractionJob;
+import fr.ans.psc.pscextract.service.job.ExtractionJobService;
+import fr.ans.psc.pscextract.service.normalized.NormalizedLayout;
+import fr.ans.psc.pscextract.service.profile.ExtractProfile;
+import fr.ans.psc.pscextract.service.profile.ExtractProfiles;
+import fr.ans.psc.pscextract.service.progress.ExtractionProgress;
+import fr.ans.psc.pscextract.service.snapshot.PageSnapshots;
+import fr.ans.psc.pscextract.service.statistics.ExtractStatistics;
 import fr.ans.psc.pscextract.service.utils.FileNamesUtil;
 import org.apache.tomcat.util.http.fileupload.FileUtils;
 import org.slf4j.Logger;
@@ -30,20 +44,21 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.json.AbstractJackson2HttpMessageConverter;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.client.RestTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
-import java.util.Objects;
-import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 @RestController
 public class ExtractionController {
@@ -51,11 +66,10 @@ public class ExtractionController {
   @Value("${working.directory}")
   private String workingDirectory;
 
-  @Value("false")
-  private boolean busy;
-
   private PsApi psApi;
 
+  private RestTemplate restTemplate;
+
   @Value("${api.base.url}")
   private String apiBaseUrl;
 
@@ -65,6 +79,30 @@ public class ExtractionController {
   @Autowired
   EmailService emailService;
 
+  @Autowired
+  ExtractionJobService extractionJobService;
+
+  @Autowired
+  ExtractionProgress extractionProgress;
+
+  @Autowired
+  ResponseSizeInterceptor responseSizeInterceptor;
+
+  @Autowired
+  ExtractCatalog extractCatalog;
+
+  @Autowired
+  DistributedExtractionService distributedExtractionService;
+
+  @Autowired
+  ExtractProfiles extractProfiles;
+
+  @Autowired
+  PageSnapshots pageSnapshots;
+
+  @Autowired
+  NormalizedLayout normalizedLayout;
+
   @Value("${files.directory}")
   private String filesDirectory;
 
@@ -77,6 +115,9 @@ public class ExtractionController {
   @Value("${extract.name}")
   private String extractName;
 
+  @Value("${extract.fetch.string.pool.size}")
+  private int stringPoolSize;
+
   /**
    * logger.
    */
@@ -90,24 +131,79 @@ public class ExtractionController {
   @GetMapping(value = "/files", produces = MediaType.APPLICATION_JSON_VALUE)
   @ResponseBody
   public String listFiles() {
-    return Stream.of(Objects.requireNonNull(new File(filesDirectory).listFiles()))
-            .filter(file -> !file.isDirectory())
-            .map(file -> file.getName() + ":" + file.length())
+    return extractCatalog.getFileSizes().entrySet().stream()
+            .map(file -> file.getKey() + ":" + file.getValue())
             .collect(Collectors.toSet()).toString();
   }
 
   @GetMapping(value = "/download")
   @ResponseBody
   public ResponseEntity<FileSystemResource> getFile() {
-    File extractFile = FileNamesUtil.getLatestExtract(filesDirectory, extractName);
+    return getLatestFile(extractName);
+  }
 
-    if (extractFile != null) {
+  /**
+   * @return the latest archive of the extract profile
+   */
+  @GetMapping(value = "/download/profiles/{profile}")
+  @ResponseBody
+  public ResponseEntity<FileSystemResource> getProfileFile(@PathVariable String profile) {
+    ExtractProfile extractProfile = extractProfiles.getProfile(profile);
+    if (extractProfile == null) {
+      log.error("download failed, unknown profile " + profile);
+      return new ResponseEntity<>(null, null, HttpStatus.NOT_FOUND);
+    }
+    return getLatestFile(extractProfiles.getBaseName(extractProfile));
+  }
+
+  /**
+   * @return the latest archive of the normalized layout
+   */
+  @GetMapping(value = "/download/normalized")
+  @ResponseBody
+  public ResponseEntity<FileSystemResource> getNormalizedFile() {
+    if (!normalizedLayout.isEnabled()) {
+      log.error("download failed, the normalized layout is not enabled");
+      return new ResponseEntity<>(null, null, HttpStatus.NOT_FOUND);
+    }
+    return getLatestFile(normalizedLayout.getBaseName());
+  }
+
+  /**
+   * @return the statistics of the latest extract
+   */
+  @GetMapping(value = "/download/statistics")
+  @ResponseBody
+  public ResponseEntity<FileSystemResource> getStatisticsFile() {
+    CatalogEntry latestExtract = extractCatalog.getLatest();
+    File statisticsFile = latestExtract == null ? null : ExtractStatistics.getStatisticsFile(latestExtract.getFile());
+    if (statisticsFile == null || !statisticsFile.isFile()) {
+      log.error("statistics download failed");
+      return new ResponseEntity<>(null, null, HttpStatus.NOT_FOUND);
+    }
+    HttpHeaders responseHeaders = new HttpHeaders();
+    responseHeaders.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + statisticsFile.getName());
+    responseHeaders.add(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE);
+    responseHeaders.add(HttpHeaders.CONTENT_LENGTH, String.valueOf(statisticsFile.length()));
+    return new ResponseEntity<>(new FileSystemResource(statisticsFile), responseHeaders, HttpStatus.OK);
+  }
+
+  private ResponseEntity<FileSystemResource> getLatestFile(String baseName) {
+    CatalogEntry latestExtract = extractCatalog.getLatest(baseName);
+    if (latestExtract != null && !latestExtract.getFile().isFile()) {
+      log.warn(latestExtract.getName() + " was removed behind the catalog back, rebuilding it");
+      extractCatalog.rebuild();
+      latestExtract = extractCatalog.getLatest(baseName);
+    }
+
+    if (latestExtract != null) {
+      File extractFile = latestExtract.getFile();
       FileSystemResource resource = new FileSystemResource(extractFile);
 
       HttpHeaders responseHeaders = new HttpHeaders();
       responseHeaders.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + extractFile.getName());
       responseHeaders.add(HttpHeaders.CONTENT_TYPE, "application/zip");
-      responseHeaders.add(HttpHeaders.CONTENT_LENGTH, String.valueOf(extractFile.length()));
+      responseHeaders.add(HttpHeaders.CONTENT_LENGTH, String.valueOf(latestExtract.getSize()));
 
       log.info("download done");
       return new ResponseEntity<>(resource, responseHeaders, HttpStatus.OK);
@@ -149,6 +245,7 @@ public class ExtractionController {
 
     try {
       file.transferTo(extractTestFile);
+      extractCatalog.fileAdded(extractTestFile);
       log.info("Fichier de test téléversé avec succès");
       return new ResponseEntity<>(HttpStatus.ACCEPTED);
     } catch (IOException e) {
@@ -160,62 +257,105 @@ public class ExtractionController {
     }
   }
 
+  /**
+   * Queues an extraction job, unless one is already queued or running.
+   *
+   * @return the job, whose progress is available on /jobs/{id}, or CONFLICT
+   */
   @PostMapping(value = "/generate-extract")
   public ResponseEntity<?> generateExtract(@RequestParam(required = false) Integer pageSize) {
-    if (!busy) {
-      ForkJoinPool.commonPool().submit(() -> {
-        try {
-          busy = true;
-          if (pageSize != null) {
-            this.pageSize = pageSize;
-          }
-          if (this.psApi == null) {
-            instantiateApi();
-          }
-
-          File latestExtract = transformationService.extractToCsv(this);
-          FileNamesUtil.cleanup(filesDirectory, extractTestName);
-
-          // TODO : this is java not C. Please use exceptions, not return code checking.
-          if (latestExtract != null) {
-            emailService.sendSimpleMessage("PSCEXTRACT - sécurisation effectuée", latestExtract);
-          }
-          else {
-            emailService.sendSimpleMessage("PSCEXTRACT - sécurisation échouée", null);
-          }
-        } catch (Exception e) {
-          log.error("Exception raised :", e);
-          emailService.sendSimpleMessage("PSCEXTRACT - sécurisation échouée", null);
-        } catch (Error e) {
-          log.error("Exception raised :", e);
-            try {
-              log.error("Exception raised :", e);
-              emailService.sendSimpleMessage("PSCEXTRACT - sécurisation échouée", null);
-            } catch (Exception mailEx) {
-              e.addSuppressed(mailEx);
-            }
-            throw e;
-        } finally {
-            busy = false;
-        }
-      });
-    } else {
+    ExtractionJob job = submitExtraction(pageSize);
+    if (job == null) {
       return new ResponseEntity<>(HttpStatus.CONFLICT);
     }
-    return new ResponseEntity<>(HttpStatus.OK);
+    return new ResponseEntity<>(job, HttpStatus.OK);
+  }
+
+  /**
+   * @param pageSize the page size of the extraction, null for the configured one
+   * @return the queued job, null if one is already queued or running, or if this instance is a distributed
+   * extraction worker
+   */
+  public ExtractionJob submitExtraction(Integer pageSize) {
+    if (distributedExtractionService.isWorker()) {
+      // its shard worker crawls already, with the same throttle, memory budget and progress
+      log.warn("Extraction refused, this instance works on the shards of the coordinator");
+      return null;
+    }
+    return extractionJobService.submit(pageSize, this::runExtraction);
+  }
+
+  private ExtractionResult runExtraction(ExtractionJob job) throws IOException {
+    if (job.getPageSize() != null) {
+      this.pageSize = job.getPageSize();
+    }
+
+    ExtractionResult result = null;
+    extractionProgress.start();
+    try {
+      result = distributedExtractionService.isCoordinator() ? distributedExtractionService.extract(this)
+              : transformationService.extractToCsv(this);
+    } catch (IOException | RuntimeException | Error e) {
+      try {
+        emailService.sendSimpleMessage("PSCEXTRACT - sécurisation échouée", null);
+      } catch (Exception mailEx) {
+        e.addSuppressed(mailEx);
+      }
+      throw e;
+    } finally {
+      extractionProgress.finish(result != null && result.getStatus() == ExtractionResult.Status.PUBLISHED);
+    }
+
+    // A notification failure must not hide the actual extraction outcome.
+    try {
+      switch (result.getStatus()) {
+        case PUBLISHED:
+          extractCatalog.filesRemoved(FileNamesUtil.cleanup(filesDirectory, extractTestName));
+          emailService.sendSimpleMessage("PSCEXTRACT - sécurisation effectuée", result.getExtract());
+          break;
+        case UNCHANGED:
+          log.info("Extraction done, data unchanged since " + result.getExtract().getName());
+          emailService.sendUnchangedMessage("PSCEXTRACT - sécurisation effectuée, données inchangées", result.getExtract());
+          break;
+        case CANCELLED:
+          log.info("Extraction job {} cancelled", job.getId());
+          break;
+        default:
+          emailService.sendSimpleMessage("PSCEXTRACT - sécurisation échouée", null);
+      }
+    } catch (Exception e) {
+      log.error("Extraction job " + job.getId() + " notification failed", e);
+    }
+    return result;
   }
 
   private void instantiateApi() {
-    ApiClient apiClient = new ApiClient();
+    // The codes of the model are deduplicated as the pages are deserialized
+    restTemplate = new RestTemplate();
+    StringDeduplicationModule deduplicationModule = new StringDeduplicationModule(stringPoolSize);
+    for (HttpMessageConverter<?> converter : restTemplate.getMessageConverters()) {
+      if (converter instanceof AbstractJackson2HttpMessageConverter) {
+        ((AbstractJackson2HttpMessageConverter) converter).getObjectMapper().registerModule(deduplicationModule);
+      }
+    }
+    restTemplate.getInterceptors().add(responseSizeInterceptor);
+    if (pageSnapshots.isReplay()) {
+      restTemplate.setRequestFactory(pageSnapshots.getReplayRequestFactory());
+    } else if (pageSnapshots.isRecording()) {
+      restTemplate.getInterceptors().add(pageSnapshots);
+    }
+    ApiClient apiClient = new ApiClient(restTemplate);
     apiClient.setBasePath(apiBaseUrl);
     this.psApi = new PsApi(apiClient);
-    log.info("Api client with url " + apiBaseUrl + " created");
+    log.info("Api client with url " + apiBaseUrl + " created" + (pageSnapshots.isReplay() ? ", replaying snapshots"
+            : ""));
   }
 
   @PostMapping(value = "/clean-all", produces = MediaType.APPLICATION_JSON_VALUE)
   public String cleanAll() {
     try {
       FileUtils.cleanDirectory(new File(filesDirectory));
+      extractCatalog.clear();
       log.info("all files in {} were deleted!", filesDirectory);
       return "all files in storage were deleted";
     } catch (IOException e) {
@@ -227,7 +367,17 @@ public class ExtractionController {
 
   @GetMapping(value = "/busy-check", produces = MediaType.APPLICATION_JSON_VALUE)
   public boolean checkControllerIsBusy() {
-    return busy;
+    return extractionJobService.isBusy();
+  }
+
+  /**
+   * @return the outcome of the last extraction run since startup : PUBLISHED, UNCHANGED, FAILED or CANCELLED,
+   * null if none ran or if it failed on an exception.
+   */
+  @GetMapping(value = "/last-extraction-status", produces = MediaType.APPLICATION_JSON_VALUE)
+  public ExtractionResult.Status getLastExtractionStatus() {
+    ExtractionJob lastJob = extractionJobService.getLastDoneJob();
+    return lastJob == null ? null : lastJob.getResult();
   }
 
   public String getZIP_EXTENSION() {
@@ -242,10 +392,23 @@ public class ExtractionController {
     return workingDirectory;
   }
 
-  public PsApi getPsApi() {
+  public synchronized PsApi getPsApi() {
+    if (psApi == null) {
+      instantiateApi();
+    }
     return psApi;
   }
 
+  /**
+   * @return the RestTemplate of the api client, for the pages read without the psc-api-client model
+   */
+  public synchronized RestTemplate getRestTemplate() {
+    if (restTemplate == null) {
+      instantiateApi();
+    }
+    return restTemplate;
+  }
+
   public String getApiBaseUrl() {
     return apiBaseUrl;
   }
@@ -259,6 +422,6 @@ public class ExtractionController {
   }
 
   public boolean isBusy() {
-    return busy;
+    return extractionJobService.isBusy();
   }
 }
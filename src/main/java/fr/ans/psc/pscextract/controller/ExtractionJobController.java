@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.controller;
+
+import fr.ans.psc.pscextract.service.job.ExtractionJob;
+import fr.ans.psc.pscextract.service.job.ExtractionJobService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/**
+ * Status and cancellation of the extraction jobs queued by /generate-extract.
+ */
+@RestController
+public class ExtractionJobController {
+
+  @Autowired
+  private ExtractionJobService extractionJobService;
+
+  @GetMapping(value = "/jobs", produces = MediaType.APPLICATION_JSON_VALUE)
+  public List<ExtractionJob> listJobs() {
+    return extractionJobService.getJobs();
+  }
+
+  @GetMapping(value = "/jobs/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<ExtractionJob> getJob(@PathVariable String id) {
+    ExtractionJob job = extractionJobService.getJob(id);
+    if (job == null) {
+      return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+    }
+    return new ResponseEntity<>(job, HttpStatus.OK);
+  }
+
+  /**
+   * @return ACCEPTED if the job is cancelled or will stop at the next page, CONFLICT if it is already done
+   */
+  @DeleteMapping(value = "/jobs/{id}")
+  public ResponseEntity<ExtractionJob> cancelJob(@PathVariable String id) {
+    ExtractionJob job = extractionJobService.getJob(id);
+    if (job == null) {
+      return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+    }
+    if (!extractionJobService.cancel(id)) {
+      return new ResponseEntity<>(job, HttpStatus.CONFLICT);
+    }
+    return new ResponseEntity<>(job, HttpStatus.ACCEPTED);
+  }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.controller;
+
+import fr.ans.psc.pscextract.service.jfr.JfrRecordingService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+
+/**
+ * Flight recording of the extraction, to profile it in production without attaching anything to the JVM.
+ */
+@RestController
+public class JfrRecordingController {
+
+  @Autowired
+  private JfrRecordingService jfrRecordingService;
+
+  @PostMapping(value = "/admin/jfr/start", produces = MediaType.APPLICATION_JSON_VALUE)
+  public String startRecording(@RequestParam(required = false) Long maxAgeMinutes,
+                               @RequestParam(required = false) Long maxSizeMb) throws IOException, ParseException {
+    return jfrRecordingService.start(maxAgeMinutes, maxSizeMb);
+  }
+
+  @PostMapping(value = "/admin/jfr/stop", produces = MediaType.APPLICATION_JSON_VALUE)
+  public String stopRecording() {
+    return jfrRecordingService.stop();
+  }
+
+  @GetMapping(value = "/admin/jfr", produces = MediaType.APPLICATION_JSON_VALUE)
+  public String getRecordingState() {
+    return jfrRecordingService.getState();
+  }
+
+  /**
+   * @return the recording so far, to open in JDK Mission Control, or NOT_FOUND if none was started
+   */
+  @GetMapping(value = "/admin/jfr/dump")
+  public ResponseEntity<StreamingResponseBody> dumpRecording() throws IOException {
+    Path dump = jfrRecordingService.dump();
+    if (dump == null) {
+      return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+    }
+    StreamingResponseBody body = out -> {
+      try {
+        Files.copy(dump, out);
+      } finally {
+        Files.deleteIfExists(dump);
+      }
+    };
+    return ResponseEntity.ok()
+            .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"pscextract.jfr\"")
+            .contentLength(Files.size(dump))
+            .contentType(MediaType.APPLICATION_OCTET_STREAM)
+            .body(body);
+  }
+}
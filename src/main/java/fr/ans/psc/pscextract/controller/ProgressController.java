@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.controller;
+
+import fr.ans.psc.pscextract.service.progress.ExtractionProgress;
+import fr.ans.psc.pscextract.service.progress.ProgressSnapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Live view of the running extraction.
+ */
+@RestController
+public class ProgressController {
+
+  private static final Logger log = LoggerFactory.getLogger(ProgressController.class);
+
+  private static final Duration STREAM_PERIOD = Duration.ofSeconds(1);
+
+  private static final long STREAM_TIMEOUT_MS = Duration.ofHours(12).toMillis();
+
+  @Autowired
+  private ExtractionProgress extractionProgress;
+
+  @Autowired
+  private TaskScheduler taskScheduler;
+
+  @GetMapping(value = "/progress/snapshot", produces = MediaType.APPLICATION_JSON_VALUE)
+  public ProgressSnapshot getProgress() {
+    return extractionProgress.snapshot();
+  }
+
+  /**
+   * Server-Sent Events stream of a progress snapshot per second, until the client disconnects.
+   */
+  @GetMapping(value = "/progress", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public SseEmitter streamProgress() {
+    SseEmitter emitter = new SseEmitter(STREAM_TIMEOUT_MS);
+    AtomicReference<ScheduledFuture<?>> sender = new AtomicReference<>();
+    Runnable stop = () -> {
+      ScheduledFuture<?> scheduled = sender.get();
+      if (scheduled != null) {
+        scheduled.cancel(false);
+      }
+    };
+    emitter.onCompletion(stop);
+    emitter.onTimeout(stop);
+    emitter.onError(e -> stop.run());
+    sender.set(taskScheduler.scheduleAtFixedRate(() -> {
+      try {
+        emitter.send(SseEmitter.event().name("progress").data(extractionProgress.snapshot(), MediaType.APPLICATION_JSON));
+      } catch (IOException | IllegalStateException e) {
+        log.debug("Progress stream closed : {}", e.getMessage());
+        stop.run();
+        emitter.completeWithError(e);
+      }
+    }, STREAM_PERIOD));
+    return emitter;
+  }
+}
@@ -15,13 +15,12 @@
  */
 package fr.ans.psc.pscextract.service;
 
+import fr.ans.psc.pscextract.service.notification.NotificationOutbox;
 import fr.ans.psc.pscextract.service.utils.FileNamesUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.mail.SimpleMailMessage;
-import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
@@ -35,26 +34,28 @@ public class EmailService {
   private static final Logger log = LoggerFactory.getLogger(EmailService.class);
 
   @Autowired
-  private JavaMailSender emailSender;
-
-  @Value("${spring.mail.username}")
-  private String sender;
-
-  @Value("${pscextract.mail.receiver}")
-  private String receiver;
+  private NotificationOutbox notificationOutbox;
 
   @Value("${secpsc.environment}")
   private String platform;
 
   public void sendSimpleMessage(String subject, File latestExtract) {
-    SimpleMailMessage message = new SimpleMailMessage();
-    message.setFrom(sender);
-    String[] allReceivers = receiver.split(",");
-    message.setTo(allReceivers);
-    message.setSubject(platform + " - " + subject);
-    message.setText(getEmailMessage(latestExtract));
+    send(subject, getEmailMessage(latestExtract));
+  }
+
+  /**
+   * Tells receivers that the run produced no new file, so that they don't download the current one again.
+   */
+  public void sendUnchangedMessage(String subject, File currentExtract) {
+    send(subject, "Les données extraites par PSCEXTRACT n'ont pas changé depuis le fichier "
+            + currentExtract.getName() + ", aucun nouveau fichier n'a été publié.");
+  }
 
-    emailSender.send(message);
+  /**
+   * Only queues the message : it is delivered in the background, by email and by the other enabled channels.
+   */
+  private void send(String subject, String text) {
+    notificationOutbox.enqueue(platform + " - " + subject, text);
   }
 
   private String getEmailMessage(File latestExtract) {
@@ -68,7 +69,7 @@ public class EmailService {
       Date extractDate = FileNamesUtil.getDateFromFileName(latestExtract);
       SimpleDateFormat sdfDate = new SimpleDateFormat("dd MMM yyy");
       stringDate = sdfDate.format(extractDate);
-      SimpleDateFormat sdfHour = new SimpleDateFormat("hh:mm");
+      SimpleDateFormat sdfHour = new SimpleDateFormat("HH:mm");
       stringHour = sdfHour.format(extractDate);
     } catch (ParseException e) {
       log.error("Unable to parse extract file date", e);
@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service;
+
+import java.io.File;
+
+/**
+ * Outcome of one extraction run.
+ */
+public class ExtractionResult {
+
+  public enum Status {
+    /** A new extract was published in the files directory. */
+    PUBLISHED,
+    /** The data did not change since the current extract, which is kept as is. */
+    UNCHANGED,
+    /** The extraction failed, the current extract (if any) is kept as is. */
+    FAILED,
+    /** The extraction was interrupted on request, the current extract (if any) is kept as is. */
+    CANCELLED
+  }
+
+  private final Status status;
+
+  private final File extract;
+
+  private ExtractionResult(Status status, File extract) {
+    this.status = status;
+    this.extract = extract;
+  }
+
+  public static ExtractionResult published(File extract) {
+    return new ExtractionResult(Status.PUBLISHED, extract);
+  }
+
+  public static ExtractionResult unchanged(File currentExtract) {
+    return new ExtractionResult(Status.UNCHANGED, currentExtract);
+  }
+
+  public static ExtractionResult failed() {
+    return new ExtractionResult(Status.FAILED, null);
+  }
+
+  public static ExtractionResult cancelled() {
+    return new ExtractionResult(Status.CANCELLED, null);
+  }
+
+  public Status getStatus() {
+    return status;
+  }
+
+  /**
+   * @return the extract served after this run : the new one if published, the current one if unchanged, null otherwise.
+   */
+  public File getExtract() {
+    return extract;
+  }
+}
@@ -0,0 +1,268 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Machine readable report of an extraction run, joined to the archive it produced.
+ * <p>
+ * The manifest is written once the data entry is compressed, so it covers the fetch and compress phases and its
+ * sizes are those of the data entry.
+ */
+public class RunManifest {
+
+  private String extract;
+
+  private String profile;
+
+  private Instant startedAt;
+
+  private Instant finishedAt;
+
+  private final Map<String, Long> phaseDurationsMs = new TreeMap<>();
+
+  private long pageCount;
+
+  private long psCount;
+
+  private long unwoundCount;
+
+  private long rowCount;
+
+  private long duplicatePsCount;
+
+  /**
+   * Rows per id type, counted in place once per row and sorted by {@link #getRowsPerIdType()}.
+   */
+  private final Map<String, long[]> idTypeRows = new HashMap<>();
+
+  private long bytesUncompressed;
+
+  private long bytesCompressed;
+
+  private int pageSize;
+
+  private int concurrency;
+
+  private int prefetchPages;
+
+  private long memoryBudgetBytes;
+
+  private long peakHeldBytes;
+
+  /**
+   * @param pagePsCount the Ps of the page written, those already written on a previous page excluded
+   */
+  public void pageProcessed(int pagePsCount, int pageUnwoundCount) {
+    pageCount++;
+    psCount += pagePsCount;
+    unwoundCount += pageUnwoundCount;
+  }
+
+  /**
+   * Adds the counts of a shard of a distributed extraction.
+   */
+  public void merge(RunManifest shard) {
+    pageCount += shard.pageCount;
+    psCount += shard.psCount;
+    unwoundCount += shard.unwoundCount;
+    rowCount += shard.rowCount;
+    duplicatePsCount += shard.duplicatePsCount;
+    shard.idTypeRows.forEach((idType, count) -> addRows(idType, count[0]));
+    peakHeldBytes = Math.max(peakHeldBytes, shard.peakHeldBytes);
+  }
+
+  /**
+   * @param rows the rows written by the profile
+   * @return the manifest of the archive of a profile written during this run
+   */
+  public RunManifest forProfile(String profile, RunManifest rows) {
+    RunManifest manifest = new RunManifest();
+    manifest.profile = profile;
+    manifest.startedAt = startedAt;
+    manifest.phaseDurationsMs.putAll(phaseDurationsMs);
+    manifest.pageCount = pageCount;
+    manifest.psCount = psCount;
+    manifest.unwoundCount = unwoundCount;
+    manifest.duplicatePsCount = duplicatePsCount;
+    manifest.rowCount = rows.rowCount;
+    rows.idTypeRows.forEach((idType, count) -> manifest.addRows(idType, count[0]));
+    manifest.pageSize = pageSize;
+    manifest.concurrency = concurrency;
+    manifest.prefetchPages = prefetchPages;
+    manifest.memoryBudgetBytes = memoryBudgetBytes;
+    manifest.peakHeldBytes = peakHeldBytes;
+    return manifest;
+  }
+
+  public void duplicatesSkipped(int count) {
+    duplicatePsCount += count;
+  }
+
+  public void rowWritten(String idType) {
+    rowCount++;
+    long[] count = idTypeRows.get(idType);
+    if (count == null) {
+      count = new long[1];
+      idTypeRows.put(idType, count);
+    }
+    count[0]++;
+  }
+
+  private void addRows(String idType, long rows) {
+    idTypeRows.computeIfAbsent(idType, key -> new long[1])[0] += rows;
+  }
+
+  public void phaseDone(String phase, long durationMs) {
+    phaseDurationsMs.put(phase, durationMs);
+  }
+
+  public String getExtract() {
+    return extract;
+  }
+
+  public void setExtract(String extract) {
+    this.extract = extract;
+  }
+
+  /**
+   * @return the profile of the archive, null for the full extract
+   */
+  public String getProfile() {
+    return profile;
+  }
+
+  public void setProfile(String profile) {
+    this.profile = profile;
+  }
+
+  public Instant getStartedAt() {
+    return startedAt;
+  }
+
+  public void setStartedAt(Instant startedAt) {
+    this.startedAt = startedAt;
+  }
+
+  public Instant getFinishedAt() {
+    return finishedAt;
+  }
+
+  public void setFinishedAt(Instant finishedAt) {
+    this.finishedAt = finishedAt;
+  }
+
+  public Map<String, Long> getPhaseDurationsMs() {
+    return phaseDurationsMs;
+  }
+
+  public long getPageCount() {
+    return pageCount;
+  }
+
+  /**
+   * @return Ps written, see {@link #getDuplicatePsCount()} for those skipped
+   */
+  public long getPsCount() {
+    return psCount;
+  }
+
+  public long getUnwoundCount() {
+    return unwoundCount;
+  }
+
+  public long getRowCount() {
+    return rowCount;
+  }
+
+  /**
+   * @return Ps served on more than one page, written once
+   */
+  public long getDuplicatePsCount() {
+    return duplicatePsCount;
+  }
+
+  public Map<String, Long> getRowsPerIdType() {
+    Map<String, Long> rowsPerIdType = new TreeMap<>();
+    idTypeRows.forEach((idType, count) -> rowsPerIdType.put(idType, count[0]));
+    return rowsPerIdType;
+  }
+
+  public void setRowsPerIdType(Map<String, Long> rowsPerIdType) {
+    idTypeRows.clear();
+    rowsPerIdType.forEach(this::addRows);
+  }
+
+  public long getBytesUncompressed() {
+    return bytesUncompressed;
+  }
+
+  public void setBytesUncompressed(long bytesUncompressed) {
+    this.bytesUncompressed = bytesUncompressed;
+  }
+
+  public long getBytesCompressed() {
+    return bytesCompressed;
+  }
+
+  public void setBytesCompressed(long bytesCompressed) {
+    this.bytesCompressed = bytesCompressed;
+  }
+
+  public int getPageSize() {
+    return pageSize;
+  }
+
+  public void setPageSize(int pageSize) {
+    this.pageSize = pageSize;
+  }
+
+  public int getConcurrency() {
+    return concurrency;
+  }
+
+  public void setConcurrency(int concurrency) {
+    this.concurrency = concurrency;
+  }
+
+  public int getPrefetchPages() {
+    return prefetchPages;
+  }
+
+  public void setPrefetchPages(int prefetchPages) {
+    this.prefetchPages = prefetchPages;
+  }
+
+  public long getMemoryBudgetBytes() {
+    return memoryBudgetBytes;
+  }
+
+  public void setMemoryBudgetBytes(long memoryBudgetBytes) {
+    this.memoryBudgetBytes = memoryBudgetBytes;
+  }
+
+  public long getPeakHeldBytes() {
+    return peakHeldBytes;
+  }
+
+  public void setPeakHeldBytes(long peakHeldBytes) {
+    this.peakHeldBytes = peakHeldBytes;
+  }
+}
@@ -22,12 +22,47 @@ import fr.ans.psc.model.Ps;
 import fr.ans.psc.model.Structure;
 import fr.ans.psc.model.WorkSituation;
 import fr.ans.psc.pscextract.controller.ExtractionController;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.ans.psc.pscextract.service.catalog.CatalogEntry;
+import fr.ans.psc.pscextract.service.catalog.ExtractCatalog;
+import fr.ans.psc.pscextract.service.compact.CompactPs;
+import fr.ans.psc.pscextract.service.compact.CompactPsReader;
+import fr.ans.psc.pscextract.service.compact.CompactRowEncoder;
+import fr.ans.psc.pscextract.service.fetch.FetchThrottle;
+import fr.ans.psc.pscextract.service.fetch.MemoryBudget;
+import fr.ans.psc.pscextract.service.fetch.PagePrefetcher;
+import fr.ans.psc.pscextract.service.fetch.ResponseSizeInterceptor;
+import fr.ans.psc.pscextract.service.jfr.CompressionBlockEvent;
+import fr.ans.psc.pscextract.service.jfr.PageFetchEvent;
+import fr.ans.psc.pscextract.service.jfr.PageTransformEvent;
+import fr.ans.psc.pscextract.service.jfr.PublishEvent;
+import fr.ans.psc.pscextract.service.metrics.ExtractionMetrics;
+import fr.ans.psc.pscextract.service.normalized.NormalizedLayout;
+import fr.ans.psc.pscextract.service.normalized.NormalizedWriter;
+import fr.ans.psc.pscextract.service.profile.ExtractProfile;
+import fr.ans.psc.pscextract.service.profile.ExtractProfiles;
+import fr.ans.psc.pscextract.service.profile.ProfileWriter;
+import fr.ans.psc.pscextract.service.progress.ExtractionProgress;
+import fr.ans.psc.pscextract.service.snapshot.PageSnapshots;
+import fr.ans.psc.pscextract.service.statistics.ExtractStatistics;
+import fr.ans.psc.pscextract.service.sync.BlockChecksums;
+import fr.ans.psc.pscextract.service.utils.ChannelRingWriter;
 import fr.ans.psc.pscextract.service.utils.CloneUtil;
+import fr.ans.psc.pscextract.service.utils.CountingOutputStream;
+import fr.ans.psc.pscextract.service.utils.DigestingOutputStream;
+import fr.ans.psc.pscextract.service.utils.ExtractWriter;
+import fr.ans.psc.pscextract.service.utils.ExternalSort;
+import fr.ans.psc.pscextract.service.utils.ExtractRowOrder;
 import fr.ans.psc.pscextract.service.utils.FileNamesUtil;
+import fr.ans.psc.pscextract.service.utils.FingerprintSet;
+import fr.ans.psc.pscextract.service.utils.TreeHash;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StreamUtils;
 import org.springframework.web.client.HttpStatusCodeException;
@@ -37,6 +72,8 @@ import java.math.BigDecimal;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
@@ -45,6 +82,7 @@ import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.function.IntConsumer;
 
 @Service
 public class TransformationService {
@@ -66,27 +104,115 @@ public class TransformationService {
     @Value("${working.directory}")
     private String workingDirectory;
 
+    @Value("${extract.sync.block.size}")
+    private int syncBlockSize;
+
+    @Value("${extract.fetch.prefetch.pages}")
+    private int prefetchPages;
+
+    @Value("${extract.fetch.model}")
+    private String fetchModel;
+
+    @Value("${extract.dedup.expected.ps}")
+    private int expectedPsCount;
+
+    @Value("${extract.writer.mode}")
+    private String writerMode;
+
+    @Value("${extract.writer.buffer.kb}")
+    private int writerBufferKb;
+
+    @Value("${extract.writer.buffer.count}")
+    private int writerBufferCount;
+
+    @Value("${extract.writer.force}")
+    private boolean writerForce;
+
+    @Value("${extract.sort.enabled}")
+    private boolean sortEnabled;
+
+    @Value("${extract.sort.run.mb}")
+    private int sortRunMb;
+
+    @Value("${extract.treehash.chunk.kb}")
+    private int treeHashChunkKb;
+
+    @Value("${extract.treehash.threads}")
+    private int treeHashThreads;
+
+    @Value("${extract.statistics.hll.precision}")
+    private int statisticsHllPrecision;
+
+    @Value("${extract.statistics.max.codes}")
+    private int statisticsMaxCodes;
+
     private String extractTime = "197001010001";
 
+    @Autowired
+    private FetchThrottle fetchThrottle;
+
+    @Autowired
+    private ExtractionProgress progress;
+
+    @Autowired
+    private ExtractionMetrics metrics;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private ResponseSizeInterceptor responseSizeInterceptor;
+
+    @Autowired
+    private ExtractCatalog extractCatalog;
+
+    @Autowired
+    private MemoryBudget memoryBudget;
+
+    @Autowired
+    private ExtractProfiles extractProfiles;
+
+    @Autowired
+    private PageSnapshots pageSnapshots;
+
+    @Autowired
+    private NormalizedLayout normalizedLayout;
+
     public String getLinkString(String id) {
         if (id.isEmpty()) {
             return "";
         }
-        switch (id.charAt(0)) {
+        return id + ',' + getIdType(id) + ',' + '1';
+    }
+
+    /**
+     * @param id a non empty national id
+     * @return the id type given by its first character
+     */
+    public String getIdType(String id) {
+        return getIdType(id.charAt(0));
+    }
+
+    /**
+     * @param idPrefix the first character of a national id
+     * @return the id type it gives
+     */
+    public static String getIdType(char idPrefix) {
+        switch (idPrefix) {
             case ('1'):
-                // if (s.charAt(1) == '0') return s+','+"MSSante"+','+'1';
-                return id + ',' + "ADELI" + ',' + '1';
+                // if (s.charAt(1) == '0') return "MSSante";
+                return "ADELI";
             case ('3'):
-                return id + ',' + "FINESS" + ',' + '1';
+                return "FINESS";
             case ('4'):
-                return id + ',' + "SIREN" + ',' + '1';
+                return "SIREN";
             case ('5'):
-                return id + ',' + "SIRET" + ',' + '1';
+                return "SIRET";
             case ('6'):
             case ('8'):
-                return id + ',' + "RPPS" + ',' + '1';
+                return "RPPS";
             default:
-                return id + ',' + "ADELI" + ',' + '1';
+                return "ADELI";
         }
     }
 
@@ -117,7 +243,11 @@ public class TransformationService {
     }
 
     public String getFileNameWithExtension(String fileExtension) {
-        return extractName + "_" + extractTime + fileExtension;
+        return getFileName(extractName, fileExtension);
+    }
+
+    private String getFileName(String baseName, String fileExtension) {
+        return baseName + "_" + extractTime + fileExtension;
     }
 
     public ArrayList<Ps> unwind(List<Ps> psList) {
@@ -250,155 +380,845 @@ public class TransformationService {
      * Beware the broken naming : this method yields a ZIP archive !
      * 
      * @param extractionController
-     * @return
+     * @return the run outcome, {@link ExtractionResult.Status#UNCHANGED} when the data entry is identical to the
+     * current extract's one, in which case the current extract is kept and nothing is published.
      * @throws IOException 
      */
-    public File extractToCsv(ExtractionController extractionController) throws IOException {
+    public ExtractionResult extractToCsv(ExtractionController extractionController) throws IOException {
+        long phaseStartNanos = System.nanoTime();
+        // When replaying, the pages come from a snapshot, with its page size
+        int pageSize = pageSnapshots.startRun(extractionController.getApiBaseUrl(),
+                extractionController.getPageSize());
         File tempExtractFile = File.createTempFile("tempExtract", "tmp");
-        BufferedWriter bw = Files.newBufferedWriter(tempExtractFile.toPath(), StandardCharsets.UTF_8);
-        log.info("BufferedWriter initialized");
+        // The data entry is digested as it is written, so that we know whether it changed before zipping anything.
+        RunManifest manifest = newRunManifest(pageSize);
+        MessageDigest extractDigester = newSha256Digest();
+        // Sorted rows are digested as they are merged
+        ExtractWriter bw = openExtractWriter(tempExtractFile.toPath(), sortEnabled ? null : extractDigester);
+        log.info("Extract writer initialized ({})", writerMode);
+        // Each profile is written from the rows of the full extract, without fetching the pages again
+        List<ProfileWriter> profileWriters = openProfileWriters();
+        NormalizedWriter normalizedWriter = normalizedLayout.isEnabled() ? openNormalizedWriter() : null;
+        ExtractStatistics statistics = new ExtractStatistics(statisticsHllPrecision, statisticsMaxCodes);
 
         String header = getCsvHeader();
         bw.write(header);
+        for (ProfileWriter profileWriter : profileWriters) {
+            profileWriter.writeHeader(header);
+        }
+        if (normalizedWriter != null) {
+            normalizedWriter.writeHeaders(header);
+        }
         log.info("Header written");
 
         setExtractionTime();
 
-        int page = 0;
-        List<Ps> responsePsList;
-        List<Ps> tempPsList;
-
         log.info("Starting extraction at " + extractionController.getApiBaseUrl());
 
         try {
-            BigDecimal size = BigDecimal.valueOf(extractionController.getPageSize());
-            List<Ps> response = extractionController.getPsApi().getPsByPage(BigDecimal.valueOf(page), size);
-            assert !response.isEmpty();
-            log.debug("number of Ps : {}", response.size());
-            log.debug("Page " + page + " of size " + size + " received");
-            boolean outOfPages = false;
-
-            do {
-                responsePsList = response;
-                tempPsList = unwind(responsePsList);
-
-                for (Ps ps : tempPsList) {
-                    for (String id : ps.getIds()) {
-                        bw.write(transformPsToLine(ps, id));
+            PageRangeOutcome outcome = writePages(extractionController, pageSize, 0, Integer.MAX_VALUE, bw,
+                    profileWriters, normalizedWriter, statistics, manifest, () -> {});
+            pageSnapshots.finishRun(outcome == PageRangeOutcome.OUT_OF_PAGES);
+            switch (outcome) {
+                case CANCELLED:
+                    deleteTempFile(tempExtractFile);
+                    deleteProfileFiles(profileWriters);
+                    deleteNormalizedFiles(normalizedWriter);
+                    return ExtractionResult.cancelled();
+                case NO_PAGES:
+                    log.error("No pages found");
+                    // fall through
+                case FAILED:
+                    log.info("Extraction failed, exiting without replacing the extract file");
+                    deleteTempFile(tempExtractFile);
+                    deleteProfileFiles(profileWriters);
+                    deleteNormalizedFiles(normalizedWriter);
+                    return ExtractionResult.failed();
+                default:
+                    break;
+            }
+        } catch (IOException | RuntimeException e) {
+            // the rows written so far are incomplete, publishing them would be worse than keeping the last extract
+            log.info("Extraction failed, exiting without replacing the extract file");
+            pageSnapshots.finishRun(false);
+            deleteTempFile(tempExtractFile);
+            deleteProfileFiles(profileWriters);
+            deleteNormalizedFiles(normalizedWriter);
+            throw e;
+        } finally {
+            bw.close();
+            for (ProfileWriter profileWriter : profileWriters) {
+                profileWriter.close();
+            }
+            if (normalizedWriter != null) {
+                normalizedWriter.close();
+            }
+            log.info("Extract writer closed");
+        }
+
+        String extractDigest = toHexString(extractDigester.digest());
+        metrics.sha256Digested(bw.getDigestNanos());
+        ExtractionResult result = publishExtract(extractionController, tempExtractFile, extractDigest, manifest,
+                statistics, phaseStartNanos);
+        publishProfiles(extractionController, profileWriters, manifest);
+        if (normalizedWriter != null) {
+            publishNormalized(extractionController, normalizedWriter, manifest);
+        }
+        return result;
+    }
+
+    private List<ProfileWriter> openProfileWriters() throws IOException {
+        List<ProfileWriter> profileWriters = new ArrayList<>();
+        for (ExtractProfile profile : extractProfiles.getProfiles()) {
+            Path profileFile = File.createTempFile("tempExtract-" + profile.getName(), "tmp").toPath();
+            MessageDigest profileDigester = newSha256Digest();
+            profileWriters.add(new ProfileWriter(profile, extractProfiles.getBaseName(profile), profileFile,
+                    profileDigester, openExtractWriter(profileFile, profileDigester, count -> {})));
+        }
+        return profileWriters;
+    }
+
+    private NormalizedWriter openNormalizedWriter() throws IOException {
+        List<NormalizedWriter.Part> parts = new ArrayList<>();
+        for (String partName : NORMALIZED_PARTS) {
+            Path partFile = File.createTempFile("tempExtract-" + NormalizedLayout.NAME + "-" + partName, "tmp")
+                    .toPath();
+            MessageDigest partDigester = newSha256Digest();
+            parts.add(new NormalizedWriter.Part(partName, partFile, partDigester,
+                    openExtractWriter(partFile, partDigester, count -> {})));
+        }
+        return new NormalizedWriter(parts.get(0), parts.get(1), parts.get(2));
+    }
+
+    private void deleteNormalizedFiles(NormalizedWriter normalizedWriter) {
+        if (normalizedWriter != null) {
+            for (NormalizedWriter.Part part : normalizedWriter.getParts()) {
+                deleteTempFile(part.getFile().toFile());
+            }
+        }
+    }
+
+    private void deleteProfileFiles(List<ProfileWriter> profileWriters) {
+        for (ProfileWriter profileWriter : profileWriters) {
+            deleteTempFile(profileWriter.getFile().toFile());
+        }
+    }
+
+    /**
+     * Outcome of {@link #writePages}.
+     */
+    public enum PageRangeOutcome {
+        /**
+         * The last page of the range was written.
+         */
+        END_OF_RANGE,
+        /**
+         * The API has no more pages, the pages before were written.
+         */
+        OUT_OF_PAGES,
+        /**
+         * The API has no pages from the first one of the range.
+         */
+        NO_PAGES,
+        FAILED,
+        CANCELLED
+    }
+
+    /**
+     * @return a manifest of a run starting now
+     */
+    public RunManifest newRunManifest(int pageSize) {
+        RunManifest manifest = new RunManifest();
+        manifest.setStartedAt(Instant.now());
+        manifest.setPageSize(pageSize);
+        manifest.setConcurrency(1);
+        manifest.setPrefetchPages(prefetchPages);
+        manifest.setMemoryBudgetBytes(memoryBudget.getCapacityBytes());
+        return manifest;
+    }
+
+    /**
+     * @param digest digest of what is written, null for none
+     * @return a writer of the extract.writer.mode
+     */
+    public ExtractWriter openExtractWriter(Path file, MessageDigest digest) throws IOException {
+        return openExtractWriter(file, digest, progress::bytesWritten);
+    }
+
+    private ExtractWriter openExtractWriter(Path file, MessageDigest digest, IntConsumer bytesWritten)
+            throws IOException {
+        if (WRITER_MODE_RING.equals(writerMode)) {
+            // Rows are encoded off-heap while a thread of the writer digests and writes the previous buffers
+            ChannelRingWriter ringWriter = new ChannelRingWriter(file, writerBufferKb * 1024, writerBufferCount,
+                    writerForce, digest, bytesWritten);
+            return new ExtractWriter(ringWriter, ringWriter::getDigestNanos);
+        }
+        OutputStream out = new CountingOutputStream(Files.newOutputStream(file), bytesWritten);
+        if (digest == null) {
+            return new ExtractWriter(new BufferedWriter(new OutputStreamWriter(out,
+                    StandardCharsets.UTF_8.newEncoder())), () -> 0);
+        }
+        DigestingOutputStream digestingStream = new DigestingOutputStream(out, digest);
+        return new ExtractWriter(new BufferedWriter(new OutputStreamWriter(digestingStream,
+                StandardCharsets.UTF_8.newEncoder())), digestingStream::getDigestNanos);
+    }
+
+    /**
+     * Fetches the pages from firstPage to endPage excluded, or to the last one, and writes their rows.
+     *
+     * @param afterPage called once each page is written
+     */
+    public PageRangeOutcome writePages(ExtractionController extractionController, int pageSize, int firstPage,
+                                       int endPage, Writer bw, RunManifest manifest, Runnable afterPage)
+            throws IOException {
+        return writePages(extractionController, pageSize, firstPage, endPage, bw, Collections.emptyList(), null,
+                null, manifest, afterPage);
+    }
+
+    /**
+     * As {@link #writePages(ExtractionController, int, int, int, Writer, RunManifest, Runnable)}, also writing the
+     * rows of the profiles and of the normalized layout, and gathering the statistics of the extract.
+     *
+     * @param normalizedWriter null for no normalized layout
+     * @param statistics       null for no statistics
+     */
+    private PageRangeOutcome writePages(ExtractionController extractionController, int pageSize, int firstPage,
+                                        int endPage, Writer bw, List<ProfileWriter> profileWriters,
+                                        NormalizedWriter normalizedWriter, ExtractStatistics statistics,
+                                        RunManifest manifest, Runnable afterPage) throws IOException {
+        int page = firstPage;
+        BigDecimal size = BigDecimal.valueOf(pageSize);
+        memoryBudget.resetPeak();
+        FingerprintSet seenPsIds = new FingerprintSet(expectedPsCount);
+        CompactRowEncoder encoder = new CompactRowEncoder();
+        fetchThrottle.reset();
+        PagePrefetcher prefetcher = new PagePrefetcher(pageNumber -> {
+            fetchThrottle.beforePageFetch();
+            return fetchPage(extractionController, pageNumber, size);
+        }, memoryBudget, pageSize, prefetchPages, firstPage, endPage);
+        try {
+            PagePrefetcher.Page response;
+            try {
+                response = prefetcher.next();
+            } catch (HttpStatusCodeException e) {
+                log.warn("Page " + page + " not found : " + e.getMessage());
+                return e.getStatusCode() == HttpStatus.GONE ? PageRangeOutcome.NO_PAGES : PageRangeOutcome.FAILED;
+            } catch (RuntimeException e) {
+                log.error("Page " + page + " could not be fetched", e);
+                return PageRangeOutcome.FAILED;
+            }
+            while (response != null) {
+                if (Thread.currentThread().isInterrupted()) {
+                    log.info("Extraction cancelled at page " + page + ", exiting without replacing the extract file");
+                    return PageRangeOutcome.CANCELLED;
+                }
+                int pagePsCount = response.getPsCount();
+                progress.pageReceived(page, pagePsCount);
+                log.debug("Page " + page + " of size " + size + " received, writing to file...");
+                PageTransformEvent transformEvent = new PageTransformEvent();
+                transformEvent.begin();
+                // Each Ps is unwound right before its rows are written, so that the page is the only thing held
+                int pageUnwoundCount = 0;
+                int pageRowCount = 0;
+                int pageDuplicateCount = 0;
+                if (response.getCompactPsList() != null) {
+                    // the compact Ps are encoded situation by situation, with the rows the unwound Ps would give
+                    for (CompactPs compactPs : response.getCompactPsList()) {
+                        if (compactPs.getId() != null && !seenPsIds.add(compactPs.getId())) {
+                            log.debug("Ps {} already extracted, skipped", compactPs.getId());
+                            pageDuplicateCount++;
+                            continue;
+                        }
+                        encoder.reset(compactPs);
+                        boolean firstSituation = true;
+                        boolean firstOfPs = true;
+                        while (encoder.nextSituation()) {
+                            if (statistics != null) {
+                                statistics.situationWritten(encoder, firstSituation);
+                            }
+                            firstSituation = false;
+                            int idCount = encoder.getIdCount();
+                            for (int id = 0; id < idCount; id++) {
+                                int length = encoder.encodeRow(id);
+                                String idType = encoder.getIdType(id);
+                                bw.write(encoder.getRow(), 0, length);
+                                manifest.rowWritten(idType);
+                                if (!profileWriters.isEmpty() || normalizedWriter != null && id == 0) {
+                                    String line = new String(encoder.getRow(), 0, length);
+                                    for (ProfileWriter profileWriter : profileWriters) {
+                                        profileWriter.write(encoder.getProfessionCode(), idType, line);
+                                    }
+                                    if (normalizedWriter != null && id == 0) {
+                                        normalizedWriter.write(encoder.getPsId(), idType, line, firstOfPs);
+                                        firstOfPs = false;
+                                    }
+                                }
+                            }
+                            progress.rowsWritten(idCount);
+                            pageUnwoundCount++;
+                            pageRowCount += idCount;
+                        }
+                    }
+                } else {
+                    for (Ps responsePs : response.getPsList()) {
+                        // offset pagination over a collection being updated can serve a Ps on two pages
+                        if (responsePs.getId() != null && !seenPsIds.add(responsePs.getId())) {
+                            log.debug("Ps {} already extracted, skipped", responsePs.getId());
+                            pageDuplicateCount++;
+                            continue;
+                        }
+                        List<Ps> tempPsList = unwind(Collections.singletonList(responsePs));
+                        pageUnwoundCount += tempPsList.size();
+                        boolean firstOfPs = true;
+                        for (Ps ps : tempPsList) {
+                            if (statistics != null) {
+                                statistics.situationWritten(ps, ps == tempPsList.get(0));
+                            }
+                            boolean firstOfUnwound = true;
+                            for (String id : ps.getIds()) {
+                                String line = transformPsToLine(ps, id);
+                                String idType = getIdType(id);
+                                bw.write(line);
+                                manifest.rowWritten(idType);
+                                for (ProfileWriter profileWriter : profileWriters) {
+                                    profileWriter.write(ps, idType, line);
+                                }
+                                // The rows of the other ids only differ by their first three columns
+                                if (normalizedWriter != null && firstOfUnwound) {
+                                    normalizedWriter.write(ps, idType, line, firstOfPs);
+                                    firstOfPs = false;
+                                }
+                                firstOfUnwound = false;
+                            }
+                            progress.rowsWritten(ps.getIds().size());
+                            pageRowCount += ps.getIds().size();
+                            log.trace("Ps " + ps.getId() + " transformed and written");
+                        }
                     }
-                    log.trace("Ps " + ps.getId() + " transformed and written");
                 }
+                progress.rowsUnwound(pageUnwoundCount);
+                metrics.pageProcessed(pagePsCount, pageUnwoundCount, pageRowCount);
+                manifest.pageProcessed(pagePsCount - pageDuplicateCount, pageUnwoundCount);
+                if (pageDuplicateCount > 0) {
+                    metrics.duplicatesSkipped(pageDuplicateCount);
+                    manifest.duplicatesSkipped(pageDuplicateCount);
+                }
+                prefetcher.release(response);
+                transformEvent.end();
+                if (transformEvent.shouldCommit()) {
+                    transformEvent.page = page;
+                    transformEvent.psCount = pagePsCount;
+                    transformEvent.unwoundCount = pageUnwoundCount;
+                    transformEvent.rowCount = pageRowCount;
+                    transformEvent.commit();
+                }
+                afterPage.run();
                 page++;
                 try {
-                    response = extractionController.getPsApi().getPsByPage(BigDecimal.valueOf(page), size);
-                    log.debug("Page " + page + " of size " + size + " received, writing to file...");
+                    response = prefetcher.next();
                 } catch (HttpStatusCodeException e) {
                     log.warn("Out of pages: " + e.getMessage());
                     if (e.getStatusCode() != HttpStatus.GONE) {
-                        log.info("Extraction failed, exiting without replacing the extract file");
-                        if (tempExtractFile.delete()) {
-                            log.info("Temp file at " + tempExtractFile.getAbsolutePath() + " deleted");
-                        } else {
-                            log.warn("Temp file at " + tempExtractFile.getAbsolutePath() + " not deleted");
-                        }
-                        return null;
+                        return PageRangeOutcome.FAILED;
                     }
-                    outOfPages = true;
-                } catch (Exception e) {
-                    log.error("exception raised : ", e);
+                    return PageRangeOutcome.OUT_OF_PAGES;
+                } catch (RuntimeException e) {
+                    // the page is missing, publishing the extract without it would be worse than keeping the last one
+                    log.error("Page " + page + " could not be fetched", e);
+                    return PageRangeOutcome.FAILED;
                 }
-            } while (!outOfPages);
-        } catch (HttpStatusCodeException e) {
-            log.error("No pages found :" + e.getMessage());
-            log.info("Extraction failed, exiting without replacing the extract file");
-            if (tempExtractFile.delete()) {
-                log.info("Temp file at " + tempExtractFile.getAbsolutePath() + " deleted");
-            } else {
-                log.warn("Temp file at " + tempExtractFile.getAbsolutePath() + " not deleted");
             }
-            return null;
-        } catch (Exception e) {
-            log.error("exception raised : ", e);
+            return PageRangeOutcome.END_OF_RANGE;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.info("Extraction cancelled at page " + page + ", exiting without replacing the extract file");
+            return PageRangeOutcome.CANCELLED;
         } finally {
-            bw.close();
-            log.info("BufferedWriter closed");
+            prefetcher.close();
+            manifest.setPeakHeldBytes(Math.max(manifest.getPeakHeldBytes(), memoryBudget.getPeakBytes()));
+            if (manifest.getDuplicatePsCount() > 0) {
+                log.warn(manifest.getDuplicatePsCount() + " Ps served more than once were skipped");
+            }
+            log.info("Pages held at most " + memoryBudget.getPeakBytes() / 1024 + " KiB of the "
+                    + memoryBudget.getCapacityBytes() / 1024 + " KiB memory budget");
+        }
+    }
+
+    /**
+     * Concatenates the rows of the shards of a distributed extraction, in order, after the header, then publishes them
+     * as {@link #extractToCsv} does.
+     *
+     * @param phaseStartNanos start of the fetch phase
+     */
+    public ExtractionResult publishShards(ExtractionController extractionController, List<Path> shardFiles,
+                                          RunManifest manifest, long phaseStartNanos) throws IOException {
+        File tempExtractFile = File.createTempFile("tempExtract", "tmp");
+        MessageDigest extractDigester = newSha256Digest();
+        DigestingOutputStream digestingStream = new DigestingOutputStream(
+                Files.newOutputStream(tempExtractFile.toPath()), extractDigester);
+        try (OutputStream out = new BufferedOutputStream(digestingStream, ZIP_OUTPUT_BUFFER_SIZE)) {
+            out.write(getCsvHeader().getBytes(StandardCharsets.UTF_8));
+            for (Path shardFile : shardFiles) {
+                Files.copy(shardFile, out);
+            }
+        }
+        log.info(shardFiles.size() + " shards merged");
+        metrics.sha256Digested(digestingStream.getDigestNanos());
+        return publishExtract(extractionController, tempExtractFile, toHexString(extractDigester.digest()), manifest,
+                null, phaseStartNanos);
+    }
+
+    /**
+     * Compares the data entry with the current extract's, then zips it with its digest and manifest and publishes
+     * the archive with its block checksums and statistics, unless it is unchanged.
+     *
+     * @param statistics      null for no statistics sidecar
+     * @param phaseStartNanos start of the fetch phase
+     */
+    private ExtractionResult publishExtract(ExtractionController extractionController, File tempExtractFile,
+                                            String extractDigest, RunManifest manifest, ExtractStatistics statistics,
+                                            long phaseStartNanos) throws IOException {
+        manifest.phaseDone("fetch", (System.nanoTime() - phaseStartNanos) / 1_000_000);
+        phaseStartNanos = endPhase(ExtractionProgress.Phase.FETCH, phaseStartNanos);
+        if (sortEnabled) {
+            progress.startPhase(ExtractionProgress.Phase.SORT);
+            extractDigest = sortDataEntry(tempExtractFile, new ExtractRowOrder());
+            manifest.phaseDone("sort", (System.nanoTime() - phaseStartNanos) / 1_000_000);
+            phaseStartNanos = endPhase(ExtractionProgress.Phase.SORT, phaseStartNanos);
+        }
+        CatalogEntry currentEntry = extractCatalog.getLatest();
+        if (currentEntry != null && extractDigest.equalsIgnoreCase(currentEntry.getSha256())) {
+            File currentExtract = currentEntry.getFile();
+            log.info("Extract content unchanged since " + currentExtract.getName() + " (sha256 " + extractDigest
+                    + "), keeping it and skipping publication");
+            deleteTempFile(tempExtractFile);
+            return ExtractionResult.unchanged(currentExtract);
+        }
+
+        progress.startPhase(ExtractionProgress.Phase.COMPRESS);
+        log.info("Zipping up the extract file...");
+        metrics.blockChecksumsComputed(writeArchive(extractionController, extractName, tempExtractFile, extractDigest,
+                manifest, phaseStartNanos));
+        deleteTempFile(tempExtractFile);
+        if (statistics != null) {
+            writeStatistics(extractionController, extractName, statistics);
+        }
+        metrics.compressed(progress.getBytesWritten(), progress.getBytesCompressed());
+        phaseStartNanos = endPhase(ExtractionProgress.Phase.COMPRESS, phaseStartNanos);
+
+        progress.startPhase(ExtractionProgress.Phase.PUBLISH);
+        PublishEvent publishEvent = new PublishEvent();
+        publishEvent.begin();
+        File publishedExtract = statistics == null
+                ? moveToFilesDirectory(extractionController, extractName, BlockChecksums.FILE_EXTENSION)
+                : moveToFilesDirectory(extractionController, extractName, BlockChecksums.FILE_EXTENSION,
+                        ExtractStatistics.FILE_EXTENSION);
+        metrics.moved(System.nanoTime() - phaseStartNanos);
+        publishEvent.extract = publishedExtract.getName();
+        publishEvent.fileCount = statistics == null ? 2 : 3;
+        publishEvent.commit();
+        endPhase(ExtractionProgress.Phase.PUBLISH, phaseStartNanos);
+
+        extractCatalog.published(publishedExtract, extractDigest, manifest.getRowCount());
+        return ExtractionResult.published(publishedExtract);
+    }
+
+    /**
+     * Publishes the archive of each profile whose data entry changed since its current archive.
+     */
+    private void publishProfiles(ExtractionController extractionController, List<ProfileWriter> profileWriters,
+                                 RunManifest manifest) throws IOException {
+        for (ProfileWriter profileWriter : profileWriters) {
+            long startNanos = System.nanoTime();
+            String baseName = profileWriter.getBaseName();
+            File tempProfileFile = profileWriter.getFile().toFile();
+            String profileDigest = toHexString(profileWriter.digest());
+            metrics.sha256Digested(profileWriter.getDigestNanos());
+            if (sortEnabled) {
+                // The columns of a profile may not include the national id, its rows are sorted as a whole
+                profileDigest = sortDataEntry(tempProfileFile, Comparator.naturalOrder());
+            }
+            CatalogEntry currentEntry = extractCatalog.getLatest(baseName);
+            if (currentEntry != null && profileDigest.equalsIgnoreCase(currentEntry.getSha256())) {
+                log.info("Profile " + profileWriter.getProfile().getName() + " unchanged since "
+                        + currentEntry.getName() + ", keeping it");
+                deleteTempFile(tempProfileFile);
+                continue;
+            }
+            RunManifest profileManifest = manifest.forProfile(profileWriter.getProfile().getName(),
+                    profileWriter.getRows());
+            writeArchive(extractionController, baseName, tempProfileFile, profileDigest, profileManifest, startNanos);
+            deleteTempFile(tempProfileFile);
+            File publishedProfile = moveToFilesDirectory(extractionController, baseName,
+                    BlockChecksums.FILE_EXTENSION);
+            extractCatalog.published(publishedProfile, profileDigest, profileManifest.getRowCount());
         }
+    }
+
+    /**
+     * Publishes the archive of the normalized layout if one of its data entries changed since its current archive.
+     * Its digest is the SHA-256 of the hex SHA-256 of each data entry, in order.
+     */
+    private void publishNormalized(ExtractionController extractionController, NormalizedWriter normalizedWriter,
+                                   RunManifest manifest) throws IOException {
+        long startNanos = System.nanoTime();
+        String baseName = normalizedLayout.getBaseName();
+        MessageDigest normalizedDigester = newSha256Digest();
+        for (NormalizedWriter.Part part : normalizedWriter.getParts()) {
+            String partDigest = toHexString(part.getDigest().digest());
+            metrics.sha256Digested(part.getDigestNanos());
+            if (sortEnabled) {
+                partDigest = sortDataEntry(part.getFile().toFile(), Comparator.naturalOrder());
+            }
+            normalizedDigester.update(partDigest.getBytes(StandardCharsets.US_ASCII));
+        }
+        String normalizedDigest = toHexString(normalizedDigester.digest());
+        CatalogEntry currentEntry = extractCatalog.getLatest(baseName);
+        if (currentEntry != null && normalizedDigest.equalsIgnoreCase(currentEntry.getSha256())) {
+            log.info("Normalized layout unchanged since " + currentEntry.getName() + ", keeping it");
+            deleteNormalizedFiles(normalizedWriter);
+            return;
+        }
+        RunManifest normalizedManifest = manifest.forProfile(NormalizedLayout.NAME, normalizedWriter.getRows());
+        String zipFileName = getFileName(baseName, extractionController.getZIP_EXTENSION());
+        try (ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(
+                FileNamesUtil.getFilePath(extractionController.getWorkingDirectory(), zipFileName)),
+                ZIP_OUTPUT_BUFFER_SIZE))) {
+            long bytesUncompressed = 0;
+            long bytesCompressed = 0;
+            for (NormalizedWriter.Part part : normalizedWriter.getParts()) {
+                ZipEntry partEntry = new ZipEntry(getFileName(baseName,
+                        "_" + part.getName() + extractionController.getTXT_EXTENSION()));
+                zos.putNextEntry(partEntry);
+                Files.copy(part.getFile(), zos);
+                zos.closeEntry();
+                bytesUncompressed += partEntry.getSize();
+                bytesCompressed += partEntry.getCompressedSize();
+                log.info("Normalized " + part.getName() + " : " + part.getRowCount() + " rows, "
+                        + partEntry.getSize() / 1024 + " KiB");
+            }
+            normalizedManifest.setBytesUncompressed(bytesUncompressed);
+            normalizedManifest.setBytesCompressed(bytesCompressed);
+
+            writeDigestEntry(zos, getFileName(baseName, DIGEST_FILE_EXTENSION), normalizedDigest);
 
+            normalizedManifest.setExtract(zipFileName);
+            normalizedManifest.phaseDone("compress", (System.nanoTime() - startNanos) / 1_000_000);
+            normalizedManifest.setFinishedAt(Instant.now());
+            writeManifestEntry(zos, getFileName(baseName, MANIFEST_FILE_EXTENSION), normalizedManifest);
+
+            zos.finish();
+        }
+        deleteNormalizedFiles(normalizedWriter);
+        File publishedNormalized = moveToFilesDirectory(extractionController, baseName);
+        extractCatalog.published(publishedNormalized, normalizedDigest, normalizedManifest.getRowCount());
+    }
+
+    /**
+     * Sorts the rows of a data entry after its header, in place.
+     *
+     * @return the digest of the sorted data entry
+     */
+    private String sortDataEntry(File tempFile, Comparator<String> order) throws IOException {
+        Path sortedFile = Files.createTempFile(Path.of(workingDirectory), "sorted", ".tmp");
+        MessageDigest digester = newSha256Digest();
+        DigestingOutputStream digestingStream = new DigestingOutputStream(Files.newOutputStream(sortedFile),
+                digester);
+        try {
+            new ExternalSort(Path.of(workingDirectory), sortRunMb * 1024L * 1024L, SORT_MERGE_FAN_IN, order)
+                    .sort(tempFile.toPath(), digestingStream);
+            Files.move(sortedFile, tempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(sortedFile);
+        }
+        metrics.sha256Digested(digestingStream.getDigestNanos());
+        return toHexString(digester.digest());
+    }
+
+    /**
+     * Zips the data entry with its digest and manifest, and writes its block checksums, in the working directory.
+     *
+     * @param phaseStartNanos start of the compress phase
+     * @return the time spent computing block checksums, in nanoseconds
+     */
+    private long writeArchive(ExtractionController extractionController, String baseName, File tempExtractFile,
+                              String extractDigest, RunManifest manifest, long phaseStartNanos) throws IOException {
+        String zipFileName = getFileName(baseName, extractionController.getZIP_EXTENSION());
+        BlockChecksums.Builder blockChecksumsBuilder = new BlockChecksums.Builder(syncBlockSize);
+        long checksumNanos;
         try(
              InputStream fileContent = new FileInputStream(tempExtractFile);
+             TreeHash.Builder treeHashBuilder = new TreeHash.Builder(treeHashChunkKb * 1024, treeHashThreads);
              ZipOutputStream zos = new ZipOutputStream(
-                 new FileOutputStream(
-                     FileNamesUtil.getFilePath(
-                         extractionController.getWorkingDirectory(), 
-                         getFileNameWithExtension(extractionController.getZIP_EXTENSION())
-                     )
+                 new CountingOutputStream(
+                     new BufferedOutputStream(
+                         new FileOutputStream(
+                             FileNamesUtil.getFilePath(extractionController.getWorkingDirectory(), zipFileName)
+                         ),
+                         ZIP_OUTPUT_BUFFER_SIZE
+                     ),
+                     progress::compressedBytesWritten
                  )
              );
            ) {
-          
-          log.info("Zipping up the extract file...");
 
-          MessageDigest extractEntryDigester = writeExtractEntry(extractionController, zos, fileContent);
+          checksumNanos = writeExtractEntry(zos, getFileName(baseName, extractionController.getTXT_EXTENSION()),
+                  fileContent, blockChecksumsBuilder, treeHashBuilder, manifest);
+
+          writeDigestEntry(zos, getFileName(baseName, DIGEST_FILE_EXTENSION), extractDigest);
 
-          writeDigestEntry(zos, extractEntryDigester);
+          TreeHash treeHash = treeHashBuilder.build();
+          log.info("Tree hash of " + treeHash.getChunkCount() + " chunks computed, the compression waited "
+                  + treeHashBuilder.getWaitNanos() / 1_000_000 + " ms for it");
+          writeTreeHashEntry(zos, getFileName(baseName, TreeHash.FILE_EXTENSION), treeHash);
+
+          manifest.setExtract(zipFileName);
+          manifest.phaseDone("compress", (System.nanoTime() - phaseStartNanos) / 1_000_000);
+          manifest.setFinishedAt(Instant.now());
+          writeManifestEntry(zos, getFileName(baseName, MANIFEST_FILE_EXTENSION), manifest);
 
           zos.finish();
 
-        } catch (NoSuchAlgorithmException ex) {
-          throw new RuntimeException("No SHA256 digest support in the current java runtime - please fix this."+ex.getMessage(),ex);
         }
 
-        if (tempExtractFile.delete()) {
-            log.info("Temp file at " + tempExtractFile.getAbsolutePath() + " deleted");
-        } else {
-            log.warn("Temp file at " + tempExtractFile.getAbsolutePath() + " not deleted");
+        try (OutputStream blockChecksumsContent = new FileOutputStream(FileNamesUtil.getFilePath(
+                extractionController.getWorkingDirectory(), getFileName(baseName, BlockChecksums.FILE_EXTENSION)))) {
+            blockChecksumsBuilder
+                    .build(zipFileName, extractDigest)
+                    .write(blockChecksumsContent);
+        }
+        return checksumNanos;
+    }
+
+    /**
+     * Writes the statistics sidecar of an archive in the working directory.
+     */
+    private void writeStatistics(ExtractionController extractionController, String baseName,
+                                 ExtractStatistics statistics) throws IOException {
+        statistics.setExtract(getFileName(baseName, extractionController.getZIP_EXTENSION()));
+        objectMapper.writerWithDefaultPrettyPrinter().writeValue(new File(FileNamesUtil.getFilePath(
+                extractionController.getWorkingDirectory(), getFileName(baseName, ExtractStatistics.FILE_EXTENSION))),
+                statistics);
+        log.info("Statistics of " + statistics.getPsCount() + " Ps written, about "
+                + statistics.getDistinctStructures().getEstimate() + " distinct structures");
+    }
+
+    /**
+     * Moves an archive and its sidecars from the working directory to the files directory.
+     *
+     * @param sidecarExtensions the extensions of the sidecars of the archive, block checksums or statistics
+     * @return the published archive
+     */
+    private File moveToFilesDirectory(ExtractionController extractionController, String baseName,
+                                      String... sidecarExtensions) throws IOException {
+        String zipFileName = getFileName(baseName, extractionController.getZIP_EXTENSION());
+        // The sidecars go first, so that they are there as soon as the extract becomes the latest one.
+        for (String sidecarExtension : sidecarExtensions) {
+            String sidecarFileName = getFileName(baseName, sidecarExtension);
+            Files.move(
+                    Path.of(FileNamesUtil.getFilePath(extractionController.getWorkingDirectory(), sidecarFileName)),
+                    Path.of(FileNamesUtil.getFilePath(extractionController.getFilesDirectory(), sidecarFileName)));
         }
 
         Files.move(
-                Path.of(FileNamesUtil.getFilePath(
-                        extractionController.getWorkingDirectory(),
-                        getFileNameWithExtension(extractionController.getZIP_EXTENSION()))),
-                Path.of(FileNamesUtil.getFilePath(
-                        extractionController.getFilesDirectory(),
-                        getFileNameWithExtension(extractionController.getZIP_EXTENSION()))));
+                Path.of(FileNamesUtil.getFilePath(extractionController.getWorkingDirectory(), zipFileName)),
+                Path.of(FileNamesUtil.getFilePath(extractionController.getFilesDirectory(), zipFileName)));
 
-        log.info("File at " + FileNamesUtil.getFilePath(extractionController.getWorkingDirectory(),
-                getFileNameWithExtension(extractionController.getZIP_EXTENSION()))
-                + " moved to " + FileNamesUtil.getFilePath(extractionController.getFilesDirectory(),
-                getFileNameWithExtension(extractionController.getZIP_EXTENSION())));
+        log.info("File at " + FileNamesUtil.getFilePath(extractionController.getWorkingDirectory(), zipFileName)
+                + " moved to " + FileNamesUtil.getFilePath(extractionController.getFilesDirectory(), zipFileName));
 
-        return FileNamesUtil.getLatestExtract(extractionController.getFilesDirectory(),
-                getFileNameWithExtension(extractionController.getZIP_EXTENSION()));
+        for (String sidecarExtension : sidecarExtensions) {
+            extractCatalog.fileAdded(new File(FileNamesUtil.getFilePath(extractionController.getFilesDirectory(),
+                    getFileName(baseName, sidecarExtension))));
+        }
+        return new File(FileNamesUtil.getFilePath(extractionController.getFilesDirectory(), zipFileName));
     }
 
-  private void writeDigestEntry(final ZipOutputStream zos, MessageDigest extractEntryDigester) throws IOException {
-    ZipEntry digestEntry = new ZipEntry(getFileNameWithExtension(DIGEST_FILE_EXTENSION));
-    zos.putNextEntry(digestEntry);
-    byte[] hash = extractEntryDigester.digest();
-    for(int i=0;i<hash.length;i++){
-      zos.write(String.format("%02x",hash[i]).getBytes());
+  private PagePrefetcher.Page fetchPage(ExtractionController extractionController, int page, BigDecimal size) {
+    PageFetchEvent fetchEvent = new PageFetchEvent();
+    responseSizeInterceptor.takeBytesRead();
+    long start = System.nanoTime();
+    fetchEvent.begin();
+    PagePrefetcher.Page response = null;
+    long responseBytes = 0;
+    try {
+      if (FETCH_MODEL_COMPACT.equals(fetchModel)) {
+        List<CompactPs> compactPsList = fetchCompactPage(extractionController, page, size);
+        responseBytes = responseSizeInterceptor.takeBytesRead();
+        response = PagePrefetcher.Page.compact(page, compactPsList, responseBytes);
+      } else {
+        List<Ps> psList = extractionController.getPsApi().getPsByPage(BigDecimal.valueOf(page), size);
+        responseBytes = responseSizeInterceptor.takeBytesRead();
+        response = new PagePrefetcher.Page(page, psList, responseBytes);
+      }
+      return response;
+    } finally {
+      fetchEvent.end();
+      metrics.pageFetched(System.nanoTime() - start);
+      if (fetchEvent.shouldCommit()) {
+        fetchEvent.page = page;
+        fetchEvent.size = size.intValue();
+        fetchEvent.psCount = response == null ? 0 : response.getPsCount();
+        fetchEvent.bytes = responseBytes;
+        fetchEvent.commit();
+      }
+    }
+  }
+
+  /**
+   * Reads a page of the endpoint of {@link fr.ans.psc.api.PsApi#getPsByPage}, through the RestTemplate of the api
+   * client, into the compact model.
+   */
+  private List<CompactPs> fetchCompactPage(ExtractionController extractionController, int page, BigDecimal size) {
+    String url = extractionController.getApiBaseUrl() + "/v2/ps?page=" + page + "&size=" + size;
+    return extractionController.getRestTemplate().execute(url, HttpMethod.GET,
+            request -> request.getHeaders().setAccept(Collections.singletonList(MediaType.APPLICATION_JSON)),
+            response -> new CompactPsReader().readPage(response.getBody()));
+  }
+
+  private long endPhase(ExtractionProgress.Phase phase, long phaseStartNanos) {
+    long now = System.nanoTime();
+    metrics.phaseDone(phase, now - phaseStartNanos);
+    return now;
+  }
+
+  private void deleteTempFile(File tempExtractFile) {
+    if (tempExtractFile.delete()) {
+      log.info("Temp file at " + tempExtractFile.getAbsolutePath() + " deleted");
+    } else {
+      log.warn("Temp file at " + tempExtractFile.getAbsolutePath() + " not deleted");
     }
+  }
+
+  private void writeManifestEntry(final ZipOutputStream zos, String entryName, RunManifest manifest) throws IOException {
+    ZipEntry manifestEntry = new ZipEntry(entryName);
+    zos.putNextEntry(manifestEntry);
+    zos.write(objectMapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(manifest));
+    zos.closeEntry();
+  }
+
+  private void writeDigestEntry(final ZipOutputStream zos, String entryName, String extractDigest) throws IOException {
+    ZipEntry digestEntry = new ZipEntry(entryName);
+    zos.putNextEntry(digestEntry);
+    zos.write(extractDigest.getBytes());
     zos.closeEntry();
   }
 
-  private MessageDigest writeExtractEntry(ExtractionController extractionController, final ZipOutputStream zos, final InputStream fileContent) throws IOException, NoSuchAlgorithmException {
-    ZipEntry zipEntry = new ZipEntry(getFileNameWithExtension(extractionController.getTXT_EXTENSION()));
+  private void writeTreeHashEntry(final ZipOutputStream zos, String entryName, TreeHash treeHash) throws IOException {
+    ZipEntry treeHashEntry = new ZipEntry(entryName);
+    zos.putNextEntry(treeHashEntry);
+    treeHash.write(zos);
+    zos.closeEntry();
+  }
+
+  /**
+   * @param treeHashBuilder fed the data as it is compressed, its chunks are hashed by threads of its own
+   * @return the time spent computing block checksums, in nanoseconds
+   */
+  long writeExtractEntry(final ZipOutputStream zos, String entryName, final InputStream fileContent,
+                         BlockChecksums.Builder blockChecksumsBuilder, TreeHash.Builder treeHashBuilder,
+                         RunManifest manifest) throws IOException {
+    ZipEntry zipEntry = new ZipEntry(entryName);
     zipEntry.setTime(System.currentTimeMillis());
     zos.putNextEntry(zipEntry);
     byte[] buffer=new byte[4096];
+    long checksumNanos = 0;
+    long offset = 0;
+    CompressionBlockEvent blockEvent = beginCompressionBlock(offset);
     int nbCopied = fileContent.read(buffer);
-    MessageDigest digestEngine=MessageDigest.getInstance("SHA-256");
     while(nbCopied>=0){
       zos.write(buffer, 0, nbCopied);
-      // Why read twice when we can digest on the way.
-      digestEngine.update(buffer, 0, nbCopied);
+      progress.bytesCompressed(nbCopied);
+      offset += nbCopied;
+      if (offset - blockEvent.offset >= COMPRESSION_EVENT_BLOCK_SIZE) {
+        commitCompressionBlock(blockEvent, offset);
+        blockEvent = beginCompressionBlock(offset);
+      }
+      // Why read twice when we can checksum blocks on the way.
+      long start = System.nanoTime();
+      blockChecksumsBuilder.update(buffer, 0, nbCopied);
+      checksumNanos += System.nanoTime() - start;
+      treeHashBuilder.update(buffer, 0, nbCopied);
       nbCopied = fileContent.read(buffer);
     }
     zos.closeEntry();
-    return digestEngine;
+    commitCompressionBlock(blockEvent, offset);
+    // Sizes are set on deflated entries once closed.
+    manifest.setBytesUncompressed(zipEntry.getSize());
+    manifest.setBytesCompressed(zipEntry.getCompressedSize());
+    return checksumNanos;
   }
+
+  private CompressionBlockEvent beginCompressionBlock(long offset) {
+    CompressionBlockEvent blockEvent = new CompressionBlockEvent();
+    blockEvent.offset = offset;
+    // Output bytes are counted as the deflater flushes them to the file, they lag behind the input.
+    blockEvent.bytesOut = progress.getBytesCompressed();
+    blockEvent.begin();
+    return blockEvent;
+  }
+
+  private void commitCompressionBlock(CompressionBlockEvent blockEvent, long offset) {
+    blockEvent.end();
+    if (blockEvent.shouldCommit()) {
+      blockEvent.bytesIn = offset - blockEvent.offset;
+      blockEvent.bytesOut = progress.getBytesCompressed() - blockEvent.bytesOut;
+      blockEvent.commit();
+    }
+  }
+
+  private static MessageDigest newSha256Digest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException ex) {
+      throw new RuntimeException("No SHA256 digest support in the current java runtime - please fix this."+ex.getMessage(),ex);
+    }
+  }
+
+  private static String toHexString(byte[] hash) {
+    StringBuilder sb = new StringBuilder(hash.length * 2);
+    for (byte b : hash) {
+      sb.append(String.format("%02x", b));
+    }
+    return sb.toString();
+  }
+
   private static final String DIGEST_FILE_EXTENSION = ".sha256";
 
+  private static final String MANIFEST_FILE_EXTENSION = ".manifest.json";
+
+  /**
+   * Input bytes covered by each compression block flight recorder event.
+   */
+  private static final int COMPRESSION_EVENT_BLOCK_SIZE = 1024 * 1024;
+
+  /**
+   * The deflater hands its output over in small chunks, buffer them rather than issuing a write for each.
+   */
+  private static final int ZIP_OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * extract.writer.mode writing the data entry through a {@link ChannelRingWriter}, any other mode writes it
+   * through a BufferedWriter.
+   */
+  private static final String WRITER_MODE_RING = "ring";
+
+  /**
+   * extract.fetch.model reading the pages into {@link CompactPs}, any other model deserializes the psc-api-client
+   * model.
+   */
+  private static final String FETCH_MODEL_COMPACT = "compact";
+
+  /**
+   * Sorted runs merged at once, each holding a 64 KiB read buffer.
+   */
+  private static final int SORT_MERGE_FAN_IN = 64;
+
+  /**
+   * Data entries of the normalized layout, in the order of their digests and of the archive.
+   */
+  private static final List<String> NORMALIZED_PARTS = List.of("ps", "structures", "situations");
+
     private String getCsvHeader() {
         return "Type d'identifiant PP|Identifiant PP|Identification nationale PP|Nom de famille|Prénoms|" +
                 "Date de naissance|Code commune de naissance|Code pays de naissance|Lieu de naissance|Code sexe|" +
@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.catalog;
+
+import java.io.File;
+import java.time.LocalDateTime;
+
+/**
+ * A published extract archive, as known by the {@link ExtractCatalog}.
+ */
+public class CatalogEntry {
+
+  private final File file;
+
+  private final LocalDateTime timestamp;
+
+  private final long size;
+
+  private final String sha256;
+
+  private final long rowCount;
+
+  public CatalogEntry(File file, LocalDateTime timestamp, long size, String sha256, long rowCount) {
+    this.file = file;
+    this.timestamp = timestamp;
+    this.size = size;
+    this.sha256 = sha256;
+    this.rowCount = rowCount;
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  public String getName() {
+    return file.getName();
+  }
+
+  public LocalDateTime getTimestamp() {
+    return timestamp;
+  }
+
+  public long getSize() {
+    return size;
+  }
+
+  /**
+   * @return the hex encoded digest of the data entry, null if the archive has none
+   */
+  public String getSha256() {
+    return sha256;
+  }
+
+  /**
+   * @return the number of rows of the data entry, -1 if the archive has no run manifest
+   */
+  public long getRowCount() {
+    return rowCount;
+  }
+}
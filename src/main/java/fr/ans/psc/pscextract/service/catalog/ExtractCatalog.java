@@ -0,0 +1,250 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.catalog;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.ans.psc.pscextract.service.normalized.NormalizedLayout;
+import fr.ans.psc.pscextract.service.profile.ExtractProfiles;
+import fr.ans.psc.pscextract.service.utils.FileNamesUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Published extracts and files of the files directory, kept in memory so that downloads and listings don't scan it.
+ * <p>
+ * The catalog is built from the directory at startup, then kept up to date by the code that publishes, uploads and
+ * deletes files. {@link #rebuild()} resyncs it with the directory if it was changed behind our back.
+ */
+@Service
+public class ExtractCatalog {
+
+  private static final Logger log = LoggerFactory.getLogger(ExtractCatalog.class);
+
+  private static final String DIGEST_ENTRY_SUFFIX = ".sha256";
+
+  private static final String MANIFEST_ENTRY_SUFFIX = ".manifest.json";
+
+  @Value("${files.directory}")
+  private String filesDirectory;
+
+  @Value("${extract.name}")
+  private String extractName;
+
+  @Autowired
+  private ObjectMapper objectMapper;
+
+  @Autowired
+  private ExtractProfiles extractProfiles;
+
+  @Autowired
+  private NormalizedLayout normalizedLayout;
+
+  /**
+   * Extracts by timestamp, oldest first.
+   */
+  private final ConcurrentSkipListMap<LocalDateTime, CatalogEntry> extracts = new ConcurrentSkipListMap<>();
+
+  /**
+   * Archives of each extract profile by timestamp, oldest first, by base name.
+   */
+  private final Map<String, ConcurrentSkipListMap<LocalDateTime, CatalogEntry>> profileExtracts =
+          new ConcurrentHashMap<>();
+
+  /**
+   * Sizes of all the files of the files directory, extracts, sidecars and demo file included.
+   */
+  private final Map<String, Long> fileSizes = new ConcurrentHashMap<>();
+
+  @PostConstruct
+  public synchronized void rebuild() {
+    extracts.clear();
+    profileExtracts.clear();
+    fileSizes.clear();
+    File[] files = new File(filesDirectory).listFiles();
+    if (files == null) {
+      log.warn("Files directory {} not found, starting with an empty catalog", filesDirectory);
+      return;
+    }
+    for (File file : files) {
+      if (file.isFile()) {
+        fileSizes.put(file.getName(), file.length());
+        String baseName = getBaseName(file.getName());
+        if (baseName != null) {
+          LocalDateTime timestamp = FileNamesUtil.getExtractTimestamp(file.getName(), baseName);
+          getExtracts(baseName).put(timestamp, readEntry(file, timestamp));
+        }
+      }
+    }
+    log.info("Extract catalog rebuilt : {} extracts, {} files", extracts.size(), fileSizes.size());
+  }
+
+  /**
+   * @return the latest published extract, null if there is none
+   */
+  public CatalogEntry getLatest() {
+    return getLatest(extractName);
+  }
+
+  /**
+   * @param baseName the extract name, the base name of a profile or of the normalized layout
+   * @return the latest published archive of that base name, null if there is none
+   */
+  public CatalogEntry getLatest(String baseName) {
+    Map.Entry<LocalDateTime, CatalogEntry> latest = getExtracts(baseName).lastEntry();
+    return latest == null ? null : latest.getValue();
+  }
+
+  /**
+   * @return the published extract of that file name, null if there is none
+   */
+  public CatalogEntry getExtract(String fileName) {
+    LocalDateTime timestamp = FileNamesUtil.getExtractTimestamp(fileName, extractName);
+    if (timestamp == null) {
+      return null;
+    }
+    CatalogEntry entry = extracts.get(timestamp);
+    return entry != null && entry.getName().equals(fileName) ? entry : null;
+  }
+
+  /**
+   * @return the published extracts, oldest first
+   */
+  public List<CatalogEntry> getExtracts() {
+    return List.copyOf(extracts.values());
+  }
+
+  /**
+   * @return file name to size of every file of the files directory
+   */
+  public Map<String, Long> getFileSizes() {
+    return Map.copyOf(fileSizes);
+  }
+
+  /**
+   * Registers a new published extract, once it is in the files directory.
+   */
+  public void published(File extract, String sha256, long rowCount) {
+    String baseName = getBaseName(extract.getName());
+    if (baseName == null || !isInFilesDirectory(extract)) {
+      log.warn("{} is not an extract of {}, not cataloged", extract, filesDirectory);
+      return;
+    }
+    LocalDateTime timestamp = FileNamesUtil.getExtractTimestamp(extract.getName(), baseName);
+    fileSizes.put(extract.getName(), extract.length());
+    getExtracts(baseName).put(timestamp, new CatalogEntry(extract, timestamp, extract.length(), sha256, rowCount));
+  }
+
+  /**
+   * Registers a file that is not an extract, a sidecar or the demo file.
+   */
+  public void fileAdded(File file) {
+    if (isInFilesDirectory(file)) {
+      fileSizes.put(file.getName(), file.length());
+    }
+  }
+
+  public void filesRemoved(List<File> files) {
+    for (File file : files) {
+      if (!isInFilesDirectory(file)) {
+        continue;
+      }
+      fileSizes.remove(file.getName());
+      String baseName = getBaseName(file.getName());
+      if (baseName != null) {
+        getExtracts(baseName).computeIfPresent(FileNamesUtil.getExtractTimestamp(file.getName(), baseName),
+                (key, entry) -> entry.getName().equals(file.getName()) ? null : entry);
+      }
+    }
+  }
+
+  public void clear() {
+    extracts.clear();
+    profileExtracts.clear();
+    fileSizes.clear();
+  }
+
+  /**
+   * @return the extract name or the profile base name the file is an archive of, null if it is none of them
+   */
+  private String getBaseName(String fileName) {
+    if (FileNamesUtil.getExtractTimestamp(fileName, extractName) != null) {
+      return extractName;
+    }
+    for (String baseName : extractProfiles.getBaseNames()) {
+      if (FileNamesUtil.getExtractTimestamp(fileName, baseName) != null) {
+        return baseName;
+      }
+    }
+    if (normalizedLayout.isEnabled()
+            && FileNamesUtil.getExtractTimestamp(fileName, normalizedLayout.getBaseName()) != null) {
+      return normalizedLayout.getBaseName();
+    }
+    return null;
+  }
+
+  private ConcurrentSkipListMap<LocalDateTime, CatalogEntry> getExtracts(String baseName) {
+    if (extractName.equals(baseName)) {
+      return extracts;
+    }
+    return profileExtracts.computeIfAbsent(baseName, key -> new ConcurrentSkipListMap<>());
+  }
+
+  private boolean isInFilesDirectory(File file) {
+    return new File(filesDirectory).getAbsoluteFile().equals(file.getAbsoluteFile().getParentFile());
+  }
+
+  private CatalogEntry readEntry(File extract, LocalDateTime timestamp) {
+    String sha256 = null;
+    long rowCount = -1;
+    try (ZipFile zipFile = new ZipFile(extract)) {
+      Enumeration<? extends ZipEntry> entries = zipFile.entries();
+      while (entries.hasMoreElements()) {
+        ZipEntry entry = entries.nextElement();
+        if (entry.getName().endsWith(DIGEST_ENTRY_SUFFIX)) {
+          try (InputStream digestContent = zipFile.getInputStream(entry)) {
+            sha256 = new String(digestContent.readAllBytes(), StandardCharsets.US_ASCII).trim();
+          }
+        } else if (entry.getName().endsWith(MANIFEST_ENTRY_SUFFIX)) {
+          try (InputStream manifestContent = zipFile.getInputStream(entry)) {
+            JsonNode rows = objectMapper.readTree(manifestContent).get("rowCount");
+            rowCount = rows == null ? -1 : rows.asLong();
+          }
+        }
+      }
+    } catch (IOException e) {
+      log.warn("Unable to read the digest and manifest of " + extract.getName(), e);
+    }
+    return new CatalogEntry(extract, timestamp, extract.length(), sha256, rowCount);
+  }
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.compact;
+
+/**
+ * A Ps of a page as the extract reads it, in a few arrays instead of the object graph of the psc-api-client model.
+ * <p>
+ * The values of the fields written in the rows are the slots of a single char table, in a fixed order : the fields of
+ * the Ps, its first names sorted by order, its ids, then each profession followed by its expertises and its work
+ * situations, each work situation followed by its structure. The counts of these lists, -1 for a missing list, and
+ * whether each work situation has a structure are in the shape. The fields the extract doesn't read are not kept.
+ * <p>
+ * Filled by {@link CompactPsReader}, read by {@link CompactRowEncoder}.
+ */
+public class CompactPs {
+
+  static final int ID = 0;
+  static final int LAST_NAME = 1;
+  static final int DATE_OF_BIRTH = 2;
+  static final int BIRTH_ADDRESS_CODE = 3;
+  static final int BIRTH_COUNTRY_CODE = 4;
+  static final int BIRTH_ADDRESS = 5;
+  static final int GENDER_CODE = 6;
+  static final int PHONE = 7;
+  static final int EMAIL = 8;
+  static final int SALUTATION_CODE = 9;
+  static final int PS_SLOTS = 10;
+
+  static final int PROFESSION_CODE = 0;
+  static final int PROFESSION_CATEGORY_CODE = 1;
+  static final int PROFESSION_SALUTATION_CODE = 2;
+  static final int PROFESSION_LAST_NAME = 3;
+  static final int PROFESSION_FIRST_NAME = 4;
+  static final int PROFESSION_SLOTS = 5;
+
+  static final int EXPERTISE_TYPE_CODE = 0;
+  static final int EXPERTISE_CODE = 1;
+  static final int EXPERTISE_SLOTS = 2;
+
+  static final int MODE_CODE = 0;
+  static final int ACTIVITY_SECTOR_CODE = 1;
+  static final int PHARMACIST_TABLE_SECTION_CODE = 2;
+  static final int ROLE_CODE = 3;
+  static final int REGISTRATION_AUTHORITY = 4;
+  static final int ACTIVITY_KIND_CODE = 5;
+  static final int WORK_SITUATION_SLOTS = 6;
+
+  /**
+   * Fields of the structure, in the order of the columns of the extract.
+   */
+  static final int STRUCTURE_TECHNICAL_ID = 4;
+  static final int DEPARTMENT_CODE = 22;
+  static final int STRUCTURE_SLOTS = 24;
+
+  /**
+   * Object header, fields and array headers of a Ps, for {@link #getHeapBytes()}.
+   */
+  private static final int OVERHEAD_BYTES = 32 + 3 * 16;
+
+  final char[] chars;
+
+  /**
+   * End of each slot in the chars, -(end + 1) for a null value : slot i runs from the end of slot i - 1.
+   */
+  final int[] ends;
+
+  /**
+   * First name count, id count, profession count, then for each profession its expertise count and work situation
+   * count followed by 1 or 0 for each work situation, whether it has a structure.
+   */
+  final int[] shape;
+
+  final long activated;
+
+  final long deactivated;
+
+  /**
+   * Bit 0 when activated is null, bit 1 when deactivated is null.
+   */
+  final byte nulls;
+
+  static final byte NULL_ACTIVATED = 1;
+
+  static final byte NULL_DEACTIVATED = 2;
+
+  CompactPs(char[] chars, int[] ends, int[] shape, long activated, long deactivated, byte nulls) {
+    this.chars = chars;
+    this.ends = ends;
+    this.shape = shape;
+    this.activated = activated;
+    this.deactivated = deactivated;
+    this.nulls = nulls;
+  }
+
+  /**
+   * @return the id of the Ps, null if it has none
+   */
+  public String getId() {
+    return get(ID);
+  }
+
+  /**
+   * @return the estimated heap held by the Ps
+   */
+  public long getHeapBytes() {
+    return OVERHEAD_BYTES + 2L * chars.length + 4L * ends.length + 4L * shape.length;
+  }
+
+  String get(int slot) {
+    int end = ends[slot];
+    if (end < 0) {
+      return null;
+    }
+    int start = start(slot);
+    return new String(chars, start, end - start);
+  }
+
+  boolean isNull(int slot) {
+    return ends[slot] < 0;
+  }
+
+  int start(int slot) {
+    if (slot == 0) {
+      return 0;
+    }
+    int previousEnd = ends[slot - 1];
+    return previousEnd < 0 ? -previousEnd - 1 : previousEnd;
+  }
+
+  int end(int slot) {
+    int end = ends[slot];
+    return end < 0 ? -end - 1 : end;
+  }
+}
@@ -0,0 +1,559 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.compact;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming reader of a page of psc-api-maj into {@link CompactPs}, without building the psc-api-client model.
+ * <p>
+ * Fields are read as the psc-api-client model reads them : unknown fields are skipped, numbers and booleans are read
+ * as their text in string fields, missing lists are null. A null Ps, profession, expertise, work situation or id,
+ * on which the extraction of the model fails, fails the page. Not thread safe, the values of a Ps are gathered in
+ * buffers reused from one Ps to the next.
+ */
+public class CompactPsReader {
+
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+  private static final Map<String, Integer> PS_FIELDS = Map.of(
+          "id", CompactPs.ID,
+          "lastName", CompactPs.LAST_NAME,
+          "dateOfBirth", CompactPs.DATE_OF_BIRTH,
+          "birthAddressCode", CompactPs.BIRTH_ADDRESS_CODE,
+          "birthCountryCode", CompactPs.BIRTH_COUNTRY_CODE,
+          "birthAddress", CompactPs.BIRTH_ADDRESS,
+          "genderCode", CompactPs.GENDER_CODE,
+          "phone", CompactPs.PHONE,
+          "email", CompactPs.EMAIL,
+          "salutationCode", CompactPs.SALUTATION_CODE);
+
+  private static final Map<String, Integer> PROFESSION_FIELDS = Map.of(
+          "code", CompactPs.PROFESSION_CODE,
+          "categoryCode", CompactPs.PROFESSION_CATEGORY_CODE,
+          "salutationCode", CompactPs.PROFESSION_SALUTATION_CODE,
+          "lastName", CompactPs.PROFESSION_LAST_NAME,
+          "firstName", CompactPs.PROFESSION_FIRST_NAME);
+
+  private static final Map<String, Integer> EXPERTISE_FIELDS = Map.of(
+          "typeCode", CompactPs.EXPERTISE_TYPE_CODE,
+          "code", CompactPs.EXPERTISE_CODE);
+
+  private static final Map<String, Integer> WORK_SITUATION_FIELDS = Map.of(
+          "modeCode", CompactPs.MODE_CODE,
+          "activitySectorCode", CompactPs.ACTIVITY_SECTOR_CODE,
+          "pharmacistTableSectionCode", CompactPs.PHARMACIST_TABLE_SECTION_CODE,
+          "roleCode", CompactPs.ROLE_CODE,
+          "registrationAuthority", CompactPs.REGISTRATION_AUTHORITY,
+          "activityKindCode", CompactPs.ACTIVITY_KIND_CODE);
+
+  private static final List<String> STRUCTURE_FIELD_NAMES = List.of("siteSIRET", "siteSIREN", "siteFINESS",
+          "legalEstablishmentFINESS", "structureTechnicalId", "legalCommercialName", "publicCommercialName",
+          "recipientAdditionalInfo", "geoLocationAdditionalInfo", "streetNumber", "streetNumberRepetitionIndex",
+          "streetCategoryCode", "streetLabel", "distributionMention", "cedexOffice", "postalCode", "communeCode",
+          "countryCode", "phone", "phone2", "fax", "email", "departmentCode", "oldStructureId");
+
+  private static final Map<String, Integer> STRUCTURE_FIELDS = indexes(STRUCTURE_FIELD_NAMES);
+
+  private static final int NONE = -1;
+
+  /**
+   * Values of the Ps being read, in the order they come.
+   */
+  private char[] chars = new char[4096];
+
+  private int charCount;
+
+  private int[] starts = new int[256];
+
+  /**
+   * End of each value, -1 for a null one.
+   */
+  private int[] ends = new int[256];
+
+  private int slotCount;
+
+  private final IntList firstNameSlots = new IntList();
+
+  private final IntList firstNameOrders = new IntList();
+
+  private boolean firstNamesNull;
+
+  private boolean firstNameOrderNull;
+
+  private final IntList idSlots = new IntList();
+
+  private boolean idsNull;
+
+  private final List<ProfessionSlots> professions = new ArrayList<>();
+
+  private int professionCount;
+
+  private boolean professionsNull;
+
+  private Long activated;
+
+  private Long deactivated;
+
+  /**
+   * Slots of the values in the order of {@link CompactPs}, and its shape, while it is built.
+   */
+  private final IntList order = new IntList();
+
+  private final IntList shape = new IntList();
+
+  /**
+   * @param in a JSON array of Ps, closed once read
+   */
+  public List<CompactPs> readPage(InputStream in) throws IOException {
+    try (JsonParser parser = JSON_FACTORY.createParser(in)) {
+      if (parser.nextToken() != JsonToken.START_ARRAY) {
+        throw new JsonParseException(parser, "Page of Ps expected");
+      }
+      List<CompactPs> page = new ArrayList<>();
+      JsonToken token;
+      while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+        expectObject(parser, token, "Ps");
+        page.add(readPs(parser));
+      }
+      return page;
+    }
+  }
+
+  private CompactPs readPs(JsonParser parser) throws IOException {
+    charCount = 0;
+    slotCount = 0;
+    firstNameSlots.clear();
+    firstNameOrders.clear();
+    firstNamesNull = true;
+    firstNameOrderNull = false;
+    idSlots.clear();
+    idsNull = true;
+    professionCount = 0;
+    professionsNull = true;
+    activated = null;
+    deactivated = null;
+    int base = addSlots(CompactPs.PS_SLOTS);
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      JsonToken token = parser.nextToken();
+      Integer field = PS_FIELDS.get(name);
+      if (field != null) {
+        readString(parser, token, base + field);
+        continue;
+      }
+      switch (name) {
+        case "firstNames":
+          readFirstNames(parser, token);
+          break;
+        case "ids":
+          readIds(parser, token);
+          break;
+        case "professions":
+          readProfessions(parser, token);
+          break;
+        case "activated":
+          activated = readLong(parser, token);
+          break;
+        case "deactivated":
+          deactivated = readLong(parser, token);
+          break;
+        default:
+          parser.skipChildren();
+      }
+    }
+    return build();
+  }
+
+  private void readFirstNames(JsonParser parser, JsonToken token) throws IOException {
+    firstNameSlots.clear();
+    firstNameOrders.clear();
+    firstNameOrderNull = false;
+    firstNamesNull = token == JsonToken.VALUE_NULL;
+    if (firstNamesNull) {
+      return;
+    }
+    expectArray(parser, token, "first names");
+    while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+      expectObject(parser, token, "first name");
+      int slot = addSlots(1);
+      Integer order = null;
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String name = parser.getCurrentName();
+        token = parser.nextToken();
+        if ("firstName".equals(name)) {
+          readString(parser, token, slot);
+        } else if ("order".equals(name)) {
+          Long value = readLong(parser, token);
+          order = value == null ? null : Math.toIntExact(value);
+        } else {
+          parser.skipChildren();
+        }
+      }
+      firstNameSlots.add(slot);
+      firstNameOrders.add(order == null ? 0 : order);
+      firstNameOrderNull |= order == null;
+    }
+  }
+
+  private void readIds(JsonParser parser, JsonToken token) throws IOException {
+    idSlots.clear();
+    idsNull = token == JsonToken.VALUE_NULL;
+    if (idsNull) {
+      return;
+    }
+    expectArray(parser, token, "ids");
+    while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+      if (token == JsonToken.VALUE_NULL) {
+        throw new JsonParseException(parser, "Null id");
+      }
+      int slot = addSlots(1);
+      readString(parser, token, slot);
+      idSlots.add(slot);
+    }
+  }
+
+  private void readProfessions(JsonParser parser, JsonToken token) throws IOException {
+    professionCount = 0;
+    professionsNull = token == JsonToken.VALUE_NULL;
+    if (professionsNull) {
+      return;
+    }
+    expectArray(parser, token, "professions");
+    while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+      expectObject(parser, token, "profession");
+      if (professionCount == professions.size()) {
+        professions.add(new ProfessionSlots());
+      }
+      ProfessionSlots profession = professions.get(professionCount++);
+      profession.reset(addSlots(CompactPs.PROFESSION_SLOTS));
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String name = parser.getCurrentName();
+        token = parser.nextToken();
+        Integer field = PROFESSION_FIELDS.get(name);
+        if (field != null) {
+          readString(parser, token, profession.base + field);
+        } else if ("expertises".equals(name)) {
+          readExpertises(parser, token, profession);
+        } else if ("workSituations".equals(name)) {
+          readWorkSituations(parser, token, profession);
+        } else {
+          parser.skipChildren();
+        }
+      }
+    }
+  }
+
+  private void readExpertises(JsonParser parser, JsonToken token, ProfessionSlots profession) throws IOException {
+    profession.expertises.clear();
+    profession.expertisesNull = token == JsonToken.VALUE_NULL;
+    if (profession.expertisesNull) {
+      return;
+    }
+    expectArray(parser, token, "expertises");
+    while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+      expectObject(parser, token, "expertise");
+      int base = addSlots(CompactPs.EXPERTISE_SLOTS);
+      readFields(parser, EXPERTISE_FIELDS, base);
+      profession.expertises.add(base);
+    }
+  }
+
+  private void readWorkSituations(JsonParser parser, JsonToken token, ProfessionSlots profession)
+          throws IOException {
+    profession.workSituations.clear();
+    profession.structures.clear();
+    profession.workSituationsNull = token == JsonToken.VALUE_NULL;
+    if (profession.workSituationsNull) {
+      return;
+    }
+    expectArray(parser, token, "work situations");
+    while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+      expectObject(parser, token, "work situation");
+      int base = addSlots(CompactPs.WORK_SITUATION_SLOTS);
+      int structureBase = NONE;
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String name = parser.getCurrentName();
+        token = parser.nextToken();
+        Integer field = WORK_SITUATION_FIELDS.get(name);
+        if (field != null) {
+          readString(parser, token, base + field);
+        } else if ("structure".equals(name)) {
+          if (token == JsonToken.VALUE_NULL) {
+            structureBase = NONE;
+          } else {
+            expectObject(parser, token, "structure");
+            structureBase = addSlots(CompactPs.STRUCTURE_SLOTS);
+            readFields(parser, STRUCTURE_FIELDS, structureBase);
+          }
+        } else {
+          parser.skipChildren();
+        }
+      }
+      profession.workSituations.add(base);
+      profession.structures.add(structureBase);
+    }
+  }
+
+  /**
+   * Reads the string fields of an object, skipping the others.
+   */
+  private void readFields(JsonParser parser, Map<String, Integer> fields, int base) throws IOException {
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      Integer field = fields.get(parser.getCurrentName());
+      JsonToken token = parser.nextToken();
+      if (field != null) {
+        readString(parser, token, base + field);
+      } else {
+        parser.skipChildren();
+      }
+    }
+  }
+
+  private void readString(JsonParser parser, JsonToken token, int slot) throws IOException {
+    if (token == JsonToken.VALUE_NULL) {
+      starts[slot] = 0;
+      ends[slot] = NONE;
+      return;
+    }
+    if (!token.isScalarValue()) {
+      throw new JsonParseException(parser, "String expected for " + parser.getCurrentName());
+    }
+    if (token == JsonToken.VALUE_STRING) {
+      append(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength(), slot);
+    } else {
+      String text = parser.getText();
+      append(text.toCharArray(), 0, text.length(), slot);
+    }
+  }
+
+  private static Long readLong(JsonParser parser, JsonToken token) throws IOException {
+    if (token == JsonToken.VALUE_NULL) {
+      return null;
+    }
+    if (token == JsonToken.VALUE_STRING) {
+      String text = parser.getText().trim();
+      return text.isEmpty() ? null : Long.parseLong(text);
+    }
+    if (!token.isNumeric()) {
+      throw new JsonParseException(parser, "Number expected for " + parser.getCurrentName());
+    }
+    return parser.getLongValue();
+  }
+
+  private void append(char[] text, int offset, int length, int slot) {
+    if (charCount + length > chars.length) {
+      chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charCount + length));
+    }
+    System.arraycopy(text, offset, chars, charCount, length);
+    starts[slot] = charCount;
+    charCount += length;
+    ends[slot] = charCount;
+  }
+
+  /**
+   * @return the first of count new null slots
+   */
+  private int addSlots(int count) {
+    if (slotCount + count > starts.length) {
+      int capacity = Math.max(starts.length * 2, slotCount + count);
+      starts = Arrays.copyOf(starts, capacity);
+      ends = Arrays.copyOf(ends, capacity);
+    }
+    int first = slotCount;
+    Arrays.fill(ends, first, first + count, NONE);
+    slotCount += count;
+    return first;
+  }
+
+  /**
+   * Copies the values into the slot order of {@link CompactPs}.
+   */
+  private CompactPs build() {
+    order.clear();
+    shape.clear();
+    for (int slot = 0; slot < CompactPs.PS_SLOTS; slot++) {
+      order.add(slot);
+    }
+    shape.add(firstNamesNull ? NONE : firstNameSlots.size());
+    if (!firstNamesNull) {
+      if (firstNameOrderNull && firstNameSlots.size() > 1) {
+        throw new NullPointerException("First names without order");
+      }
+      // a stable insertion sort, as the sort of the model, of a few first names
+      int first = order.size();
+      for (int i = 0; i < firstNameSlots.size(); i++) {
+        int j = order.size();
+        order.add(i);
+        while (j > first && firstNameOrders.get(order.get(j - 1)) > firstNameOrders.get(i)) {
+          order.set(j, order.get(j - 1));
+          order.set(--j, i);
+        }
+      }
+      for (int j = first; j < order.size(); j++) {
+        order.set(j, firstNameSlots.get(order.get(j)));
+      }
+    }
+    shape.add(idsNull ? NONE : idSlots.size());
+    for (int i = 0; i < idSlots.size(); i++) {
+      order.add(idSlots.get(i));
+    }
+    shape.add(professionsNull ? NONE : professionCount);
+    for (int p = 0; p < professionCount; p++) {
+      ProfessionSlots profession = professions.get(p);
+      addSlots(order, profession.base, CompactPs.PROFESSION_SLOTS);
+      shape.add(profession.expertisesNull ? NONE : profession.expertises.size());
+      for (int e = 0; e < profession.expertises.size(); e++) {
+        addSlots(order, profession.expertises.get(e), CompactPs.EXPERTISE_SLOTS);
+      }
+      shape.add(profession.workSituationsNull ? NONE : profession.workSituations.size());
+      for (int w = 0; w < profession.workSituations.size(); w++) {
+        addSlots(order, profession.workSituations.get(w), CompactPs.WORK_SITUATION_SLOTS);
+        int structureBase = profession.structures.get(w);
+        shape.add(structureBase == NONE ? 0 : 1);
+        if (structureBase != NONE) {
+          addSlots(order, structureBase, CompactPs.STRUCTURE_SLOTS);
+        }
+      }
+    }
+
+    int length = 0;
+    for (int i = 0; i < order.size(); i++) {
+      int slot = order.get(i);
+      if (ends[slot] != NONE) {
+        length += ends[slot] - starts[slot];
+      }
+    }
+    char[] compactChars = new char[length];
+    int[] compactEnds = new int[order.size()];
+    int end = 0;
+    for (int i = 0; i < order.size(); i++) {
+      int slot = order.get(i);
+      if (ends[slot] == NONE) {
+        compactEnds[i] = -end - 1;
+      } else {
+        System.arraycopy(chars, starts[slot], compactChars, end, ends[slot] - starts[slot]);
+        end += ends[slot] - starts[slot];
+        compactEnds[i] = end;
+      }
+    }
+    byte nulls = (byte) ((activated == null ? CompactPs.NULL_ACTIVATED : 0)
+            | (deactivated == null ? CompactPs.NULL_DEACTIVATED : 0));
+    return new CompactPs(compactChars, compactEnds, shape.toArray(), activated == null ? 0 : activated,
+            deactivated == null ? 0 : deactivated, nulls);
+  }
+
+  private static void addSlots(IntList order, int base, int count) {
+    for (int slot = base; slot < base + count; slot++) {
+      order.add(slot);
+    }
+  }
+
+  private static void expectObject(JsonParser parser, JsonToken token, String what) throws JsonParseException {
+    if (token != JsonToken.START_OBJECT) {
+      throw new JsonParseException(parser, "Object expected for a " + what);
+    }
+  }
+
+  private static void expectArray(JsonParser parser, JsonToken token, String what) throws JsonParseException {
+    if (token != JsonToken.START_ARRAY) {
+      throw new JsonParseException(parser, "Array expected for " + what);
+    }
+  }
+
+  private static Map<String, Integer> indexes(List<String> names) {
+    Map<String, Integer> indexes = new HashMap<>();
+    for (int i = 0; i < names.size(); i++) {
+      indexes.put(names.get(i), i);
+    }
+    return Map.copyOf(indexes);
+  }
+
+  /**
+   * Slots of a profession being read.
+   */
+  private static class ProfessionSlots {
+
+    private int base;
+
+    private final IntList expertises = new IntList();
+
+    private boolean expertisesNull;
+
+    private final IntList workSituations = new IntList();
+
+    /**
+     * First slot of the structure of each work situation, -1 for none.
+     */
+    private final IntList structures = new IntList();
+
+    private boolean workSituationsNull;
+
+    void reset(int base) {
+      this.base = base;
+      expertises.clear();
+      expertisesNull = true;
+      workSituations.clear();
+      structures.clear();
+      workSituationsNull = true;
+    }
+  }
+
+  private static class IntList {
+
+    private int[] values = new int[16];
+
+    private int size;
+
+    void add(int value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = value;
+    }
+
+    int get(int index) {
+      return values[index];
+    }
+
+    void set(int index, int value) {
+      values[index] = value;
+    }
+
+    int size() {
+      return size;
+    }
+
+    void clear() {
+      size = 0;
+    }
+
+    int[] toArray() {
+      return Arrays.copyOf(values, size);
+    }
+  }
+}
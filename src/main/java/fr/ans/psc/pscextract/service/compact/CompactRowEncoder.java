@@ -0,0 +1,391 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.compact;
+
+import fr.ans.psc.pscextract.service.TransformationService;
+
+import java.util.Arrays;
+
+/**
+ * Writes the rows of a {@link CompactPs} straight from its char table, as {@link TransformationService#unwind} and
+ * {@link TransformationService#transformPsToLine} write those of the psc-api-client model, without cloning anything.
+ * <p>
+ * {@link #reset(CompactPs)} starts a Ps, {@link #nextSituation()} moves to each of its unwound situations, then
+ * {@link #encodeRow(int)} encodes the row of each of its ids into a buffer reused from one row to the next. Not
+ * thread safe.
+ */
+public class CompactRowEncoder {
+
+  private static final int NONE = -1;
+
+  private CompactPs ps;
+
+  private char[] row = new char[1024];
+
+  private int length;
+
+  private int firstNameCount;
+
+  private int idCount;
+
+  private int firstIdSlot;
+
+  private int professionCount;
+
+  private int professionIndex;
+
+  private boolean done;
+
+  private int shapeIndex;
+
+  private int nextProfessionSlot;
+
+  private int expertiseCount;
+
+  private int workSituationCount;
+
+  private int firstExpertiseSlot;
+
+  private int firstWorkSituationSlot;
+
+  private int firstWorkSituationShape;
+
+  private int expertiseIndex;
+
+  private int workSituationIndex;
+
+  private int nextWorkSituationSlot;
+
+  private int nextWorkSituationShape;
+
+  private int professionSlot;
+
+  private int expertiseSlot;
+
+  private int workSituationSlot;
+
+  private int structureSlot;
+
+  /**
+   * Starts the unwound situations of a Ps.
+   */
+  public void reset(CompactPs ps) {
+    this.ps = ps;
+    firstNameCount = ps.shape[0];
+    idCount = ps.shape[1];
+    professionCount = ps.shape[2];
+    firstIdSlot = CompactPs.PS_SLOTS + Math.max(firstNameCount, 0);
+    nextProfessionSlot = firstIdSlot + Math.max(idCount, 0);
+    shapeIndex = 3;
+    professionIndex = NONE;
+    done = false;
+    if ((ps.nulls & CompactPs.NULL_DEACTIVATED) == 0) {
+      if ((ps.nulls & CompactPs.NULL_ACTIVATED) != 0) {
+        throw new NullPointerException("Deactivated Ps " + ps.getId() + " without activation");
+      }
+      // as unwind, keeps the Ps reactivated since its last deactivation
+      done = ps.activated <= ps.deactivated;
+    }
+  }
+
+  /**
+   * @return false once the situations of the Ps are all done
+   */
+  public boolean nextSituation() {
+    if (done) {
+      return false;
+    }
+    if (professionCount == NONE) {
+      // a Ps without professions has a single situation
+      professionSlot = NONE;
+      expertiseSlot = NONE;
+      workSituationSlot = NONE;
+      structureSlot = NONE;
+      done = true;
+      return true;
+    }
+    while (professionIndex == NONE || !nextProfessionSituation()) {
+      if (++professionIndex >= professionCount) {
+        done = true;
+        return false;
+      }
+      startProfession();
+    }
+    return true;
+  }
+
+  private void startProfession() {
+    professionSlot = nextProfessionSlot;
+    expertiseCount = ps.shape[shapeIndex];
+    workSituationCount = ps.shape[shapeIndex + 1];
+    firstWorkSituationShape = shapeIndex + 2;
+    firstExpertiseSlot = professionSlot + CompactPs.PROFESSION_SLOTS;
+    firstWorkSituationSlot = firstExpertiseSlot + CompactPs.EXPERTISE_SLOTS * Math.max(expertiseCount, 0);
+    int slot = firstWorkSituationSlot;
+    for (int i = 0; i < workSituationCount; i++) {
+      slot += workSituationSlots(firstWorkSituationShape + i);
+    }
+    nextProfessionSlot = slot;
+    shapeIndex = firstWorkSituationShape + Math.max(workSituationCount, 0);
+    expertiseIndex = 0;
+    workSituationIndex = NONE;
+    nextWorkSituationSlot = firstWorkSituationSlot;
+    nextWorkSituationShape = firstWorkSituationShape;
+  }
+
+  /**
+   * Moves to the next expertise and work situation pair of the profession, a missing list counting as a single
+   * missing element.
+   */
+  private boolean nextProfessionSituation() {
+    int expertiseLimit = expertiseCount == NONE ? 1 : expertiseCount;
+    int workSituationLimit = workSituationCount == NONE ? 1 : workSituationCount;
+    if (expertiseLimit == 0 || workSituationLimit == 0) {
+      return false;
+    }
+    if (++workSituationIndex == workSituationLimit) {
+      workSituationIndex = 0;
+      nextWorkSituationSlot = firstWorkSituationSlot;
+      nextWorkSituationShape = firstWorkSituationShape;
+      if (++expertiseIndex == expertiseLimit) {
+        return false;
+      }
+    }
+    expertiseSlot = expertiseCount == NONE ? NONE
+            : firstExpertiseSlot + CompactPs.EXPERTISE_SLOTS * expertiseIndex;
+    if (workSituationCount == NONE) {
+      workSituationSlot = NONE;
+      structureSlot = NONE;
+    } else {
+      workSituationSlot = nextWorkSituationSlot;
+      structureSlot = ps.shape[nextWorkSituationShape] == 1
+              ? workSituationSlot + CompactPs.WORK_SITUATION_SLOTS : NONE;
+      nextWorkSituationSlot += workSituationSlots(nextWorkSituationShape);
+      nextWorkSituationShape++;
+    }
+    return true;
+  }
+
+  private int workSituationSlots(int shape) {
+    return CompactPs.WORK_SITUATION_SLOTS + (ps.shape[shape] == 1 ? CompactPs.STRUCTURE_SLOTS : 0);
+  }
+
+  /**
+   * @return the number of rows of each situation of the Ps
+   */
+  public int getIdCount() {
+    if (idCount == NONE) {
+      throw new NullPointerException("Ps " + ps.getId() + " without ids");
+    }
+    return idCount;
+  }
+
+  /**
+   * @return the id type of a row of the situation
+   */
+  public String getIdType(int id) {
+    int idSlot = firstIdSlot + id;
+    int start = ps.start(idSlot);
+    if (start == ps.end(idSlot)) {
+      throw new StringIndexOutOfBoundsException("Empty id of Ps " + ps.getId());
+    }
+    return TransformationService.getIdType(ps.chars[start]);
+  }
+
+  /**
+   * Encodes the row of an id in the current situation.
+   *
+   * @param id index of the id in the ids of the Ps
+   * @return the length of the row in {@link #getRow()}
+   */
+  public int encodeRow(int id) {
+    length = 0;
+    int idSlot = firstIdSlot + id;
+    int idStart = ps.start(idSlot);
+    int idEnd = ps.end(idSlot);
+    if (idStart == idEnd) {
+      throw new StringIndexOutOfBoundsException("Empty id of Ps " + ps.getId());
+    }
+    append(ps.chars, idStart, idStart + 1);
+    append('|');
+    append(ps.chars, idStart + 1, idEnd);
+    append('|');
+    append(ps.chars, idStart, idEnd);
+    append('|');
+    appendColumn(CompactPs.LAST_NAME);
+    appendFirstNames();
+    for (int slot = CompactPs.DATE_OF_BIRTH; slot <= CompactPs.SALUTATION_CODE; slot++) {
+      appendColumn(slot);
+    }
+
+    int activityKindSlot = NONE;
+    if (professionSlot == NONE) {
+      appendSeparators(36);
+    } else {
+      appendColumns(professionSlot, CompactPs.PROFESSION_SLOTS);
+      if (expertiseSlot == NONE) {
+        appendSeparators(2);
+      } else {
+        appendColumns(expertiseSlot, CompactPs.EXPERTISE_SLOTS);
+      }
+      if (workSituationSlot == NONE) {
+        appendSeparators(29);
+      } else {
+        appendColumns(workSituationSlot, CompactPs.REGISTRATION_AUTHORITY);
+        if (structureSlot == NONE) {
+          appendSeparators(CompactPs.STRUCTURE_SLOTS);
+        } else {
+          appendColumns(structureSlot, CompactPs.STRUCTURE_SLOTS);
+        }
+        appendColumn(workSituationSlot + CompactPs.REGISTRATION_AUTHORITY);
+        activityKindSlot = workSituationSlot + CompactPs.ACTIVITY_KIND_CODE;
+      }
+    }
+
+    for (int i = 0; i < idCount; i++) {
+      int slot = firstIdSlot + i;
+      int start = ps.start(slot);
+      int end = ps.end(slot);
+      if (start != end) {
+        append(ps.chars, start, end);
+        append(',');
+        append(TransformationService.getIdType(ps.chars[start]));
+        append(",1");
+      }
+      if (i != idCount - 1) {
+        append(';');
+      }
+    }
+    append('|');
+    if (activityKindSlot != NONE) {
+      append(ps.chars, ps.start(activityKindSlot), ps.end(activityKindSlot));
+    }
+    append("|\n");
+    return length;
+  }
+
+  /**
+   * @return the buffer of the last encoded row, valid until the next one
+   */
+  public char[] getRow() {
+    return row;
+  }
+
+  public String getPsId() {
+    return ps.get(CompactPs.ID);
+  }
+
+  public String getGenderCode() {
+    return ps.get(CompactPs.GENDER_CODE);
+  }
+
+  /**
+   * @return the profession code of the situation, null if it has no profession
+   */
+  public String getProfessionCode() {
+    return get(professionSlot, CompactPs.PROFESSION_CODE);
+  }
+
+  public String getProfessionCategoryCode() {
+    return get(professionSlot, CompactPs.PROFESSION_CATEGORY_CODE);
+  }
+
+  public String getModeCode() {
+    return get(workSituationSlot, CompactPs.MODE_CODE);
+  }
+
+  public String getActivitySectorCode() {
+    return get(workSituationSlot, CompactPs.ACTIVITY_SECTOR_CODE);
+  }
+
+  public String getStructureTechnicalId() {
+    return get(structureSlot, CompactPs.STRUCTURE_TECHNICAL_ID);
+  }
+
+  public String getDepartmentCode() {
+    return get(structureSlot, CompactPs.DEPARTMENT_CODE);
+  }
+
+  private String get(int base, int field) {
+    return base == NONE ? null : ps.get(base + field);
+  }
+
+  private void appendFirstNames() {
+    if (firstNameCount == NONE) {
+      append("''|");
+      return;
+    }
+    if (firstNameCount == 0) {
+      // the model fails on an empty list of first names alike
+      throw new StringIndexOutOfBoundsException("Empty first names of Ps " + ps.getId());
+    }
+    for (int i = 0; i < firstNameCount; i++) {
+      int slot = CompactPs.PS_SLOTS + i;
+      if (ps.isNull(slot)) {
+        append("null");
+      } else {
+        append(ps.chars, ps.start(slot), ps.end(slot));
+      }
+      if (i != firstNameCount - 1) {
+        append('\'');
+      }
+    }
+    append('|');
+  }
+
+  private void appendColumns(int firstSlot, int count) {
+    for (int slot = firstSlot; slot < firstSlot + count; slot++) {
+      appendColumn(slot);
+    }
+  }
+
+  /**
+   * Appends a value, empty when null, and its separator.
+   */
+  private void appendColumn(int slot) {
+    append(ps.chars, ps.start(slot), ps.end(slot));
+    append('|');
+  }
+
+  private void appendSeparators(int count) {
+    ensureCapacity(count);
+    Arrays.fill(row, length, length + count, '|');
+    length += count;
+  }
+
+  private void append(char[] chars, int start, int end) {
+    ensureCapacity(end - start);
+    System.arraycopy(chars, start, row, length, end - start);
+    length += end - start;
+  }
+
+  private void append(String value) {
+    ensureCapacity(value.length());
+    value.getChars(0, value.length(), row, length);
+    length += value.length();
+  }
+
+  private void append(char c) {
+    ensureCapacity(1);
+    row[length++] = c;
+  }
+
+  private void ensureCapacity(int count) {
+    if (length + count > row.length) {
+      row = Arrays.copyOf(row, Math.max(row.length * 2, length + count));
+    }
+  }
+}
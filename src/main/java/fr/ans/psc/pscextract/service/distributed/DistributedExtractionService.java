@@ -0,0 +1,218 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.distributed;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.ans.psc.pscextract.controller.ExtractionController;
+import fr.ans.psc.pscextract.service.ExtractionResult;
+import fr.ans.psc.pscextract.service.RunManifest;
+import fr.ans.psc.pscextract.service.TransformationService;
+import fr.ans.psc.pscextract.service.TransformationService.PageRangeOutcome;
+import fr.ans.psc.pscextract.service.snapshot.PageSnapshots;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Extraction split in shards of pages, leased to several pscextract instances through a {@link ShardRun} in the
+ * shared {@code extract.distributed.directory}.
+ * <p>
+ * The coordinator creates the run, works on shards like any worker, then merges the shards in order into the extract.
+ * Workers poll the shared directory for open runs, see {@link ShardWorker}.
+ */
+@Service
+public class DistributedExtractionService {
+
+  private static final Logger log = LoggerFactory.getLogger(DistributedExtractionService.class);
+
+  public static final String ROLE_COORDINATOR = "coordinator";
+
+  public static final String ROLE_WORKER = "worker";
+
+  @Value("${extract.distributed.role}")
+  private String role;
+
+  @Value("${extract.distributed.directory}")
+  private String sharedDirectory;
+
+  @Value("${extract.distributed.shard.pages}")
+  private int shardPages;
+
+  @Value("${extract.distributed.lease.ms}")
+  private long leaseMs;
+
+  @Value("${extract.distributed.poll.ms}")
+  private long pollMs;
+
+  @Value("${extract.distributed.instance.id}")
+  private String instanceId;
+
+  @Value("${extract.snapshot.mode}")
+  private String snapshotMode;
+
+  @Autowired
+  private TransformationService transformationService;
+
+  @Autowired
+  private ObjectMapper objectMapper;
+
+  /**
+   * Instance id made unique, several instances may run on one host.
+   */
+  private String owner;
+
+  private final AtomicInteger processedShards = new AtomicInteger();
+
+  @PostConstruct
+  public void init() {
+    // the snapshot runs are only opened and closed by the standalone extraction
+    if ((isCoordinator() || isWorker())
+            && (PageSnapshots.MODE_RECORD.equals(snapshotMode) || PageSnapshots.MODE_REPLAY.equals(snapshotMode))) {
+      throw new IllegalArgumentException("extract.snapshot.mode=" + snapshotMode
+              + " is only supported by a standalone extraction, not by a " + role);
+    }
+    owner = instanceId + "-" + UUID.randomUUID().toString().substring(0, 8);
+  }
+
+  public boolean isCoordinator() {
+    return ROLE_COORDINATOR.equals(role);
+  }
+
+  public boolean isWorker() {
+    return ROLE_WORKER.equals(role);
+  }
+
+  public long getPollMs() {
+    return pollMs;
+  }
+
+  /**
+   * @return the shards this instance published
+   */
+  public int getProcessedShards() {
+    return processedShards.get();
+  }
+
+  /**
+   * Runs a distributed extraction as its coordinator.
+   */
+  public ExtractionResult extract(ExtractionController extractionController) throws IOException {
+    long phaseStartNanos = System.nanoTime();
+    RunManifest manifest = transformationService.newRunManifest(extractionController.getPageSize());
+    transformationService.setExtractionTime();
+    Path shared = Path.of(sharedDirectory);
+    // runs closed long ago have no worker left on them
+    ShardRun.purge(shared, 10 * leaseMs);
+    ShardRun run = ShardRun.create(shared, extractionController.getPageSize(), shardPages, leaseMs);
+    try {
+      while (!run.isComplete()) {
+        if (Thread.currentThread().isInterrupted()) {
+          log.info("Distributed extraction {} cancelled", run.getId());
+          return ExtractionResult.cancelled();
+        }
+        if (run.isFailed()) {
+          log.info("Distributed extraction {} failed, exiting without replacing the extract file", run.getId());
+          return ExtractionResult.failed();
+        }
+        ShardRun.Lease lease = run.claim(owner);
+        if (lease != null) {
+          processShard(extractionController, run, lease);
+        } else {
+          try {
+            Thread.sleep(pollMs);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      }
+
+      int endShard = run.getEndShard();
+      List<Path> shardFiles = new ArrayList<>();
+      for (int shard = 0; shard <= endShard; shard++) {
+        manifest.merge(objectMapper.readValue(run.getShardManifestFile(shard).toFile(), RunManifest.class));
+        shardFiles.add(run.getShardFile(shard));
+      }
+      log.info("Distributed extraction {} complete, merging {} shards", run.getId(), shardFiles.size());
+      return transformationService.publishShards(extractionController, shardFiles, manifest, phaseStartNanos);
+    } finally {
+      run.close();
+    }
+  }
+
+  /**
+   * Works on a shard of the first open run with one to lease.
+   *
+   * @return whether there was one
+   */
+  public boolean workOnce(ExtractionController extractionController) throws IOException {
+    for (ShardRun run : ShardRun.findOpen(Path.of(sharedDirectory))) {
+      ShardRun.Lease lease = run.claim(owner);
+      if (lease != null) {
+        processShard(extractionController, run, lease);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void processShard(ExtractionController extractionController, ShardRun run, ShardRun.Lease lease)
+          throws IOException {
+    log.info("Shard {} of {} leased (attempt {}), pages {} to {}", lease.getShard(), run.getId(), lease.getAttempt(),
+            lease.getFirstPage(), lease.getEndPage() - 1);
+    RunManifest manifest = transformationService.newRunManifest(run.getPageSize());
+    PageRangeOutcome outcome;
+    try (Writer writer = transformationService.openExtractWriter(lease.getTempFile(), null)) {
+      outcome = transformationService.writePages(extractionController, run.getPageSize(), lease.getFirstPage(),
+              lease.getEndPage(), writer, manifest, lease::renew);
+    } catch (IOException | RuntimeException e) {
+      lease.fail(e.toString());
+      throw e;
+    }
+    switch (outcome) {
+      case CANCELLED:
+        lease.release();
+        break;
+      case FAILED:
+        lease.fail("Pages of shard " + lease.getShard() + " could not be fetched");
+        break;
+      case NO_PAGES:
+        if (lease.getShard() == 0) {
+          // as in a standalone extraction, an API without any page fails the run
+          log.error("No pages found");
+          lease.fail("No pages found");
+          break;
+        }
+        // the previous shard ended on its last page, this one only marks the end
+      default:
+        if (lease.commit(objectMapper.writeValueAsBytes(manifest), outcome != PageRangeOutcome.END_OF_RANGE)) {
+          processedShards.incrementAndGet();
+          log.info("Shard {} of {} done, {} rows", lease.getShard(), run.getId(), manifest.getRowCount());
+        }
+    }
+  }
+}
@@ -0,0 +1,406 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.distributed;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * A distributed extraction, as a directory shared by the coordinator and the workers.
+ * <p>
+ * The pages are split in shards of {@code shardPages} pages, shard k covering pages k * shardPages to
+ * (k + 1) * shardPages excluded. A shard is leased by creating its {@code shard-<k>.lease.<attempt>} file, which
+ * only one instance can do, and the lease is kept alive by touching that file. Once it is older than
+ * {@code leaseMs} another instance can take the shard over by creating the lease file of the next attempt. A shard
+ * is done once its rows are moved to {@code shard-<k>.txt}, after its manifest and, for the shard where the API ran
+ * out of pages, its {@code shard-<k>.end} marker. The extraction is complete when the shards up to the first one
+ * marked as the end are done.
+ */
+public class ShardRun {
+
+  private static final Logger log = LoggerFactory.getLogger(ShardRun.class);
+
+  static final String RUN_FILE = "run.properties";
+
+  static final String CLOSED_MARKER = "closed";
+
+  private static final DateTimeFormatter RUN_ID_PATTERN = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+
+  private final Path directory;
+
+  private final int pageSize;
+
+  private final int shardPages;
+
+  private final long leaseMs;
+
+  private ShardRun(Path directory, int pageSize, int shardPages, long leaseMs) {
+    this.directory = directory;
+    this.pageSize = pageSize;
+    this.shardPages = shardPages;
+    this.leaseMs = leaseMs;
+  }
+
+  /**
+   * Creates a run in the shared directory, visible to the workers once complete.
+   */
+  public static ShardRun create(Path sharedDirectory, int pageSize, int shardPages, long leaseMs) throws IOException {
+    String runId = LocalDateTime.now().format(RUN_ID_PATTERN) + "-" + UUID.randomUUID().toString().substring(0, 8);
+    Path staging = Files.createDirectories(sharedDirectory.resolve("." + runId));
+    Properties run = new Properties();
+    run.setProperty("page.size", String.valueOf(pageSize));
+    run.setProperty("shard.pages", String.valueOf(shardPages));
+    run.setProperty("lease.ms", String.valueOf(leaseMs));
+    try (OutputStream out = Files.newOutputStream(staging.resolve(RUN_FILE))) {
+      run.store(out, "pscextract distributed extraction");
+    }
+    Path directory = Files.move(staging, sharedDirectory.resolve(runId), StandardCopyOption.ATOMIC_MOVE);
+    log.info("Distributed extraction {} created, {} pages per shard", runId, shardPages);
+    return new ShardRun(directory, pageSize, shardPages, leaseMs);
+  }
+
+  /**
+   * @return the runs of the shared directory still open
+   */
+  public static List<ShardRun> findOpen(Path sharedDirectory) throws IOException {
+    List<ShardRun> runs = new ArrayList<>();
+    if (!Files.isDirectory(sharedDirectory)) {
+      return runs;
+    }
+    try (DirectoryStream<Path> directories = Files.newDirectoryStream(sharedDirectory,
+            path -> Files.isDirectory(path) && !path.getFileName().toString().startsWith("."))) {
+      for (Path directory : directories) {
+        if (Files.exists(directory.resolve(CLOSED_MARKER))) {
+          continue;
+        }
+        Properties run = new Properties();
+        try (InputStream in = Files.newInputStream(directory.resolve(RUN_FILE))) {
+          run.load(in);
+        } catch (NoSuchFileException e) {
+          continue;
+        }
+        runs.add(new ShardRun(directory, Integer.parseInt(run.getProperty("page.size")),
+                Integer.parseInt(run.getProperty("shard.pages")), Long.parseLong(run.getProperty("lease.ms"))));
+      }
+    }
+    return runs;
+  }
+
+  /**
+   * @return a lease on the first shard neither done nor leased, null if there is none
+   */
+  public Lease claim(String owner) throws IOException {
+    int endShard = getEndShard();
+    for (int shard = 0; endShard < 0 || shard <= endShard; shard++) {
+      if (isClosed()) {
+        return null;
+      }
+      if (Files.exists(getShardFile(shard))) {
+        continue;
+      }
+      int attempt = getLatestAttempt(shard);
+      if (attempt >= 0 && !isExpired(getLeaseFile(shard, attempt))) {
+        continue;
+      }
+      Path leaseFile = getLeaseFile(shard, attempt + 1);
+      try {
+        Files.writeString(Files.createFile(leaseFile), owner);
+      } catch (FileAlreadyExistsException e) {
+        // taken by another instance in the meantime
+        continue;
+      }
+      if (attempt >= 0) {
+        log.warn("Lease {} of shard {} expired, taken over by {}", attempt, shard, owner);
+      }
+      return new Lease(shard, attempt + 1);
+    }
+    return null;
+  }
+
+  /**
+   * @return the first shard the API ran out of pages in, -1 while unknown
+   */
+  public int getEndShard() throws IOException {
+    int endShard = -1;
+    try (Stream<Path> files = Files.list(directory)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        String name = file.getFileName().toString();
+        if (name.startsWith("shard-") && name.endsWith(".end")) {
+          int shard = Integer.parseInt(name.substring("shard-".length(), name.length() - ".end".length()));
+          endShard = endShard < 0 ? shard : Math.min(endShard, shard);
+        }
+      }
+    }
+    return endShard;
+  }
+
+  /**
+   * @return whether every shard up to the end is done
+   */
+  public boolean isComplete() throws IOException {
+    int endShard = getEndShard();
+    if (endShard < 0) {
+      return false;
+    }
+    for (int shard = 0; shard <= endShard; shard++) {
+      if (!Files.exists(getShardFile(shard))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return whether a worker failed to fetch the pages of a shard
+   */
+  public boolean isFailed() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.anyMatch(file -> file.getFileName().toString().endsWith(".failed"));
+    }
+  }
+
+  public boolean isClosed() {
+    return Files.exists(directory.resolve(CLOSED_MARKER));
+  }
+
+  /**
+   * Stops the workers from taking shards and removes the shard files, the run directory itself is left to
+   * {@link #purge(Path, long)}.
+   */
+  public void close() throws IOException {
+    if (!isClosed()) {
+      Files.createFile(directory.resolve(CLOSED_MARKER));
+    }
+    try (Stream<Path> files = Files.list(directory)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        if (file.getFileName().toString().startsWith("shard-")) {
+          Files.deleteIfExists(file);
+        }
+      }
+    }
+  }
+
+  /**
+   * Removes the closed runs older than closedMaxAgeMs, whose workers are gone, and the open runs left behind by a
+   * coordinator that died : those with no file touched for longer than their lease.
+   */
+  public static void purge(Path sharedDirectory, long closedMaxAgeMs) throws IOException {
+    if (!Files.isDirectory(sharedDirectory)) {
+      return;
+    }
+    try (DirectoryStream<Path> directories = Files.newDirectoryStream(sharedDirectory, Files::isDirectory)) {
+      for (Path directory : directories) {
+        Path closed = directory.resolve(CLOSED_MARKER);
+        if (Files.exists(closed)) {
+          if (System.currentTimeMillis() - Files.getLastModifiedTime(closed).toMillis() > closedMaxAgeMs) {
+            delete(directory);
+          }
+        } else if (isAbandoned(directory, closedMaxAgeMs)) {
+          log.warn("Distributed extraction {} abandoned, purged", directory.getFileName());
+          delete(directory);
+        }
+      }
+    }
+  }
+
+  private static boolean isAbandoned(Path directory, long closedMaxAgeMs) throws IOException {
+    // a run still being created has no lease yet, it is only given up on as late as a closed run
+    long maxAgeMs = closedMaxAgeMs;
+    Properties run = new Properties();
+    try (InputStream in = Files.newInputStream(directory.resolve(RUN_FILE))) {
+      run.load(in);
+      maxAgeMs = Long.parseLong(run.getProperty("lease.ms"));
+    } catch (NoSuchFileException e) {
+      // staging directory or run file not written yet
+    }
+    long lastTouched = Files.getLastModifiedTime(directory).toMillis();
+    try (Stream<Path> files = Files.list(directory)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        try {
+          lastTouched = Math.max(lastTouched, Files.getLastModifiedTime(file).toMillis());
+        } catch (NoSuchFileException e) {
+          // moved by a worker in the meantime, which is still alive then
+          return false;
+        }
+      }
+    }
+    return System.currentTimeMillis() - lastTouched > maxAgeMs;
+  }
+
+  private static void delete(Path directory) throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        Files.deleteIfExists(file);
+      }
+    }
+    Files.deleteIfExists(directory);
+  }
+
+  public String getId() {
+    return directory.getFileName().toString();
+  }
+
+  public int getPageSize() {
+    return pageSize;
+  }
+
+  public int getShardPages() {
+    return shardPages;
+  }
+
+  public Path getShardFile(int shard) {
+    return directory.resolve("shard-" + shard + ".txt");
+  }
+
+  public Path getShardManifestFile(int shard) {
+    return directory.resolve("shard-" + shard + ".json");
+  }
+
+  private Path getLeaseFile(int shard, int attempt) {
+    return directory.resolve("shard-" + shard + ".lease." + attempt);
+  }
+
+  private int getLatestAttempt(int shard) throws IOException {
+    String prefix = "shard-" + shard + ".lease.";
+    int attempt = -1;
+    try (DirectoryStream<Path> leases = Files.newDirectoryStream(directory, prefix + "*")) {
+      for (Path lease : leases) {
+        attempt = Math.max(attempt, Integer.parseInt(lease.getFileName().toString().substring(prefix.length())));
+      }
+    }
+    return attempt;
+  }
+
+  private boolean isExpired(Path leaseFile) throws IOException {
+    try {
+      return System.currentTimeMillis() - Files.getLastModifiedTime(leaseFile).toMillis() > leaseMs;
+    } catch (NoSuchFileException e) {
+      return true;
+    }
+  }
+
+  /**
+   * The lease of an instance on a shard.
+   */
+  public class Lease {
+
+    private final int shard;
+
+    private final int attempt;
+
+    private Lease(int shard, int attempt) {
+      this.shard = shard;
+      this.attempt = attempt;
+    }
+
+    public int getShard() {
+      return shard;
+    }
+
+    public int getAttempt() {
+      return attempt;
+    }
+
+    public int getFirstPage() {
+      return shard * shardPages;
+    }
+
+    public int getEndPage() {
+      return (shard + 1) * shardPages;
+    }
+
+    /**
+     * @return where to write the rows before {@link #commit}
+     */
+    public Path getTempFile() {
+      return directory.resolve("shard-" + shard + "." + attempt + ".tmp");
+    }
+
+    public void renew() {
+      try {
+        Files.setLastModifiedTime(getLeaseFile(shard, attempt), FileTime.fromMillis(System.currentTimeMillis()));
+      } catch (IOException e) {
+        log.warn("Lease {} of shard {} could not be renewed : {}", attempt, shard, e.getMessage());
+      }
+    }
+
+    /**
+     * @return whether the shard was taken over by another instance
+     */
+    public boolean isLost() throws IOException {
+      return getLatestAttempt(shard) > attempt || isClosed();
+    }
+
+    /**
+     * Publishes the rows written to the temp file, unless the lease was lost meanwhile.
+     *
+     * @param manifest the shard manifest
+     * @param end      whether the API ran out of pages in this shard
+     * @return whether the shard was published
+     */
+    public boolean commit(byte[] manifest, boolean end) throws IOException {
+      if (isLost()) {
+        log.warn("Lease {} of shard {} lost, its rows are dropped", attempt, shard);
+        Files.deleteIfExists(getTempFile());
+        return false;
+      }
+      Path manifestTemp = directory.resolve("shard-" + shard + "." + attempt + ".json.tmp");
+      Files.write(manifestTemp, manifest);
+      Files.move(manifestTemp, getShardManifestFile(shard), StandardCopyOption.ATOMIC_MOVE,
+              StandardCopyOption.REPLACE_EXISTING);
+      if (end && !Files.exists(directory.resolve("shard-" + shard + ".end"))) {
+        Files.createFile(directory.resolve("shard-" + shard + ".end"));
+      }
+      Files.move(getTempFile(), getShardFile(shard), StandardCopyOption.ATOMIC_MOVE,
+              StandardCopyOption.REPLACE_EXISTING);
+      return true;
+    }
+
+    /**
+     * Fails the whole run, its pages could not be fetched.
+     */
+    public void fail(String reason) throws IOException {
+      Files.deleteIfExists(getTempFile());
+      Files.writeString(directory.resolve("shard-" + shard + "." + attempt + ".failed"), reason);
+    }
+
+    /**
+     * Gives the shard back to the other instances, its rows are dropped.
+     */
+    public void release() throws IOException {
+      Files.deleteIfExists(getTempFile());
+      Files.setLastModifiedTime(getLeaseFile(shard, attempt), FileTime.fromMillis(0));
+    }
+  }
+}
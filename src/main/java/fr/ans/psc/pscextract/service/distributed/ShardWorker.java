@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.distributed;
+
+import fr.ans.psc.pscextract.controller.ExtractionController;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+/**
+ * Background thread of a worker instance, working on the shards of the distributed extractions of the coordinator.
+ */
+@Component
+public class ShardWorker {
+
+  private static final Logger log = LoggerFactory.getLogger(ShardWorker.class);
+
+  @Autowired
+  private DistributedExtractionService distributedExtractionService;
+
+  @Autowired
+  private ExtractionController extractionController;
+
+  private Thread thread;
+
+  @PostConstruct
+  public void start() {
+    if (!distributedExtractionService.isWorker()) {
+      return;
+    }
+    thread = new Thread(this::work, "shard-worker");
+    thread.setDaemon(true);
+    thread.start();
+    log.info("Shard worker started");
+  }
+
+  @PreDestroy
+  public void stop() throws InterruptedException {
+    if (thread != null) {
+      thread.interrupt();
+      thread.join(distributedExtractionService.getPollMs() * 10);
+    }
+  }
+
+  private void work() {
+    while (!Thread.currentThread().isInterrupted()) {
+      try {
+        if (!distributedExtractionService.workOnce(extractionController)) {
+          Thread.sleep(distributedExtractionService.getPollMs());
+        }
+      } catch (InterruptedException e) {
+        return;
+      } catch (Exception e) {
+        log.error("Shard worker failure", e);
+        try {
+          Thread.sleep(distributedExtractionService.getPollMs());
+        } catch (InterruptedException interrupted) {
+          return;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.fetch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Paces page fetches so that extractions only hit psc-api-maj at full speed during off-peak hours, and slow down
+ * to a page per {@code extract.fetch.peak.page.interval.ms} otherwise.
+ */
+@Component
+public class FetchThrottle {
+
+  private static final Logger log = LoggerFactory.getLogger(FetchThrottle.class);
+
+  private static final ZoneId ZONE = ZoneId.of("Europe/Paris");
+
+  @Value("${extract.fetch.offpeak.window}")
+  private String offPeakWindow;
+
+  @Value("${extract.fetch.peak.page.interval.ms}")
+  private long peakPageIntervalMs;
+
+  private LocalTime offPeakStart;
+
+  private LocalTime offPeakEnd;
+
+  private long lastFetchNanos;
+
+  @PostConstruct
+  public void init() {
+    setOffPeakWindow(offPeakWindow);
+  }
+
+  /**
+   * @param window HH:mm-HH:mm, possibly spanning midnight, empty if there are no peak hours, starting and ending at
+   *               the same time if there are no off-peak hours
+   * @throws IllegalArgumentException if the window is malformed
+   */
+  public void setOffPeakWindow(String window) {
+    if (window == null || window.isBlank()) {
+      offPeakStart = null;
+      offPeakEnd = null;
+      return;
+    }
+    String[] bounds = window.split("-");
+    try {
+      if (bounds.length != 2) {
+        throw new IllegalArgumentException("Off-peak window must be HH:mm-HH:mm : " + window);
+      }
+      offPeakStart = LocalTime.parse(bounds[0].trim());
+      offPeakEnd = LocalTime.parse(bounds[1].trim());
+    } catch (DateTimeParseException e) {
+      throw new IllegalArgumentException("Off-peak window must be HH:mm-HH:mm : " + window, e);
+    }
+  }
+
+  public void setPeakPageIntervalMs(long peakPageIntervalMs) {
+    this.peakPageIntervalMs = peakPageIntervalMs;
+  }
+
+  public boolean isOffPeak(LocalTime time) {
+    if (offPeakStart == null) {
+      return true;
+    }
+    if (offPeakStart.equals(offPeakEnd)) {
+      // an empty window, not a whole day
+      return false;
+    }
+    if (offPeakStart.isBefore(offPeakEnd)) {
+      return !time.isBefore(offPeakStart) && time.isBefore(offPeakEnd);
+    }
+    // the window spans midnight
+    return !time.isBefore(offPeakStart) || time.isBefore(offPeakEnd);
+  }
+
+  /**
+   * @return how long to wait before the next page fetch, in milliseconds
+   */
+  public long getDelayBeforeNextFetch(LocalTime time, long nowNanos) {
+    if (peakPageIntervalMs <= 0 || isOffPeak(time) || lastFetchNanos == 0) {
+      return 0;
+    }
+    long elapsedMs = (nowNanos - lastFetchNanos) / 1_000_000;
+    return Math.max(0, peakPageIntervalMs - elapsedMs);
+  }
+
+  /**
+   * Called by the extraction before each page fetch, waits as long as needed. An interruption ends the wait and
+   * is left pending for the extraction to notice.
+   */
+  public void beforePageFetch() {
+    long delay = getDelayBeforeNextFetch(LocalTime.now(ZONE), System.nanoTime());
+    if (delay > 0) {
+      log.debug("Peak hours, waiting {} ms before fetching the next page", delay);
+      try {
+        Thread.sleep(delay);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    lastFetchNanos = System.nanoTime();
+  }
+
+  /**
+   * Forgets the previous fetch, to be called when an extraction starts.
+   */
+  public void reset() {
+    lastFetchNanos = 0;
+  }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.fetch;
+
+import fr.ans.psc.pscextract.service.metrics.ExtractionMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * Estimated heap held by the pages of the running extraction, capped by {@code extract.memory.budget.mb}.
+ * <p>
+ * The fetch stage blocks in {@link #acquire(long)} until downstream stages have released enough bytes, while
+ * downstream stages only account what they hold with {@link #reserve(long)}, so that they can never deadlock on
+ * budget held upstream. A request larger than the whole budget is granted once nothing else is held.
+ */
+@Component
+public class MemoryBudget {
+
+  @Value("${extract.memory.budget.mb}")
+  private long budgetMb;
+
+  @Autowired
+  private ExtractionMetrics metrics;
+
+  private long capacityBytes;
+
+  private long usedBytes;
+
+  private long peakBytes;
+
+  @PostConstruct
+  public void init() {
+    setCapacityBytes(budgetMb * 1024 * 1024);
+    metrics.monitor(this);
+  }
+
+  /**
+   * Waits until {@code bytes} fit in the budget, then holds them.
+   */
+  public void acquire(long bytes) throws InterruptedException {
+    long start = System.nanoTime();
+    boolean waited = false;
+    synchronized (this) {
+      while (usedBytes > 0 && usedBytes + bytes > capacityBytes) {
+        waited = true;
+        wait();
+      }
+      hold(bytes);
+    }
+    if (waited) {
+      metrics.memoryBudgetWaited(System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Holds {@code bytes} without waiting, possibly going over the budget.
+   */
+  public synchronized void reserve(long bytes) {
+    hold(bytes);
+  }
+
+  public synchronized void release(long bytes) {
+    usedBytes = Math.max(0, usedBytes - bytes);
+    notifyAll();
+  }
+
+  private void hold(long bytes) {
+    usedBytes += bytes;
+    peakBytes = Math.max(peakBytes, usedBytes);
+  }
+
+  public synchronized long getCapacityBytes() {
+    return capacityBytes;
+  }
+
+  public synchronized void setCapacityBytes(long capacityBytes) {
+    this.capacityBytes = capacityBytes;
+    notifyAll();
+  }
+
+  public synchronized long getUsedBytes() {
+    return usedBytes;
+  }
+
+  /**
+   * @return the most bytes held at once since the last {@link #resetPeak()}
+   */
+  public synchronized long getPeakBytes() {
+    return peakBytes;
+  }
+
+  public synchronized void resetPeak() {
+    peakBytes = usedBytes;
+  }
+}
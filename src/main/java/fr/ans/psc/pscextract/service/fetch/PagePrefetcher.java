@@ -0,0 +1,272 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.fetch;
+
+import fr.ans.psc.model.Ps;
+import fr.ans.psc.pscextract.service.compact.CompactPs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fetches the pages of an extraction on a thread of its own, ahead of the thread transforming them.
+ * <p>
+ * At most {@code prefetchPages} pages wait in the queue, and each page holds its estimated heap footprint in the
+ * {@link MemoryBudget} from before it is fetched until the transforming thread {@link #release(Page) releases} it,
+ * so a full budget stops the fetches instead of the heap filling up. Fetches stop at the first failure, which is
+ * rethrown by {@link #next()} once the pages before it have been consumed, or at the end of the page range.
+ */
+public class PagePrefetcher implements AutoCloseable {
+
+  private static final Logger log = LoggerFactory.getLogger(PagePrefetcher.class);
+
+  /**
+   * Heap footprint of the psc-api-client model per byte of JSON response : a page is mostly short strings, each with
+   * its own object headers and array.
+   */
+  static final int HEAP_BYTES_PER_RESPONSE_BYTE = 3;
+
+  /**
+   * Footprint assumed per Ps when the response size is unknown, and for the first page.
+   */
+  static final int HEAP_BYTES_PER_PS = 4096;
+
+  /**
+   * Fetches one page, reporting the size of the response body in {@link Page#getResponseBytes()}.
+   */
+  public interface PageSource {
+    Page fetch(int page);
+  }
+
+  public static class Page {
+
+    private final int number;
+
+    private final List<Ps> psList;
+
+    private final List<CompactPs> compactPsList;
+
+    private final long responseBytes;
+
+    private final RuntimeException failure;
+
+    private long heldBytes;
+
+    public Page(int number, List<Ps> psList, long responseBytes) {
+      this(number, psList, null, responseBytes, null);
+    }
+
+    private Page(int number, List<Ps> psList, List<CompactPs> compactPsList, long responseBytes,
+                 RuntimeException failure) {
+      this.number = number;
+      this.psList = psList;
+      this.compactPsList = compactPsList;
+      this.responseBytes = responseBytes;
+      this.failure = failure;
+    }
+
+    /**
+     * A page read into the compact model, {@link #getPsList()} is null.
+     */
+    public static Page compact(int number, List<CompactPs> compactPsList, long responseBytes) {
+      return new Page(number, null, compactPsList, responseBytes, null);
+    }
+
+    public int getNumber() {
+      return number;
+    }
+
+    public List<Ps> getPsList() {
+      return psList;
+    }
+
+    /**
+     * @return the Ps of a {@link #compact} page, null otherwise
+     */
+    public List<CompactPs> getCompactPsList() {
+      return compactPsList;
+    }
+
+    public int getPsCount() {
+      return compactPsList != null ? compactPsList.size() : psList == null ? 0 : psList.size();
+    }
+
+    public long getResponseBytes() {
+      return responseBytes;
+    }
+
+    public long getHeldBytes() {
+      return heldBytes;
+    }
+  }
+
+  private static final Page END_OF_RANGE = new Page(-1, null, 0);
+
+  private final PageSource source;
+
+  private final MemoryBudget budget;
+
+  private final BlockingQueue<Page> queue;
+
+  private final Thread fetcher;
+
+  private long heldBytes;
+
+  private boolean closed;
+
+  public PagePrefetcher(PageSource source, MemoryBudget budget, int pageSize, int prefetchPages) {
+    this(source, budget, pageSize, prefetchPages, 0, Integer.MAX_VALUE);
+  }
+
+  /**
+   * @param firstPage first page fetched
+   * @param endPage   page the fetches stop at, excluded
+   */
+  public PagePrefetcher(PageSource source, MemoryBudget budget, int pageSize, int prefetchPages, int firstPage,
+                        int endPage) {
+    this.source = source;
+    this.budget = budget;
+    this.queue = new ArrayBlockingQueue<>(Math.max(1, prefetchPages));
+    this.fetcher = new Thread(() -> fetchPages((long) pageSize * HEAP_BYTES_PER_PS, firstPage, endPage),
+            "extract-prefetch");
+    fetcher.setDaemon(true);
+    fetcher.start();
+  }
+
+  /**
+   * @return the next page, waiting for it to be fetched, null after the last page of the range
+   * @throws RuntimeException the failure of the fetch of that page
+   */
+  public Page next() throws InterruptedException {
+    Page page;
+    do {
+      page = queue.poll(1, TimeUnit.SECONDS);
+      if (page == null && !fetcher.isAlive() && queue.isEmpty()) {
+        throw new IllegalStateException("Page prefetch stopped");
+      }
+    } while (page == null);
+    if (page.failure != null) {
+      throw page.failure;
+    }
+    return page == END_OF_RANGE ? null : page;
+  }
+
+  /**
+   * Gives back the budget held by a page, to be called once it has been written.
+   */
+  public synchronized void release(Page page) {
+    if (!closed) {
+      budget.release(page.heldBytes);
+      heldBytes -= page.heldBytes;
+    }
+    page.heldBytes = 0;
+  }
+
+  /**
+   * Stops the fetches and gives back the budget held by the pages not released yet.
+   */
+  @Override
+  public void close() {
+    // interrupted first, a fetcher waiting for the budget must not take what is given back
+    fetcher.interrupt();
+    synchronized (this) {
+      closed = true;
+      budget.release(heldBytes);
+      heldBytes = 0;
+    }
+    queue.clear();
+  }
+
+  private void fetchPages(long expectedBytes, int firstPage, int endPage) {
+    int number = firstPage;
+    try {
+      while (number < endPage) {
+        budget.acquire(expectedBytes);
+        if (!hold(expectedBytes)) {
+          return;
+        }
+        Page page;
+        try {
+          page = source.fetch(number);
+        } catch (RuntimeException e) {
+          unhold(expectedBytes);
+          queue.put(new Page(number, null, null, 0, e));
+          return;
+        }
+        long actualBytes = estimateHeapBytes(page);
+        if (actualBytes > budget.getCapacityBytes()) {
+          log.warn("Page {} is estimated at {} bytes, more than the whole memory budget, consider a smaller page size",
+                  number, actualBytes);
+        }
+        if (!resize(expectedBytes, actualBytes)) {
+          return;
+        }
+        page.heldBytes = actualBytes;
+        queue.put(page);
+        expectedBytes = actualBytes;
+        number++;
+      }
+      queue.put(END_OF_RANGE);
+    } catch (InterruptedException e) {
+      log.debug("Page prefetch interrupted at page {}", number);
+    }
+  }
+
+  static long estimateHeapBytes(Page page) {
+    if (page.compactPsList != null) {
+      // the compact model knows its footprint
+      long heapBytes = 0;
+      for (CompactPs compactPs : page.compactPsList) {
+        heapBytes += compactPs.getHeapBytes();
+      }
+      return heapBytes;
+    }
+    if (page.responseBytes > 0) {
+      return page.responseBytes * HEAP_BYTES_PER_RESPONSE_BYTE;
+    }
+    return page.psList == null ? 0 : (long) page.psList.size() * HEAP_BYTES_PER_PS;
+  }
+
+  private synchronized boolean hold(long bytes) {
+    if (closed) {
+      budget.release(bytes);
+      return false;
+    }
+    heldBytes += bytes;
+    return true;
+  }
+
+  private synchronized void unhold(long bytes) {
+    if (!closed) {
+      budget.release(bytes);
+      heldBytes -= bytes;
+    }
+  }
+
+  private synchronized boolean resize(long fromBytes, long toBytes) {
+    if (closed) {
+      return false;
+    }
+    budget.reserve(toBytes);
+    budget.release(fromBytes);
+    heldBytes += toBytes - fromBytes;
+    return true;
+  }
+}
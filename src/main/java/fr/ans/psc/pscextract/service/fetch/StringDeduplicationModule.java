@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.fetch;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.DeserializationConfig;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.BeanDeserializerBuilder;
+import com.fasterxml.jackson.databind.deser.BeanDeserializerModifier;
+import com.fasterxml.jackson.databind.deser.SettableBeanProperty;
+import com.fasterxml.jackson.databind.deser.std.StdScalarDeserializer;
+import com.fasterxml.jackson.databind.deser.std.StringDeserializer;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import fr.ans.psc.model.Expertise;
+import fr.ans.psc.model.Profession;
+import fr.ans.psc.model.Ps;
+import fr.ans.psc.model.Structure;
+import fr.ans.psc.model.WorkSituation;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Jackson module deduplicating the code fields of the psc-api-maj model while pages are deserialized.
+ * <p>
+ * These fields take a few hundred distinct values over millions of Ps, each field gets a {@link StringPool} of its
+ * own so that a high cardinality field cannot evict the values of another.
+ */
+public class StringDeduplicationModule extends SimpleModule {
+
+  static final Map<Class<?>, Set<String>> POOLED_FIELDS = Map.of(
+          Ps.class, Set.of("idType", "genderCode", "birthCountryCode", "salutationCode"),
+          Profession.class, Set.of("code", "categoryCode", "salutationCode"),
+          Expertise.class, Set.of("typeCode", "code"),
+          WorkSituation.class, Set.of("modeCode", "activitySectorCode", "pharmacistTableSectionCode", "roleCode",
+                  "activityKindCode", "registrationAuthority"),
+          Structure.class, Set.of("streetCategoryCode", "cedexOffice", "postalCode", "communeCode", "countryCode",
+                  "departmentCode"));
+
+  private final int poolSize;
+
+  private final Map<String, StringPool> pools = new ConcurrentHashMap<>();
+
+  /**
+   * @param poolSize slots of the pool of each field
+   */
+  public StringDeduplicationModule(int poolSize) {
+    super(StringDeduplicationModule.class.getSimpleName());
+    this.poolSize = poolSize;
+    setDeserializerModifier(new BeanDeserializerModifier() {
+      @Override
+      public BeanDeserializerBuilder updateBuilder(DeserializationConfig config, BeanDescription beanDesc,
+                                                   BeanDeserializerBuilder builder) {
+        Set<String> fields = POOLED_FIELDS.get(beanDesc.getBeanClass());
+        if (fields == null) {
+          return builder;
+        }
+        Iterator<SettableBeanProperty> properties = builder.getProperties();
+        while (properties.hasNext()) {
+          SettableBeanProperty property = properties.next();
+          if (fields.contains(property.getName()) && property.getType().hasRawClass(String.class)) {
+            StringPool pool = pools.computeIfAbsent(beanDesc.getBeanClass().getSimpleName() + "." + property.getName(),
+                    name -> new StringPool(poolSize));
+            builder.addOrReplaceProperty(property.withValueDeserializer(new PooledStringDeserializer(pool)), true);
+          }
+        }
+        return builder;
+      }
+    });
+  }
+
+  /**
+   * @return the pool of each deduplicated field, by Class.field
+   */
+  public Map<String, StringPool> getPools() {
+    return Collections.unmodifiableMap(new TreeMap<>(pools));
+  }
+
+  static class PooledStringDeserializer extends StdScalarDeserializer<String> {
+
+    private final transient StringPool pool;
+
+    PooledStringDeserializer(StringPool pool) {
+      super(String.class);
+      this.pool = pool;
+    }
+
+    @Override
+    public String deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+      if (p.hasToken(JsonToken.VALUE_STRING)) {
+        return pool.intern(p.getTextCharacters(), p.getTextOffset(), p.getTextLength());
+      }
+      return StringDeserializer.instance.deserialize(p, ctxt);
+    }
+  }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.fetch;
+
+/**
+ * Bounded cache of the values of a low cardinality field, so that equal values share one String.
+ * <p>
+ * The cache is direct mapped : a value evicts the one sharing its slot, so a field that turns out not to be low
+ * cardinality only costs a few misses and never grows the pool. Races between threads at worst lose a cached value.
+ */
+public class StringPool {
+
+  /**
+   * Longer values are never cached, they would rarely repeat and would pin more heap.
+   */
+  static final int MAX_POOLED_LENGTH = 64;
+
+  private final String[] slots;
+
+  private final int mask;
+
+  private long hits;
+
+  private long misses;
+
+  /**
+   * @param size number of slots, rounded up to a power of two
+   */
+  public StringPool(int size) {
+    int slotCount = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+    slots = new String[slotCount];
+    mask = slotCount - 1;
+  }
+
+  public String intern(char[] chars, int offset, int length) {
+    if (length > MAX_POOLED_LENGTH) {
+      return new String(chars, offset, length);
+    }
+    int hash = 0;
+    for (int i = offset; i < offset + length; i++) {
+      hash = 31 * hash + chars[i];
+    }
+    int slot = (hash ^ (hash >>> 16)) & mask;
+    String cached = slots[slot];
+    if (cached != null && contentEquals(cached, chars, offset, length)) {
+      hits++;
+      return cached;
+    }
+    misses++;
+    String value = new String(chars, offset, length);
+    slots[slot] = value;
+    return value;
+  }
+
+  private static boolean contentEquals(String value, char[] chars, int offset, int length) {
+    if (value.length() != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (value.charAt(i) != chars[offset + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public long getHits() {
+    return hits;
+  }
+
+  public long getMisses() {
+    return misses;
+  }
+}
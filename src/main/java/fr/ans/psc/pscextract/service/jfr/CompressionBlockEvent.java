@@ -0,0 +1,42 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("fr.ans.psc.pscextract.CompressionBlock")
+@Label("Compression Block")
+@Category({"PSC Extract"})
+@Description("Deflate of a block of the data entry into the extract archive.")
+public class CompressionBlockEvent extends Event {
+
+  @Label("Offset")
+  @DataAmount
+  public long offset;
+
+  @Label("Bytes In")
+  @DataAmount
+  public long bytesIn;
+
+  @Label("Bytes Out")
+  @DataAmount
+  public long bytesOut;
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.jfr;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Single in-process flight recording, bounded in age and size, started and dumped on demand.
+ */
+@Service
+public class JfrRecordingService {
+
+  private static final Logger log = LoggerFactory.getLogger(JfrRecordingService.class);
+
+  private static final List<Class<? extends jdk.jfr.Event>> EXTRACTION_EVENTS = List.of(PageFetchEvent.class,
+          PageTransformEvent.class, CompressionBlockEvent.class, PublishEvent.class, CleanupEvent.class);
+
+  @Value("${extract.jfr.settings}")
+  private String settings;
+
+  @Value("${extract.jfr.max.age.minutes}")
+  private long maxAgeMinutes;
+
+  @Value("${extract.jfr.max.size.mb}")
+  private long maxSizeMb;
+
+  private Recording recording;
+
+  /**
+   * Starts a new recording, closing the current one if any.
+   *
+   * @param maxAgeMinutes age beyond which recorded events are dropped, null for the configured one
+   * @param maxSizeMb     size beyond which the oldest events are dropped, null for the configured one
+   * @return the recording state
+   */
+  public synchronized String start(Long maxAgeMinutes, Long maxSizeMb) throws IOException, ParseException {
+    if (recording != null) {
+      recording.close();
+    }
+    recording = new Recording(Configuration.getConfiguration(settings));
+    recording.setName("pscextract");
+    for (Class<? extends jdk.jfr.Event> eventClass : EXTRACTION_EVENTS) {
+      recording.enable(eventClass);
+    }
+    recording.setToDisk(true);
+    recording.setMaxAge(Duration.ofMinutes(maxAgeMinutes != null ? maxAgeMinutes : this.maxAgeMinutes));
+    recording.setMaxSize((maxSizeMb != null ? maxSizeMb : this.maxSizeMb) * 1024 * 1024);
+    recording.start();
+    log.info("Flight recording {} started with {} settings", recording.getId(), settings);
+    return getState();
+  }
+
+  public synchronized String stop() {
+    if (recording == null || recording.getState() != RecordingState.RUNNING) {
+      return getState();
+    }
+    recording.stop();
+    log.info("Flight recording {} stopped", recording.getId());
+    return getState();
+  }
+
+  /**
+   * @return NONE if no recording was started, else the JFR recording state
+   */
+  public synchronized String getState() {
+    return recording == null ? "NONE" : recording.getState().name();
+  }
+
+  /**
+   * Dumps what the recording holds so far, be it running or stopped.
+   *
+   * @return a temp file the caller has to delete, null if there is no recording to dump
+   */
+  public synchronized Path dump() throws IOException {
+    if (recording == null || recording.getState() == RecordingState.NEW
+            || recording.getState() == RecordingState.CLOSED) {
+      return null;
+    }
+    Path dump = Files.createTempFile("pscextract-", ".jfr");
+    recording.dump(dump);
+    return dump;
+  }
+
+  @PreDestroy
+  public synchronized void close() {
+    if (recording != null) {
+      recording.close();
+      recording = null;
+    }
+  }
+}
@@ -0,0 +1,43 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("fr.ans.psc.pscextract.PageFetch")
+@Label("Page Fetch")
+@Category({"PSC Extract"})
+@Description("Fetch of a page of Ps from psc-api-maj, the event duration is the request latency.")
+public class PageFetchEvent extends Event {
+
+  @Label("Page")
+  public long page;
+
+  @Label("Page Size")
+  public int size;
+
+  @Label("Ps Received")
+  public int psCount;
+
+  @Label("Response Bytes")
+  @DataAmount
+  public long bytes;
+}
@@ -0,0 +1,41 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("fr.ans.psc.pscextract.PageTransform")
+@Label("Page Transform")
+@Category({"PSC Extract"})
+@Description("Unwinding of a page of Ps and encoding of its rows to the temp file.")
+public class PageTransformEvent extends Event {
+
+  @Label("Page")
+  public long page;
+
+  @Label("Ps In")
+  public int psCount;
+
+  @Label("Unwound Ps")
+  public int unwoundCount;
+
+  @Label("Rows Out")
+  public int rowCount;
+}
@@ -0,0 +1,178 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.job;
+
+import fr.ans.psc.pscextract.service.ExtractionResult;
+
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * One extraction request, from its admission to its outcome.
+ */
+public class ExtractionJob {
+
+  public enum State {
+    QUEUED,
+    RUNNING,
+    FINISHED,
+    FAILED,
+    CANCELLED
+  }
+
+  private final String id = UUID.randomUUID().toString();
+
+  private final Integer pageSize;
+
+  private final Instant submittedAt = Instant.now();
+
+  private Instant startedAt;
+
+  private Instant finishedAt;
+
+  private State state = State.QUEUED;
+
+  private ExtractionResult.Status result;
+
+  private String error;
+
+  private boolean cancelRequested;
+
+  private Thread runner;
+
+  private Future<?> future;
+
+  ExtractionJob(Integer pageSize) {
+    this.pageSize = pageSize;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  /**
+   * @return the page size requested for this job, null for the configured one
+   */
+  public Integer getPageSize() {
+    return pageSize;
+  }
+
+  public Instant getSubmittedAt() {
+    return submittedAt;
+  }
+
+  public synchronized Instant getStartedAt() {
+    return startedAt;
+  }
+
+  public synchronized Instant getFinishedAt() {
+    return finishedAt;
+  }
+
+  public synchronized State getState() {
+    return state;
+  }
+
+  /**
+   * @return the extraction outcome once the job is FINISHED
+   */
+  public synchronized ExtractionResult.Status getResult() {
+    return result;
+  }
+
+  public synchronized String getError() {
+    return error;
+  }
+
+  public synchronized boolean isDone() {
+    return state != State.QUEUED && state != State.RUNNING;
+  }
+
+  /**
+   * Blocks until the job is done.
+   */
+  public void awaitDone() throws InterruptedException {
+    Future<?> jobFuture;
+    synchronized (this) {
+      jobFuture = future;
+    }
+    try {
+      jobFuture.get();
+    } catch (CancellationException | ExecutionException e) {
+      // the state of the job tells what happened
+    }
+  }
+
+  synchronized void setFuture(Future<?> future) {
+    this.future = future;
+  }
+
+  /**
+   * @return false if the job was cancelled while queued and must not run
+   */
+  synchronized boolean start() {
+    if (state != State.QUEUED) {
+      return false;
+    }
+    state = State.RUNNING;
+    startedAt = Instant.now();
+    runner = Thread.currentThread();
+    return true;
+  }
+
+  synchronized void finish(ExtractionResult extractionResult) {
+    result = extractionResult.getStatus();
+    state = result == ExtractionResult.Status.CANCELLED ? State.CANCELLED : State.FINISHED;
+    end();
+  }
+
+  synchronized void fail(Throwable cause) {
+    state = cancelRequested ? State.CANCELLED : State.FAILED;
+    error = String.valueOf(cause);
+    end();
+  }
+
+  /**
+   * A queued job is cancelled right away, a running one is interrupted and stops at the next page boundary.
+   *
+   * @return false if the job was already done
+   */
+  synchronized boolean cancel() {
+    switch (state) {
+      case QUEUED:
+        state = State.CANCELLED;
+        finishedAt = Instant.now();
+        if (future != null) {
+          future.cancel(false);
+        }
+        return true;
+      case RUNNING:
+        cancelRequested = true;
+        runner.interrupt();
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private void end() {
+    finishedAt = Instant.now();
+    runner = null;
+  }
+}
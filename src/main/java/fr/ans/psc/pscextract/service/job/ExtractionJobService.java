@@ -0,0 +1,165 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.job;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs extraction jobs one at a time on a dedicated thread, so that the blocking API calls and disk I/O of an
+ * extraction never compete with shared pools.
+ * <p>
+ * Admission is atomic : a job is only accepted when no other one is queued or running.
+ */
+@Service
+public class ExtractionJobService {
+
+  private static final Logger log = LoggerFactory.getLogger(ExtractionJobService.class);
+
+  private static final int HISTORY_SIZE = 50;
+
+  private final AtomicReference<ExtractionJob> activeJob = new AtomicReference<>();
+
+  private final Map<String, ExtractionJob> jobs = Collections.synchronizedMap(new LinkedHashMap<>() {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, ExtractionJob> eldest) {
+      return size() > HISTORY_SIZE;
+    }
+  });
+
+  private final ThreadPoolExecutor executor;
+
+  public ExtractionJobService() {
+    AtomicInteger threadCount = new AtomicInteger();
+    executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1), runnable -> {
+      Thread thread = new Thread(runnable, "extraction-job-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * @param pageSize the page size requested for this job, null for the configured one
+   * @return the admitted job, null if another job is already queued or running
+   * @throws java.util.concurrent.RejectedExecutionException if the service is shutting down
+   */
+  public ExtractionJob submit(Integer pageSize, ExtractionTask task) {
+    ExtractionJob job = new ExtractionJob(pageSize);
+    if (!activeJob.compareAndSet(null, job)) {
+      return null;
+    }
+    jobs.put(job.getId(), job);
+    try {
+      job.setFuture(executor.submit(() -> execute(job, task)));
+    } catch (RuntimeException e) {
+      // the job will never run, it must not keep the service busy
+      jobs.remove(job.getId());
+      activeJob.compareAndSet(job, null);
+      throw e;
+    }
+    log.info("Extraction job {} queued", job.getId());
+    return job;
+  }
+
+  private void execute(ExtractionJob job, ExtractionTask task) {
+    try {
+      if (!job.start()) {
+        return;
+      }
+      log.info("Extraction job {} started", job.getId());
+      job.finish(task.run(job));
+    } catch (Exception e) {
+      log.error("Extraction job " + job.getId() + " failed", e);
+      job.fail(e);
+    } catch (Error e) {
+      job.fail(e);
+      throw e;
+    } finally {
+      activeJob.compareAndSet(job, null);
+      // Don't leak a late cancellation to the next job.
+      Thread.interrupted();
+      log.info("Extraction job {} {}", job.getId(), job.getState());
+    }
+  }
+
+  /**
+   * @return false if there is no such job or if it is already done
+   */
+  public boolean cancel(String jobId) {
+    ExtractionJob job = jobs.get(jobId);
+    if (job == null || !job.cancel()) {
+      return false;
+    }
+    if (job.isDone()) {
+      // cancelled while queued, it will never run
+      activeJob.compareAndSet(job, null);
+    }
+    log.info("Extraction job {} cancellation requested", jobId);
+    return true;
+  }
+
+  public ExtractionJob getJob(String jobId) {
+    return jobs.get(jobId);
+  }
+
+  /**
+   * @return the recent jobs, oldest first
+   */
+  public List<ExtractionJob> getJobs() {
+    synchronized (jobs) {
+      return new ArrayList<>(jobs.values());
+    }
+  }
+
+  /**
+   * @return the most recently finished, failed or cancelled job, null if none
+   */
+  public ExtractionJob getLastDoneJob() {
+    List<ExtractionJob> recentJobs = getJobs();
+    for (int i = recentJobs.size() - 1; i >= 0; i--) {
+      if (recentJobs.get(i).isDone()) {
+        return recentJobs.get(i);
+      }
+    }
+    return null;
+  }
+
+  public boolean isBusy() {
+    return activeJob.get() != null;
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    ExtractionJob job = activeJob.get();
+    if (job != null) {
+      job.cancel();
+    }
+    executor.shutdownNow();
+  }
+}
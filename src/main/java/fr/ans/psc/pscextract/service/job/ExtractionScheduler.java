@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.job;
+
+import fr.ans.psc.pscextract.controller.ExtractionController;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Starts extractions on {@code extract.schedule.cron}, each after a random delay of up to
+ * {@code extract.schedule.jitter.seconds}. A scheduled start is skipped if an extraction is still queued or running.
+ */
+@Component
+public class ExtractionScheduler {
+
+  private static final Logger log = LoggerFactory.getLogger(ExtractionScheduler.class);
+
+  @Autowired
+  private ExtractionController extractionController;
+
+  @Autowired
+  private TaskScheduler taskScheduler;
+
+  @Value("${extract.schedule.jitter.seconds}")
+  private long jitterSeconds;
+
+  @Scheduled(cron = "${extract.schedule.cron}", zone = "Europe/Paris")
+  public void scheduleExtraction() {
+    long jitterMs = jitterSeconds > 0 ? ThreadLocalRandom.current().nextLong(jitterSeconds * 1000) : 0;
+    log.info("Scheduled extraction starting in {} ms", jitterMs);
+    taskScheduler.schedule(this::startExtraction, Instant.now().plusMillis(jitterMs));
+  }
+
+  void startExtraction() {
+    if (extractionController.generateExtract(null).getStatusCode() == HttpStatus.CONFLICT) {
+      log.warn("Scheduled extraction skipped, another one is still queued or running");
+    }
+  }
+}
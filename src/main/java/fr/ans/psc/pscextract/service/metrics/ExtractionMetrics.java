@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.metrics;
+
+import fr.ans.psc.pscextract.service.fetch.MemoryBudget;
+import fr.ans.psc.pscextract.service.progress.ExtractionProgress;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micrometer meters of the extraction, published on /actuator/prometheus.
+ * <p>
+ * The extraction loop records at most a few meters per page, never per row, so that they can stay on in production.
+ */
+@Component
+public class ExtractionMetrics {
+
+  private final MeterRegistry registry;
+
+  private final Timer pageFetchTimer;
+
+  private final Counter psCounter;
+
+  private final Counter unwoundCounter;
+
+  private final Counter rowCounter;
+
+  private final Counter duplicateCounter;
+
+  private final DistributionSummary fanOutSummary;
+
+  private final Counter tempFileBytesCounter;
+
+  private final Counter zipBytesCounter;
+
+  private final Timer sha256Timer;
+
+  private final Timer blockChecksumsTimer;
+
+  private final Timer moveTimer;
+
+  private final Timer emailTimer;
+
+  private final Timer memoryBudgetWaitTimer;
+
+  private final Map<ExtractionProgress.Phase, Timer> phaseTimers = new EnumMap<>(ExtractionProgress.Phase.class);
+
+  private volatile double lastCompressionRatio = Double.NaN;
+
+  public ExtractionMetrics(MeterRegistry registry) {
+    this.registry = registry;
+    pageFetchTimer = Timer.builder("pscextract.api.page.fetch")
+            .description("psc-api-maj getPsByPage latency")
+            .publishPercentileHistogram()
+            .register(registry);
+    psCounter = Counter.builder("pscextract.ps").description("Ps received from the API").register(registry);
+    unwoundCounter = Counter.builder("pscextract.unwound").description("Ps unwound per profession, expertise and work situation").register(registry);
+    rowCounter = Counter.builder("pscextract.rows").description("Rows encoded in the extract").register(registry);
+    duplicateCounter = Counter.builder("pscextract.ps.duplicates").description("Ps served more than once, skipped").register(registry);
+    fanOutSummary = DistributionSummary.builder("pscextract.unwind.fanout")
+            .description("Unwound rows per Ps, per page")
+            .register(registry);
+    tempFileBytesCounter = Counter.builder("pscextract.bytes.written").tag("file", "temp").baseUnit("bytes").register(registry);
+    zipBytesCounter = Counter.builder("pscextract.bytes.written").tag("file", "zip").baseUnit("bytes").register(registry);
+    Gauge.builder("pscextract.compression.ratio", this, metrics -> metrics.lastCompressionRatio)
+            .description("Zip to uncompressed size ratio of the last extract")
+            .register(registry);
+    sha256Timer = Timer.builder("pscextract.digest").tag("kind", "sha256").description("Time spent digesting the data entry").register(registry);
+    blockChecksumsTimer = Timer.builder("pscextract.digest").tag("kind", "blocks").description("Time spent computing block checksums").register(registry);
+    moveTimer = Timer.builder("pscextract.publish.move").description("Time spent moving files to the files directory").register(registry);
+    emailTimer = Timer.builder("pscextract.email").description("Time spent sending notification emails").register(registry);
+    memoryBudgetWaitTimer = Timer.builder("pscextract.memory.budget.wait")
+            .description("Time the page fetches waited for the memory budget")
+            .register(registry);
+    for (ExtractionProgress.Phase phase : ExtractionProgress.Phase.values()) {
+      phaseTimers.put(phase, Timer.builder("pscextract.phase").tag("phase", phase.name().toLowerCase()).register(registry));
+    }
+  }
+
+  public void pageFetched(long nanos) {
+    pageFetchTimer.record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  public void pageProcessed(int psCount, int unwoundCount, int rowCount) {
+    psCounter.increment(psCount);
+    unwoundCounter.increment(unwoundCount);
+    rowCounter.increment(rowCount);
+    if (psCount > 0) {
+      fanOutSummary.record((double) unwoundCount / psCount);
+    }
+  }
+
+  public void duplicatesSkipped(int psCount) {
+    duplicateCounter.increment(psCount);
+  }
+
+  public void compressed(long uncompressedBytes, long compressedBytes) {
+    tempFileBytesCounter.increment(uncompressedBytes);
+    zipBytesCounter.increment(compressedBytes);
+    if (uncompressedBytes > 0) {
+      lastCompressionRatio = (double) compressedBytes / uncompressedBytes;
+    }
+  }
+
+  public void sha256Digested(long nanos) {
+    sha256Timer.record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  public void blockChecksumsComputed(long nanos) {
+    blockChecksumsTimer.record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  public void moved(long nanos) {
+    moveTimer.record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  public void emailSent(long nanos) {
+    emailTimer.record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  public void monitor(MemoryBudget budget) {
+    Gauge.builder("pscextract.memory.budget.used", budget, MemoryBudget::getUsedBytes)
+            .description("Estimated heap held by the pages in flight")
+            .baseUnit("bytes")
+            .register(registry);
+    Gauge.builder("pscextract.memory.budget.capacity", budget, MemoryBudget::getCapacityBytes)
+            .baseUnit("bytes")
+            .register(registry);
+  }
+
+  public void memoryBudgetWaited(long nanos) {
+    memoryBudgetWaitTimer.record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  public void phaseDone(ExtractionProgress.Phase phase, long nanos) {
+    phaseTimers.get(phase).record(nanos, TimeUnit.NANOSECONDS);
+  }
+}
@@ -0,0 +1,49 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.normalized;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Normalized layout of the extract, published alongside the flat one when {@code extract.normalized.enabled} : the
+ * identity of each Ps, each structure and each situation linking them in data entries of their own.
+ */
+@Component
+public class NormalizedLayout {
+
+  /**
+   * Suffix of the base name of the normalized archives, no extract profile may be named so.
+   */
+  public static final String NAME = "normalized";
+
+  @Value("${extract.normalized.enabled}")
+  private boolean enabled;
+
+  @Value("${extract.name}")
+  private String extractName;
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * @return the base name of the normalized archives
+   */
+  public String getBaseName() {
+    return extractName + "_" + NAME;
+  }
+}
@@ -0,0 +1,247 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.normalized;
+
+import fr.ans.psc.model.Ps;
+import fr.ans.psc.pscextract.service.RunManifest;
+import fr.ans.psc.pscextract.service.utils.ExtractWriter;
+import fr.ans.psc.pscextract.service.utils.FingerprintSet;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.List;
+
+/**
+ * Data entries of the normalized layout, written from the rows of the full extract in the same crawl :
+ * <ul>
+ *   <li>ps : one row per Ps, its national id then its identity columns (4 to 13) and its ids (50)</li>
+ *   <li>structures : one row per structure, its key then its columns (25 to 48)</li>
+ *   <li>situations : one row per unwound Ps, its national id, its profession, expertise and work situation columns
+ *   (14 to 24, 49 and 51), then the key of its structure, empty if it has none</li>
+ * </ul>
+ * The key of a structure is its technical id, or a hash of its columns prefixed with "~" when it has none. A
+ * structure is written the first time it is met, a structure met again with other columns keeps the first ones.
+ */
+public class NormalizedWriter implements Closeable {
+
+  private static final int[][] PS_COLUMNS = {{4, 13}, {50, 50}};
+
+  private static final int[][] STRUCTURE_COLUMNS = {{25, 48}};
+
+  private static final int[][] SITUATION_COLUMNS = {{14, 24}, {49, 49}, {51, 51}};
+
+  private static final int NATIONAL_ID_COLUMN = 3;
+
+  private static final int STRUCTURE_TECHNICAL_ID_COLUMN = 29;
+
+  private static final String PS_KEY_HEADER = "Identification nationale PP";
+
+  private static final String STRUCTURE_KEY_HEADER = "Clé structure";
+
+  /**
+   * Structures expected in the directory, the set of the keys written grows beyond.
+   */
+  private static final int EXPECTED_STRUCTURES = 1 << 18;
+
+  private final Part ps;
+
+  private final Part structures;
+
+  private final Part situations;
+
+  private final FingerprintSet structureKeys;
+
+  /**
+   * Situation rows written, per id type.
+   */
+  private final RunManifest rows = new RunManifest();
+
+  public NormalizedWriter(Part ps, Part structures, Part situations) {
+    this.ps = ps;
+    this.structures = structures;
+    this.situations = situations;
+    this.structureKeys = new FingerprintSet(EXPECTED_STRUCTURES);
+  }
+
+  /**
+   * @param header the header of the full extract
+   */
+  public void writeHeaders(String header) throws IOException {
+    int[] starts = columnStarts(header);
+    ps.writer.write(PS_KEY_HEADER + "|");
+    writeColumns(ps.writer, header, starts, PS_COLUMNS);
+    ps.writer.write('\n');
+    structures.writer.write(STRUCTURE_KEY_HEADER + "|");
+    writeColumns(structures.writer, header, starts, STRUCTURE_COLUMNS);
+    structures.writer.write('\n');
+    situations.writer.write(PS_KEY_HEADER + "|");
+    writeColumns(situations.writer, header, starts, SITUATION_COLUMNS);
+    situations.writer.write(STRUCTURE_KEY_HEADER + "|\n");
+  }
+
+  /**
+   * Writes the situation of an unwound Ps, its structure if not written yet and, for the first unwound Ps of a Ps,
+   * its identity. The columns are written straight from the row, without copying them.
+   *
+   * @param unwoundPs an unwound Ps
+   * @param idType    the type of the id of the row
+   * @param line      the row of the full extract of one of its ids
+   * @param firstOfPs whether it is the first unwound Ps of its Ps
+   */
+  public void write(Ps unwoundPs, String idType, String line, boolean firstOfPs) throws IOException {
+    write(unwoundPs.getId(), idType, line, firstOfPs);
+  }
+
+  /**
+   * As {@link #write(Ps, String, String, boolean)}, for the id of an unwound Ps.
+   */
+  public void write(String psId, String idType, String line, boolean firstOfPs) throws IOException {
+    int[] starts = columnStarts(line);
+    String psKey = psId != null ? psId : column(line, starts, NATIONAL_ID_COLUMN);
+    if (firstOfPs) {
+      ps.writer.write(psKey);
+      ps.writer.write('|');
+      writeColumns(ps.writer, line, starts, PS_COLUMNS);
+      ps.writer.write('\n');
+      ps.rowCount++;
+    }
+
+    String structureKey = "";
+    int structureStart = starts[STRUCTURE_COLUMNS[0][0]];
+    int structureEnd = starts[STRUCTURE_COLUMNS[0][1] + 1];
+    // a work situation without structure has only separators there
+    if (structureEnd - structureStart > STRUCTURE_COLUMNS[0][1] - STRUCTURE_COLUMNS[0][0] + 1) {
+      structureKey = column(line, starts, STRUCTURE_TECHNICAL_ID_COLUMN);
+      if (structureKey.isEmpty()) {
+        structureKey = "~" + Long.toHexString(FingerprintSet.fingerprint(line.substring(structureStart,
+                structureEnd)));
+      }
+      if (structureKeys.add(structureKey)) {
+        structures.writer.write(structureKey);
+        structures.writer.write('|');
+        structures.writer.write(line, structureStart, structureEnd - structureStart);
+        structures.writer.write('\n');
+        structures.rowCount++;
+      }
+    }
+
+    situations.writer.write(psKey);
+    situations.writer.write('|');
+    writeColumns(situations.writer, line, starts, SITUATION_COLUMNS);
+    situations.writer.write(structureKey);
+    situations.writer.write("|\n");
+    situations.rowCount++;
+    rows.rowWritten(idType);
+  }
+
+  public List<Part> getParts() {
+    return List.of(ps, structures, situations);
+  }
+
+  /**
+   * @return the situation rows written
+   */
+  public RunManifest getRows() {
+    return rows;
+  }
+
+  @Override
+  public void close() throws IOException {
+    for (Part part : getParts()) {
+      part.writer.close();
+    }
+  }
+
+  /**
+   * @return the start of each column of the row, counted from 1, and at the end the length of the row
+   */
+  private static int[] columnStarts(String line) {
+    int[] starts = new int[53];
+    starts[1] = 0;
+    int column = 1;
+    for (int i = 0; i < line.length() && column < starts.length - 1; i++) {
+      if (line.charAt(i) == '|') {
+        starts[++column] = i + 1;
+      }
+    }
+    while (column < starts.length - 1) {
+      starts[++column] = line.length();
+    }
+    return starts;
+  }
+
+  /**
+   * Writes the columns of the ranges, each one with its separator.
+   */
+  private static void writeColumns(Writer writer, String line, int[] starts, int[][] ranges) throws IOException {
+    for (int[] range : ranges) {
+      writer.write(line, starts[range[0]], starts[range[1] + 1] - starts[range[0]]);
+    }
+  }
+
+  private static String column(String line, int[] starts, int column) {
+    return line.substring(starts[column], Math.max(starts[column], starts[column + 1] - 1));
+  }
+
+  /**
+   * One of the data entries of the layout, written and digested.
+   */
+  public static class Part {
+
+    private final String name;
+
+    private final Path file;
+
+    private final MessageDigest digest;
+
+    private final ExtractWriter writer;
+
+    private long rowCount;
+
+    public Part(String name, Path file, MessageDigest digest, ExtractWriter writer) {
+      this.name = name;
+      this.file = file;
+      this.digest = digest;
+      this.writer = writer;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public Path getFile() {
+      return file;
+    }
+
+    public MessageDigest getDigest() {
+      return digest;
+    }
+
+    public long getDigestNanos() {
+      return writer.getDigestNanos();
+    }
+
+    /**
+     * @return the rows written, header excluded
+     */
+    public long getRowCount() {
+      return rowCount;
+    }
+  }
+}
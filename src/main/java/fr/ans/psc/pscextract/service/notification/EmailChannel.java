@@ -0,0 +1,66 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.notification;
+
+import fr.ans.psc.pscextract.service.metrics.ExtractionMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.stereotype.Component;
+
+@Component
+public class EmailChannel implements NotificationChannel {
+
+  @Autowired
+  private JavaMailSender emailSender;
+
+  @Autowired
+  private ExtractionMetrics metrics;
+
+  @Value("${spring.mail.username}")
+  private String sender;
+
+  @Value("${pscextract.mail.receiver}")
+  private String receiver;
+
+  @Override
+  public String getName() {
+    return "email";
+  }
+
+  @Override
+  public boolean isEnabled() {
+    return !receiver.isBlank();
+  }
+
+  @Override
+  public void deliver(Notification notification) {
+    SimpleMailMessage message = new SimpleMailMessage();
+    message.setFrom(sender);
+    String[] allReceivers = receiver.split(",");
+    message.setTo(allReceivers);
+    message.setSubject(notification.getSubject());
+    message.setText(notification.getText());
+
+    long start = System.nanoTime();
+    try {
+      emailSender.send(message);
+    } finally {
+      metrics.emailSent(System.nanoTime() - start);
+    }
+  }
+}
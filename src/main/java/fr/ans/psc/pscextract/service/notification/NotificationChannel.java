@@ -0,0 +1,37 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.notification;
+
+/**
+ * A way to reach the extract receivers.
+ */
+public interface NotificationChannel {
+
+  /**
+   * @return the channel name, as stored in the outbox
+   */
+  String getName();
+
+  /**
+   * @return whether the channel is configured, notifications are only queued for enabled channels
+   */
+  boolean isEnabled();
+
+  /**
+   * @throws Exception if the notification was not delivered, it will be retried
+   */
+  void deliver(Notification notification) throws Exception;
+}
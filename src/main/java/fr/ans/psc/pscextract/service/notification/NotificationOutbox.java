@@ -0,0 +1,239 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.notification;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durable outbox of the notifications : they are written to disk, one file per channel, then delivered by a
+ * background dispatcher that retries with an exponential backoff.
+ * <p>
+ * Queuing only writes a local file, so a slow or unreachable mail server no longer holds the extraction job.
+ * Notifications still pending at shutdown are delivered at the next startup ; those that exhaust their attempts are
+ * moved to the {@code failed} subdirectory.
+ */
+@Service
+public class NotificationOutbox {
+
+  private static final Logger log = LoggerFactory.getLogger(NotificationOutbox.class);
+
+  private static final String FILE_EXTENSION = ".json";
+
+  private static final String FAILED_DIRECTORY = "failed";
+
+  @Value("${extract.notification.outbox.directory}")
+  private String outboxDirectory;
+
+  @Value("${extract.notification.retry.initial.delay.ms}")
+  private long initialRetryDelayMs;
+
+  @Value("${extract.notification.retry.max.delay.ms}")
+  private long maxRetryDelayMs;
+
+  @Value("${extract.notification.max.attempts}")
+  private int maxAttempts;
+
+  @Autowired
+  private List<NotificationChannel> channels;
+
+  @Autowired
+  private ObjectMapper objectMapper;
+
+  private ScheduledExecutorService dispatcher;
+
+  @PostConstruct
+  public void start() throws IOException {
+    Files.createDirectories(getFailedDirectory());
+    dispatcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "notification-dispatcher");
+      thread.setDaemon(true);
+      return thread;
+    });
+    int pending = 0;
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(Path.of(outboxDirectory), "*" + FILE_EXTENSION)) {
+      for (Path file : files) {
+        try {
+          schedule(file, read(file).getNextAttemptAt());
+          pending++;
+        } catch (IOException e) {
+          log.error("Unreadable notification " + file + ", moved to " + getFailedDirectory(), e);
+          Files.move(file, getFailedDirectory().resolve(file.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+        }
+      }
+    }
+    if (pending > 0) {
+      log.info("{} pending notifications found in {}", pending, outboxDirectory);
+    }
+  }
+
+  /**
+   * Queues a notification on every enabled channel.
+   */
+  public void enqueue(String subject, String text) {
+    Instant now = Instant.now();
+    for (NotificationChannel channel : channels) {
+      if (!channel.isEnabled()) {
+        continue;
+      }
+      Notification notification = new Notification();
+      notification.setId(UUID.randomUUID().toString());
+      notification.setChannel(channel.getName());
+      notification.setSubject(subject);
+      notification.setText(text);
+      notification.setCreatedAt(now);
+      notification.setNextAttemptAt(now);
+      Path file = Path.of(outboxDirectory, notification.getId() + "-" + channel.getName() + FILE_EXTENSION);
+      write(file, notification);
+      schedule(file, now);
+    }
+  }
+
+  /**
+   * @return the number of notifications waiting for delivery
+   */
+  public long getPendingCount() throws IOException {
+    if (!Files.isDirectory(Path.of(outboxDirectory))) {
+      return 0;
+    }
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(Path.of(outboxDirectory), "*" + FILE_EXTENSION)) {
+      long count = 0;
+      for (Path ignored : files) {
+        count++;
+      }
+      return count;
+    }
+  }
+
+  private void schedule(Path file, Instant at) {
+    long delayMs = Math.max(0, Duration.between(Instant.now(), at).toMillis());
+    try {
+      if (!dispatcher.isShutdown()) {
+        dispatcher.schedule(() -> dispatch(file), delayMs, TimeUnit.MILLISECONDS);
+        return;
+      }
+    } catch (RejectedExecutionException e) {
+      // shut down in the meantime
+    }
+    log.info("Shutting down, notification {} left in the outbox for the next start", file.getFileName());
+  }
+
+  private void dispatch(Path file) {
+    try {
+      if (!Files.exists(file)) {
+        return;
+      }
+      Notification notification = read(file);
+      NotificationChannel channel = getChannel(notification.getChannel());
+      try {
+        if (channel == null) {
+          throw new IllegalStateException("No " + notification.getChannel() + " channel");
+        }
+        channel.deliver(notification);
+        Files.delete(file);
+        log.info("Notification {} delivered by {}", notification.getId(), notification.getChannel());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (Exception e) {
+        retryLater(file, notification, e);
+      }
+    } catch (IOException | RuntimeException e) {
+      log.error("Unable to dispatch notification " + file, e);
+    }
+  }
+
+  private void retryLater(Path file, Notification notification, Exception failure) throws IOException {
+    notification.setAttempts(notification.getAttempts() + 1);
+    notification.setLastError(failure.toString());
+    if (notification.getAttempts() >= maxAttempts) {
+      write(file, notification);
+      Files.createDirectories(getFailedDirectory());
+      Files.move(file, getFailedDirectory().resolve(file.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+      log.error("Notification " + notification.getId() + " not delivered by " + notification.getChannel() + " after "
+              + notification.getAttempts() + " attempts, moved to " + getFailedDirectory(), failure);
+      return;
+    }
+    long delayMs = getRetryDelayMs(notification.getAttempts());
+    notification.setNextAttemptAt(Instant.now().plusMillis(delayMs));
+    write(file, notification);
+    log.warn("Notification {} not delivered by {} ({}), retrying in {} ms", notification.getId(),
+            notification.getChannel(), failure.toString(), delayMs);
+    schedule(file, notification.getNextAttemptAt());
+  }
+
+  long getRetryDelayMs(int attempts) {
+    long delayMs = initialRetryDelayMs << Math.min(attempts - 1, 30);
+    return delayMs <= 0 ? maxRetryDelayMs : Math.min(delayMs, maxRetryDelayMs);
+  }
+
+  private NotificationChannel getChannel(String name) {
+    for (NotificationChannel channel : channels) {
+      if (channel.getName().equals(name)) {
+        return channel;
+      }
+    }
+    return null;
+  }
+
+  private Path getFailedDirectory() {
+    return Path.of(outboxDirectory, FAILED_DIRECTORY);
+  }
+
+  private Notification read(Path file) throws IOException {
+    return objectMapper.readValue(file.toFile(), Notification.class);
+  }
+
+  /**
+   * Writes then renames, so that a crash never leaves a truncated notification behind. The outbox is created again
+   * if it was deleted since the startup.
+   */
+  private void write(Path file, Notification notification) {
+    try {
+      Files.createDirectories(file.getParent());
+      Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+      Files.write(temp, objectMapper.writeValueAsBytes(notification));
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to write notification " + file, e);
+    }
+  }
+
+  @PreDestroy
+  public void stop() {
+    dispatcher.shutdownNow();
+  }
+}
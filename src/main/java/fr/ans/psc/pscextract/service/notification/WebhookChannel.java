@@ -0,0 +1,75 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.notification;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Posts notifications as JSON ({@code subject}, {@code text}, {@code createdAt}) to a webhook, a chat incoming
+ * webhook for instance.
+ */
+@Component
+public class WebhookChannel implements NotificationChannel {
+
+  private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+  @Value("${extract.notification.webhook.url}")
+  private String url;
+
+  @Autowired
+  private ObjectMapper objectMapper;
+
+  private final HttpClient httpClient = HttpClient.newBuilder().connectTimeout(TIMEOUT).build();
+
+  @Override
+  public String getName() {
+    return "webhook";
+  }
+
+  @Override
+  public boolean isEnabled() {
+    return !url.isBlank();
+  }
+
+  @Override
+  public void deliver(Notification notification) throws IOException, InterruptedException {
+    Map<String, Object> payload = new LinkedHashMap<>();
+    payload.put("subject", notification.getSubject());
+    payload.put("text", notification.getText());
+    payload.put("createdAt", notification.getCreatedAt());
+    HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+            .timeout(TIMEOUT)
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(payload)))
+            .build();
+    HttpResponse<Void> response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+    if (response.statusCode() / 100 != 2) {
+      throw new IOException("Webhook answered " + response.statusCode());
+    }
+  }
+}
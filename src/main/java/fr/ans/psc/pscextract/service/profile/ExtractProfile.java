@@ -0,0 +1,94 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.profile;
+
+import fr.ans.psc.model.Profession;
+import fr.ans.psc.model.Ps;
+
+import java.util.BitSet;
+import java.util.Set;
+
+/**
+ * Variant of the extract written in the same pass as the full one : the rows of some professions only, reduced to
+ * some columns, published in an archive of its own.
+ */
+public class ExtractProfile {
+
+  /**
+   * Columns of a row of the full extract.
+   */
+  public static final int COLUMN_COUNT = 51;
+
+  private final String name;
+
+  private final Set<String> professionCodes;
+
+  private final BitSet columns;
+
+  /**
+   * @param professionCodes codes of the professions whose rows are kept, empty to keep every row
+   * @param columns         1-based numbers of the columns kept, empty to keep them all
+   */
+  public ExtractProfile(String name, Set<String> professionCodes, BitSet columns) {
+    this.name = name;
+    this.professionCodes = Set.copyOf(professionCodes);
+    this.columns = columns.isEmpty() ? null : (BitSet) columns.clone();
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @param ps an unwound Ps, with at most one profession
+   */
+  public boolean accepts(Ps ps) {
+    Profession profession = ps.getProfessions() == null || ps.getProfessions().isEmpty()
+            ? null : ps.getProfessions().get(0);
+    return acceptsProfession(profession == null ? null : profession.getCode());
+  }
+
+  /**
+   * @param professionCode the profession code of an unwound Ps, null if it has none
+   */
+  public boolean acceptsProfession(String professionCode) {
+    // the immutable set throws on a null code
+    return professionCodes.isEmpty() || professionCode != null && professionCodes.contains(professionCode);
+  }
+
+  /**
+   * @param line a row or the header of the full extract, each column followed by a pipe, ending with a new line
+   * @return the line reduced to the columns of the profile
+   */
+  public String select(String line) {
+    if (columns == null) {
+      return line;
+    }
+    StringBuilder sb = new StringBuilder(line.length());
+    int column = 1;
+    int start = 0;
+    int end = line.indexOf('|');
+    while (end >= 0) {
+      if (columns.get(column)) {
+        sb.append(line, start, end + 1);
+      }
+      column++;
+      start = end + 1;
+      end = line.indexOf('|', start);
+    }
+    return sb.append('\n').toString();
+  }
+}
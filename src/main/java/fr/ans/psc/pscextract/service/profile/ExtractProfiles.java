@@ -0,0 +1,143 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.profile;
+
+import fr.ans.psc.pscextract.service.normalized.NormalizedLayout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Profiles of {@code extract.profiles}, each one configured by {@code extract.profile.<name>.professions}, the
+ * comma separated codes of the professions kept, and {@code extract.profile.<name>.columns}, the comma separated
+ * numbers or ranges (such as 1-10) of the columns kept. Both are optional and keep everything when empty.
+ */
+@Component
+public class ExtractProfiles {
+
+  private static final Logger log = LoggerFactory.getLogger(ExtractProfiles.class);
+
+  private static final Pattern NAME_PATTERN = Pattern.compile("[A-Za-z0-9-]+");
+
+  @Value("${extract.profiles}")
+  private String profileNames;
+
+  @Value("${extract.name}")
+  private String extractName;
+
+  @Autowired
+  private Environment environment;
+
+  private List<ExtractProfile> profiles = List.of();
+
+  @PostConstruct
+  public void init() {
+    List<ExtractProfile> configuredProfiles = new ArrayList<>();
+    for (String name : split(profileNames)) {
+      if (!NAME_PATTERN.matcher(name).matches()) {
+        throw new IllegalArgumentException("Extract profile names are made of letters, digits and dashes : " + name);
+      }
+      if (NormalizedLayout.NAME.equals(name)) {
+        throw new IllegalArgumentException("Extract profile name " + name + " is that of the normalized layout");
+      }
+      String prefix = "extract.profile." + name + ".";
+      ExtractProfile profile = new ExtractProfile(name,
+              new HashSet<>(split(environment.getProperty(prefix + "professions", ""))),
+              parseColumns(environment.getProperty(prefix + "columns", "")));
+      configuredProfiles.add(profile);
+      log.info("Extract profile {} published as {}", name, getBaseName(profile));
+    }
+    profiles = List.copyOf(configuredProfiles);
+  }
+
+  public List<ExtractProfile> getProfiles() {
+    return profiles;
+  }
+
+  /**
+   * @return the profile of that name, null if there is none
+   */
+  public ExtractProfile getProfile(String name) {
+    for (ExtractProfile profile : profiles) {
+      if (profile.getName().equals(name)) {
+        return profile;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return the name of the archives of the profile, before their timestamp
+   */
+  public String getBaseName(ExtractProfile profile) {
+    return extractName + "_" + profile.getName();
+  }
+
+  /**
+   * @return the base names of the archives of every profile
+   */
+  public Set<String> getBaseNames() {
+    Set<String> baseNames = new HashSet<>();
+    for (ExtractProfile profile : profiles) {
+      baseNames.add(getBaseName(profile));
+    }
+    return baseNames;
+  }
+
+  /**
+   * @param columns comma separated column numbers or ranges, such as 1-10,13
+   * @throws IllegalArgumentException on a malformed or out of range column
+   */
+  public static BitSet parseColumns(String columns) {
+    BitSet kept = new BitSet(ExtractProfile.COLUMN_COUNT + 1);
+    for (String range : split(columns)) {
+      int dash = range.indexOf('-');
+      try {
+        int first = Integer.parseInt(dash < 0 ? range : range.substring(0, dash).trim());
+        int last = dash < 0 ? first : Integer.parseInt(range.substring(dash + 1).trim());
+        if (first < 1 || last > ExtractProfile.COLUMN_COUNT || first > last) {
+          throw new IllegalArgumentException("Extract profile columns must be within 1-" + ExtractProfile.COLUMN_COUNT
+                  + " : " + range);
+        }
+        kept.set(first, last + 1);
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Malformed extract profile columns : " + range, e);
+      }
+    }
+    return kept;
+  }
+
+  private static List<String> split(String list) {
+    List<String> items = new ArrayList<>();
+    for (String item : list.split(",")) {
+      if (!item.isBlank()) {
+        items.add(item.trim());
+      }
+    }
+    return items;
+  }
+}
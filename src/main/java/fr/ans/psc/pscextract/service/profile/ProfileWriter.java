@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.profile;
+
+import fr.ans.psc.model.Ps;
+import fr.ans.psc.pscextract.service.RunManifest;
+import fr.ans.psc.pscextract.service.utils.ExtractWriter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+
+/**
+ * Data entry of a profile, written and digested alongside the full one.
+ */
+public class ProfileWriter implements Closeable {
+
+  private final ExtractProfile profile;
+
+  private final String baseName;
+
+  private final Path file;
+
+  private final MessageDigest digest;
+
+  private final ExtractWriter writer;
+
+  /**
+   * Rows written, per id type.
+   */
+  private final RunManifest rows = new RunManifest();
+
+  public ProfileWriter(ExtractProfile profile, String baseName, Path file, MessageDigest digest, ExtractWriter writer) {
+    this.profile = profile;
+    this.baseName = baseName;
+    this.file = file;
+    this.digest = digest;
+    this.writer = writer;
+  }
+
+  public void writeHeader(String header) throws IOException {
+    writer.write(profile.select(header));
+  }
+
+  /**
+   * Writes the row of the full extract if the profile keeps the rows of that Ps.
+   *
+   * @param ps     an unwound Ps
+   * @param idType the type of the id of the row
+   * @param line   the row of the full extract
+   */
+  public void write(Ps ps, String idType, String line) throws IOException {
+    if (profile.accepts(ps)) {
+      writeRow(idType, line);
+    }
+  }
+
+  /**
+   * As {@link #write(Ps, String, String)}, for the profession code of an unwound Ps.
+   */
+  public void write(String professionCode, String idType, String line) throws IOException {
+    if (profile.acceptsProfession(professionCode)) {
+      writeRow(idType, line);
+    }
+  }
+
+  private void writeRow(String idType, String line) throws IOException {
+    writer.write(profile.select(line));
+    rows.rowWritten(idType);
+  }
+
+  @Override
+  public void close() throws IOException {
+    writer.close();
+  }
+
+  public ExtractProfile getProfile() {
+    return profile;
+  }
+
+  public String getBaseName() {
+    return baseName;
+  }
+
+  public Path getFile() {
+    return file;
+  }
+
+  /**
+   * @return the digest of what was written, once closed
+   */
+  public byte[] digest() {
+    return digest.digest();
+  }
+
+  public long getDigestNanos() {
+    return writer.getDigestNanos();
+  }
+
+  public RunManifest getRows() {
+    return rows;
+  }
+}
@@ -0,0 +1,228 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.progress;
+
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live counters of the running extraction.
+ * <p>
+ * The extraction hot loop only adds to {@link LongAdder}s and writes volatile fields, readers build
+ * {@link ProgressSnapshot}s from them without any locking.
+ */
+@Component
+public class ExtractionProgress {
+
+  public enum Phase {
+    /** Fetching pages, unwinding and writing rows to the temp file. */
+    FETCH,
+    /** Sorting the rows of the temp file, when extract.sort.enabled. */
+    SORT,
+    /** Zipping, digesting and checksumming the temp file. */
+    COMPRESS,
+    /** Moving the archive and its sidecar files to the files directory. */
+    PUBLISH
+  }
+
+  private final LongAdder psCount = new LongAdder();
+
+  private final LongAdder unwoundCount = new LongAdder();
+
+  private final LongAdder rowCount = new LongAdder();
+
+  private final LongAdder bytesWritten = new LongAdder();
+
+  private final LongAdder bytesCompressedIn = new LongAdder();
+
+  private final LongAdder bytesCompressedOut = new LongAdder();
+
+  private volatile long page = -1;
+
+  private volatile boolean running;
+
+  private volatile Phase phase;
+
+  private volatile long startNanos;
+
+  private volatile long phaseStartNanos;
+
+  private volatile long[] phaseCountersAtStart = new long[3];
+
+  /**
+   * Durations of the phases of the last successful run, to estimate the remaining time of the current one.
+   */
+  private final Map<Phase, Long> lastRunPhaseDurationsMs = new EnumMap<>(Phase.class);
+
+  private final Map<Phase, Long> currentPhaseDurationsMs = new EnumMap<>(Phase.class);
+
+  private volatile long lastRunPsCount = -1;
+
+  public synchronized void start() {
+    psCount.reset();
+    unwoundCount.reset();
+    rowCount.reset();
+    bytesWritten.reset();
+    bytesCompressedIn.reset();
+    bytesCompressedOut.reset();
+    page = -1;
+    currentPhaseDurationsMs.clear();
+    startNanos = System.nanoTime();
+    running = true;
+    startPhase(Phase.FETCH);
+  }
+
+  public synchronized void startPhase(Phase newPhase) {
+    long now = System.nanoTime();
+    if (phase != null && running) {
+      currentPhaseDurationsMs.put(phase, (now - phaseStartNanos) / 1_000_000);
+    }
+    phaseCountersAtStart = new long[]{psCount.sum(), rowCount.sum(), bytesCompressedIn.sum()};
+    phaseStartNanos = now;
+    phase = newPhase;
+  }
+
+  /**
+   * @param successful whether the run went through all phases, in which case it serves as reference for the ETA
+   */
+  public synchronized void finish(boolean successful) {
+    if (!running) {
+      return;
+    }
+    startPhase(phase);
+    if (successful) {
+      lastRunPhaseDurationsMs.clear();
+      lastRunPhaseDurationsMs.putAll(currentPhaseDurationsMs);
+      lastRunPsCount = psCount.sum();
+    }
+    running = false;
+    phase = null;
+  }
+
+  public void pageReceived(long pageNumber, int pagePsCount) {
+    page = pageNumber;
+    psCount.add(pagePsCount);
+  }
+
+  public void rowsUnwound(int count) {
+    unwoundCount.add(count);
+  }
+
+  public void rowsWritten(int count) {
+    rowCount.add(count);
+  }
+
+  public void bytesWritten(int count) {
+    bytesWritten.add(count);
+  }
+
+  public void bytesCompressed(int in) {
+    bytesCompressedIn.add(in);
+  }
+
+  public void compressedBytesWritten(int out) {
+    bytesCompressedOut.add(out);
+  }
+
+  public long getPsCount() {
+    return psCount.sum();
+  }
+
+  public long getUnwoundCount() {
+    return unwoundCount.sum();
+  }
+
+  public long getRowCount() {
+    return rowCount.sum();
+  }
+
+  public long getBytesWritten() {
+    return bytesWritten.sum();
+  }
+
+  public long getBytesCompressed() {
+    return bytesCompressedOut.sum();
+  }
+
+  public long getPage() {
+    return page;
+  }
+
+  public ProgressSnapshot snapshot() {
+    ProgressSnapshot snapshot = new ProgressSnapshot();
+    snapshot.setRunning(running);
+    Phase currentPhase = phase;
+    snapshot.setPhase(currentPhase);
+    snapshot.setPage(page);
+    long ps = psCount.sum();
+    long rows = rowCount.sum();
+    long written = bytesWritten.sum();
+    long compressedIn = bytesCompressedIn.sum();
+    snapshot.setPsCount(ps);
+    snapshot.setUnwoundCount(unwoundCount.sum());
+    snapshot.setRowCount(rows);
+    snapshot.setBytesWritten(written);
+    snapshot.setBytesCompressed(bytesCompressedOut.sum());
+    if (!running || currentPhase == null) {
+      return snapshot;
+    }
+
+    long now = System.nanoTime();
+    snapshot.setElapsedMs((now - startNanos) / 1_000_000);
+    double phaseSeconds = Math.max(1e-3, (now - phaseStartNanos) / 1e9);
+    long[] atStart = phaseCountersAtStart;
+    synchronized (this) {
+      snapshot.setPhaseDurationsMs(new EnumMap<>(currentPhaseDurationsMs));
+    }
+    long remainingMs = -1;
+    switch (currentPhase) {
+      case FETCH:
+        double psPerSecond = (ps - atStart[0]) / phaseSeconds;
+        snapshot.setPsPerSecond(psPerSecond);
+        snapshot.setRowsPerSecond((rows - atStart[1]) / phaseSeconds);
+        if (lastRunPsCount > 0 && psPerSecond > 0) {
+          remainingMs = (long) (Math.max(0, lastRunPsCount - ps) / psPerSecond * 1000) + lastRunDurationMs(Phase.SORT, Phase.COMPRESS, Phase.PUBLISH);
+        }
+        break;
+      case SORT:
+        remainingMs = Math.max(0, lastRunDurationMs(Phase.SORT) - (now - phaseStartNanos) / 1_000_000)
+                + lastRunDurationMs(Phase.COMPRESS, Phase.PUBLISH);
+        break;
+      case COMPRESS:
+        double bytesPerSecond = (compressedIn - atStart[2]) / phaseSeconds;
+        snapshot.setCompressBytesPerSecond(bytesPerSecond);
+        if (bytesPerSecond > 0) {
+          remainingMs = (long) (Math.max(0, written - compressedIn) / bytesPerSecond * 1000) + lastRunDurationMs(Phase.PUBLISH);
+        }
+        break;
+      default:
+        remainingMs = lastRunDurationMs(Phase.PUBLISH);
+    }
+    snapshot.setEtaMs(remainingMs);
+    return snapshot;
+  }
+
+  private synchronized long lastRunDurationMs(Phase... phases) {
+    long duration = 0;
+    for (Phase p : phases) {
+      duration += lastRunPhaseDurationsMs.getOrDefault(p, 0L);
+    }
+    return duration;
+  }
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.progress;
+
+import java.util.Map;
+
+/**
+ * Point in time view of {@link ExtractionProgress}, as streamed on /progress.
+ * Throughputs are averages over the current phase, the ETA is -1 until a previous run gives a reference.
+ */
+public class ProgressSnapshot {
+
+  private boolean running;
+
+  private ExtractionProgress.Phase phase;
+
+  private long page;
+
+  private long psCount;
+
+  private long unwoundCount;
+
+  private long rowCount;
+
+  private long bytesWritten;
+
+  private long bytesCompressed;
+
+  private long elapsedMs;
+
+  private Map<ExtractionProgress.Phase, Long> phaseDurationsMs;
+
+  private double psPerSecond;
+
+  private double rowsPerSecond;
+
+  private double compressBytesPerSecond;
+
+  private long etaMs = -1;
+
+  public boolean isRunning() {
+    return running;
+  }
+
+  public void setRunning(boolean running) {
+    this.running = running;
+  }
+
+  public ExtractionProgress.Phase getPhase() {
+    return phase;
+  }
+
+  public void setPhase(ExtractionProgress.Phase phase) {
+    this.phase = phase;
+  }
+
+  public long getPage() {
+    return page;
+  }
+
+  public void setPage(long page) {
+    this.page = page;
+  }
+
+  public long getPsCount() {
+    return psCount;
+  }
+
+  public void setPsCount(long psCount) {
+    this.psCount = psCount;
+  }
+
+  public long getUnwoundCount() {
+    return unwoundCount;
+  }
+
+  public void setUnwoundCount(long unwoundCount) {
+    this.unwoundCount = unwoundCount;
+  }
+
+  public long getRowCount() {
+    return rowCount;
+  }
+
+  public void setRowCount(long rowCount) {
+    this.rowCount = rowCount;
+  }
+
+  public long getBytesWritten() {
+    return bytesWritten;
+  }
+
+  public void setBytesWritten(long bytesWritten) {
+    this.bytesWritten = bytesWritten;
+  }
+
+  public long getBytesCompressed() {
+    return bytesCompressed;
+  }
+
+  public void setBytesCompressed(long bytesCompressed) {
+    this.bytesCompressed = bytesCompressed;
+  }
+
+  public long getElapsedMs() {
+    return elapsedMs;
+  }
+
+  public void setElapsedMs(long elapsedMs) {
+    this.elapsedMs = elapsedMs;
+  }
+
+  /**
+   * @return the durations of the phases already done in the current run
+   */
+  public Map<ExtractionProgress.Phase, Long> getPhaseDurationsMs() {
+    return phaseDurationsMs;
+  }
+
+  public void setPhaseDurationsMs(Map<ExtractionProgress.Phase, Long> phaseDurationsMs) {
+    this.phaseDurationsMs = phaseDurationsMs;
+  }
+
+  public double getPsPerSecond() {
+    return psPerSecond;
+  }
+
+  public void setPsPerSecond(double psPerSecond) {
+    this.psPerSecond = psPerSecond;
+  }
+
+  public double getRowsPerSecond() {
+    return rowsPerSecond;
+  }
+
+  public void setRowsPerSecond(double rowsPerSecond) {
+    this.rowsPerSecond = rowsPerSecond;
+  }
+
+  public double getCompressBytesPerSecond() {
+    return compressBytesPerSecond;
+  }
+
+  public void setCompressBytesPerSecond(double compressBytesPerSecond) {
+    this.compressBytesPerSecond = compressBytesPerSecond;
+  }
+
+  public long getEtaMs() {
+    return etaMs;
+  }
+
+  public void setEtaMs(long etaMs) {
+    this.etaMs = etaMs;
+  }
+}
@@ -0,0 +1,420 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.snapshot;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.StreamUtils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Snapshots of the raw pages served by psc-api-maj during a crawl, so that an extract can be rebuilt without calling
+ * the API again, after a change of the output format or a transformation fix.
+ * <p>
+ * In {@code record} mode, the client of the API goes through this interceptor, which stores each page response
+ * gzipped in a staging directory of {@code extract.snapshot.directory}. Once the crawl reached the last page, a
+ * manifest is written and the directory renamed, then the oldest snapshots are deleted while they hold more than
+ * {@code extract.snapshot.max.mb}. In {@code replay} mode, the client is given {@link #getReplayRequestFactory()},
+ * which serves the pages of a snapshot instead of calling the API.
+ */
+@Service
+public class PageSnapshots implements ClientHttpRequestInterceptor {
+
+  private static final Logger log = LoggerFactory.getLogger(PageSnapshots.class);
+
+  public static final String MODE_RECORD = "record";
+
+  public static final String MODE_REPLAY = "replay";
+
+  static final String MANIFEST_FILE = "manifest.json";
+
+  private static final String SNAPSHOT_PREFIX = "snapshot-";
+
+  private static final String STAGING_PREFIX = ".";
+
+  private static final String PAGE_FILE_PREFIX = "page-";
+
+  private static final String PAGE_FILE_SUFFIX = ".json.gz";
+
+  private static final Pattern PAGE_PARAMETER = Pattern.compile("[?&]page=(\\d+)");
+
+  private static final DateTimeFormatter ID_PATTERN = DateTimeFormatter.ofPattern("yyyyMMddHHmmssSSS")
+          .withZone(ZoneId.of("Europe/Paris"));
+
+  @Value("${extract.snapshot.mode}")
+  private String mode;
+
+  @Value("${extract.snapshot.directory}")
+  private String directory;
+
+  @Value("${extract.snapshot.replay.id}")
+  private String replayId;
+
+  @Value("${extract.snapshot.max.mb}")
+  private long maxMb;
+
+  @Autowired
+  private ObjectMapper objectMapper;
+
+  private volatile Recording recording;
+
+  private volatile Path replayedSnapshot;
+
+  private volatile SnapshotManifest replayedManifest;
+
+  public boolean isRecording() {
+    return MODE_RECORD.equals(mode);
+  }
+
+  public boolean isReplay() {
+    return MODE_REPLAY.equals(mode);
+  }
+
+  /**
+   * Starts recording the pages of a crawl, or selects the snapshot replayed by the run.
+   *
+   * @param pageSize the page size of the run
+   * @return the page size of the run, that of the snapshot when replaying
+   * @throws IOException if there is no snapshot to replay
+   */
+  public int startRun(String apiBaseUrl, int pageSize) throws IOException {
+    if (isRecording()) {
+      Instant now = Instant.now();
+      String id = ID_PATTERN.format(now);
+      Path staging = Path.of(directory, STAGING_PREFIX + SNAPSHOT_PREFIX + id);
+      FileSystemUtils.deleteRecursively(staging);
+      Files.createDirectories(staging);
+      recording = new Recording(id, staging, apiBaseUrl, pageSize, now);
+      log.info("Recording the pages of the crawl in snapshot {}", id);
+    } else if (isReplay()) {
+      SnapshotManifest manifest = findReplayedSnapshot();
+      if (manifest == null) {
+        throw new IOException("No snapshot " + (replayId.isBlank() ? "" : replayId + " ") + "to replay in " + directory);
+      }
+      replayedSnapshot = Path.of(directory, SNAPSHOT_PREFIX + manifest.getId());
+      replayedManifest = manifest;
+      log.info("Replaying snapshot {} of {} pages of {} recorded at {} from {}", manifest.getId(),
+              manifest.getPageCount(), manifest.getPageSize(), manifest.getCreatedAt(), manifest.getApiBaseUrl());
+      return manifest.getPageSize();
+    }
+    return pageSize;
+  }
+
+  /**
+   * Keeps the recorded snapshot if its crawl reached the last page, and deletes it otherwise.
+   *
+   * @param complete whether every page of the API was fetched
+   */
+  public void finishRun(boolean complete) {
+    Recording finished = recording;
+    recording = null;
+    replayedSnapshot = null;
+    replayedManifest = null;
+    if (finished == null) {
+      return;
+    }
+    try {
+      int pageCount = finished.pages.size();
+      // the pages are recorded as they are fetched ahead, by then every fetched page was read to its end
+      if (!complete || finished.broken || (pageCount > 0 && finished.pages.last() != pageCount - 1)) {
+        log.info("Snapshot {} incomplete, deleted", finished.id);
+        FileSystemUtils.deleteRecursively(finished.staging);
+        return;
+      }
+      SnapshotManifest manifest = new SnapshotManifest();
+      manifest.setId(finished.id);
+      manifest.setApiBaseUrl(finished.apiBaseUrl);
+      manifest.setCreatedAt(finished.createdAt);
+      manifest.setPageSize(finished.pageSize);
+      manifest.setPageCount(pageCount);
+      manifest.setRawBytes(finished.rawBytes.get());
+      manifest.setStoredBytes(getSize(finished.staging));
+      Files.write(finished.staging.resolve(MANIFEST_FILE), objectMapper.writeValueAsBytes(manifest));
+      Files.move(finished.staging, Path.of(directory, SNAPSHOT_PREFIX + finished.id), StandardCopyOption.ATOMIC_MOVE);
+      log.info("Snapshot {} recorded : {} pages, {} KiB stored for {} KiB served", finished.id, pageCount,
+              manifest.getStoredBytes() / 1024, manifest.getRawBytes() / 1024);
+      evict();
+    } catch (IOException e) {
+      log.error("Unable to keep snapshot " + finished.id, e);
+      FileSystemUtils.deleteRecursively(finished.staging.toFile());
+    }
+  }
+
+  /**
+   * @return the complete snapshots, oldest first
+   */
+  public List<SnapshotManifest> getSnapshots() throws IOException {
+    List<SnapshotManifest> snapshots = new ArrayList<>();
+    Path root = Path.of(directory);
+    if (!Files.isDirectory(root)) {
+      return snapshots;
+    }
+    try (DirectoryStream<Path> snapshotDirectories = Files.newDirectoryStream(root, SNAPSHOT_PREFIX + "*")) {
+      for (Path snapshotDirectory : snapshotDirectories) {
+        Path manifestFile = snapshotDirectory.resolve(MANIFEST_FILE);
+        if (Files.isRegularFile(manifestFile)) {
+          snapshots.add(objectMapper.readValue(manifestFile.toFile(), SnapshotManifest.class));
+        }
+      }
+    }
+    snapshots.sort(Comparator.comparing(SnapshotManifest::getCreatedAt));
+    return snapshots;
+  }
+
+  /**
+   * @return a request factory serving the pages of the snapshot of the current run
+   */
+  public ClientHttpRequestFactory getReplayRequestFactory() {
+    return new SnapshotReplayRequestFactory(this);
+  }
+
+  @Override
+  public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
+          throws IOException {
+    ClientHttpResponse response = execution.execute(request, body);
+    Recording current = recording;
+    int page = getPage(request.getURI());
+    if (current == null || page < 0 || response.getRawStatusCode() != HttpStatus.OK.value()) {
+      return response;
+    }
+    return new RecordingResponse(response, current, page);
+  }
+
+  Path getReplayedSnapshot() {
+    return replayedSnapshot;
+  }
+
+  SnapshotManifest getReplayedManifest() {
+    return replayedManifest;
+  }
+
+  static Path getPageFile(Path snapshot, int page) {
+    return snapshot.resolve(PAGE_FILE_PREFIX + page + PAGE_FILE_SUFFIX);
+  }
+
+  /**
+   * @return the page parameter of a request of the API, -1 if there is none
+   */
+  static int getPage(URI uri) {
+    if (uri.getRawQuery() == null) {
+      return -1;
+    }
+    Matcher matcher = PAGE_PARAMETER.matcher("?" + uri.getRawQuery());
+    return matcher.find() ? Integer.parseInt(matcher.group(1)) : -1;
+  }
+
+  private SnapshotManifest findReplayedSnapshot() throws IOException {
+    List<SnapshotManifest> snapshots = getSnapshots();
+    for (int i = snapshots.size() - 1; i >= 0; i--) {
+      if (replayId.isBlank() || replayId.equals(snapshots.get(i).getId())) {
+        return snapshots.get(i);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Deletes the oldest snapshots, never the latest one, while they hold more than the configured size.
+   */
+  private void evict() throws IOException {
+    List<SnapshotManifest> snapshots = getSnapshots();
+    long totalBytes = 0;
+    for (SnapshotManifest snapshot : snapshots) {
+      totalBytes += snapshot.getStoredBytes();
+    }
+    for (int i = 0; i < snapshots.size() - 1 && totalBytes > maxMb * 1024 * 1024; i++) {
+      SnapshotManifest evicted = snapshots.get(i);
+      FileSystemUtils.deleteRecursively(Path.of(directory, SNAPSHOT_PREFIX + evicted.getId()));
+      totalBytes -= evicted.getStoredBytes();
+      log.info("Snapshot {} evicted, {} KiB", evicted.getId(), evicted.getStoredBytes() / 1024);
+    }
+  }
+
+  private static long getSize(Path snapshot) throws IOException {
+    long size = 0;
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(snapshot)) {
+      for (Path file : files) {
+        size += Files.size(file);
+      }
+    }
+    return size;
+  }
+
+  private static final class Recording {
+
+    private final String id;
+
+    private final Path staging;
+
+    private final String apiBaseUrl;
+
+    private final int pageSize;
+
+    private final Instant createdAt;
+
+    private final AtomicLong rawBytes = new AtomicLong();
+
+    private final ConcurrentSkipListSet<Integer> pages = new ConcurrentSkipListSet<>();
+
+    private volatile boolean broken;
+
+    Recording(String id, Path staging, String apiBaseUrl, int pageSize, Instant createdAt) {
+      this.id = id;
+      this.staging = staging;
+      this.apiBaseUrl = apiBaseUrl;
+      this.pageSize = pageSize;
+      this.createdAt = createdAt;
+    }
+  }
+
+  /**
+   * Copies the body to the page file as it is read, the rest of it once the response is closed.
+   */
+  private static final class RecordingResponse implements ClientHttpResponse {
+
+    private final ClientHttpResponse response;
+
+    private final Recording recording;
+
+    private final int page;
+
+    private final Path tempFile;
+
+    private OutputStream copy;
+
+    private InputStream body;
+
+    private long bytes;
+
+    private boolean drained;
+
+    RecordingResponse(ClientHttpResponse response, Recording recording, int page) {
+      this.response = response;
+      this.recording = recording;
+      this.page = page;
+      this.tempFile = recording.staging.resolve(PAGE_FILE_PREFIX + page + ".tmp");
+    }
+
+    @Override
+    public InputStream getBody() throws IOException {
+      if (body == null) {
+        copy = new GZIPOutputStream(Files.newOutputStream(tempFile), StreamUtils.BUFFER_SIZE);
+        body = new FilterInputStream(response.getBody()) {
+          @Override
+          public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+              copy.write(b);
+              bytes++;
+            }
+            return b;
+          }
+
+          @Override
+          public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+              copy.write(b, off, n);
+              bytes += n;
+            }
+            return n;
+          }
+
+          @Override
+          public void close() throws IOException {
+            if (!drained) {
+              // the JSON parser closes the body at the end of the array, what follows is part of the page too
+              drained = true;
+              StreamUtils.drain(this);
+            }
+            super.close();
+          }
+        };
+      }
+      return body;
+    }
+
+    @Override
+    public HttpHeaders getHeaders() {
+      return response.getHeaders();
+    }
+
+    @Override
+    public HttpStatus getStatusCode() throws IOException {
+      return response.getStatusCode();
+    }
+
+    @Override
+    public int getRawStatusCode() throws IOException {
+      return response.getRawStatusCode();
+    }
+
+    @Override
+    public String getStatusText() throws IOException {
+      return response.getStatusText();
+    }
+
+    @Override
+    public void close() {
+      try {
+        if (body != null) {
+          body.close();
+          copy.close();
+          Files.move(tempFile, getPageFile(recording.staging, page), StandardCopyOption.REPLACE_EXISTING);
+          recording.rawBytes.addAndGet(bytes);
+          recording.pages.add(page);
+        }
+      } catch (IOException e) {
+        log.warn("Page " + page + " not recorded", e);
+        recording.broken = true;
+      } finally {
+        response.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.snapshot;
+
+import java.time.Instant;
+
+/**
+ * Description of a complete page snapshot, written once its crawl reached the last page.
+ */
+public class SnapshotManifest {
+
+  private String id;
+
+  private String apiBaseUrl;
+
+  private Instant createdAt;
+
+  private int pageSize;
+
+  private int pageCount;
+
+  /**
+   * Bytes of the page responses, as served by the API.
+   */
+  private long rawBytes;
+
+  /**
+   * Bytes of the compressed pages on disk.
+   */
+  private long storedBytes;
+
+  public String getId() {
+    return id;
+  }
+
+  public void setId(String id) {
+    this.id = id;
+  }
+
+  public String getApiBaseUrl() {
+    return apiBaseUrl;
+  }
+
+  public void setApiBaseUrl(String apiBaseUrl) {
+    this.apiBaseUrl = apiBaseUrl;
+  }
+
+  public Instant getCreatedAt() {
+    return createdAt;
+  }
+
+  public void setCreatedAt(Instant createdAt) {
+    this.createdAt = createdAt;
+  }
+
+  public int getPageSize() {
+    return pageSize;
+  }
+
+  public void setPageSize(int pageSize) {
+    this.pageSize = pageSize;
+  }
+
+  public int getPageCount() {
+    return pageCount;
+  }
+
+  public void setPageCount(int pageCount) {
+    this.pageCount = pageCount;
+  }
+
+  public long getRawBytes() {
+    return rawBytes;
+  }
+
+  public void setRawBytes(long rawBytes) {
+    this.rawBytes = rawBytes;
+  }
+
+  public long getStoredBytes() {
+    return storedBytes;
+  }
+
+  public void setStoredBytes(long storedBytes) {
+    this.storedBytes = storedBytes;
+  }
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.snapshot;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.AbstractClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Answers the page requests of the psc-api-maj client from the snapshot replayed by the current run : the stored
+ * page, or GONE past the last one, as the API does.
+ */
+class SnapshotReplayRequestFactory implements ClientHttpRequestFactory {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final PageSnapshots snapshots;
+
+  SnapshotReplayRequestFactory(PageSnapshots snapshots) {
+    this.snapshots = snapshots;
+  }
+
+  @Override
+  public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) {
+    return new AbstractClientHttpRequest() {
+      @Override
+      protected OutputStream getBodyInternal(HttpHeaders headers) {
+        return OutputStream.nullOutputStream();
+      }
+
+      @Override
+      protected ClientHttpResponse executeInternal(HttpHeaders headers) throws IOException {
+        Path snapshot = snapshots.getReplayedSnapshot();
+        if (snapshot == null) {
+          throw new IOException("No snapshot replayed, " + uri + " can't be answered");
+        }
+        int page = PageSnapshots.getPage(uri);
+        if (page < 0 || page >= snapshots.getReplayedManifest().getPageCount()) {
+          return new ReplayResponse(HttpStatus.GONE, InputStream.nullInputStream());
+        }
+        return new ReplayResponse(HttpStatus.OK, new GZIPInputStream(new BufferedInputStream(
+                Files.newInputStream(PageSnapshots.getPageFile(snapshot, page)), BUFFER_SIZE), BUFFER_SIZE));
+      }
+
+      @Override
+      public String getMethodValue() {
+        return httpMethod.name();
+      }
+
+      @Override
+      public URI getURI() {
+        return uri;
+      }
+    };
+  }
+
+  private static final class ReplayResponse implements ClientHttpResponse {
+
+    private final HttpStatus status;
+
+    private final InputStream body;
+
+    private final HttpHeaders headers = new HttpHeaders();
+
+    ReplayResponse(HttpStatus status, InputStream body) {
+      this.status = status;
+      this.body = body;
+      headers.setContentType(MediaType.APPLICATION_JSON);
+    }
+
+    @Override
+    public HttpStatus getStatusCode() {
+      return status;
+    }
+
+    @Override
+    public int getRawStatusCode() {
+      return status.value();
+    }
+
+    @Override
+    public String getStatusText() {
+      return status.getReasonPhrase();
+    }
+
+    @Override
+    public HttpHeaders getHeaders() {
+      return headers;
+    }
+
+    @Override
+    public InputStream getBody() {
+      return body;
+    }
+
+    @Override
+    public void close() {
+      try {
+        body.close();
+      } catch (IOException e) {
+        // read only, nothing to lose
+      }
+    }
+  }
+}
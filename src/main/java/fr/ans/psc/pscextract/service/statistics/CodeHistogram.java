@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.statistics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Exact counts of the codes of a column, for the first {@code maxCodes} distinct codes.
+ * <p>
+ * The codes of the directory are short lists of values, the bound only keeps memory constant if a column turns out to
+ * hold free text : the codes beyond it are counted together as other.
+ */
+public class CodeHistogram {
+
+  private final int maxCodes;
+
+  private final Map<String, long[]> counts = new HashMap<>();
+
+  private long missing;
+
+  private long other;
+
+  public CodeHistogram(int maxCodes) {
+    this.maxCodes = maxCodes;
+  }
+
+  /**
+   * @param code null or empty when the column is missing
+   */
+  public void add(String code) {
+    add(code, 1);
+  }
+
+  public void merge(CodeHistogram histogram) {
+    missing += histogram.missing;
+    other += histogram.other;
+    histogram.counts.forEach((code, count) -> add(code, count[0]));
+  }
+
+  private void add(String code, long count) {
+    if (code == null || code.isEmpty()) {
+      missing += count;
+      return;
+    }
+    long[] codeCount = counts.get(code);
+    if (codeCount == null) {
+      if (counts.size() >= maxCodes) {
+        other += count;
+        return;
+      }
+      codeCount = new long[1];
+      counts.put(code, codeCount);
+    }
+    codeCount[0] += count;
+  }
+
+  /**
+   * @return the count of each code, by code
+   */
+  public Map<String, Long> getCounts() {
+    Map<String, Long> sortedCounts = new TreeMap<>();
+    counts.forEach((code, count) -> sortedCounts.put(code, count[0]));
+    return sortedCounts;
+  }
+
+  public long getMissing() {
+    return missing;
+  }
+
+  public long getOther() {
+    return other;
+  }
+}
@@ -0,0 +1,258 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.statistics;
+
+import fr.ans.psc.model.Profession;
+import fr.ans.psc.model.Ps;
+import fr.ans.psc.model.Structure;
+import fr.ans.psc.model.WorkSituation;
+import fr.ans.psc.pscextract.service.compact.CompactRowEncoder;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Statistics of an extract, gathered while its rows are written and published as a JSON sidecar of its archive.
+ * <p>
+ * Distinct Ps and structures are HyperLogLog estimates, the code columns exact {@link CodeHistogram}s. Genders count
+ * Ps, the other columns count
+ * situations, that is unwound Ps : the rows of the other ids of a Ps would count them again. Memory doesn't grow with
+ * the directory, and the statistics of several page ranges merge into those of the whole extract.
+ */
+public class ExtractStatistics {
+
+  public static final String FILE_EXTENSION = ".statistics.json";
+
+  private final int maxCodes;
+
+  private String extract;
+
+  private long psCount;
+
+  private long situationCount;
+
+  private final HyperLogLog distinctPs;
+
+  private final HyperLogLog distinctStructures;
+
+  private final CodeHistogram professions;
+
+  private final CodeHistogram professionCategories;
+
+  private final CodeHistogram exerciseModes;
+
+  private final CodeHistogram activitySectors;
+
+  private final CodeHistogram departments;
+
+  private final CodeHistogram genders;
+
+  private final Map<String, CodeHistogram> professionsPerDepartment = new HashMap<>();
+
+  /**
+   * @param hllPrecision log2 of the registers of the distinct counts
+   * @param maxCodes     codes counted per column, departments too for the professions per department
+   */
+  public ExtractStatistics(int hllPrecision, int maxCodes) {
+    this.maxCodes = maxCodes;
+    distinctPs = new HyperLogLog(hllPrecision);
+    distinctStructures = new HyperLogLog(hllPrecision);
+    professions = new CodeHistogram(maxCodes);
+    professionCategories = new CodeHistogram(maxCodes);
+    exerciseModes = new CodeHistogram(maxCodes);
+    activitySectors = new CodeHistogram(maxCodes);
+    departments = new CodeHistogram(maxCodes);
+    genders = new CodeHistogram(maxCodes);
+  }
+
+  /**
+   * @param ps        an unwound Ps, with at most one profession and work situation
+   * @param firstOfPs whether it is the first unwound Ps of its Ps
+   */
+  public void situationWritten(Ps ps, boolean firstOfPs) {
+    Profession profession = ps.getProfessions() == null || ps.getProfessions().isEmpty()
+            ? null : ps.getProfessions().get(0);
+    WorkSituation workSituation = profession == null || profession.getWorkSituations() == null
+            || profession.getWorkSituations().isEmpty() ? null : profession.getWorkSituations().get(0);
+    Structure structure = workSituation == null ? null : workSituation.getStructure();
+    situationWritten(firstOfPs, ps.getId(), ps.getGenderCode(), profession == null ? null : profession.getCode(),
+            profession == null ? null : profession.getCategoryCode(),
+            workSituation == null ? null : workSituation.getModeCode(),
+            workSituation == null ? null : workSituation.getActivitySectorCode(),
+            structure == null ? null : structure.getStructureTechnicalId(),
+            structure == null ? null : structure.getDepartmentCode());
+  }
+
+  /**
+   * As {@link #situationWritten(Ps, boolean)}, for the situation a compact Ps encoder is at.
+   */
+  public void situationWritten(CompactRowEncoder situation, boolean firstOfPs) {
+    situationWritten(firstOfPs, situation.getPsId(), situation.getGenderCode(), situation.getProfessionCode(),
+            situation.getProfessionCategoryCode(), situation.getModeCode(), situation.getActivitySectorCode(),
+            situation.getStructureTechnicalId(), situation.getDepartmentCode());
+  }
+
+  private void situationWritten(boolean firstOfPs, String psId, String genderCode, String professionCode,
+                                String professionCategoryCode, String modeCode, String activitySectorCode,
+                                String structureTechnicalId, String departmentCode) {
+    if (firstOfPs) {
+      psCount++;
+      if (psId != null) {
+        distinctPs.add(psId);
+      }
+      genders.add(genderCode);
+    }
+    situationCount++;
+    professions.add(professionCode);
+    professionCategories.add(professionCategoryCode);
+    exerciseModes.add(modeCode);
+    activitySectors.add(activitySectorCode);
+    departments.add(departmentCode);
+    if (structureTechnicalId != null) {
+      distinctStructures.add(structureTechnicalId);
+    }
+    if (departmentCode != null && !departmentCode.isEmpty()) {
+      CodeHistogram departmentProfessions = getDepartmentProfessions(departmentCode);
+      if (departmentProfessions != null) {
+        departmentProfessions.add(professionCode);
+      }
+    }
+  }
+
+  /**
+   * Adds the statistics of another page range, gathered with the same settings.
+   */
+  public void merge(ExtractStatistics statistics) {
+    psCount += statistics.psCount;
+    situationCount += statistics.situationCount;
+    distinctPs.merge(statistics.distinctPs);
+    distinctStructures.merge(statistics.distinctStructures);
+    professions.merge(statistics.professions);
+    professionCategories.merge(statistics.professionCategories);
+    exerciseModes.merge(statistics.exerciseModes);
+    activitySectors.merge(statistics.activitySectors);
+    departments.merge(statistics.departments);
+    genders.merge(statistics.genders);
+    statistics.professionsPerDepartment.forEach((departmentCode, histogram) -> {
+      CodeHistogram departmentProfessions = getDepartmentProfessions(departmentCode);
+      if (departmentProfessions != null) {
+        departmentProfessions.merge(histogram);
+      }
+    });
+  }
+
+  /**
+   * @return null once {@code maxCodes} departments are counted, for another one
+   */
+  private CodeHistogram getDepartmentProfessions(String departmentCode) {
+    CodeHistogram departmentProfessions = professionsPerDepartment.get(departmentCode);
+    if (departmentProfessions == null && professionsPerDepartment.size() < maxCodes) {
+      departmentProfessions = new CodeHistogram(maxCodes);
+      professionsPerDepartment.put(departmentCode, departmentProfessions);
+    }
+    return departmentProfessions;
+  }
+
+  /**
+   * @return the statistics sidecar of a published archive
+   */
+  public static File getStatisticsFile(File extract) {
+    String name = extract.getName();
+    return new File(extract.getParentFile(), name.substring(0, name.lastIndexOf('.')) + FILE_EXTENSION);
+  }
+
+  public String getExtract() {
+    return extract;
+  }
+
+  public void setExtract(String extract) {
+    this.extract = extract;
+  }
+
+  public long getPsCount() {
+    return psCount;
+  }
+
+  public long getSituationCount() {
+    return situationCount;
+  }
+
+  public DistinctCount getDistinctPs() {
+    return new DistinctCount(distinctPs);
+  }
+
+  public DistinctCount getDistinctStructures() {
+    return new DistinctCount(distinctStructures);
+  }
+
+  public CodeHistogram getProfessions() {
+    return professions;
+  }
+
+  public CodeHistogram getProfessionCategories() {
+    return professionCategories;
+  }
+
+  public CodeHistogram getExerciseModes() {
+    return exerciseModes;
+  }
+
+  public CodeHistogram getActivitySectors() {
+    return activitySectors;
+  }
+
+  public CodeHistogram getDepartments() {
+    return departments;
+  }
+
+  public CodeHistogram getGenders() {
+    return genders;
+  }
+
+  /**
+   * @return the professions of the situations of each department, by department code
+   */
+  public Map<String, Map<String, Long>> getProfessionsPerDepartment() {
+    Map<String, Map<String, Long>> counts = new TreeMap<>();
+    professionsPerDepartment.forEach((departmentCode, histogram) -> counts.put(departmentCode, histogram.getCounts()));
+    return counts;
+  }
+
+  /**
+   * A HyperLogLog estimate, as published.
+   */
+  public static class DistinctCount {
+
+    private final long estimate;
+
+    private final double relativeStandardError;
+
+    DistinctCount(HyperLogLog sketch) {
+      estimate = sketch.estimate();
+      relativeStandardError = sketch.getRelativeStandardError();
+    }
+
+    public long getEstimate() {
+      return estimate;
+    }
+
+    public double getRelativeStandardError() {
+      return relativeStandardError;
+    }
+  }
+}
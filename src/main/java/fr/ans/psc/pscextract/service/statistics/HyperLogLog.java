@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.statistics;
+
+import fr.ans.psc.pscextract.service.utils.FingerprintSet;
+
+/**
+ * HyperLogLog estimate of the number of distinct strings, in 2^precision one byte registers whatever their count.
+ * <p>
+ * The relative standard error is about 1.04 / sqrt(2^precision), 0.8 % for a precision of 14 and 16 KiB of registers.
+ * Two sketches of the same precision merge into the sketch of the union of their strings.
+ */
+public class HyperLogLog {
+
+  private final int precision;
+
+  private final byte[] registers;
+
+  /**
+   * @param precision 4 to 18, the log2 of the register count
+   */
+  public HyperLogLog(int precision) {
+    if (precision < 4 || precision > 18) {
+      throw new IllegalArgumentException("HyperLogLog precision out of 4..18 : " + precision);
+    }
+    this.precision = precision;
+    this.registers = new byte[1 << precision];
+  }
+
+  public void add(String value) {
+    long hash = FingerprintSet.fingerprint(value);
+    int index = (int) (hash >>> (64 - precision));
+    // The sentinel bit bounds the rank when the remaining bits are all 0
+    byte rank = (byte) (Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1);
+    if (rank > registers[index]) {
+      registers[index] = rank;
+    }
+  }
+
+  /**
+   * Adds the strings of another sketch of the same precision.
+   */
+  public void merge(HyperLogLog other) {
+    if (other.precision != precision) {
+      throw new IllegalArgumentException("Cannot merge a HyperLogLog of precision " + other.precision
+              + " into one of precision " + precision);
+    }
+    for (int i = 0; i < registers.length; i++) {
+      if (other.registers[i] > registers[i]) {
+        registers[i] = other.registers[i];
+      }
+    }
+  }
+
+  public long estimate() {
+    int m = registers.length;
+    double sum = 0;
+    int zeros = 0;
+    for (byte register : registers) {
+      sum += 1.0 / (1L << register);
+      if (register == 0) {
+        zeros++;
+      }
+    }
+    double estimate = 0.7213 / (1 + 1.079 / m) * m * m / sum;
+    // Linear counting is more accurate while many registers are still empty
+    if (estimate <= 2.5 * m && zeros > 0) {
+      estimate = m * Math.log((double) m / zeros);
+    }
+    return Math.round(estimate);
+  }
+
+  public double getRelativeStandardError() {
+    return 1.04 / Math.sqrt(registers.length);
+  }
+
+  public int getPrecision() {
+    return precision;
+  }
+}
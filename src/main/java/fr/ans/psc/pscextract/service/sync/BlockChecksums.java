@@ -0,0 +1,242 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.sync;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Block checksums of an uncompressed extract data entry, zsync style : the data is cut in fixed size blocks, each
+ * described by a rolling weak checksum and a strong MD5 hash, so that a client holding a previous extract can find
+ * which blocks it already has at any offset and only fetch the other ones.
+ * <p>
+ * Sidecar file format (UTF-8 text) : a {@code key=value} header, an empty line, then one
+ * {@code <weak checksum hex> <md5 hex>} line per block.
+ */
+public class BlockChecksums {
+
+  public static final String FILE_EXTENSION = ".blocks";
+
+  private static final String FORMAT_LINE = "#pscextract-blocks 1";
+
+  private final String extractName;
+
+  private final int blockSize;
+
+  private final long length;
+
+  private final String sha256;
+
+  private final int[] weakChecksums;
+
+  private final byte[][] strongHashes;
+
+  public BlockChecksums(String extractName, int blockSize, long length, String sha256, int[] weakChecksums, byte[][] strongHashes) {
+    this.extractName = extractName;
+    this.blockSize = blockSize;
+    this.length = length;
+    this.sha256 = sha256;
+    this.weakChecksums = weakChecksums;
+    this.strongHashes = strongHashes;
+  }
+
+  /**
+   * @return the name of the published archive holding the data entry
+   */
+  public String getExtractName() {
+    return extractName;
+  }
+
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  /**
+   * @return the uncompressed data entry length
+   */
+  public long getLength() {
+    return length;
+  }
+
+  /**
+   * @return the hex encoded sha256 of the whole data entry, same as the archive's digest entry
+   */
+  public String getSha256() {
+    return sha256;
+  }
+
+  public int getBlockCount() {
+    return weakChecksums.length;
+  }
+
+  public int getBlockLength(int index) {
+    return (int) Math.min(blockSize, length - (long) index * blockSize);
+  }
+
+  public int getWeakChecksum(int index) {
+    return weakChecksums[index];
+  }
+
+  public byte[] getStrongHash(int index) {
+    return strongHashes[index];
+  }
+
+  public void write(OutputStream out) throws IOException {
+    Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    writer.write(FORMAT_LINE + "\n");
+    writer.write("extract=" + extractName + "\n");
+    writer.write("block.size=" + blockSize + "\n");
+    writer.write("length=" + length + "\n");
+    writer.write("sha256=" + sha256 + "\n");
+    writer.write("\n");
+    for (int i = 0; i < weakChecksums.length; i++) {
+      writer.write(String.format("%08x", weakChecksums[i]));
+      writer.write(' ');
+      writer.write(toHex(strongHashes[i]));
+      writer.write('\n');
+    }
+    writer.flush();
+  }
+
+  public static BlockChecksums read(InputStream in) throws IOException {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    if (!FORMAT_LINE.equals(reader.readLine())) {
+      throw new IOException("Not a block checksums file");
+    }
+    Map<String, String> header = new HashMap<>();
+    String line = reader.readLine();
+    while (line != null && !line.isEmpty()) {
+      int separator = line.indexOf('=');
+      header.put(line.substring(0, separator), line.substring(separator + 1));
+      line = reader.readLine();
+    }
+    try {
+      int blockSize = Integer.parseInt(header.get("block.size"));
+      long length = Long.parseLong(header.get("length"));
+      int blockCount = (int) ((length + blockSize - 1) / blockSize);
+      int[] weakChecksums = new int[blockCount];
+      byte[][] strongHashes = new byte[blockCount][];
+      for (int i = 0; i < blockCount; i++) {
+        line = reader.readLine();
+        if (line == null) {
+          throw new IOException("Truncated block checksums file, " + blockCount + " blocks expected");
+        }
+        weakChecksums[i] = Integer.parseUnsignedInt(line.substring(0, 8), 16);
+        strongHashes[i] = fromHex(line.substring(9));
+      }
+      return new BlockChecksums(header.get("extract"), blockSize, length, header.get("sha256"), weakChecksums, strongHashes);
+    } catch (RuntimeException e) {
+      throw new IOException("Malformed block checksums file", e);
+    }
+  }
+
+  static MessageDigest newStrongHashDigest() {
+    try {
+      return MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("No MD5 digest support in the current java runtime", e);
+    }
+  }
+
+  private static String toHex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    return sb.toString();
+  }
+
+  private static byte[] fromHex(String hex) {
+    byte[] bytes = new byte[hex.length() / 2];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+    }
+    return bytes;
+  }
+
+  /**
+   * Computes the block checksums of a data stream fed in chunks of any size.
+   */
+  public static class Builder {
+
+    private final int blockSize;
+
+    private final byte[] block;
+
+    private final MessageDigest strongDigest = newStrongHashDigest();
+
+    private int blockFill;
+
+    private long length;
+
+    private int[] weakChecksums = new int[64];
+
+    private final List<byte[]> strongHashes = new ArrayList<>();
+
+    public Builder(int blockSize) {
+      this.blockSize = blockSize;
+      this.block = new byte[blockSize];
+    }
+
+    public void update(byte[] buffer, int offset, int count) {
+      length += count;
+      while (count > 0) {
+        int copied = Math.min(count, blockSize - blockFill);
+        System.arraycopy(buffer, offset, block, blockFill, copied);
+        blockFill += copied;
+        offset += copied;
+        count -= copied;
+        if (blockFill == blockSize) {
+          closeBlock();
+        }
+      }
+    }
+
+    public BlockChecksums build(String extractName, String sha256) {
+      if (blockFill > 0) {
+        closeBlock();
+      }
+      int blockCount = strongHashes.size();
+      return new BlockChecksums(extractName, blockSize, length, sha256,
+              Arrays.copyOf(weakChecksums, blockCount), strongHashes.toArray(new byte[blockCount][]));
+    }
+
+    private void closeBlock() {
+      int index = strongHashes.size();
+      if (index == weakChecksums.length) {
+        weakChecksums = Arrays.copyOf(weakChecksums, index * 2);
+      }
+      weakChecksums[index] = RollingChecksum.of(block, 0, blockFill);
+      strongDigest.update(block, 0, blockFill);
+      strongHashes.add(strongDigest.digest());
+      blockFill = 0;
+    }
+  }
+}
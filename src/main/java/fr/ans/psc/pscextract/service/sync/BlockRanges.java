@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.sync;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact text form of a sorted block index list, eg "0-3,7,9-12".
+ */
+public final class BlockRanges {
+
+  private BlockRanges() {
+  }
+
+  public static String format(List<Integer> sortedIndexes) {
+    StringBuilder sb = new StringBuilder();
+    int i = 0;
+    while (i < sortedIndexes.size()) {
+      int first = sortedIndexes.get(i);
+      int last = first;
+      while (i + 1 < sortedIndexes.size() && sortedIndexes.get(i + 1) == last + 1) {
+        last = sortedIndexes.get(++i);
+      }
+      if (sb.length() > 0) {
+        sb.append(',');
+      }
+      sb.append(first);
+      if (last != first) {
+        sb.append('-').append(last);
+      }
+      i++;
+    }
+    return sb.toString();
+  }
+
+  /**
+   * @param blockCount the number of blocks, checked before any range is expanded
+   * @throws IllegalArgumentException if the ranges are malformed, not in ascending order or past the last block
+   */
+  public static List<Integer> parse(String ranges, int blockCount) {
+    List<Integer> indexes = new ArrayList<>();
+    if (ranges == null || ranges.isBlank()) {
+      return indexes;
+    }
+    int previous = -1;
+    for (String range : ranges.split(",")) {
+      int dash = range.indexOf('-');
+      int first;
+      int last;
+      try {
+        first = Integer.parseInt(dash < 0 ? range.trim() : range.substring(0, dash).trim());
+        last = dash < 0 ? first : Integer.parseInt(range.substring(dash + 1).trim());
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Malformed block range " + range, e);
+      }
+      if (first <= previous || last < first) {
+        throw new IllegalArgumentException("Block ranges must be ascending and disjoint : " + range);
+      }
+      if (first < 0 || last >= blockCount) {
+        throw new IllegalArgumentException("Block range " + range + " out of range [0," + blockCount + "[");
+      }
+      for (int index = first; index <= last; index++) {
+        indexes.add(index);
+      }
+      previous = last;
+    }
+    return indexes;
+  }
+}
@@ -0,0 +1,35 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.sync;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Where a {@link BlockSyncClient} gets the current extract's block checksums and missing blocks from.
+ */
+public interface BlockSource {
+
+  BlockChecksums fetchChecksums() throws IOException;
+
+  /**
+   * @param checksums     the checksums previously fetched, identifying the extract version
+   * @param sortedIndexes the wanted block indexes, ascending
+   * @return the blocks content, concatenated in index order
+   */
+  InputStream openBlocks(BlockChecksums checksums, List<Integer> sortedIndexes) throws IOException;
+}
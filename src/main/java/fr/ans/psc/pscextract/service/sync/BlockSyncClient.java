@@ -0,0 +1,257 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.sync;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rebuilds the current extract data file from a previous one, fetching only the blocks that can't be found in it.
+ * <p>
+ * The previous file is scanned with a rolling checksum, so blocks are found again even when lines were inserted or
+ * removed before them. The rebuilt file is checked against the extract sha256 digest.
+ */
+public class BlockSyncClient {
+
+  /**
+   * Block indexes sent per block request, to keep request lines short.
+   */
+  private static final int MAX_INDEXES_PER_REQUEST = 4096;
+
+  private final BlockSource source;
+
+  public BlockSyncClient(BlockSource source) {
+    this.source = source;
+  }
+
+  /**
+   * @param previous the previous extract data file, may not exist
+   * @param target   where to write the current extract data file
+   */
+  public Report synchronize(Path previous, Path target) throws IOException {
+    BlockChecksums checksums = source.fetchChecksums();
+    long[] localOffsets = findLocalBlocks(checksums, previous);
+
+    List<Integer> missing = new ArrayList<>();
+    for (int i = 0; i < localOffsets.length; i++) {
+      if (localOffsets[i] < 0) {
+        missing.add(i);
+      }
+    }
+
+    long fetchedBytes = 0;
+    try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+      for (int from = 0; from < missing.size(); from += MAX_INDEXES_PER_REQUEST) {
+        List<Integer> batch = missing.subList(from, Math.min(missing.size(), from + MAX_INDEXES_PER_REQUEST));
+        fetchedBytes += copyFetchedBlocks(checksums, batch, out);
+      }
+      if (missing.size() < localOffsets.length) {
+        copyLocalBlocks(checksums, localOffsets, previous, out);
+      }
+      out.truncate(checksums.getLength());
+    }
+
+    String actualSha256 = sha256(target);
+    if (!actualSha256.equalsIgnoreCase(checksums.getSha256())) {
+      throw new IOException("Rebuilt extract digest " + actualSha256 + " does not match expected " + checksums.getSha256());
+    }
+    return new Report(checksums.getBlockCount(), checksums.getBlockCount() - missing.size(), fetchedBytes, checksums.getLength());
+  }
+
+  private long copyFetchedBlocks(BlockChecksums checksums, List<Integer> indexes, FileChannel out) throws IOException {
+    long copied = 0;
+    try (InputStream blocks = source.openBlocks(checksums, indexes)) {
+      for (int index : indexes) {
+        byte[] block = blocks.readNBytes(checksums.getBlockLength(index));
+        if (block.length != checksums.getBlockLength(index)) {
+          throw new IOException("Block " + index + " truncated");
+        }
+        out.write(ByteBuffer.wrap(block), (long) index * checksums.getBlockSize());
+        copied += block.length;
+      }
+    }
+    return copied;
+  }
+
+  private void copyLocalBlocks(BlockChecksums checksums, long[] localOffsets, Path previous, FileChannel out) throws IOException {
+    ByteBuffer block = ByteBuffer.allocate(checksums.getBlockSize());
+    try (FileChannel in = FileChannel.open(previous, StandardOpenOption.READ)) {
+      for (int i = 0; i < localOffsets.length; i++) {
+        if (localOffsets[i] >= 0) {
+          block.clear().limit(checksums.getBlockLength(i));
+          while (block.hasRemaining()) {
+            if (in.read(block, localOffsets[i] + block.position()) < 0) {
+              throw new IOException("Previous extract changed during synchronisation");
+            }
+          }
+          block.flip();
+          out.write(block, (long) i * checksums.getBlockSize());
+        }
+      }
+    }
+  }
+
+  /**
+   * @return for each block, its offset in the previous file, or -1 if it has to be fetched
+   */
+  private long[] findLocalBlocks(BlockChecksums checksums, Path previous) throws IOException {
+    int blockSize = checksums.getBlockSize();
+    long[] localOffsets = new long[checksums.getBlockCount()];
+    Arrays.fill(localOffsets, -1);
+    if (previous == null || !Files.isRegularFile(previous)) {
+      return localOffsets;
+    }
+
+    // Only full size blocks are looked up, a trailing partial block is always fetched.
+    Map<Integer, List<Integer>> blocksByWeakChecksum = new HashMap<>();
+    for (int i = 0; i < checksums.getBlockCount(); i++) {
+      if (checksums.getBlockLength(i) == blockSize) {
+        blocksByWeakChecksum.computeIfAbsent(checksums.getWeakChecksum(i), k -> new ArrayList<>(1)).add(i);
+      }
+    }
+    if (blocksByWeakChecksum.isEmpty()) {
+      return localOffsets;
+    }
+
+    MessageDigest strongDigest = BlockChecksums.newStrongHashDigest();
+    RollingChecksum rollingChecksum = new RollingChecksum(blockSize);
+    byte[] buffer = new byte[Math.max(4 * blockSize, 1 << 20)];
+    try (InputStream in = Files.newInputStream(previous)) {
+      long bufferOffset = 0;
+      int bufferFill = in.readNBytes(buffer, 0, buffer.length);
+      int position = 0;
+      boolean rolling = false;
+      while (true) {
+        if (position + blockSize >= bufferFill) {
+          // Keep the current window and read further on.
+          int kept = bufferFill - position;
+          System.arraycopy(buffer, position, buffer, 0, kept);
+          bufferOffset += position;
+          position = 0;
+          bufferFill = kept + in.readNBytes(buffer, kept, buffer.length - kept);
+          if (bufferFill < blockSize) {
+            break;
+          }
+        }
+        if (!rolling) {
+          rollingChecksum.reset(buffer, position);
+          rolling = true;
+        }
+        List<Integer> candidates = blocksByWeakChecksum.get(rollingChecksum.value());
+        boolean matched = false;
+        if (candidates != null) {
+          strongDigest.update(buffer, position, blockSize);
+          byte[] strongHash = strongDigest.digest();
+          for (int candidate : candidates) {
+            if (localOffsets[candidate] < 0 && Arrays.equals(strongHash, checksums.getStrongHash(candidate))) {
+              localOffsets[candidate] = bufferOffset + position;
+              matched = true;
+            }
+          }
+        }
+        if (matched) {
+          position += blockSize;
+          rolling = false;
+        } else if (position + blockSize < bufferFill) {
+          rollingChecksum.roll(buffer[position], buffer[position + blockSize]);
+          position++;
+        } else {
+          break;
+        }
+      }
+    }
+    return localOffsets;
+  }
+
+  private static String sha256(Path file) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("No SHA256 digest support in the current java runtime", e);
+    }
+    byte[] buffer = new byte[1 << 16];
+    try (InputStream in = Files.newInputStream(file)) {
+      int read;
+      while ((read = in.read(buffer)) >= 0) {
+        digest.update(buffer, 0, read);
+      }
+    }
+    StringBuilder sb = new StringBuilder();
+    for (byte b : digest.digest()) {
+      sb.append(String.format("%02x", b));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * What a synchronisation had to transfer.
+   */
+  public static class Report {
+
+    private final int blockCount;
+
+    private final int reusedBlockCount;
+
+    private final long fetchedBytes;
+
+    private final long length;
+
+    public Report(int blockCount, int reusedBlockCount, long fetchedBytes, long length) {
+      this.blockCount = blockCount;
+      this.reusedBlockCount = reusedBlockCount;
+      this.fetchedBytes = fetchedBytes;
+      this.length = length;
+    }
+
+    public int getBlockCount() {
+      return blockCount;
+    }
+
+    public int getReusedBlockCount() {
+      return reusedBlockCount;
+    }
+
+    /**
+     * @return the block bytes downloaded, checksums excluded
+     */
+    public long getFetchedBytes() {
+      return fetchedBytes;
+    }
+
+    public long getLength() {
+      return length;
+    }
+
+    @Override
+    public String toString() {
+      return reusedBlockCount + "/" + blockCount + " blocks reused, " + fetchedBytes + " of " + length + " bytes fetched";
+    }
+  }
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.sync;
+
+import fr.ans.psc.pscextract.service.catalog.CatalogEntry;
+import fr.ans.psc.pscextract.service.catalog.ExtractCatalog;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Serves the block checksums and block ranges of published extracts to {@link BlockSyncClient}s.
+ */
+@Service
+public class BlockSyncService {
+
+  @Autowired
+  private ExtractCatalog extractCatalog;
+
+  /**
+   * @return the block checksums of the latest extract, null if there is none
+   */
+  public File getLatestChecksumsFile() {
+    CatalogEntry extract = extractCatalog.getLatest();
+    if (extract == null) {
+      return null;
+    }
+    File checksums = getChecksumsFile(extract.getFile());
+    return checksums.isFile() ? checksums : null;
+  }
+
+  public static File getChecksumsFile(File extract) {
+    String name = extract.getName();
+    return new File(extract.getParentFile(), name.substring(0, name.lastIndexOf('.')) + BlockChecksums.FILE_EXTENSION);
+  }
+
+  /**
+   * @param extractFileName a published archive name, as found in block checksums
+   * @return the published archive, null if there is no such extract in the files directory
+   */
+  public File getPublishedExtract(String extractFileName) {
+    // Only cataloged names resolve, so that no path can be forged.
+    CatalogEntry entry = extractCatalog.getExtract(extractFileName);
+    if (entry == null) {
+      return null;
+    }
+    File extract = entry.getFile();
+    return extract.isFile() && getChecksumsFile(extract).isFile() ? extract : null;
+  }
+
+  /**
+   * @param extract a published archive, see {@link #getPublishedExtract(String)}
+   */
+  public BlockChecksums readChecksums(File extract) throws IOException {
+    try (InputStream checksumsContent = new FileInputStream(getChecksumsFile(extract))) {
+      return BlockChecksums.read(checksumsContent);
+    }
+  }
+
+  /**
+   * @throws IllegalArgumentException if an index is out of the extract blocks range
+   */
+  private static void checkIndexes(BlockChecksums checksums, List<Integer> sortedIndexes) {
+    for (int index : sortedIndexes) {
+      if (index < 0 || index >= checksums.getBlockCount()) {
+        throw new IllegalArgumentException("Block " + index + " out of range [0," + checksums.getBlockCount() + "[");
+      }
+    }
+  }
+
+  /**
+   * Streams the requested blocks of the extract data entry, decompressing it only once.
+   *
+   * @param checksums the block checksums of the extract
+   * @throws IllegalArgumentException if an index is out of the extract blocks range
+   */
+  public void writeBlocks(File extract, BlockChecksums checksums, List<Integer> sortedIndexes, OutputStream out)
+          throws IOException {
+    checkIndexes(checksums, sortedIndexes);
+
+    try (ZipFile zipFile = new ZipFile(extract); InputStream data = zipFile.getInputStream(getDataEntry(zipFile))) {
+      long position = 0;
+      for (int index : sortedIndexes) {
+        long offset = (long) index * checksums.getBlockSize();
+        skipFully(data, offset - position);
+        byte[] block = data.readNBytes(checksums.getBlockLength(index));
+        out.write(block);
+        position = offset + block.length;
+      }
+    }
+    out.flush();
+  }
+
+  private static ZipEntry getDataEntry(ZipFile zipFile) throws IOException {
+    Enumeration<? extends ZipEntry> entries = zipFile.entries();
+    while (entries.hasMoreElements()) {
+      ZipEntry entry = entries.nextElement();
+      if (entry.getName().endsWith(".txt")) {
+        return entry;
+      }
+    }
+    throw new IOException("No data entry in " + zipFile.getName());
+  }
+
+  private static void skipFully(InputStream in, long count) throws IOException {
+    while (count > 0) {
+      long skipped = in.skip(count);
+      if (skipped <= 0) {
+        if (in.read() < 0) {
+          throw new IOException("Unexpected end of data entry");
+        }
+        skipped = 1;
+      }
+      count -= skipped;
+    }
+  }
+}
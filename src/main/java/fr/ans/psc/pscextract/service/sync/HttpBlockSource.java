@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.sync;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Fetches blocks from a running pscextract, eg {@code new HttpBlockSource("https://host/pscextract/v1")}.
+ * Only depends on the JDK, so that consumers can embed it along with {@link BlockSyncClient}.
+ */
+public class HttpBlockSource implements BlockSource {
+
+  private final String baseUrl;
+
+  private final HttpClient httpClient = HttpClient.newHttpClient();
+
+  public HttpBlockSource(String baseUrl) {
+    this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+  }
+
+  @Override
+  public BlockChecksums fetchChecksums() throws IOException {
+    try (InputStream checksums = get(baseUrl + "/download/blocks/checksums")) {
+      return BlockChecksums.read(checksums);
+    }
+  }
+
+  @Override
+  public InputStream openBlocks(BlockChecksums checksums, List<Integer> sortedIndexes) throws IOException {
+    return get(baseUrl + "/download/blocks?extract=" + URLEncoder.encode(checksums.getExtractName(), StandardCharsets.UTF_8)
+            + "&indexes=" + BlockRanges.format(sortedIndexes));
+  }
+
+  private InputStream get(String url) throws IOException {
+    HttpRequest request = HttpRequest.newBuilder(URI.create(url)).GET().build();
+    HttpResponse<InputStream> response;
+    try {
+      response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while requesting " + url, e);
+    }
+    if (response.statusCode() != 200) {
+      response.body().close();
+      throw new IOException("GET " + url + " failed with status " + response.statusCode());
+    }
+    return response.body();
+  }
+}
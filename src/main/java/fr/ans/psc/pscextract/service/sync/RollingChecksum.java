@@ -0,0 +1,69 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.sync;
+
+/**
+ * rsync weak checksum : two 16 bits sums over a fixed size window, that can be rolled one byte at a time.
+ */
+public class RollingChecksum {
+
+  private final int windowSize;
+
+  private int a;
+
+  private int b;
+
+  public RollingChecksum(int windowSize) {
+    this.windowSize = windowSize;
+  }
+
+  public static int of(byte[] buffer, int offset, int length) {
+    RollingChecksum checksum = new RollingChecksum(length);
+    checksum.reset(buffer, offset);
+    return checksum.value();
+  }
+
+  /**
+   * Computes the checksum of the window starting at offset.
+   */
+  public void reset(byte[] buffer, int offset) {
+    a = 0;
+    b = 0;
+    for (int i = 0; i < windowSize; i++) {
+      int x = buffer[offset + i] & 0xff;
+      a += x;
+      b += (windowSize - i) * x;
+    }
+    a &= 0xffff;
+    b &= 0xffff;
+  }
+
+  /**
+   * Slides the window one byte forward.
+   *
+   * @param out the first byte of the current window
+   * @param in  the byte right after the current window
+   */
+  public void roll(byte out, byte in) {
+    int x = out & 0xff;
+    a = (a - x + (in & 0xff)) & 0xffff;
+    b = (b - windowSize * x + a) & 0xffff;
+  }
+
+  public int value() {
+    return (b << 16) | a;
+  }
+}
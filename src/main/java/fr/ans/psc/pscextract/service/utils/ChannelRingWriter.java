@@ -0,0 +1,352 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.MalformedInputException;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.IntConsumer;
+
+/**
+ * UTF-8 writer encoding into a ring of direct buffers, that a thread of its own digests and writes to a file channel.
+ * <p>
+ * Buffers are handed to the I/O thread once full, so that the file is written in large writes aligned on the buffer
+ * size while the next rows are encoded, and the encoding thread only waits when the whole ring is waiting for the
+ * disk. {@link #flush()} hands over a partly filled buffer, {@link #close()} waits for every buffer to be written.
+ * A failure of the I/O thread is thrown by the next call on the writer.
+ */
+public class ChannelRingWriter extends Writer {
+
+  private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+  /**
+   * Chars encoded at once. The bytes are staged in a heap buffer four times larger, and copied to the direct buffer
+   * once it cannot take another full encoding.
+   */
+  private static final int STAGING_SIZE = 8192;
+
+  private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+
+  private final FileChannel channel;
+
+  private final MessageDigest digest;
+
+  private final IntConsumer bytesWritten;
+
+  private final boolean force;
+
+  private final BlockingQueue<ByteBuffer> freeBuffers;
+
+  private final BlockingQueue<ByteBuffer> fullBuffers;
+
+  private final Thread ioThread;
+
+  private final CharBuffer chars = CharBuffer.allocate(STAGING_SIZE);
+
+  private final ByteBuffer bytes = ByteBuffer.allocate(STAGING_SIZE * 4);
+
+  private ByteBuffer current;
+
+  /**
+   * High surrogate at the end of the last write, waiting for its low surrogate.
+   */
+  private char pendingHighSurrogate;
+
+  private volatile IOException failure;
+
+  private volatile long digestNanos;
+
+  private volatile long ioWaitNanos;
+
+  private boolean closed;
+
+  /**
+   * @param digest       digest of the bytes written, updated by the I/O thread, null for none
+   * @param bytesWritten called by the I/O thread after each write
+   * @param force        whether {@link #close()} forces the content to the storage device
+   */
+  public ChannelRingWriter(Path file, int bufferSize, int bufferCount, boolean force, MessageDigest digest,
+                           IntConsumer bytesWritten) throws IOException {
+    this.channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+    this.digest = digest;
+    this.bytesWritten = bytesWritten;
+    this.force = force;
+    int count = Math.max(2, bufferCount);
+    freeBuffers = new ArrayBlockingQueue<>(count);
+    fullBuffers = new ArrayBlockingQueue<>(count + 1);
+    for (int i = 0; i < count; i++) {
+      freeBuffers.add(ByteBuffer.allocateDirect(bufferSize));
+    }
+    current = freeBuffers.remove();
+    ioThread = new Thread(this::drain, "extract-writer");
+    ioThread.setDaemon(true);
+    ioThread.start();
+  }
+
+  @Override
+  public void write(int c) throws IOException {
+    chars.clear();
+    startStaging();
+    chars.put((char) c);
+    encode();
+  }
+
+  @Override
+  public void write(String str, int off, int len) throws IOException {
+    for (int end = off + len; off < end; off += STAGING_SIZE - 1) {
+      int chunk = Math.min(STAGING_SIZE - 1, end - off);
+      chars.clear();
+      str.getChars(off, off + chunk, chars.array(), startStaging());
+      chars.position(chars.position() + chunk);
+      encode();
+    }
+  }
+
+  @Override
+  public void write(char[] cbuf, int off, int len) throws IOException {
+    for (int end = off + len; off < end; off += STAGING_SIZE - 1) {
+      int chunk = Math.min(STAGING_SIZE - 1, end - off);
+      chars.clear();
+      chars.position(startStaging());
+      chars.put(cbuf, off, chunk);
+      encode();
+    }
+  }
+
+  /**
+   * @return where the chars to encode start in the char staging buffer, after a pending high surrogate
+   */
+  private int startStaging() {
+    if (pendingHighSurrogate == 0) {
+      return 0;
+    }
+    chars.put(pendingHighSurrogate);
+    pendingHighSurrogate = 0;
+    return 1;
+  }
+
+  /**
+   * Encodes the chars staged, through heap buffers so that the encoder runs its array loop, then copies the bytes to
+   * the direct buffer in bulk.
+   */
+  private void encode() throws IOException {
+    ensureOpen();
+    chars.flip();
+    while (true) {
+      CoderResult result = encoder.encode(chars, bytes, false);
+      if (result.isOverflow()) {
+        copyStagedBytes();
+      } else if (result.isUnderflow()) {
+        if (chars.hasRemaining()) {
+          pendingHighSurrogate = chars.get();
+        }
+        break;
+      } else {
+        result.throwException();
+      }
+    }
+    if (bytes.remaining() < STAGING_SIZE) {
+      copyStagedBytes();
+    }
+  }
+
+  private void copyStagedBytes() throws IOException {
+    bytes.flip();
+    while (bytes.hasRemaining()) {
+      if (!current.hasRemaining()) {
+        handOver();
+      }
+      int length = Math.min(bytes.remaining(), current.remaining());
+      current.put(bytes.array(), bytes.position(), length);
+      bytes.position(bytes.position() + length);
+    }
+    bytes.clear();
+  }
+
+  /**
+   * Hands the current buffer, even partly filled, to the I/O thread.
+   */
+  @Override
+  public void flush() throws IOException {
+    ensureOpen();
+    copyStagedBytes();
+    if (current.position() > 0) {
+      handOver();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    try {
+      if (failure == null) {
+        if (pendingHighSurrogate != 0) {
+          throw new MalformedInputException(1);
+        }
+        flush();
+      }
+    } finally {
+      closed = true;
+      putUninterruptibly(fullBuffers, END);
+      joinUninterruptibly();
+      try {
+        if (failure == null && force) {
+          channel.force(false);
+        }
+      } finally {
+        channel.close();
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   * @return the time the I/O thread spent digesting
+   */
+  public long getDigestNanos() {
+    return digestNanos;
+  }
+
+  /**
+   * @return the time the encoding thread waited for a free buffer
+   */
+  public long getIoWaitNanos() {
+    return ioWaitNanos;
+  }
+
+  private void handOver() throws IOException {
+    current.flip();
+    putUninterruptibly(fullBuffers, current);
+    long start = System.nanoTime();
+    current = takeUninterruptibly(freeBuffers);
+    ioWaitNanos += System.nanoTime() - start;
+    ensureOpen();
+  }
+
+  private void ensureOpen() throws IOException {
+    if (failure != null) {
+      throw failure;
+    }
+    if (closed) {
+      throw new IOException("Writer closed");
+    }
+  }
+
+  private void drain() {
+    try {
+      ByteBuffer buffer;
+      while ((buffer = fullBuffers.take()) != END) {
+        if (failure == null) {
+          try {
+            write(buffer);
+          } catch (IOException e) {
+            failure = e;
+          }
+        }
+        buffer.clear();
+        freeBuffers.add(buffer);
+      }
+    } catch (InterruptedException e) {
+      failure = new InterruptedIOException("Writer thread interrupted");
+      // release an encoding thread waiting for a free buffer
+      freeBuffers.offer(ByteBuffer.allocate(0));
+    }
+  }
+
+  private void write(ByteBuffer buffer) throws IOException {
+    int length = buffer.remaining();
+    if (digest != null) {
+      long start = System.nanoTime();
+      digest.update(buffer);
+      digestNanos += System.nanoTime() - start;
+      buffer.flip();
+    }
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    bytesWritten.accept(length);
+  }
+
+  private void joinUninterruptibly() {
+    boolean interrupted = false;
+    while (true) {
+      try {
+        ioThread.join();
+        break;
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Cancellation is noticed by the extraction between pages, the writer must not lose rows in the middle of one.
+   */
+  private static ByteBuffer takeUninterruptibly(BlockingQueue<ByteBuffer> queue) {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return queue.take();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private static void putUninterruptibly(BlockingQueue<ByteBuffer> queue, ByteBuffer buffer) {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          queue.put(buffer);
+          return;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.utils;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+
+/**
+ * Digests the bytes going through it, keeping track of the time spent digesting.
+ */
+public class DigestingOutputStream extends FilterOutputStream {
+
+  private final MessageDigest digest;
+
+  private long digestNanos;
+
+  public DigestingOutputStream(OutputStream out, MessageDigest digest) {
+    super(out);
+    this.digest = digest;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    digest.update((byte) b);
+    out.write(b);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    long start = System.nanoTime();
+    digest.update(b, off, len);
+    digestNanos += System.nanoTime() - start;
+    out.write(b, off, len);
+  }
+
+  public long getDigestNanos() {
+    return digestNanos;
+  }
+}
@@ -0,0 +1,269 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts the rows of a data entry whatever its size : rows are sorted in runs of bounded size spilled to a directory,
+ * then the runs are merged, at most {@code mergeFanIn} at a time.
+ * <p>
+ * A row ends with "|\n", so that a line break or a carriage return inside a field stays in its row.
+ */
+public class ExternalSort {
+
+  private static final Logger log = LoggerFactory.getLogger(ExternalSort.class);
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Estimated heap cost of a row held in a run besides its chars : String, array header and list slot.
+   */
+  private static final int ROW_OVERHEAD_BYTES = 64;
+
+  private final Path directory;
+
+  private final long runBytes;
+
+  private final int mergeFanIn;
+
+  private final Comparator<String> order;
+
+  private int runCount;
+
+  private int mergePassCount;
+
+  /**
+   * @param directory  where the runs are spilled, they are deleted once merged
+   * @param runBytes   estimated heap held by the rows of a run
+   * @param mergeFanIn runs merged at once, each holds a read buffer
+   */
+  public ExternalSort(Path directory, long runBytes, int mergeFanIn, Comparator<String> order) {
+    if (mergeFanIn < 2) {
+      throw new IllegalArgumentException("At least 2 runs must be merged at once, not " + mergeFanIn);
+    }
+    this.directory = directory;
+    this.runBytes = runBytes;
+    this.mergeFanIn = mergeFanIn;
+    this.order = order;
+  }
+
+  /**
+   * Writes the first row of input, the header, then its other rows in order, and closes output.
+   *
+   * @return the rows sorted, header excluded
+   */
+  public long sort(Path input, OutputStream output) throws IOException {
+    long start = System.nanoTime();
+    runCount = 0;
+    mergePassCount = 0;
+    List<Path> runs = new ArrayList<>();
+    long rowCount = 0;
+    try {
+      try (RowReader reader = new RowReader(Files.newBufferedReader(input, StandardCharsets.UTF_8));
+           Writer writer = new BufferedWriter(new OutputStreamWriter(output,
+                   StandardCharsets.UTF_8.newEncoder()), BUFFER_SIZE)) {
+        String header = reader.next();
+        if (header == null) {
+          return 0;
+        }
+        writer.write(header);
+        List<String> rows = new ArrayList<>();
+        long heldBytes = 0;
+        for (String row = reader.next(); row != null; row = reader.next()) {
+          rows.add(row);
+          rowCount++;
+          heldBytes += 2L * row.length() + ROW_OVERHEAD_BYTES;
+          if (heldBytes >= runBytes) {
+            runs.add(spill(rows));
+            rows.clear();
+            heldBytes = 0;
+          }
+        }
+        if (runs.isEmpty()) {
+          // everything fits in a single run, no need to spill it
+          rows.sort(order);
+          for (String row : rows) {
+            writer.write(row);
+          }
+        } else {
+          if (!rows.isEmpty()) {
+            runs.add(spill(rows));
+            rows.clear();
+          }
+          while (runs.size() > mergeFanIn) {
+            runs = mergePass(runs);
+          }
+          merge(runs, writer);
+        }
+      }
+      log.info("{} rows sorted in {} runs and {} intermediate merge passes in {} ms", rowCount, runCount,
+              mergePassCount, (System.nanoTime() - start) / 1_000_000);
+      return rowCount;
+    } finally {
+      for (Path run : runs) {
+        Files.deleteIfExists(run);
+      }
+    }
+  }
+
+  /**
+   * @return the runs spilled by the last sort, 0 if it fitted in memory
+   */
+  public int getRunCount() {
+    return runCount;
+  }
+
+  private Path spill(List<String> rows) throws IOException {
+    rows.sort(order);
+    Path run = Files.createTempFile(directory, "sort-run", ".tmp");
+    try (Writer writer = Files.newBufferedWriter(run, StandardCharsets.UTF_8)) {
+      for (String row : rows) {
+        writer.write(row);
+      }
+    }
+    runCount++;
+    return run;
+  }
+
+  /**
+   * Merges the runs by groups of mergeFanIn, so that the next pass has fewer runs.
+   */
+  private List<Path> mergePass(List<Path> runs) throws IOException {
+    List<Path> merged = new ArrayList<>();
+    try {
+      for (int first = 0; first < runs.size(); first += mergeFanIn) {
+        List<Path> group = runs.subList(first, Math.min(runs.size(), first + mergeFanIn));
+        Path run = Files.createTempFile(directory, "sort-run", ".tmp");
+        merged.add(run);
+        try (Writer writer = Files.newBufferedWriter(run, StandardCharsets.UTF_8)) {
+          merge(group, writer);
+        }
+        for (Path groupRun : group) {
+          Files.delete(groupRun);
+        }
+      }
+    } catch (IOException e) {
+      for (Path run : merged) {
+        Files.deleteIfExists(run);
+      }
+      throw e;
+    }
+    mergePassCount++;
+    return merged;
+  }
+
+  private void merge(List<Path> runs, Writer writer) throws IOException {
+    PriorityQueue<RowReader> heads = new PriorityQueue<>(runs.size(),
+            (left, right) -> order.compare(left.current, right.current));
+    try {
+      for (Path run : runs) {
+        RowReader reader = new RowReader(Files.newBufferedReader(run, StandardCharsets.UTF_8));
+        if (reader.next() == null) {
+          reader.close();
+        } else {
+          heads.add(reader);
+        }
+      }
+      while (!heads.isEmpty()) {
+        RowReader head = heads.poll();
+        writer.write(head.current);
+        if (head.next() == null) {
+          head.close();
+        } else {
+          heads.add(head);
+        }
+      }
+    } finally {
+      for (RowReader reader : heads) {
+        reader.close();
+      }
+    }
+  }
+
+  /**
+   * Reads the rows of a data entry, each ending with "|\n".
+   */
+  private static final class RowReader implements Closeable {
+
+    private final Reader reader;
+
+    private final char[] buffer = new char[BUFFER_SIZE];
+
+    private int position;
+
+    private int limit;
+
+    private final StringBuilder row = new StringBuilder(1024);
+
+    private String current;
+
+    RowReader(Reader reader) {
+      this.reader = reader;
+    }
+
+    /**
+     * @return the next row, with its line break, null at the end of the input
+     */
+    String next() throws IOException {
+      row.setLength(0);
+      while (true) {
+        if (position == limit) {
+          limit = reader.read(buffer);
+          position = 0;
+          if (limit <= 0) {
+            limit = 0;
+            // a last row without its line break is kept as is
+            current = row.length() == 0 ? null : row.toString();
+            return current;
+          }
+        }
+        int start = position;
+        while (position < limit) {
+          char c = buffer[position++];
+          if (c == '\n' && (position - start >= 2 ? buffer[position - 2] == '|'
+                  : row.length() > 0 && row.charAt(row.length() - 1) == '|')) {
+            row.append(buffer, start, position - start);
+            current = row.toString();
+            return current;
+          }
+        }
+        row.append(buffer, start, position - start);
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      reader.close();
+    }
+  }
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.utils;
+
+import java.util.Comparator;
+
+/**
+ * Order of the rows of the full extract : by national id, then by situation (profession, expertise, work situation
+ * and structure columns onwards), then by the whole row, so that the order doesn't depend on the pages of the API.
+ */
+public class ExtractRowOrder implements Comparator<String> {
+
+  /**
+   * Identification nationale PP.
+   */
+  private static final int NATIONAL_ID_COLUMN = 3;
+
+  /**
+   * Code profession, the first column of the situation.
+   */
+  private static final int SITUATION_COLUMN = 14;
+
+  @Override
+  public int compare(String left, String right) {
+    int leftStart = columnStart(left, NATIONAL_ID_COLUMN);
+    int rightStart = columnStart(right, NATIONAL_ID_COLUMN);
+    int result = compareRegions(left, leftStart, left.indexOf('|', leftStart), right, rightStart,
+            right.indexOf('|', rightStart));
+    if (result != 0) {
+      return result;
+    }
+    leftStart = columnStart(left, SITUATION_COLUMN);
+    rightStart = columnStart(right, SITUATION_COLUMN);
+    result = compareRegions(left, leftStart, left.length(), right, rightStart, right.length());
+    return result != 0 ? result : left.compareTo(right);
+  }
+
+  /**
+   * @return the index of the first char of the column, counted from 1, or the length of the row if it has fewer
+   */
+  private static int columnStart(String row, int column) {
+    int start = 0;
+    for (int i = 1; i < column; i++) {
+      int separator = row.indexOf('|', start);
+      if (separator < 0) {
+        return row.length();
+      }
+      start = separator + 1;
+    }
+    return start;
+  }
+
+  private static int compareRegions(String left, int leftStart, int leftEnd, String right, int rightStart,
+                                    int rightEnd) {
+    leftEnd = leftEnd < 0 ? left.length() : leftEnd;
+    rightEnd = rightEnd < 0 ? right.length() : rightEnd;
+    int length = Math.min(leftEnd - leftStart, rightEnd - rightStart);
+    for (int i = 0; i < length; i++) {
+      char leftChar = left.charAt(leftStart + i);
+      char rightChar = right.charAt(rightStart + i);
+      if (leftChar != rightChar) {
+        return leftChar - rightChar;
+      }
+    }
+    return (leftEnd - leftStart) - (rightEnd - rightStart);
+  }
+}
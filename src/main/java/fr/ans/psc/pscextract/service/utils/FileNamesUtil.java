@@ -15,6 +15,7 @@
  */
 package fr.ans.psc.pscextract.service.utils;
 
+import fr.ans.psc.pscextract.service.jfr.CleanupEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
@@ -22,10 +23,15 @@ import org.springframework.stereotype.Component;
 import java.io.File;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -34,6 +40,12 @@ public class FileNamesUtil {
 
   private static final Logger log = LoggerFactory.getLogger(FileNamesUtil.class);
 
+  private static final Pattern TIMESTAMP_PATTERN = Pattern.compile("(\\d{12})");
+
+  private static final DateTimeFormatter TIMESTAMP_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMddHHmm");
+
+  private static final String EXTRACT_EXTENSION = ".zip";
+
   private FileNamesUtil() {
   }
 
@@ -53,29 +65,59 @@ public class FileNamesUtil {
     }
   }
 
-  public static void cleanup(String filesDirectory, String exceptFile) {
-    log.info("Cleaning files repository, removing all but latest file and demo");
+  /**
+   * @return the deleted files
+   */
+  public static List<File> cleanup(String filesDirectory, String exceptFile) {
+    log.info("Cleaning files repository, removing all but latest file of each extract and demo");
     File[] fileArray = new File(filesDirectory).listFiles();
     List<File> listOfFiles = new ArrayList<>();
+    List<File> deletedFiles = new ArrayList<>();
     if (fileArray != null) {
       listOfFiles.addAll(Arrays.asList(fileArray));
     }
     listOfFiles.removeIf(file -> file.getName().contains(exceptFile));
     listOfFiles.sort(FileNamesUtil::compare);
 
-    if (listOfFiles.size() > 0) {
-      listOfFiles.remove(listOfFiles.size() - 1);
+    // The latest archive of each base name, the full extract or a profile, comes with sidecar files sharing its
+    // timestamp. A profile left unchanged keeps an older archive than the full extract.
+    Map<String, File> latestFiles = new HashMap<>();
+    for (File file : listOfFiles) {
+      latestFiles.put(getBaseName(file), file);
+    }
+    if (latestFiles.size() > 1) {
+      // files without a timestamp only survive when there are no others
+      latestFiles.remove("");
     }
+    listOfFiles.removeIf(file -> {
+      File latestFile = latestFiles.get(getBaseName(file));
+      return latestFile != null && compare(file, latestFile) == 0;
+    });
 
+    CleanupEvent cleanupEvent = new CleanupEvent();
+    cleanupEvent.begin();
     for (File file : listOfFiles) {
       if (!file.isDirectory()) {
         if (file.delete()) {
           log.info("File " + file.getName() + " deleted");
+          deletedFiles.add(file);
+          cleanupEvent.deletedCount++;
         } else {
           log.error("File " + file.getName() + " could not be deleted");
         }
       }
     }
+    cleanupEvent.directory = filesDirectory;
+    cleanupEvent.commit();
+    return deletedFiles;
+  }
+
+  /**
+   * @return what precedes the timestamp of the file name, empty if it has none
+   */
+  private static String getBaseName(File file) {
+    Matcher m = TIMESTAMP_PATTERN.matcher(file.getName());
+    return m.find() ? file.getName().substring(0, m.start()) : "";
   }
 
   private static int compare(File f1, File f2) {
@@ -88,17 +130,36 @@ public class FileNamesUtil {
   }
 
   public static Date getDateFromFileName(File file) throws ParseException {
-    SimpleDateFormat dateFormatter = new SimpleDateFormat("yyyyMMddhhmm");
+    // 24 hour clock, as TransformationService names them.
+    SimpleDateFormat dateFormatter = new SimpleDateFormat("yyyyMMddHHmm");
 
-    String regex = ".*(\\d{12}).*";
-    Pattern pattern = Pattern.compile(regex);
-    Matcher m = pattern.matcher(file.getName());
+    Matcher m = TIMESTAMP_PATTERN.matcher(file.getName());
     if (m.find()) {
       return dateFormatter.parse(m.group(1));
     }
     return new Date(0);
   }
 
+  /**
+   * @param fileName    a file name
+   * @param extractName the extract base name
+   * @return the timestamp of the archive if the file name is exactly {@code <extractName>_<yyyyMMddHHmm>.zip},
+   * else null
+   */
+  public static LocalDateTime getExtractTimestamp(String fileName, String extractName) {
+    int timestampStart = extractName.length() + 1;
+    if (fileName == null || fileName.length() != timestampStart + 12 + EXTRACT_EXTENSION.length()
+            || !fileName.startsWith(extractName) || fileName.charAt(extractName.length()) != '_'
+            || !fileName.endsWith(EXTRACT_EXTENSION)) {
+      return null;
+    }
+    try {
+      return LocalDateTime.parse(fileName.substring(timestampStart, timestampStart + 12), TIMESTAMP_FORMATTER);
+    } catch (DateTimeParseException e) {
+      return null;
+    }
+  }
+
   public static File getLatestExtract(String filesDirectory, String extractName) {
     File[] allFiles = new File(filesDirectory).listFiles();
     File latestExtractFile = null;
@@ -106,7 +167,7 @@ public class FileNamesUtil {
     List<File> extractFiles = new ArrayList<>();
 
     for (File file : allFiles != null ? allFiles : new File[0]) {
-      if (file.getName().startsWith(extractName)) {
+      if (getExtractTimestamp(file.getName(), extractName) != null) {
         extractFiles.add(file);
       }
     }
@@ -0,0 +1,209 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.utils;
+
+import java.util.Arrays;
+
+/**
+ * Exact set of strings, kept encoded one after the other in a byte arena indexed by an open addressing table of
+ * their offsets.
+ * <p>
+ * The chars below 0x80 take one byte and the others three, so that a Ps id of n ASCII chars costs n + 1 bytes of
+ * arena and about 5 bytes of table, against about a hundred for a String in a HashSet. The slots are found by the
+ * 64-bit {@link #fingerprint} of the encoded bytes, and a string is only a duplicate when its bytes are equal.
+ */
+public class FingerprintSet {
+
+  private static final float MAX_LOAD = 0.75f;
+
+  private static final int WIDE_CHAR = 0x80;
+
+  /**
+   * Offset in the arena plus one of the string of each slot, 0 for an empty slot.
+   */
+  private int[] slots;
+
+  private byte[] arena;
+
+  private int arenaSize;
+
+  private byte[] encoded = new byte[64];
+
+  private int size;
+
+  /**
+   * @param expectedSize strings expected, the table grows beyond
+   */
+  public FingerprintSet(int expectedSize) {
+    int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedSize / MAX_LOAD)) - 1) << 1;
+    slots = new int[capacity];
+    arena = new byte[(int) Math.min(Integer.MAX_VALUE - 8, Math.max(256L, expectedSize * 16L))];
+  }
+
+  /**
+   * @return false if the string is already in the set
+   */
+  public boolean add(String value) {
+    if (size + 1 > slots.length * MAX_LOAD) {
+      grow();
+    }
+    int length = encode(value);
+    int mask = slots.length - 1;
+    int slot = (int) fingerprint(encoded, 0, length) & mask;
+    while (slots[slot] != 0) {
+      if (equalsEncoded(slots[slot] - 1, length)) {
+        return false;
+      }
+      slot = (slot + 1) & mask;
+    }
+    slots[slot] = append(length) + 1;
+    size++;
+    return true;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return the bytes held by the table of offsets
+   */
+  public long getTableBytes() {
+    return (long) slots.length * Integer.BYTES;
+  }
+
+  /**
+   * @return the bytes held by the arena of the strings
+   */
+  public long getArenaBytes() {
+    return arena.length;
+  }
+
+  /**
+   * @return the length of the value encoded in {@link #encoded}
+   */
+  private int encode(String value) {
+    if (encoded.length < value.length() * 3) {
+      encoded = new byte[value.length() * 3];
+    }
+    int length = 0;
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c < WIDE_CHAR) {
+        encoded[length++] = (byte) c;
+      } else {
+        encoded[length++] = (byte) WIDE_CHAR;
+        encoded[length++] = (byte) (c >>> 8);
+        encoded[length++] = (byte) c;
+      }
+    }
+    return length;
+  }
+
+  /**
+   * Appends the encoded value after its length, in 7-bit groups.
+   *
+   * @return the offset of the entry
+   */
+  private int append(int length) {
+    if (arenaSize + length + 5 > arena.length) {
+      arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaSize + length + 5));
+    }
+    int offset = arenaSize;
+    int remaining = length;
+    while (remaining >= 0x80) {
+      arena[arenaSize++] = (byte) (remaining & 0x7f | 0x80);
+      remaining >>>= 7;
+    }
+    arena[arenaSize++] = (byte) remaining;
+    System.arraycopy(encoded, 0, arena, arenaSize, length);
+    arenaSize += length;
+    return offset;
+  }
+
+  private boolean equalsEncoded(int offset, int length) {
+    int start = offset + lengthBytes(length);
+    return lengthAt(offset) == length && Arrays.equals(arena, start, start + length, encoded, 0, length);
+  }
+
+  private int lengthAt(int offset) {
+    int length = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = arena[offset++];
+      length |= (b & 0x7f) << shift;
+      shift += 7;
+    } while (b < 0);
+    return length;
+  }
+
+  private static int lengthBytes(int length) {
+    int bytes = 1;
+    while (length >= 0x80) {
+      length >>>= 7;
+      bytes++;
+    }
+    return bytes;
+  }
+
+  private void grow() {
+    int[] previous = slots;
+    slots = new int[previous.length * 2];
+    int mask = slots.length - 1;
+    for (int entry : previous) {
+      if (entry != 0) {
+        int length = lengthAt(entry - 1);
+        int slot = (int) fingerprint(arena, entry - 1 + lengthBytes(length), length) & mask;
+        while (slots[slot] != 0) {
+          slot = (slot + 1) & mask;
+        }
+        slots[slot] = entry;
+      }
+    }
+  }
+
+  /**
+   * 64-bit FNV-1a of the chars, through the murmur3 finalizer so that the low bits index the table evenly. Never 0,
+   * which marks the empty slots.
+   */
+  public static long fingerprint(String value) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < value.length(); i++) {
+      hash ^= value.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    return mix(hash);
+  }
+
+  private static long fingerprint(byte[] bytes, int start, int length) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = start; i < start + length; i++) {
+      hash ^= bytes[i] & 0xff;
+      hash *= 0x100000001b3L;
+    }
+    return mix(hash);
+  }
+
+  private static long mix(long hash) {
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash == 0 ? 1 : hash;
+  }
+}
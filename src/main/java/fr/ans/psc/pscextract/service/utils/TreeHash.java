@@ -0,0 +1,377 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service.utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Merkle tree hash of an uncompressed extract data entry : the data is cut in fixed size chunks hashed with SHA-256,
+ * and the chunk hashes are combined in a binary tree as in RFC 6962 (leaves prefixed with 0x00, nodes with 0x01), so
+ * that the chunks can be checked in parallel and a corrupt one is found without reading the others.
+ * <p>
+ * Entry format (UTF-8 text) : a {@code key=value} header, an empty line, then the hex SHA-256 of each chunk, one per
+ * line.
+ */
+public class TreeHash {
+
+  public static final String FILE_EXTENSION = ".treehash";
+
+  private static final String FORMAT_LINE = "#pscextract-treehash 1";
+
+  private static final byte LEAF_PREFIX = 0;
+
+  private static final byte NODE_PREFIX = 1;
+
+  private final int chunkSize;
+
+  private final long length;
+
+  private final byte[] root;
+
+  private final byte[][] leafHashes;
+
+  public TreeHash(int chunkSize, long length, byte[] root, byte[][] leafHashes) {
+    this.chunkSize = chunkSize;
+    this.length = length;
+    this.root = root;
+    this.leafHashes = leafHashes;
+  }
+
+  public int getChunkSize() {
+    return chunkSize;
+  }
+
+  /**
+   * @return the uncompressed data entry length
+   */
+  public long getLength() {
+    return length;
+  }
+
+  public byte[] getRoot() {
+    return root;
+  }
+
+  public int getChunkCount() {
+    return leafHashes.length;
+  }
+
+  public byte[] getLeafHash(int index) {
+    return leafHashes[index];
+  }
+
+  /**
+   * Hashes the chunks of a data file on several threads.
+   *
+   * @return the indexes of the chunks of the file that don't match their hash, ascending
+   */
+  public List<Integer> findCorruptChunks(Path dataFile, int threads) throws IOException {
+    ExecutorService executor = Executors.newFixedThreadPool(threads, newThreadFactory("treehash-verify"));
+    try (FileChannel channel = FileChannel.open(dataFile, StandardOpenOption.READ)) {
+      long fileLength = channel.size();
+      List<Future<Boolean>> checks = new ArrayList<>();
+      for (int i = 0; i < leafHashes.length; i++) {
+        long position = (long) i * chunkSize;
+        int chunkLength = getChunkLength(i);
+        byte[] expected = leafHashes[i];
+        checks.add(executor.submit(() -> {
+          ByteBuffer chunk = ByteBuffer.allocate(chunkLength);
+          while (chunk.hasRemaining() && channel.read(chunk, position + chunk.position()) >= 0) {
+            // a short read is retried until the chunk is full or the file ends
+          }
+          return chunk.hasRemaining() || !Arrays.equals(expected, leafHash(chunk.array(), chunkLength));
+        }));
+      }
+      List<Integer> corruptChunks = new ArrayList<>();
+      for (int i = 0; i < checks.size(); i++) {
+        if (checks.get(i).get()) {
+          corruptChunks.add(i);
+        }
+      }
+      if (fileLength > length && (leafHashes.length == 0 || !corruptChunks.contains(leafHashes.length - 1))) {
+        // trailing bytes belong to no chunk, the last one is blamed
+        corruptChunks.add(Math.max(0, leafHashes.length - 1));
+      }
+      return corruptChunks;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while checking " + dataFile, e);
+    } catch (ExecutionException e) {
+      throw new IOException("Unable to check " + dataFile, e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  public void write(OutputStream out) throws IOException {
+    Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    writer.write(FORMAT_LINE + "\n");
+    writer.write("algorithm=sha256\n");
+    writer.write("chunk.size=" + chunkSize + "\n");
+    writer.write("length=" + length + "\n");
+    writer.write("root=" + toHex(root) + "\n");
+    writer.write("\n");
+    for (byte[] leafHash : leafHashes) {
+      writer.write(toHex(leafHash));
+      writer.write('\n');
+    }
+    writer.flush();
+  }
+
+  /**
+   * @throws IOException if the file is malformed or its chunk hashes don't add up to its root
+   */
+  public static TreeHash read(InputStream in) throws IOException {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    if (!FORMAT_LINE.equals(reader.readLine())) {
+      throw new IOException("Not a tree hash file");
+    }
+    Map<String, String> header = new HashMap<>();
+    String line = reader.readLine();
+    while (line != null && !line.isEmpty()) {
+      int separator = line.indexOf('=');
+      if (separator < 0) {
+        throw new IOException("Malformed tree hash file, header line without '='");
+      }
+      header.put(line.substring(0, separator), line.substring(separator + 1));
+      line = reader.readLine();
+    }
+    TreeHash treeHash;
+    try {
+      int chunkSize = Integer.parseInt(header.get("chunk.size"));
+      long length = Long.parseLong(header.get("length"));
+      int chunkCount = (int) ((length + chunkSize - 1) / chunkSize);
+      byte[][] leafHashes = new byte[chunkCount][];
+      for (int i = 0; i < chunkCount; i++) {
+        line = reader.readLine();
+        if (line == null) {
+          throw new IOException("Truncated tree hash file, " + chunkCount + " chunks expected");
+        }
+        leafHashes[i] = fromHex(line);
+      }
+      treeHash = new TreeHash(chunkSize, length, fromHex(header.get("root")), leafHashes);
+    } catch (RuntimeException e) {
+      throw new IOException("Malformed tree hash file", e);
+    }
+    if (!Arrays.equals(treeHash.root, root(Arrays.asList(treeHash.leafHashes)))) {
+      throw new IOException("Chunk hashes don't match the root of the tree hash file");
+    }
+    return treeHash;
+  }
+
+  private int getChunkLength(int index) {
+    return (int) Math.min(chunkSize, length - (long) index * chunkSize);
+  }
+
+  /**
+   * @return the root of the tree of the leaf hashes, as RFC 6962 : the first subtree holds the largest power of two
+   * leaves below their count
+   */
+  static byte[] root(List<byte[]> leafHashes) {
+    if (leafHashes.isEmpty()) {
+      return newSha256Digest().digest();
+    }
+    return subtreeRoot(leafHashes, 0, leafHashes.size());
+  }
+
+  private static byte[] subtreeRoot(List<byte[]> leafHashes, int from, int to) {
+    if (to - from == 1) {
+      return leafHashes.get(from);
+    }
+    int split = Integer.highestOneBit(to - from - 1);
+    MessageDigest digest = newSha256Digest();
+    digest.update(NODE_PREFIX);
+    digest.update(subtreeRoot(leafHashes, from, from + split));
+    digest.update(subtreeRoot(leafHashes, from + split, to));
+    return digest.digest();
+  }
+
+  private static byte[] leafHash(byte[] chunk, int length) {
+    MessageDigest digest = newSha256Digest();
+    digest.update(LEAF_PREFIX);
+    digest.update(chunk, 0, length);
+    return digest.digest();
+  }
+
+  private static MessageDigest newSha256Digest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("No SHA256 digest support in the current java runtime", e);
+    }
+  }
+
+  private static ThreadFactory newThreadFactory(String name) {
+    AtomicInteger threadCount = new AtomicInteger();
+    return runnable -> {
+      Thread thread = new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  private static String toHex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    return sb.toString();
+  }
+
+  private static byte[] fromHex(String hex) {
+    byte[] bytes = new byte[hex.length() / 2];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+    }
+    return bytes;
+  }
+
+  /**
+   * Hashes the chunks of a data stream fed in buffers of any size on a pool of threads, while the caller goes on
+   * with the next buffers. At most two chunks per thread are held.
+   */
+  public static class Builder implements Closeable {
+
+    private final int chunkSize;
+
+    private final ExecutorService executor;
+
+    private final BlockingQueue<byte[]> freeChunks;
+
+    private final List<Future<byte[]>> leafHashes = new ArrayList<>();
+
+    private byte[] chunk;
+
+    private int chunkFill;
+
+    private long length;
+
+    private long waitNanos;
+
+    public Builder(int chunkSize, int threads) {
+      this.chunkSize = chunkSize;
+      this.executor = Executors.newFixedThreadPool(threads, newThreadFactory("treehash"));
+      this.freeChunks = new ArrayBlockingQueue<>(2 * threads);
+      for (int i = 0; i < 2 * threads; i++) {
+        freeChunks.add(new byte[chunkSize]);
+      }
+    }
+
+    public void update(byte[] buffer, int offset, int count) throws IOException {
+      length += count;
+      while (count > 0) {
+        if (chunk == null) {
+          chunk = takeFreeChunk();
+        }
+        int copied = Math.min(count, chunkSize - chunkFill);
+        System.arraycopy(buffer, offset, chunk, chunkFill, copied);
+        chunkFill += copied;
+        offset += copied;
+        count -= copied;
+        if (chunkFill == chunkSize) {
+          submitChunk();
+        }
+      }
+    }
+
+    /**
+     * @return the tree hash of what was fed, once its chunks are hashed
+     */
+    public TreeHash build() throws IOException {
+      if (chunkFill > 0) {
+        submitChunk();
+      }
+      List<byte[]> hashes = new ArrayList<>(leafHashes.size());
+      try {
+        for (Future<byte[]> leafHash : leafHashes) {
+          hashes.add(leafHash.get());
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while hashing chunks", e);
+      } catch (ExecutionException e) {
+        throw new IOException("Unable to hash chunks", e.getCause());
+      }
+      return new TreeHash(chunkSize, length, root(hashes), hashes.toArray(new byte[0][]));
+    }
+
+    /**
+     * @return the time the caller waited for a free chunk, that is for the threads to catch up
+     */
+    public long getWaitNanos() {
+      return waitNanos;
+    }
+
+    @Override
+    public void close() {
+      executor.shutdownNow();
+    }
+
+    private byte[] takeFreeChunk() throws IOException {
+      long start = System.nanoTime();
+      try {
+        return freeChunks.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for a chunk to hash", e);
+      } finally {
+        waitNanos += System.nanoTime() - start;
+      }
+    }
+
+    private void submitChunk() {
+      byte[] hashed = chunk;
+      int hashedLength = chunkFill;
+      leafHashes.add(executor.submit(() -> {
+        try {
+          return leafHash(hashed, hashedLength);
+        } finally {
+          freeChunks.add(hashed);
+        }
+      }));
+      chunk = null;
+      chunkFill = 0;
+    }
+  }
+}
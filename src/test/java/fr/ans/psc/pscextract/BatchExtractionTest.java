@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import fr.ans.psc.pscextract.benchmark.PsApiStandIn;
+import fr.ans.psc.pscextract.service.utils.FileNamesUtil;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+class BatchExtractionTest {
+
+  private static final Path DIRECTORY = Path.of("target/batch");
+
+  @Test
+  void batchShouldExitWithTheOutcomeOfTheExtraction() throws IOException {
+    FileSystemUtils.deleteRecursively(DIRECTORY);
+    Files.createDirectories(DIRECTORY);
+    try (PsApiStandIn standIn = new PsApiStandIn(20240103L, 500)) {
+      assertEquals(BatchExtraction.EXIT_PUBLISHED, BatchExtraction.run(getArguments(standIn.getBaseUrl())));
+      assertNotNull(FileNamesUtil.getLatestExtract(DIRECTORY.toString(), "deleteme"));
+
+      assertEquals(BatchExtraction.EXIT_UNCHANGED, BatchExtraction.run(getArguments(standIn.getBaseUrl())));
+    }
+    // the stand-in is gone
+    assertEquals(BatchExtraction.EXIT_FAILED, BatchExtraction.run(getArguments("http://localhost:1")));
+  }
+
+  @Test
+  void distributedBatchShouldFailWithoutPages() throws IOException {
+    FileSystemUtils.deleteRecursively(DIRECTORY);
+    Files.createDirectories(DIRECTORY);
+    try (PsApiStandIn standIn = new PsApiStandIn(20240103L, 0)) {
+      String[] arguments = getArguments(standIn.getBaseUrl());
+      String[] coordinatorArguments = Arrays.copyOf(arguments, arguments.length + 2);
+      coordinatorArguments[arguments.length] = "--extract.distributed.role=coordinator";
+      coordinatorArguments[arguments.length + 1] = "--extract.distributed.directory=" + DIRECTORY.resolve("shards");
+      assertEquals(BatchExtraction.EXIT_FAILED, BatchExtraction.run(coordinatorArguments));
+    }
+    assertNull(FileNamesUtil.getLatestExtract(DIRECTORY.toString(), "deleteme"));
+  }
+
+  @Test
+  void batchCheckShouldOnlyStartTheContext() {
+    assertEquals(BatchExtraction.EXIT_PUBLISHED, BatchExtraction.run(new String[]{BatchExtraction.CHECK_ARGUMENT,
+            "--page.size=100"}));
+  }
+
+  private static String[] getArguments(String apiBaseUrl) {
+    return new String[]{
+            BatchExtraction.BATCH_ARGUMENT,
+            "--page.size=100",
+            "--api.base.url=" + apiBaseUrl,
+            "--working.directory=" + DIRECTORY,
+            "--files.directory=" + DIRECTORY,
+            "--extract.notification.outbox.directory=" + DIRECTORY.resolve("outbox")};
+  }
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract;
+
+import fr.ans.psc.pscextract.service.sync.BlockChecksums;
+import fr.ans.psc.pscextract.service.sync.BlockSource;
+import fr.ans.psc.pscextract.service.sync.BlockSyncClient;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BlockSyncClientTest {
+
+  private static final int BLOCK_SIZE = 4096;
+
+  @TempDir
+  Path workDir;
+
+  @Test
+  public void shouldOnlyFetchChangedBlocks() throws Exception {
+    Random random = new Random(42);
+    List<String> yesterdayLines = syntheticLines(random, 50_000);
+    List<String> todayLines = new ArrayList<>(yesterdayLines);
+    // A day of updates : a few modified, inserted and removed practitioners.
+    for (int i = 0; i < 50; i++) {
+      todayLines.set(random.nextInt(todayLines.size()), syntheticLine(random));
+      todayLines.add(random.nextInt(todayLines.size()), syntheticLine(random));
+      todayLines.remove(random.nextInt(todayLines.size()));
+    }
+    byte[] today = join(todayLines);
+    Path previous = write("yesterday.txt", join(yesterdayLines));
+    Path target = workDir.resolve("today.txt");
+
+    InMemoryBlockSource source = new InMemoryBlockSource(today);
+    BlockSyncClient.Report report = new BlockSyncClient(source).synchronize(previous, target);
+
+    assertArrayEquals(today, Files.readAllBytes(target));
+    assertEquals(source.servedBytes, report.getFetchedBytes());
+    assertEquals(today.length, report.getLength());
+    assertTrue(report.getReusedBlockCount() > report.getBlockCount() / 2, report.toString());
+    // 150 line changes touch at most 150 blocks, plus the trailing one.
+    assertTrue(report.getFetchedBytes() <= 151L * BLOCK_SIZE);
+    assertTrue(report.getFetchedBytes() < today.length / 10);
+  }
+
+  @Test
+  public void shouldFetchEverythingWithoutPreviousExtract() throws Exception {
+    byte[] today = join(syntheticLines(new Random(7), 2_000));
+    Path target = workDir.resolve("today.txt");
+
+    BlockSyncClient.Report report = new BlockSyncClient(new InMemoryBlockSource(today)).synchronize(workDir.resolve("none.txt"), target);
+
+    assertArrayEquals(today, Files.readAllBytes(target));
+    assertEquals(today.length, report.getFetchedBytes());
+    assertEquals(0, report.getReusedBlockCount());
+  }
+
+  @Test
+  public void shouldOnlyFetchTrailingBlockOfIdenticalExtract() throws Exception {
+    byte[] today = join(syntheticLines(new Random(7), 2_000));
+    Path target = workDir.resolve("today.txt");
+
+    BlockSyncClient.Report report = new BlockSyncClient(new InMemoryBlockSource(today)).synchronize(write("yesterday.txt", today), target);
+
+    assertArrayEquals(today, Files.readAllBytes(target));
+    assertEquals(today.length % BLOCK_SIZE, report.getFetchedBytes());
+  }
+
+  private Path write(String name, byte[] content) throws IOException {
+    return Files.write(workDir.resolve(name), content);
+  }
+
+  private static List<String> syntheticLines(Random random, int count) {
+    List<String> lines = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      lines.add(syntheticLine(random));
+    }
+    return lines;
+  }
+
+  private static String syntheticLine(Random random) {
+    String nationalId = "8" + (10000000000L + (long) (random.nextDouble() * 89999999999L));
+    return "8|" + nationalId.substring(1) + "|" + nationalId + "|NOM" + random.nextInt(100000) + "|PRENOM" + random.nextInt(1000)
+            + "''|01/01/19" + (50 + random.nextInt(50)) + "|||||||M|" + (10 + random.nextInt(90)) + "|C||||||S|SA" + random.nextInt(99)
+            + "|||R" + random.nextInt(1000000) + "|||||||||||||||||||||" + nationalId + ",RPPS,1|GENR01|\n";
+  }
+
+  private static byte[] join(List<String> lines) {
+    return String.join("", lines).getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static class InMemoryBlockSource implements BlockSource {
+
+    private final byte[] content;
+
+    private final BlockChecksums checksums;
+
+    private long servedBytes;
+
+    InMemoryBlockSource(byte[] content) throws Exception {
+      this.content = content;
+      BlockChecksums.Builder builder = new BlockChecksums.Builder(BLOCK_SIZE);
+      builder.update(content, 0, content.length);
+      StringBuilder sha256 = new StringBuilder();
+      for (byte b : MessageDigest.getInstance("SHA-256").digest(content)) {
+        sha256.append(String.format("%02x", b));
+      }
+      // Go through the sidecar format, as the HTTP source does.
+      ByteArrayOutputStream sidecar = new ByteArrayOutputStream();
+      builder.build("synthetic.zip", sha256.toString()).write(sidecar);
+      this.checksums = BlockChecksums.read(new ByteArrayInputStream(sidecar.toByteArray()));
+    }
+
+    @Override
+    public BlockChecksums fetchChecksums() {
+      return checksums;
+    }
+
+    @Override
+    public InputStream openBlocks(BlockChecksums checksums, List<Integer> sortedIndexes) {
+      ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+      for (int index : sortedIndexes) {
+        blocks.write(content, index * BLOCK_SIZE, checksums.getBlockLength(index));
+      }
+      servedBytes += blocks.size();
+      return new ByteArrayInputStream(blocks.toByteArray());
+    }
+  }
+}
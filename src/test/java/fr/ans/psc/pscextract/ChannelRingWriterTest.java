@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import fr.ans.psc.pscextract.service.utils.ChannelRingWriter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.MalformedInputException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicLong;
+
+class ChannelRingWriterTest {
+
+  @TempDir
+  Path directory;
+
+  @Test
+  void writtenFileShouldMatchTheEncodedText() throws IOException, NoSuchAlgorithmException {
+    Path file = directory.resolve("extract.txt");
+    MessageDigest digest = MessageDigest.getInstance("SHA-256");
+    AtomicLong bytesWritten = new AtomicLong();
+    StringBuilder expected = new StringBuilder();
+
+    // buffers much smaller than the rows, so that rows and surrogate pairs span buffers
+    try (ChannelRingWriter writer = new ChannelRingWriter(file, 16, 2, true, digest, bytesWritten::addAndGet)) {
+      for (int i = 0; i < 1000; i++) {
+        String row = "810000000" + i + "|Hélène|Zoë 😀|" + i + "\n";
+        expected.append(row);
+        // the surrogate pair is split over two writes
+        int split = row.indexOf('\uDE00');
+        writer.write(row, 0, split);
+        writer.write(row.substring(split));
+        if (i % 100 == 0) {
+          writer.flush();
+        }
+      }
+    }
+
+    byte[] expectedBytes = expected.toString().getBytes(StandardCharsets.UTF_8);
+    assertArrayEquals(expectedBytes, Files.readAllBytes(file));
+    assertEquals(expectedBytes.length, bytesWritten.get());
+    assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(expectedBytes), digest.digest());
+  }
+
+  @Test
+  void unpairedSurrogateShouldFailOnClose() throws IOException, NoSuchAlgorithmException {
+    ChannelRingWriter writer = new ChannelRingWriter(directory.resolve("extract.txt"), 16, 2, false,
+            MessageDigest.getInstance("SHA-256"), count -> {});
+    writer.write("abc\uD83D");
+
+    assertThrows(MalformedInputException.class, writer::close);
+  }
+}
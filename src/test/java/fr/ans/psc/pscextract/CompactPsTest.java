@@ -0,0 +1,233 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import fr.ans.psc.model.Profession;
+import fr.ans.psc.model.Ps;
+import fr.ans.psc.model.Structure;
+import fr.ans.psc.model.WorkSituation;
+import fr.ans.psc.pscextract.benchmark.PsApiStandIn;
+import fr.ans.psc.pscextract.benchmark.SyntheticPsGenerator;
+import fr.ans.psc.pscextract.service.TransformationService;
+import fr.ans.psc.pscextract.service.compact.CompactPs;
+import fr.ans.psc.pscextract.service.compact.CompactPsReader;
+import fr.ans.psc.pscextract.service.compact.CompactRowEncoder;
+import fr.ans.psc.pscextract.service.statistics.ExtractStatistics;
+import fr.ans.psc.pscextract.service.utils.FileNamesUtil;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * The rows of the compact model are those of the psc-api-client model, whatever the shape of the Ps.
+ */
+class CompactPsTest {
+
+  private static final Path DIRECTORY = Path.of("target/compact");
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  private final TransformationService transformationService = new TransformationService();
+
+  @Test
+  void compactRowsShouldBeTheRowsOfTheModel() throws IOException {
+    for (String page : List.of("page1size1.json", "page2size1.json", "page3size1.json", "3p.json",
+            "multiple-work-situations.json")) {
+      assertSameRows(Files.readAllBytes(Path.of("src/test/resources/wiremock/__files", page)));
+    }
+    SyntheticPsGenerator generator = new SyntheticPsGenerator(20240108L);
+    for (SyntheticPsGenerator.Shape shape : SyntheticPsGenerator.Shape.values()) {
+      assertSameRows(objectMapper.writeValueAsBytes(generator.nextPage(shape, 200)));
+    }
+  }
+
+  @Test
+  void compactRowsShouldFollowMissingListsAsTheModel() throws IOException {
+    assertSameRows(("[{\"id\":\"81\",\"ids\":[\"81\",\"31\"],\"firstNames\":null},"
+            + "{\"id\":\"82\",\"ids\":[\"82\"],\"firstNames\":[{\"firstName\":\"B\",\"order\":2},"
+            + "{\"firstName\":null,\"order\":1},{\"firstName\":\"A\",\"order\":1}],\"professions\":["
+            + "{\"code\":\"10\",\"expertises\":[]},"
+            + "{\"code\":\"21\",\"workSituations\":[]},"
+            + "{\"code\":\"40\",\"categoryCode\":7,\"unknown\":{\"a\":[1]}},"
+            + "{\"code\":\"50\",\"expertises\":[{\"code\":\"E1\"},{\"typeCode\":\"S\"}],\"workSituations\":null},"
+            + "{\"workSituations\":[{\"modeCode\":\"S\",\"structure\":null},{\"structure\":{\"departmentCode\":\"75\","
+            + "\"structureTechnicalId\":\"S1\"},\"activityKindCode\":\"CS\"}]},"
+            + "{\"expertises\":[{\"code\":\"E2\"},{\"code\":\"E3\"}],\"workSituations\":[{\"roleCode\":\"R\"},"
+            + "{\"structure\":{\"siteSIRET\":\"1\"},\"registrationAuthority\":\"ARS\"}]}]},"
+            + "{\"id\":\"83\",\"ids\":[\"83\"],\"activated\":5,\"deactivated\":6,\"professions\":[{\"code\":\"10\"}]},"
+            + "{\"id\":\"84\",\"ids\":[\"84\"],\"activated\":\"7\",\"deactivated\":6,\"professions\":null}]")
+            .getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void compactModelShouldFailWhereTheModelFails() {
+    assertThrows(StringIndexOutOfBoundsException.class,
+            () -> rowsOfCompactModel("[{\"id\":\"81\",\"ids\":[\"81\"],\"firstNames\":[]}]"));
+    assertThrows(StringIndexOutOfBoundsException.class, () -> rowsOfCompactModel("[{\"ids\":[\"\"]}]"));
+    assertThrows(JsonParseException.class,
+            () -> rowsOfCompactModel("[{\"id\":\"81\",\"ids\":[\"81\"],\"professions\":[null]}]"));
+    assertThrows(JsonParseException.class, () -> rowsOfCompactModel("[{\"id\":[\"81\"]}]"));
+  }
+
+  @Test
+  void compactPsShouldHoldSeveralTimesLessHeapThanTheModel() throws IOException {
+    byte[] page = objectMapper.writeValueAsBytes(SyntheticPsGenerator.nationalPage(20240108L, 0, 1000, 1000));
+    long compactBytes = 0;
+    for (CompactPs compactPs : new CompactPsReader().readPage(new ByteArrayInputStream(page))) {
+      compactBytes += compactPs.getHeapBytes();
+    }
+    // the prefetcher estimates the model at three times the JSON, the compact Ps hold less than the JSON itself
+    assertTrue(compactBytes < page.length, compactBytes + " bytes against " + page.length);
+  }
+
+  @Test
+  void compactExtractionShouldPublishTheSameArchives() throws IOException {
+    FileSystemUtils.deleteRecursively(DIRECTORY);
+    try (PsApiStandIn standIn = new PsApiStandIn(20240108L, 500)) {
+      for (String model : List.of("generated", "compact")) {
+        Path directory = DIRECTORY.resolve(model);
+        Files.createDirectories(directory.resolve("outbox"));
+        assertEquals(BatchExtraction.EXIT_PUBLISHED, BatchExtraction.run(getArguments(standIn.getBaseUrl(), directory,
+                model)));
+      }
+      // the data entry of the compact model is that of the last extract
+      assertEquals(BatchExtraction.EXIT_UNCHANGED, BatchExtraction.run(getArguments(standIn.getBaseUrl(),
+              DIRECTORY.resolve("generated"), "compact")));
+    }
+    for (String extractName : List.of("deleteme", "deleteme_normalized", "deleteme_pharmaciens")) {
+      assertEquals(readEntries(DIRECTORY.resolve("generated"), extractName),
+              readEntries(DIRECTORY.resolve("compact"), extractName), extractName);
+    }
+    assertEquals(readStatistics(DIRECTORY.resolve("generated")), readStatistics(DIRECTORY.resolve("compact")));
+  }
+
+  private void assertSameRows(byte[] page) throws IOException {
+    List<Ps> psList = objectMapper.readValue(page, new TypeReference<List<Ps>>() {});
+    List<String> expected = new ArrayList<>();
+    for (Ps ps : psList) {
+      for (Ps unwoundPs : transformationService.unwind(Collections.singletonList(ps))) {
+        for (String id : unwoundPs.getIds()) {
+          expected.add(transformationService.getIdType(id) + " " + situation(unwoundPs) + " "
+                  + transformationService.transformPsToLine(unwoundPs, id));
+        }
+      }
+    }
+    assertEquals(expected, rowsOfCompactModel(new String(page, StandardCharsets.UTF_8)));
+  }
+
+  /**
+   * @return the fields of the statistics and of the side writers, as the compact encoder gets them
+   */
+  private static String situation(Ps unwoundPs) {
+    Profession profession = unwoundPs.getProfessions().get(0);
+    WorkSituation workSituation = profession == null || profession.getWorkSituations() == null
+            || profession.getWorkSituations().isEmpty() ? null : profession.getWorkSituations().get(0);
+    Structure structure = workSituation == null ? null : workSituation.getStructure();
+    return String.join(" ", String.valueOf(unwoundPs.getId()), String.valueOf(unwoundPs.getGenderCode()),
+            String.valueOf(profession == null ? null : profession.getCode()),
+            String.valueOf(profession == null ? null : profession.getCategoryCode()),
+            String.valueOf(workSituation == null ? null : workSituation.getModeCode()),
+            String.valueOf(workSituation == null ? null : workSituation.getActivitySectorCode()),
+            String.valueOf(structure == null ? null : structure.getStructureTechnicalId()),
+            String.valueOf(structure == null ? null : structure.getDepartmentCode()));
+  }
+
+  private static String situation(CompactRowEncoder encoder) {
+    return String.join(" ", String.valueOf(encoder.getPsId()), String.valueOf(encoder.getGenderCode()),
+            String.valueOf(encoder.getProfessionCode()), String.valueOf(encoder.getProfessionCategoryCode()),
+            String.valueOf(encoder.getModeCode()), String.valueOf(encoder.getActivitySectorCode()),
+            String.valueOf(encoder.getStructureTechnicalId()), String.valueOf(encoder.getDepartmentCode()));
+  }
+
+  private static String[] getArguments(String apiBaseUrl, Path directory, String model) {
+    return new String[]{
+            BatchExtraction.BATCH_ARGUMENT,
+            "--page.size=100",
+            "--api.base.url=" + apiBaseUrl,
+            "--working.directory=" + directory,
+            "--files.directory=" + directory,
+            "--extract.notification.outbox.directory=" + directory.resolve("outbox"),
+            "--extract.fetch.model=" + model,
+            "--extract.normalized.enabled=true",
+            "--extract.profiles=pharmaciens",
+            "--extract.profile.pharmaciens.professions=21",
+            "--extract.profile.pharmaciens.columns=1-10,13-51"};
+  }
+
+  /**
+   * @return the contents of the entries of the latest archive but its manifest, by entry name without the timestamp
+   */
+  private static Map<String, String> readEntries(Path directory, String extractName) throws IOException {
+    Map<String, String> entries = new TreeMap<>();
+    File extract = FileNamesUtil.getLatestExtract(directory.toString(), extractName);
+    try (ZipFile zipFile = new ZipFile(extract)) {
+      for (ZipEntry entry : Collections.list(zipFile.entries())) {
+        // the manifest holds the timings of the run
+        if (entry.getName().endsWith(".manifest.json")) {
+          continue;
+        }
+        entries.put(entry.getName().replaceAll("\\d{12}", ""),
+                new String(zipFile.getInputStream(entry).readAllBytes(), StandardCharsets.UTF_8));
+      }
+    }
+    return entries;
+  }
+
+  private ObjectNode readStatistics(Path directory) throws IOException {
+    File extract = FileNamesUtil.getLatestExtract(directory.toString(), "deleteme");
+    ObjectNode statistics = (ObjectNode) objectMapper.readTree(ExtractStatistics.getStatisticsFile(extract));
+    statistics.remove("extract");
+    return statistics;
+  }
+
+  private static List<String> rowsOfCompactModel(String page) throws IOException {
+    List<String> rows = new ArrayList<>();
+    CompactRowEncoder encoder = new CompactRowEncoder();
+    for (CompactPs compactPs : new CompactPsReader().readPage(
+            new ByteArrayInputStream(page.getBytes(StandardCharsets.UTF_8)))) {
+      encoder.reset(compactPs);
+      while (encoder.nextSituation()) {
+        for (int id = 0; id < encoder.getIdCount(); id++) {
+          int length = encoder.encodeRow(id);
+          rows.add(encoder.getIdType(id) + " " + situation(encoder) + " "
+                  + new String(encoder.getRow(), 0, length));
+        }
+      }
+    }
+    return rows;
+  }
+}
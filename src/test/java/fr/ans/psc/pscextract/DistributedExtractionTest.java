@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import fr.ans.psc.pscextract.benchmark.PsApiStandIn;
+import fr.ans.psc.pscextract.controller.ExtractionController;
+import fr.ans.psc.pscextract.service.ExtractionResult;
+import fr.ans.psc.pscextract.service.distributed.DistributedExtractionService;
+import fr.ans.psc.pscextract.service.distributed.ShardRun;
+import fr.ans.psc.pscextract.service.job.ExtractionJob;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * A distributed extraction by this test's context, as the coordinator, and a second pscextract instance started
+ * as a worker, against a local stand-in of psc-api-maj.
+ */
+@SpringBootTest
+@ContextConfiguration(classes = PscextractApplication.class)
+class DistributedExtractionTest {
+
+  private static final Path DIRECTORY = Path.of("target/distributed");
+
+  private static final long SEED = 20240102L;
+
+  private static PsApiStandIn standIn;
+
+  private static ConfigurableApplicationContext worker;
+
+  @Autowired
+  private ExtractionController controller;
+
+  @Autowired
+  private DistributedExtractionService distributedExtractionService;
+
+  @DynamicPropertySource
+  static void registerProperties(DynamicPropertyRegistry propertiesRegistry) {
+    propertiesRegistry.add("api.base.url", () -> standIn.getBaseUrl());
+    propertiesRegistry.add("working.directory", () -> DIRECTORY.resolve("coordinator").toString());
+    propertiesRegistry.add("files.directory", () -> DIRECTORY.resolve("coordinator").toString());
+    propertiesRegistry.add("page.size", () -> "100");
+    propertiesRegistry.add("extract.distributed.role", () -> DistributedExtractionService.ROLE_COORDINATOR);
+    propertiesRegistry.add("extract.distributed.directory", () -> DIRECTORY.resolve("shards").toString());
+    propertiesRegistry.add("extract.distributed.shard.pages", () -> "3");
+  }
+
+  /**
+   * Runs before the context of the test, the coordinator, is created.
+   */
+  @BeforeAll
+  static void startWorker() throws IOException {
+    FileSystemUtils.deleteRecursively(DIRECTORY);
+    Files.createDirectories(DIRECTORY.resolve("coordinator"));
+    Files.createDirectories(DIRECTORY.resolve("worker"));
+    standIn = new PsApiStandIn(SEED, 3_000).withLatency(20);
+    worker = new SpringApplicationBuilder(PscextractApplication.class).run(
+            "--server.port=0",
+            "--page.size=100",
+            "--api.base.url=" + standIn.getBaseUrl(),
+            "--working.directory=" + DIRECTORY.resolve("worker"),
+            "--files.directory=" + DIRECTORY.resolve("worker"),
+            "--extract.notification.outbox.directory=" + DIRECTORY.resolve("worker-outbox"),
+            "--extract.distributed.role=" + DistributedExtractionService.ROLE_WORKER,
+            "--extract.distributed.directory=" + DIRECTORY.resolve("shards"));
+  }
+
+  @AfterAll
+  static void stop() {
+    worker.close();
+    standIn.close();
+  }
+
+  @Test
+  void distributedExtractShouldMatchStandaloneOne() throws IOException {
+    ReflectionTestUtils.setField(distributedExtractionService, "role", "standalone");
+    try {
+      assertEquals(ExtractionResult.Status.PUBLISHED, runExtraction().getResult());
+    } finally {
+      ReflectionTestUtils.setField(distributedExtractionService, "role", DistributedExtractionService.ROLE_COORDINATOR);
+    }
+
+    // same rows in the same order, so the coordinator finds the data entry unchanged
+    assertEquals(ExtractionResult.Status.UNCHANGED, runExtraction().getResult());
+    assertTrue(worker.getBean(DistributedExtractionService.class).getProcessedShards() > 0);
+    assertTrue(distributedExtractionService.getProcessedShards() > 0);
+    assertTrue(ShardRun.findOpen(DIRECTORY.resolve("shards")).isEmpty());
+    // a worker leaves its crawls to its shard worker
+    assertNull(worker.getBean(ExtractionController.class).submitExtraction(null));
+  }
+
+  private ExtractionJob runExtraction() {
+    ExtractionJob job = (ExtractionJob) controller.generateExtract(null).getBody();
+    await().atMost(Duration.ofMinutes(2)).pollInterval(Duration.ofMillis(100)).until(job::isDone);
+    return job;
+  }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import fr.ans.psc.pscextract.benchmark.PsApiStandIn;
+import fr.ans.psc.pscextract.service.utils.ExternalSort;
+import fr.ans.psc.pscextract.service.utils.ExtractRowOrder;
+import fr.ans.psc.pscextract.service.utils.FileNamesUtil;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+class ExternalSortTest {
+
+  private static final Path DIRECTORY = Path.of("target/external-sort");
+
+  private static final String HEADER = "Type|Id|National id|\n";
+
+  @BeforeAll
+  static void setUp() throws IOException {
+    FileSystemUtils.deleteRecursively(DIRECTORY);
+    Files.createDirectories(DIRECTORY.resolve("runs"));
+    Files.createDirectories(DIRECTORY.resolve("outbox"));
+  }
+
+  @Test
+  void sortShouldNotDependOnInputOrder() throws IOException {
+    List<String> rows = new ArrayList<>();
+    Random random = new Random(20240105L);
+    for (int i = 0; i < 5000; i++) {
+      String nationalId = "8" + (100000 + random.nextInt(2000));
+      rows.add("8|" + nationalId.substring(1) + "|" + nationalId + "|" + "|".repeat(10) + (10 + random.nextInt(80))
+              + "|" + "x".repeat(random.nextInt(40)) + "|\n");
+    }
+    // line breaks inside a field stay in their row
+    rows.add("0|123|0123|Nom\r\nsur deux lignes|" + "|".repeat(9) + "10|\n");
+    rows.add("0|123|0123|Nom\nsur deux lignes|" + "|".repeat(9) + "10|\n");
+
+    List<String> expected = new ArrayList<>(rows);
+    expected.sort(new ExtractRowOrder());
+    byte[] sorted = null;
+    for (long seed = 0; seed < 3; seed++) {
+      Collections.shuffle(rows, new Random(seed));
+      Path input = DIRECTORY.resolve("input.txt");
+      Files.writeString(input, HEADER + String.join("", rows));
+      // runs of a few KiB, merged 3 at a time, so that there are intermediate merge passes
+      ExternalSort externalSort = new ExternalSort(DIRECTORY.resolve("runs"), 16 * 1024, 3, new ExtractRowOrder());
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      assertEquals(rows.size(), externalSort.sort(input, output));
+      assertTrue(externalSort.getRunCount() > 9, "only " + externalSort.getRunCount() + " runs");
+      if (sorted != null) {
+        assertArrayEquals(sorted, output.toByteArray());
+      }
+      sorted = output.toByteArray();
+    }
+    assertEquals(HEADER + String.join("", expected), new String(sorted, StandardCharsets.UTF_8));
+    try (var runs = Files.list(DIRECTORY.resolve("runs"))) {
+      assertEquals(0, runs.count());
+    }
+  }
+
+  @Test
+  void rowsShouldBeOrderedByNationalIdThenSituation() {
+    List<String> rows = new ArrayList<>(List.of(
+            "8|2|82|B|" + "|".repeat(9) + "10|",
+            "8|1|81|Z|" + "|".repeat(9) + "60|",
+            "0|1|01|A|" + "|".repeat(9) + "10|",
+            "8|1|81|Z|" + "|".repeat(9) + "10|"));
+    rows.sort(new ExtractRowOrder());
+    assertEquals(List.of(
+            "0|1|01|A|" + "|".repeat(9) + "10|",
+            "8|1|81|Z|" + "|".repeat(9) + "10|",
+            "8|1|81|Z|" + "|".repeat(9) + "60|",
+            "8|2|82|B|" + "|".repeat(9) + "10|"), rows);
+  }
+
+  @Test
+  void sortedExtractShouldBeInRowOrder() throws IOException {
+    try (PsApiStandIn standIn = new PsApiStandIn(20240105L, 500)) {
+      assertEquals(BatchExtraction.EXIT_PUBLISHED, BatchExtraction.run(new String[]{
+              BatchExtraction.BATCH_ARGUMENT,
+              "--page.size=100",
+              "--api.base.url=" + standIn.getBaseUrl(),
+              "--working.directory=" + DIRECTORY,
+              "--files.directory=" + DIRECTORY,
+              "--extract.notification.outbox.directory=" + DIRECTORY.resolve("outbox"),
+              "--extract.sort.enabled=true",
+              "--extract.sort.run.mb=1"}));
+    }
+    File extract = FileNamesUtil.getLatestExtract(DIRECTORY.toString(), "deleteme");
+    try (ZipFile zipFile = new ZipFile(extract)) {
+      ZipEntry dataEntry = zipFile.stream().filter(entry -> entry.getName().endsWith(".txt")).findFirst()
+              .orElseThrow();
+      List<String> rows = List.of(new String(zipFile.getInputStream(dataEntry).readAllBytes(),
+              StandardCharsets.UTF_8).split("(?<=\\|\n)"));
+      List<String> dataRows = new ArrayList<>(rows.subList(1, rows.size()));
+      assertTrue(dataRows.size() > 500);
+      List<String> expected = new ArrayList<>(dataRows);
+      expected.sort(new ExtractRowOrder());
+      assertEquals(expected, dataRows);
+    }
+  }
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.tomakehurst.wiremock.junit5.WireMockExtension;
+import fr.ans.psc.pscextract.controller.ExtractionController;
+import fr.ans.psc.pscextract.service.ExtractionResult;
+import fr.ans.psc.pscextract.service.profile.ExtractProfile;
+import fr.ans.psc.pscextract.service.profile.ExtractProfiles;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+@SpringBootTest
+@ContextConfiguration(classes = PscextractApplication.class)
+class ExtractProfilesTest {
+
+  private static final Path DIRECTORY = Path.of("target/profiles");
+
+  @RegisterExtension
+  static WireMockExtension httpMockServer = WireMockExtension.newInstance().options(wireMockConfig().dynamicPort().usingFilesUnderClasspath("wiremock")).build();
+
+  @Autowired
+  private ExtractionController controller;
+
+  @DynamicPropertySource
+  static void registerProperties(DynamicPropertyRegistry propertiesRegistry) {
+    propertiesRegistry.add("api.base.url", () -> httpMockServer.baseUrl());
+    propertiesRegistry.add("working.directory", DIRECTORY::toString);
+    propertiesRegistry.add("files.directory", DIRECTORY::toString);
+    propertiesRegistry.add("page.size", () -> "1");
+    propertiesRegistry.add("extract.profiles", () -> "pharmaciens,sans-contact");
+    propertiesRegistry.add("extract.profile.pharmaciens.professions", () -> "60");
+    propertiesRegistry.add("extract.profile.pharmaciens.columns", () -> "1-3,14");
+    propertiesRegistry.add("extract.profile.sans-contact.columns", () -> "1-10,13-51");
+  }
+
+  @BeforeAll
+  static void createDirectory() throws IOException {
+    FileSystemUtils.deleteRecursively(DIRECTORY);
+    Files.createDirectories(DIRECTORY);
+  }
+
+  @Test
+  void profileShouldKeepItsRowsAndColumns() {
+    ExtractProfile profile = new ExtractProfile("pharmaciens", Set.of("60"), ExtractProfiles.parseColumns("1-2,4"));
+
+    assertEquals("a|b|d|\n", profile.select("a|b|c|d|e|\n"));
+    assertEquals("a|b|c|\n", new ExtractProfile("all", Set.of(), new BitSet()).select("a|b|c|\n"));
+    assertThrows(IllegalArgumentException.class, () -> ExtractProfiles.parseColumns("0-3"));
+    assertThrows(IllegalArgumentException.class, () -> ExtractProfiles.parseColumns("3-x"));
+    assertThrows(IllegalArgumentException.class, () -> ExtractProfiles.parseColumns("52"));
+  }
+
+  @Test
+  void profilesShouldBeWrittenInTheSamePass() throws IOException {
+    httpMockServer.stubFor(get("/v2/ps?page=0&size=1").willReturn(aResponse().withStatus(200).withHeader("Content-Type", "application/json").withBodyFile("multiple-work-situations.json")));
+    httpMockServer.stubFor(get("/v2/ps?page=1&size=1").willReturn(aResponse().withStatus(200).withHeader("Content-Type", "application/json").withBodyFile("page1size1.json")));
+    httpMockServer.stubFor(get("/v2/ps?page=2&size=1").willReturn(aResponse().withStatus(410)));
+
+    controller.generateExtract(null);
+    await().until(() -> !controller.isBusy());
+    assertEquals(ExtractionResult.Status.PUBLISHED, controller.getLastExtractionStatus());
+    // a single crawl
+    assertEquals(3, httpMockServer.getAllServeEvents().size());
+
+    List<String> extractLines = getEntry(controller.getFile(), ".txt").lines().collect(Collectors.toList());
+    List<String> pharmaciensLines = getEntry(controller.getProfileFile("pharmaciens"), ".txt").lines()
+            .collect(Collectors.toList());
+    List<String> sansContactLines = getEntry(controller.getProfileFile("sans-contact"), ".txt").lines()
+            .collect(Collectors.toList());
+
+    List<String> expectedPharmaciensLines = extractLines.stream()
+            .filter(line -> line.equals(extractLines.get(0)) || "60".equals(line.split("\\|", -1)[13]))
+            .map(line -> select(line, 0, 1, 2, 13))
+            .collect(Collectors.toList());
+    assertEquals(7, expectedPharmaciensLines.size());
+    assertEquals(expectedPharmaciensLines, pharmaciensLines);
+    assertEquals(extractLines.stream().map(ExtractProfilesTest::dropContactColumns).collect(Collectors.toList()),
+            sansContactLines);
+
+    JsonNode manifest = new ObjectMapper().readTree(getEntry(controller.getProfileFile("pharmaciens"),
+            ".manifest.json"));
+    assertEquals("pharmaciens", manifest.get("profile").asText());
+    assertEquals(6, manifest.get("rowCount").asLong());
+    assertEquals(2, manifest.get("psCount").asLong());
+    File pharmaciensArchive = Objects.requireNonNull(controller.getProfileFile("pharmaciens").getBody()).getFile();
+    assertTrue(pharmaciensArchive.getName().startsWith("deleteme_pharmaciens_"));
+
+    // unchanged data : every archive is kept
+    controller.generateExtract(null);
+    await().until(() -> !controller.isBusy());
+    assertEquals(ExtractionResult.Status.UNCHANGED, controller.getLastExtractionStatus());
+    assertEquals(pharmaciensArchive,
+            Objects.requireNonNull(controller.getProfileFile("pharmaciens").getBody()).getFile());
+    assertTrue(pharmaciensArchive.isFile());
+
+    assertEquals(HttpStatus.NOT_FOUND, controller.getProfileFile("unknown").getStatusCode());
+  }
+
+  private static String select(String line, int... columns) {
+    String[] values = line.split("\\|", -1);
+    StringBuilder sb = new StringBuilder();
+    for (int column : columns) {
+      sb.append(values[column]).append('|');
+    }
+    return sb.toString();
+  }
+
+  private static String dropContactColumns(String line) {
+    String[] values = line.split("\\|", -1);
+    StringBuilder sb = new StringBuilder();
+    for (int column = 0; column < ExtractProfile.COLUMN_COUNT; column++) {
+      if (column != 10 && column != 11) {
+        sb.append(values[column]).append('|');
+      }
+    }
+    return sb.toString();
+  }
+
+  private static String getEntry(ResponseEntity<FileSystemResource> response, String extension) throws IOException {
+    try (ZipFile zipFile = new ZipFile(Objects.requireNonNull(response.getBody()).getFile())) {
+      for (ZipEntry entry : Collections.list(zipFile.entries())) {
+        if (entry.getName().endsWith(extension)) {
+          return new String(zipFile.getInputStream(entry).readAllBytes(), StandardCharsets.UTF_8);
+        }
+      }
+    }
+    throw new AssertionError("No " + extension + " entry");
+  }
+}
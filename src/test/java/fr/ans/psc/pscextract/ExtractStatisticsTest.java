@@ -0,0 +1,127 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract;
+
+import fr.ans.psc.model.Profession;
+import fr.ans.psc.model.Ps;
+import fr.ans.psc.model.Structure;
+import fr.ans.psc.model.WorkSituation;
+import fr.ans.psc.pscextract.service.statistics.CodeHistogram;
+import fr.ans.psc.pscextract.service.statistics.ExtractStatistics;
+import fr.ans.psc.pscextract.service.statistics.HyperLogLog;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExtractStatisticsTest {
+
+  @Test
+  void hyperLogLogShouldEstimateWithinItsError() {
+    HyperLogLog sketch = new HyperLogLog(14);
+    for (int i = 0; i < 10; i++) {
+      sketch.add("81000" + i);
+    }
+    // Small counts are linear counting, exact in practice
+    assertEquals(10, sketch.estimate());
+
+    for (int round = 0; round < 2; round++) {
+      for (int i = 0; i < 2_000_000; i++) {
+        sketch.add("8" + i);
+      }
+    }
+    double error = Math.abs(sketch.estimate() - 2_000_010) / 2_000_010.0;
+    assertTrue(error < 3 * sketch.getRelativeStandardError(), "relative error " + error);
+  }
+
+  @Test
+  void mergedHyperLogLogShouldBeTheSketchOfTheUnion() {
+    HyperLogLog first = new HyperLogLog(12);
+    HyperLogLog second = new HyperLogLog(12);
+    HyperLogLog union = new HyperLogLog(12);
+    for (int i = 0; i < 300_000; i++) {
+      (i % 3 == 0 ? first : second).add("ps" + i);
+      // overlapping ranges
+      first.add("shared" + i % 1000);
+      second.add("shared" + i % 1000);
+      union.add("ps" + i);
+      union.add("shared" + i % 1000);
+    }
+    first.merge(second);
+    assertEquals(union.estimate(), first.estimate());
+    assertThrows(IllegalArgumentException.class, () -> first.merge(new HyperLogLog(14)));
+  }
+
+  @Test
+  void codeHistogramShouldCountCodesUpToItsBound() {
+    CodeHistogram histogram = new CodeHistogram(2);
+    histogram.add("10");
+    histogram.add("10");
+    histogram.add("21");
+    histogram.add("40");
+    histogram.add(null);
+    histogram.add("");
+    assertEquals(Map.of("10", 2L, "21", 1L), histogram.getCounts());
+    assertEquals(1, histogram.getOther());
+    assertEquals(2, histogram.getMissing());
+
+    CodeHistogram other = new CodeHistogram(2);
+    other.add("21");
+    other.add("50");
+    histogram.merge(other);
+    assertEquals(Map.of("10", 2L, "21", 2L), histogram.getCounts());
+    assertEquals(2, histogram.getOther());
+  }
+
+  @Test
+  void statisticsShouldCountSituationsAndMerge() {
+    ExtractStatistics first = new ExtractStatistics(14, 1024);
+    first.situationWritten(newSituation("1", "10", "75", "S1"), true);
+    first.situationWritten(newSituation("1", "21", "75", "S2"), false);
+    ExtractStatistics second = new ExtractStatistics(14, 1024);
+    second.situationWritten(newSituation("2", "10", "69", "S1"), true);
+    second.situationWritten(newSituation("3", "10", "75", "S1"), true);
+    first.merge(second);
+
+    assertEquals(3, first.getPsCount());
+    assertEquals(4, first.getSituationCount());
+    assertEquals(3, first.getDistinctPs().getEstimate());
+    assertEquals(2, first.getDistinctStructures().getEstimate());
+    assertEquals(Map.of("10", 3L, "21", 1L), first.getProfessions().getCounts());
+    assertEquals(Map.of("69", Map.of("10", 1L), "75", Map.of("10", 2L, "21", 1L)),
+            first.getProfessionsPerDepartment());
+    assertEquals(3, first.getGenders().getMissing());
+  }
+
+  private static Ps newSituation(String id, String professionCode, String departmentCode, String structureId) {
+    Structure structure = new Structure();
+    structure.setStructureTechnicalId(structureId);
+    structure.setDepartmentCode(departmentCode);
+    WorkSituation workSituation = new WorkSituation();
+    workSituation.setStructure(structure);
+    Profession profession = new Profession();
+    profession.setCode(professionCode);
+    profession.setWorkSituations(List.of(workSituation));
+    Ps ps = new Ps();
+    ps.setId(id);
+    ps.setProfessions(List.of(profession));
+    return ps;
+  }
+}
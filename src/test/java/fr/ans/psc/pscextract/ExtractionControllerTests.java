@@ -21,16 +21,30 @@ import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMoc
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.awaitility.Awaitility.await;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.hamcrest.Matchers.containsString;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.tomakehurst.wiremock.junit5.WireMockExtension;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 import fr.ans.psc.pscextract.controller.ExtractionController;
+import fr.ans.psc.pscextract.service.ExtractionResult;
+import fr.ans.psc.pscextract.service.job.ExtractionJob;
+import fr.ans.psc.pscextract.service.sync.BlockChecksums;
+import fr.ans.psc.pscextract.service.utils.TreeHash;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.RegisterExtension;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.metrics.AutoConfigureMetrics;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.core.io.FileSystemResource;
@@ -42,9 +56,11 @@ import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.DynamicPropertyRegistry;
 import org.springframework.test.context.DynamicPropertySource;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -52,16 +68,25 @@ import java.lang.reflect.Field;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.Objects;
 import java.util.concurrent.Callable;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 @SpringBootTest
 @ContextConfiguration(classes = PscextractApplication.class)
 @AutoConfigureMockMvc
+@AutoConfigureMetrics
 class ExtractionControllerTests {
   /* 
    * Target the copy from test-ressource stage rather than the sources, 
@@ -163,11 +188,9 @@ class ExtractionControllerTests {
     controller.generateExtract(null);
     await().until(controllerIsReady(controller));
 
-    ResponseEntity<FileSystemResource> response = controller.getFile();
-
-    String expected = getContentAsString("empty-ps-result");
-    String actual = getDataEntryAsString(response);
-    Assertions.assertEquals(expected, actual);
+    // a Ps without any id can't be transformed, the extraction fails rather than publishing the rows before it
+    assertNull(controller.getLastExtractionStatus());
+    assertEquals(HttpStatus.NOT_FOUND, controller.getFile().getStatusCode());
   }
 
   @Test
@@ -179,11 +202,9 @@ class ExtractionControllerTests {
     controller.generateExtract(null);
     await().until(controllerIsReady(controller));
 
-    ResponseEntity<FileSystemResource> response = controller.getFile();
-
-    String expected = getContentAsString("very-empty-ps-result");
-    String actual = getDataEntryAsString(response);
-    Assertions.assertEquals(expected, actual);
+    // a Ps without any id can't be transformed, the extraction fails rather than publishing the rows before it
+    assertNull(controller.getLastExtractionStatus());
+    assertEquals(HttpStatus.NOT_FOUND, controller.getFile().getStatusCode());
   }
 
   @Test
@@ -248,6 +269,240 @@ class ExtractionControllerTests {
     Assertions.assertEquals(expected, actual);
   }
 
+  @Test
+  void shouldJoinRunManifest() throws IOException {
+    httpMockServer.stubFor(get("/v2/ps?page=0&size=1").willReturn(aResponse().withStatus(200).withHeader("Content-Type", "application/json").withBodyFile("page1size1.json")));
+    httpMockServer.stubFor(get("/v2/ps?page=1&size=1").willReturn(aResponse().withStatus(200).withHeader("Content-Type", "application/json").withBodyFile("page2size1.json")));
+    httpMockServer.stubFor(get("/v2/ps?page=2&size=1").willReturn(aResponse().withStatus(200).withHeader("Content-Type", "application/json").withBodyFile("page3size1.json")));
+    httpMockServer.stubFor(get("/v2/ps?page=3&size=1").willReturn(aResponse().withStatus(410)));
+
+    controller.generateExtract(null);
+    await().until(controllerIsReady(controller));
+
+    ResponseEntity<FileSystemResource> response = controller.getFile();
+    JsonNode manifest = new ObjectMapper().readTree(getEntryContentAsString(response, ".manifest.json"));
+    assertEquals(3, manifest.get("pageCount").asLong());
+    assertEquals(3, manifest.get("psCount").asLong());
+    assertEquals(36, manifest.get("rowCount").asLong());
+    long rowsPerIdType = 0;
+    for (JsonNode count : manifest.get("rowsPerIdType")) {
+      rowsPerIdType += count.asLong();
+    }
+    assertEquals(36, rowsPerIdType);
+    assertEquals(1, manifest.get("pageSize").asInt());
+    assertEquals(getEntryContentAsString(response, ".txt").getBytes(StandardCharsets.UTF_8).length,
+            manifest.get("bytesUncompressed").asLong());
+    assertThat(manifest.get("bytesCompressed").asLong()).isPositive();
+    assertThat(manifest.get("phaseDurationsMs").has("fetch")).isTrue();
+    assertThat(manifest.get("startedAt").asText()).isNotEmpty();
+  }
+
+  @Test
+  void psServedTwiceShouldBeWrittenOnce() throws IOException {
+    httpMockServer.stubFor(get("/v2/ps?page=0&size=1").willReturn(aResponse().withStatus(200).withHeader("Content-Type", "application/json").withBodyFile("page1size1.json")));
+    httpMockServer.stubFor(get("/v2/ps?page=1&size=1").willReturn(aResponse().withStatus(200).withHeader("Content-Type", "application/json").withBodyFile("page1size1.json")));
+    httpMockServer.stubFor(get("/v2/ps?page=2&size=1").willReturn(aResponse().withStatus(200).withHeader("Content-Type", "application/json").withBodyFile("page2size1.json")));
+    httpMockServer.stubFor(get("/v2/ps?page=3&size=1").willReturn(aResponse().withStatus(410)));
+
+    controller.generateExtract(null);
+    await().until(controllerIsReady(controller));
+
+    ResponseEntity<FileSystemResource> response = controller.getFile();
+    JsonNode manifest = new ObjectMapper().readTree(getEntryContentAsString(response, ".manifest.json"));
+    assertEquals(2, manifest.get("psCount").asLong());
+    assertEquals(1, manifest.get("duplicatePsCount").asLong());
+    List<String> rows = getEntryContentAsString(response, ".txt").lines().skip(1).collect(Collectors.toList());
+    assertEquals(21, manifest.get("rowCount").asLong());
+    // the rows of the first two pages of the multiple pages extract
+    List<String> expectedRows = getContentAsString("multiple-pages-result").lines().skip(1).limit(21)
+            .collect(Collectors.toList());
+    assertEquals(expectedRows, rows);
+  }
+
+  @Test
+  void unchangedDataShouldKeepCurrentExtract() throws IOException {
+    httpMockServer.stubFor(get("/v2/ps?page=0&size=1").willReturn(aResponse().withStatus(200).withHeader("Content-Type", "application/json").withBodyFile("page1size1.json")));
+    httpMockServer.stubFor(get("/v2/ps?page=1&size=1").willReturn(aResponse().withStatus(200).withHeader("Content-Type", "application/json").withBodyFile("page2size1.json")));
+    httpMockServer.stubFor(get("/v2/ps?page=2&size=1").willReturn(aResponse().withStatus(200).withHeader("Content-Type", "application/json").withBodyFile("page3size1.json")));
+    httpMockServer.stubFor(get("/v2/ps?page=3&size=1").willReturn(aResponse().withStatus(410)));
+
+    controller.generateExtract(null);
+    await().until(controllerIsReady(controller));
+    assertEquals(ExtractionResult.Status.PUBLISHED, controller.getLastExtractionStatus());
+    File publishedExtract = Objects.requireNonNull(controller.getFile().getBody()).getFile();
+    long publishedExtractModificationTime = publishedExtract.lastModified();
+
+    controller.generateExtract(null);
+    await().until(controllerIsReady(controller));
+    assertEquals(ExtractionResult.Status.UNCHANGED, controller.getLastExtractionStatus());
+
+    File currentExtract = Objects.requireNonNull(controller.getFile().getBody()).getFile();
+    assertEquals(publishedExtract, currentExtract);
+    assertEquals(publishedExtractModificationTime, currentExtract.lastModified());
+    assertEquals(getContentAsString("multiple-pages-result"), getDataEntryAsString(controller.getFile()));
+  }
+
+  @Test
+  void failedWriteShouldKeepCurrentExtract() throws IOException {
+    httpMockServer.stubFor(get("/v2/ps?page=0&size=1").willReturn(aResponse().withStatus(200).withHeader("Content-Type", "application/json").withBodyFile("page1size1.json")));
+    httpMockServer.stubFor(get("/v2/ps?page=1&size=1").willReturn(aResponse().withStatus(200).withHeader("Content-Type", "application/json").withBodyFile("page2size1.json")));
+    httpMockServer.stubFor(get("/v2/ps?page=2&size=1").willReturn(aResponse().withStatus(200).withHeader("Content-Type", "application/json").withBodyFile("page3size1.json")));
+    httpMockServer.stubFor(get("/v2/ps?page=3&size=1").willReturn(aResponse().withStatus(410)));
+
+    controller.generateExtract(null);
+    await().until(controllerIsReady(controller));
+    File publishedExtract = Objects.requireNonNull(controller.getFile().getBody()).getFile();
+    List<String> publishedFiles = listFiles(TEST_RESOURCE_DIRECTORY);
+
+    // the Ps of the second page can't be transformed, deactivated without any activation date
+    httpMockServer.stubFor(get("/v2/ps?page=1&size=1").willReturn(aResponse().withStatus(200).withHeader("Content-Type", "application/json")
+            .withBody("[{\"idType\":\"8\",\"id\":\"10000000001\",\"nationalId\":\"810000000001\",\"deactivated\":1}]")));
+    controller.generateExtract(null);
+    await().until(controllerIsReady(controller));
+
+    assertNull(controller.getLastExtractionStatus());
+    assertEquals(publishedExtract, Objects.requireNonNull(controller.getFile().getBody()).getFile());
+    assertEquals(publishedFiles, listFiles(TEST_RESOURCE_DIRECTORY));
+    assertEquals(getContentAsString("multiple-pages-result"), getDataEntryAsString(controller.getFile()));
+  }
+
+  private static List<String> listFiles(String directory) {
+    return Arrays.stream(Objects.requireNonNull(new File(directory).list())).sorted().collect(Collectors.toList());
+  }
+
+  @Test
+  void shouldServeDataBlocksOfLatestExtract() throws Exception {
+    httpMockServer.stubFor(get("/v2/ps?page=0&size=1").willReturn(aResponse().withStatus(200).withHeader("Content-Type", "application/json").withBodyFile("page1size1.json")));
+    httpMockServer.stubFor(get("/v2/ps?page=1&size=1").willReturn(aResponse().withStatus(200).withHeader("Content-Type", "application/json").withBodyFile("page2size1.json")));
+    httpMockServer.stubFor(get("/v2/ps?page=2&size=1").willReturn(aResponse().withStatus(200).withHeader("Content-Type", "application/json").withBodyFile("page3size1.json")));
+    httpMockServer.stubFor(get("/v2/ps?page=3&size=1").willReturn(aResponse().withStatus(410)));
+
+    controller.generateExtract(null);
+    await().until(controllerIsReady(controller));
+
+    byte[] checksumsContent = mockMvc.perform(MockMvcRequestBuilders.get("/download/blocks/checksums"))
+            .andExpect(status().isOk()).andReturn().getResponse().getContentAsByteArray();
+    BlockChecksums checksums = BlockChecksums.read(new ByteArrayInputStream(checksumsContent));
+    ResponseEntity<FileSystemResource> response = controller.getFile();
+    assertEquals(Objects.requireNonNull(response.getBody()).getFilename(), checksums.getExtractName());
+    assertEquals(getEntryContentAsString(response, ".sha256"), checksums.getSha256());
+    TreeHash treeHash = TreeHash.read(new ByteArrayInputStream(getEntryContentAsString(response, TreeHash.FILE_EXTENSION)
+            .getBytes(StandardCharsets.UTF_8)));
+    assertEquals(checksums.getLength(), treeHash.getLength());
+
+    MvcResult blocksRequest = mockMvc.perform(MockMvcRequestBuilders.get("/download/blocks")
+                    .param("extract", checksums.getExtractName())
+                    .param("indexes", "0-" + (checksums.getBlockCount() - 1)))
+            .andExpect(request().asyncStarted()).andReturn();
+    byte[] blocks = mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(blocksRequest))
+            .andExpect(status().isOk()).andReturn().getResponse().getContentAsByteArray();
+    assertEquals(getDataEntryAsString(response), getNormalizedEOL(new String(blocks, StandardCharsets.UTF_8)));
+
+    mockMvc.perform(MockMvcRequestBuilders.get("/download/blocks").param("extract", "../application.properties").param("indexes", "0"))
+            .andExpect(status().isNotFound());
+    mockMvc.perform(MockMvcRequestBuilders.get("/download/blocks").param("extract", checksums.getExtractName())
+                    .param("indexes", "0-" + checksums.getBlockCount()))
+            .andExpect(status().isBadRequest());
+    mockMvc.perform(MockMvcRequestBuilders.get("/download/blocks").param("extract", checksums.getExtractName())
+                    .param("indexes", "1,0"))
+            .andExpect(status().isBadRequest());
+    // refused before the range is expanded
+    mockMvc.perform(MockMvcRequestBuilders.get("/download/blocks").param("extract", checksums.getExtractName())
+                    .param("indexes", "0-" + Integer.MAX_VALUE))
+            .andExpect(status().isBadRequest());
+  }
+
+  @Test
+  void shouldServeStatisticsOfLatestExtract() throws Exception {
+    mockMvc.perform(MockMvcRequestBuilders.get("/download/statistics")).andExpect(status().isNotFound());
+
+    httpMockServer.stubFor(get("/v2/ps?page=0&size=1").willReturn(aResponse().withStatus(200).withHeader("Content-Type", "application/json").withBodyFile("page1size1.json")));
+    httpMockServer.stubFor(get("/v2/ps?page=1&size=1").willReturn(aResponse().withStatus(200).withHeader("Content-Type", "application/json").withBodyFile("page2size1.json")));
+    httpMockServer.stubFor(get("/v2/ps?page=2&size=1").willReturn(aResponse().withStatus(200).withHeader("Content-Type", "application/json").withBodyFile("page3size1.json")));
+    httpMockServer.stubFor(get("/v2/ps?page=3&size=1").willReturn(aResponse().withStatus(410)));
+
+    controller.generateExtract(null);
+    await().until(controllerIsReady(controller));
+
+    ResponseEntity<FileSystemResource> response = controller.getFile();
+    JsonNode manifest = new ObjectMapper().readTree(getEntryContentAsString(response, ".manifest.json"));
+    int situationCount = manifest.get("unwoundCount").asInt();
+    mockMvc.perform(MockMvcRequestBuilders.get("/download/statistics"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.extract").value(Objects.requireNonNull(response.getBody()).getFilename()))
+            .andExpect(jsonPath("$.psCount").value(3))
+            .andExpect(jsonPath("$.situationCount").value(situationCount))
+            .andExpect(jsonPath("$.distinctPs.estimate").value(3))
+            .andExpect(jsonPath("$.distinctStructures.estimate").value(1))
+            .andExpect(jsonPath("$.professions.missing").value(situationCount));
+  }
+
+  @Test
+  void progressShouldCountProcessedPages() throws Exception {
+    httpMockServer.stubFor(get("/v2/ps?page=0&size=1").willReturn(aResponse().withStatus(200).withHeader("Content-Type", "application/json").withBodyFile("page1size1.json")));
+    httpMockServer.stubFor(get("/v2/ps?page=1&size=1").willReturn(aResponse().withStatus(200).withHeader("Content-Type", "application/json").withBodyFile("page2size1.json")));
+    httpMockServer.stubFor(get("/v2/ps?page=2&size=1").willReturn(aResponse().withStatus(200).withHeader("Content-Type", "application/json").withBodyFile("page3size1.json")));
+    httpMockServer.stubFor(get("/v2/ps?page=3&size=1").willReturn(aResponse().withStatus(410)));
+
+    controller.generateExtract(null);
+    await().until(controllerIsReady(controller));
+
+    mockMvc.perform(MockMvcRequestBuilders.get("/progress/snapshot"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.running").value(false))
+            .andExpect(jsonPath("$.page").value(2))
+            .andExpect(jsonPath("$.psCount").value(3))
+            .andExpect(jsonPath("$.rowCount").value(36));
+    mockMvc.perform(MockMvcRequestBuilders.get("/progress")).andExpect(request().asyncStarted());
+  }
+
+  @Test
+  void metricsShouldBeScrapedByPrometheus() throws Exception {
+    httpMockServer.stubFor(get("/v2/ps?page=0&size=1").willReturn(aResponse().withStatus(200).withHeader("Content-Type", "application/json").withBodyFile("page1size1.json")));
+    httpMockServer.stubFor(get("/v2/ps?page=1&size=1").willReturn(aResponse().withStatus(410)));
+
+    controller.generateExtract(null);
+    await().until(controllerIsReady(controller));
+
+    mockMvc.perform(MockMvcRequestBuilders.get("/actuator/prometheus"))
+            .andExpect(status().isOk())
+            .andExpect(content().string(containsString("pscextract_api_page_fetch_seconds_bucket")))
+            .andExpect(content().string(containsString("pscextract_rows_total")))
+            .andExpect(content().string(containsString("pscextract_phase_seconds_count{phase=\"fetch\",}")));
+  }
+
+  @Test
+  void flightRecordingShouldHoldExtractionEvents() throws Exception {
+    httpMockServer.stubFor(get("/v2/ps?page=0&size=1").willReturn(aResponse().withStatus(200).withHeader("Content-Type", "application/json").withBodyFile("page1size1.json")));
+    httpMockServer.stubFor(get("/v2/ps?page=1&size=1").willReturn(aResponse().withStatus(200).withHeader("Content-Type", "application/json").withBodyFile("page2size1.json")));
+    httpMockServer.stubFor(get("/v2/ps?page=2&size=1").willReturn(aResponse().withStatus(410)));
+
+    mockMvc.perform(MockMvcRequestBuilders.get("/admin/jfr/dump")).andExpect(status().isNotFound());
+    mockMvc.perform(MockMvcRequestBuilders.post("/admin/jfr/start")).andExpect(status().isOk());
+    controller.generateExtract(null);
+    await().until(controllerIsReady(controller));
+    mockMvc.perform(MockMvcRequestBuilders.post("/admin/jfr/stop")).andExpect(status().isOk());
+
+    MvcResult dumpRequest = mockMvc.perform(MockMvcRequestBuilders.get("/admin/jfr/dump"))
+            .andExpect(request().asyncStarted()).andReturn();
+    byte[] dump = mockMvc.perform(MockMvcRequestBuilders.asyncDispatch(dumpRequest))
+            .andExpect(status().isOk()).andReturn().getResponse().getContentAsByteArray();
+    Path recordingFile = Files.createTempFile("pscextract-test-", ".jfr");
+    try {
+      Files.write(recordingFile, dump);
+      List<RecordedEvent> fetches = RecordingFile.readAllEvents(recordingFile).stream()
+              .filter(event -> event.getEventType().getName().equals("fr.ans.psc.pscextract.PageFetch"))
+              .collect(Collectors.toList());
+      assertEquals(3, fetches.size());
+      assertEquals(1, fetches.get(0).getInt("psCount"));
+      assertThat(fetches.get(0).getLong("bytes")).isPositive();
+      assertThat(RecordingFile.readAllEvents(recordingFile)).anyMatch(
+              event -> event.getEventType().getName().equals("fr.ans.psc.pscextract.Publish"));
+    } finally {
+      Files.delete(recordingFile);
+    }
+  }
+
   @Test
   void lockTest() {
 
@@ -268,16 +523,77 @@ class ExtractionControllerTests {
   }
 
   @Test
-  void verifyBusyStateConformityTest() {
+  void concurrentTriggersShouldStartASingleJob() throws Exception {
+    httpMockServer.stubFor(get("/v2/ps?page=0&size=1").willReturn(aResponse().withStatus(200).withHeader("Content-Type", "application/json").withBodyFile("multiple-work-situations.json").withFixedDelay(500)));
+    httpMockServer.stubFor(get("/v2/ps?page=1&size=1").willReturn(aResponse().withStatus(410)));
+
+    int triggerCount = 8;
+    ExecutorService triggers = Executors.newFixedThreadPool(triggerCount);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<ResponseEntity<?>>> responses = new ArrayList<>();
+    for (int i = 0; i < triggerCount; i++) {
+      responses.add(triggers.submit(() -> {
+        start.await();
+        return controller.generateExtract(null);
+      }));
+    }
+    start.countDown();
+    List<HttpStatus> statuses = new ArrayList<>();
+    for (Future<ResponseEntity<?>> response : responses) {
+      statuses.add(response.get().getStatusCode());
+    }
+    triggers.shutdown();
+    await().until(controllerIsReady(controller));
+
+    assertEquals(1, statuses.stream().filter(HttpStatus.OK::equals).count());
+    assertEquals(triggerCount - 1, statuses.stream().filter(HttpStatus.CONFLICT::equals).count());
+  }
+
+  @Test
+  void jobStatusShouldTrackExtractionOutcome() throws Exception {
     httpMockServer.stubFor(get("/v2/ps?page=0&size=1").willReturn(aResponse().withStatus(200).withHeader("Content-Type", "application/json").withBodyFile("multiple-work-situations.json")));
     httpMockServer.stubFor(get("/v2/ps?page=1&size=1").willReturn(aResponse().withStatus(410)));
 
+    ExtractionJob job = (ExtractionJob) controller.generateExtract(null).getBody();
+    await().until(controllerIsReady(controller));
+
+    mockMvc.perform(MockMvcRequestBuilders.get("/jobs/" + Objects.requireNonNull(job).getId()))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.state").value("FINISHED"))
+            .andExpect(jsonPath("$.result").value("PUBLISHED"));
+    mockMvc.perform(MockMvcRequestBuilders.get("/jobs/unknown")).andExpect(status().isNotFound());
+    mockMvc.perform(MockMvcRequestBuilders.delete("/jobs/" + job.getId())).andExpect(status().isConflict());
+  }
+
+  @Test
+  void cancelledJobShouldNotPublishExtract() throws Exception {
+    for (int page = 0; page < 20; page++) {
+      httpMockServer.stubFor(get("/v2/ps?page=" + page + "&size=1").willReturn(aResponse().withStatus(200).withHeader("Content-Type", "application/json").withBodyFile("page1size1.json").withFixedDelay(200)));
+    }
+    httpMockServer.stubFor(get("/v2/ps?page=20&size=1").willReturn(aResponse().withStatus(410)));
+
+    ExtractionJob job = (ExtractionJob) controller.generateExtract(null).getBody();
+    await().until(() -> Objects.requireNonNull(job).getState() == ExtractionJob.State.RUNNING);
+    mockMvc.perform(MockMvcRequestBuilders.delete("/jobs/" + job.getId())).andExpect(status().isAccepted());
+    await().until(controllerIsReady(controller));
+
+    assertEquals(ExtractionJob.State.CANCELLED, job.getState());
+    assertEquals(ExtractionResult.Status.CANCELLED, job.getResult());
+    Assertions.assertNull(controller.getFile().getBody());
+  }
+
+  @Test
+  void verifyBusyStateConformityTest() {
+    // the delay keeps the job running well past the first polls, however fast the extraction itself
+    httpMockServer.stubFor(get("/v2/ps?page=0&size=1").willReturn(aResponse().withStatus(200).withHeader("Content-Type", "application/json").withBodyFile("multiple-work-situations.json").withFixedDelay(1000)));
+    httpMockServer.stubFor(get("/v2/ps?page=1&size=1").willReturn(aResponse().withStatus(410)));
+
     boolean busy = controller.checkControllerIsBusy();
     Assertions.assertFalse(busy);
 
     controller.generateExtract(null);
 
-    await().until(controllerIsBusy(controller));
+    await().pollDelay(Duration.ZERO).until(controllerIsBusy(controller));
     busy = controller.checkControllerIsBusy();
     Assertions.assertTrue(busy);
 
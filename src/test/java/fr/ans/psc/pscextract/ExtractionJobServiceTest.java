@@ -0,0 +1,38 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract;
+
+import fr.ans.psc.pscextract.service.job.ExtractionJobService;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ExtractionJobServiceTest {
+
+  @Test
+  public void rejectedJobShouldNotKeepTheServiceBusy() {
+    ExtractionJobService service = new ExtractionJobService();
+    service.shutdown();
+
+    assertThrows(RejectedExecutionException.class, () -> service.submit(null, job -> null));
+    assertFalse(service.isBusy());
+    assertTrue(service.getJobs().isEmpty());
+  }
+}
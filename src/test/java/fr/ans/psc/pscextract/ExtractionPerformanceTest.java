@@ -0,0 +1,186 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import fr.ans.psc.pscextract.benchmark.PsApiStandIn;
+import fr.ans.psc.pscextract.controller.ExtractionController;
+import fr.ans.psc.pscextract.service.ExtractionResult;
+import fr.ans.psc.pscextract.service.job.ExtractionJob;
+import fr.ans.psc.pscextract.service.progress.ExtractionProgress;
+import fr.ans.psc.pscextract.service.utils.FileNamesUtil;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * End to end extraction against a local stand-in of psc-api-maj serving a synthetic national directory.
+ * <p>
+ * The throughput and heap test is tagged {@code performance} and only runs with {@code mvn -P performance test}. It
+ * fails when the rows per second or the retained heap regress beyond the tolerance of
+ * performance-baseline.properties ; pass {@code -Dperf.ps.count=...} to change the directory size.
+ * <p>
+ * The retained heap is measured on a second extraction, so that its forced collections don't weigh on the
+ * throughput : the most heap found live after a full collection, every {@value #HEAP_SAMPLE_INTERVAL_MS} ms of the
+ * extraction, over what was live before it started. Unlike pool peaks, it doesn't depend on when the collector runs.
+ */
+@SpringBootTest
+@ContextConfiguration(classes = PscextractApplication.class)
+class ExtractionPerformanceTest {
+
+  private static final Logger log = LoggerFactory.getLogger(ExtractionPerformanceTest.class);
+
+  private static final String WORK_DIRECTORY = "target/performance/work";
+
+  private static final long SEED = 20240101L;
+
+  private static final long HEAP_SAMPLE_INTERVAL_MS = 500;
+
+  private static PsApiStandIn standIn;
+
+  @Autowired
+  private ExtractionController controller;
+
+  @Autowired
+  private ExtractionProgress progress;
+
+  @Value("${extract.name}")
+  private String extractName;
+
+  @DynamicPropertySource
+  static void registerProperties(DynamicPropertyRegistry propertiesRegistry) throws IOException {
+    Files.createDirectories(Path.of(WORK_DIRECTORY));
+    standIn = new PsApiStandIn(SEED, Long.getLong("perf.ps.count", 100_000));
+    propertiesRegistry.add("api.base.url", standIn::getBaseUrl);
+    propertiesRegistry.add("working.directory", () -> WORK_DIRECTORY);
+    propertiesRegistry.add("files.directory", () -> WORK_DIRECTORY);
+    propertiesRegistry.add("page.size", () -> "1000");
+  }
+
+  @AfterAll
+  static void stopStandIn() {
+    standIn.close();
+  }
+
+  @BeforeEach
+  void clean() {
+    standIn.withLatency(0).withErrorRate(0);
+    controller.cleanAll();
+    await().until(() -> !controller.isBusy());
+  }
+
+  @Test
+  @Tag("performance")
+  void extractionThroughputAndHeapShouldNotRegress() {
+    Properties baseline = loadBaseline();
+    double tolerance = Double.parseDouble(System.getProperty("perf.tolerance", baseline.getProperty("tolerance")));
+    double baselineRowsPerSecond = Double.parseDouble(baseline.getProperty("rows.per.second"));
+    double baselineRetainedHeapMb = Double.parseDouble(baseline.getProperty("retained.heap.mb"));
+
+    long start = System.nanoTime();
+    ExtractionJob job = runExtraction(Duration.ofMinutes(30));
+    double seconds = (System.nanoTime() - start) / 1e9;
+    assertEquals(ExtractionResult.Status.PUBLISHED, job.getResult());
+    double rowsPerSecond = progress.getRowCount() / seconds;
+
+    long idleHeap = retainedHeap();
+    AtomicLong maxRetainedHeap = new AtomicLong();
+    Thread sampler = new Thread(() -> {
+      try {
+        while (!Thread.currentThread().isInterrupted()) {
+          Thread.sleep(HEAP_SAMPLE_INTERVAL_MS);
+          maxRetainedHeap.accumulateAndGet(retainedHeap(), Math::max);
+        }
+      } catch (InterruptedException e) {
+        // extraction done
+      }
+    }, "heap-sampler");
+    sampler.start();
+    try {
+      // the same directory, found unchanged
+      assertEquals(ExtractionResult.Status.UNCHANGED, runExtraction(Duration.ofMinutes(30)).getResult());
+    } finally {
+      sampler.interrupt();
+    }
+    double retainedHeapMb = Math.max(0, maxRetainedHeap.get() - idleHeap) / (1024.0 * 1024.0);
+    log.info("{} Ps, {} rows in {} s : {} rows/s, retained heap {} MB (baseline {} rows/s, {} MB)",
+            progress.getPsCount(), progress.getRowCount(), String.format("%.1f", seconds), Math.round(rowsPerSecond),
+            Math.round(retainedHeapMb), Math.round(baselineRowsPerSecond), Math.round(baselineRetainedHeapMb));
+
+    assertTrue(rowsPerSecond >= baselineRowsPerSecond * (1 - tolerance),
+            "Throughput regressed : " + Math.round(rowsPerSecond) + " rows/s");
+    assertTrue(retainedHeapMb <= baselineRetainedHeapMb * (1 + tolerance),
+            "Retained heap regressed : " + Math.round(retainedHeapMb) + " MB");
+  }
+
+  @Test
+  void failingApiShouldNotPublishPartialExtract() {
+    standIn.withLatency(5).withErrorRate(0.2);
+
+    ExtractionJob job = runExtraction(Duration.ofMinutes(2));
+
+    assertEquals(ExtractionResult.Status.FAILED, job.getResult());
+    assertEquals(1, standIn.getInjectedErrors());
+    assertNull(FileNamesUtil.getLatestExtract(WORK_DIRECTORY, extractName));
+  }
+
+  private ExtractionJob runExtraction(Duration timeout) {
+    ExtractionJob job = (ExtractionJob) controller.generateExtract(null).getBody();
+    await().atMost(timeout).pollInterval(Duration.ofMillis(200)).until(job::isDone);
+    return job;
+  }
+
+  /**
+   * @return the heap still used after a full collection
+   */
+  private static long retainedHeap() {
+    System.gc();
+    return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+  }
+
+  private static Properties loadBaseline() {
+    Properties baseline = new Properties();
+    try (InputStream in = ExtractionPerformanceTest.class.getResourceAsStream("/performance-baseline.properties")) {
+      baseline.load(in);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return baseline;
+  }
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract;
+
+import fr.ans.psc.pscextract.service.fetch.FetchThrottle;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FetchThrottleTest {
+
+  @Test
+  public void offPeakWindowMaySpanMidnight() {
+    FetchThrottle throttle = new FetchThrottle();
+    throttle.setOffPeakWindow("22:00-06:00");
+
+    assertTrue(throttle.isOffPeak(LocalTime.of(23, 30)));
+    assertTrue(throttle.isOffPeak(LocalTime.of(2, 0)));
+    assertFalse(throttle.isOffPeak(LocalTime.of(6, 0)));
+    assertFalse(throttle.isOffPeak(LocalTime.of(14, 0)));
+
+    throttle.setOffPeakWindow("01:00-05:00");
+    assertTrue(throttle.isOffPeak(LocalTime.of(3, 0)));
+    assertFalse(throttle.isOffPeak(LocalTime.of(23, 0)));
+  }
+
+  @Test
+  public void shouldOnlySlowDownDuringPeakHours() {
+    FetchThrottle throttle = new FetchThrottle();
+    throttle.setOffPeakWindow("22:00-06:00");
+    throttle.setPeakPageIntervalMs(500);
+    throttle.beforePageFetch();
+    long justFetched = System.nanoTime();
+
+    assertEquals(0, throttle.getDelayBeforeNextFetch(LocalTime.of(23, 0), justFetched));
+    assertTrue(throttle.getDelayBeforeNextFetch(LocalTime.of(12, 0), justFetched) > 400);
+    assertEquals(0, throttle.getDelayBeforeNextFetch(LocalTime.of(12, 0), justFetched + 600_000_000L));
+  }
+
+  @Test
+  public void windowOfNoTimeMeansNoOffPeakHours() {
+    FetchThrottle throttle = new FetchThrottle();
+    throttle.setOffPeakWindow("00:00-00:00");
+
+    assertFalse(throttle.isOffPeak(LocalTime.of(0, 0)));
+    assertFalse(throttle.isOffPeak(LocalTime.of(14, 0)));
+  }
+
+  @Test
+  public void emptyWindowMeansNoPeakHours() {
+    FetchThrottle throttle = new FetchThrottle();
+    throttle.setOffPeakWindow("");
+    throttle.setPeakPageIntervalMs(500);
+    throttle.beforePageFetch();
+
+    assertEquals(0, throttle.getDelayBeforeNextFetch(LocalTime.of(12, 0), System.nanoTime()));
+    assertThrows(IllegalArgumentException.class, () -> throttle.setOffPeakWindow("22h-6h"));
+  }
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import fr.ans.psc.pscextract.service.utils.FileNamesUtil;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+class FileNamesUtilTest {
+
+  @TempDir
+  Path filesDirectory;
+
+  @Test
+  void noonExtractShouldBeLaterThanMorningOne() throws IOException {
+    Files.createFile(filesDirectory.resolve("extract_202401010930.zip"));
+    Files.createFile(filesDirectory.resolve("extract_202401011230.zip"));
+
+    File latest = FileNamesUtil.getLatestExtract(filesDirectory.toString(), "extract");
+
+    assertEquals("extract_202401011230.zip", latest.getName());
+  }
+
+  @Test
+  void onlyExactExtractNamesShouldMatch() throws IOException {
+    Files.createFile(filesDirectory.resolve("extract-demo_202401011230.zip"));
+    Files.createFile(filesDirectory.resolve("extract_202401011230.blocks"));
+    Files.createFile(filesDirectory.resolve("extract_2024010112.zip"));
+
+    assertNull(FileNamesUtil.getLatestExtract(filesDirectory.toString(), "extract"));
+    assertEquals(LocalDateTime.of(2024, 1, 1, 23, 5), FileNamesUtil.getExtractTimestamp("extract_202401012305.zip", "extract"));
+    assertNull(FileNamesUtil.getExtractTimestamp("extract_20240101230x.zip", "extract"));
+  }
+
+  @Test
+  void cleanupShouldKeepLatestArchiveOfEachBaseName() throws IOException {
+    Files.createFile(filesDirectory.resolve("extract_202401010930.zip"));
+    Files.createFile(filesDirectory.resolve("extract_202401010930.blocks"));
+    Files.createFile(filesDirectory.resolve("extract_profile_202401010930.zip"));
+    Files.createFile(filesDirectory.resolve("extract_202401011230.zip"));
+    Files.createFile(filesDirectory.resolve("extract_202401011230.blocks"));
+    Files.createFile(filesDirectory.resolve("extract-demo.zip"));
+
+    List<File> deletedFiles = FileNamesUtil.cleanup(filesDirectory.toString(), "extract-demo");
+
+    assertEquals(Set.of("extract_202401010930.zip", "extract_202401010930.blocks"),
+            deletedFiles.stream().map(File::getName).collect(Collectors.toSet()));
+    assertTrue(Files.exists(filesDirectory.resolve("extract_profile_202401010930.zip")));
+    assertTrue(Files.exists(filesDirectory.resolve("extract-demo.zip")));
+  }
+}
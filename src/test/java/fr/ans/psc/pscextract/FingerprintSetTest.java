@@ -0,0 +1,60 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import fr.ans.psc.pscextract.service.utils.FingerprintSet;
+import org.junit.jupiter.api.Test;
+
+class FingerprintSetTest {
+
+  @Test
+  void onlyFirstAddOfAnIdShouldSucceedWhileGrowing() {
+    FingerprintSet set = new FingerprintSet(16);
+
+    for (int i = 0; i < 100_000; i++) {
+      assertTrue(set.add("81000" + i));
+    }
+    for (int i = 0; i < 100_000; i += 7) {
+      assertFalse(set.add("81000" + i));
+    }
+
+    assertEquals(100_000, set.size());
+    // 100 000 ids in 2^18 slots
+    assertEquals(1024 * 1024, set.getTableBytes());
+  }
+
+  @Test
+  void stringsShouldBeComparedExactly() {
+    FingerprintSet set = new FingerprintSet(16);
+    String longId = "8".repeat(300);
+
+    assertTrue(set.add("81\u00e9"));
+    assertTrue(set.add("81\u0169"));
+    assertTrue(set.add("81\u0080"));
+    assertTrue(set.add(""));
+    assertTrue(set.add(longId));
+    assertTrue(set.add(longId + "1"));
+
+    assertFalse(set.add("81\u00e9"));
+    assertFalse(set.add(""));
+    assertFalse(set.add("8".repeat(300)));
+    assertEquals(6, set.size());
+  }
+}
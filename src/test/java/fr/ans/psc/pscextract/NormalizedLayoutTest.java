@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import fr.ans.psc.pscextract.benchmark.PsApiStandIn;
+import fr.ans.psc.pscextract.service.utils.FileNamesUtil;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A batch extraction against a local stand-in of psc-api-maj, publishing the normalized layout next to the flat
+ * extract.
+ */
+class NormalizedLayoutTest {
+
+  private static final Path DIRECTORY = Path.of("target/normalized-layout");
+
+  @BeforeAll
+  static void setUp() throws IOException {
+    FileSystemUtils.deleteRecursively(DIRECTORY);
+    Files.createDirectories(DIRECTORY.resolve("outbox"));
+  }
+
+  @Test
+  void normalizedLayoutShouldJoinBackIntoFlatRows() throws IOException {
+    try (PsApiStandIn standIn = new PsApiStandIn(20240107L, 500)) {
+      assertEquals(BatchExtraction.EXIT_PUBLISHED, BatchExtraction.run(new String[]{
+              BatchExtraction.BATCH_ARGUMENT,
+              "--page.size=100",
+              "--api.base.url=" + standIn.getBaseUrl(),
+              "--working.directory=" + DIRECTORY,
+              "--files.directory=" + DIRECTORY,
+              "--extract.notification.outbox.directory=" + DIRECTORY.resolve("outbox"),
+              "--extract.normalized.enabled=true"}));
+    }
+    File extract = FileNamesUtil.getLatestExtract(DIRECTORY.toString(), "deleteme");
+    File normalized = FileNamesUtil.getLatestExtract(DIRECTORY.toString(), "deleteme_normalized");
+    assertNotNull(normalized);
+    List<String[]> flatRows = readRows(extract, ".txt");
+    List<String[]> psRows = readRows(normalized, "_ps.txt");
+    List<String[]> structureRows = readRows(normalized, "_structures.txt");
+    List<String[]> situationRows = readRows(normalized, "_situations.txt");
+    assertEquals("Identification nationale PP", psRows.get(0)[0]);
+    assertEquals("Nom de famille", psRows.get(0)[1]);
+    assertEquals("Code genre d'activité", situationRows.get(0)[13]);
+
+    Map<String, String[]> psByKey = new HashMap<>();
+    for (String[] psRow : psRows.subList(1, psRows.size())) {
+      assertEquals(null, psByKey.put(psRow[0], psRow));
+    }
+    Map<String, String[]> structuresByKey = new HashMap<>();
+    for (String[] structureRow : structureRows.subList(1, structureRows.size())) {
+      assertEquals(null, structuresByKey.put(structureRow[0], structureRow));
+    }
+
+    // columns 4 to 51 of the flat rows, that only differ by id
+    Set<String> expected = new HashSet<>();
+    Set<String> flatPs = new HashSet<>();
+    for (String[] flatRow : flatRows.subList(1, flatRows.size())) {
+      expected.add(String.join("|", Arrays.copyOfRange(flatRow, 3, 51)));
+      flatPs.add(flatRow[49]);
+    }
+    assertEquals(flatPs.size(), psByKey.size());
+    Set<String> joined = new HashSet<>();
+    for (String[] situationRow : situationRows.subList(1, situationRows.size())) {
+      String[] psRow = psByKey.get(situationRow[0]);
+      String[] structureRow = situationRow[14].isEmpty() ? new String[25] : structuresByKey.get(situationRow[14]);
+      if (situationRow[14].isEmpty()) {
+        Arrays.fill(structureRow, "");
+      }
+      String[] row = new String[48];
+      System.arraycopy(psRow, 1, row, 0, 10);
+      System.arraycopy(situationRow, 1, row, 10, 11);
+      System.arraycopy(structureRow, 1, row, 21, 24);
+      row[45] = situationRow[12];
+      row[46] = psRow[11];
+      row[47] = situationRow[13];
+      joined.add(String.join("|", row));
+    }
+    assertEquals(expected, joined);
+    assertTrue(normalized.length() < extract.length(), normalized.length() + " bytes against " + extract.length());
+  }
+
+  /**
+   * @return the rows of the data entry, split on their separators
+   */
+  private static List<String[]> readRows(File archive, String entrySuffix) throws IOException {
+    try (ZipFile zipFile = new ZipFile(archive)) {
+      ZipEntry dataEntry = zipFile.stream().filter(entry -> entry.getName().endsWith(entrySuffix)).findFirst()
+              .orElseThrow();
+      String content = new String(zipFile.getInputStream(dataEntry).readAllBytes(), StandardCharsets.UTF_8);
+      return Arrays.stream(content.split("\\|\n")).map(row -> row.split("\\|", -1))
+              .collect(java.util.stream.Collectors.toList());
+    }
+  }
+}
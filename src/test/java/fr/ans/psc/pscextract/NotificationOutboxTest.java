@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.matchingJsonPath;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.github.tomakehurst.wiremock.junit5.WireMockExtension;
+import com.github.tomakehurst.wiremock.stubbing.Scenario;
+import com.icegreen.greenmail.configuration.GreenMailConfiguration;
+import com.icegreen.greenmail.junit5.GreenMailExtension;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import fr.ans.psc.pscextract.service.EmailService;
+import fr.ans.psc.pscextract.service.notification.NotificationOutbox;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import javax.mail.internet.MimeMessage;
+import java.nio.file.Path;
+import java.time.Duration;
+
+@SpringBootTest
+@ContextConfiguration(classes = PscextractApplication.class)
+class NotificationOutboxTest {
+
+  @RegisterExtension
+  static GreenMailExtension smtpServer = new GreenMailExtension(ServerSetupTest.SMTP)
+          .withConfiguration(GreenMailConfiguration.aConfig().withUser("toto@gmail.com", "lepassworddetoto"))
+          .withPerMethodLifecycle(false);
+
+  @RegisterExtension
+  static WireMockExtension webhookServer = WireMockExtension.newInstance().options(wireMockConfig().dynamicPort()).build();
+
+  @Autowired
+  private EmailService emailService;
+
+  @Autowired
+  private NotificationOutbox notificationOutbox;
+
+  @DynamicPropertySource
+  static void registerProperties(DynamicPropertyRegistry propertiesRegistry) {
+    propertiesRegistry.add("page.size", () -> "1");
+    propertiesRegistry.add("spring.mail.port", () -> smtpServer.getSmtp().getPort());
+    propertiesRegistry.add("spring.mail.properties.mail.smtp.starttls.enable", () -> "false");
+    propertiesRegistry.add("extract.notification.outbox.directory", () -> "target/notification-outbox-test");
+    propertiesRegistry.add("extract.notification.webhook.url", () -> webhookServer.baseUrl() + "/hook");
+  }
+
+  @Test
+  void notificationsShouldBeDeliveredOnEveryChannelDespiteFailures() throws Exception {
+    webhookServer.stubFor(post(urlEqualTo("/hook")).inScenario("flaky").whenScenarioStateIs(Scenario.STARTED)
+            .willReturn(aResponse().withStatus(503)).willSetStateTo("up"));
+    webhookServer.stubFor(post(urlEqualTo("/hook")).inScenario("flaky").whenScenarioStateIs("up")
+            .willReturn(aResponse().withStatus(204)));
+
+    emailService.sendSimpleMessage("PSCEXTRACT - sécurisation échouée", null);
+
+    await().atMost(Duration.ofSeconds(10)).until(() -> notificationOutbox.getPendingCount() == 0);
+    MimeMessage[] received = smtpServer.getReceivedMessages();
+    assertEquals(1, received.length);
+    assertEquals("default - PSCEXTRACT - sécurisation échouée", received[0].getSubject());
+
+    // deleted while running, as by a clean of the files directory it used to be in
+    FileSystemUtils.deleteRecursively(Path.of("target/notification-outbox-test"));
+    emailService.sendSimpleMessage("PSCEXTRACT - sécurisation échouée", null);
+    await().atMost(Duration.ofSeconds(10)).until(() -> smtpServer.getReceivedMessages().length == 2);
+    await().atMost(Duration.ofSeconds(10)).until(() -> notificationOutbox.getPendingCount() == 0);
+    webhookServer.verify(3, postRequestedFor(urlEqualTo("/hook"))
+            .withHeader("Content-Type", equalTo("application/json"))
+            .withRequestBody(matchingJsonPath("$.subject", equalTo("default - PSCEXTRACT - sécurisation échouée"))));
+  }
+}
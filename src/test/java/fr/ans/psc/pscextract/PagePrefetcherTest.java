@@ -0,0 +1,107 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import fr.ans.psc.model.Ps;
+import fr.ans.psc.pscextract.service.fetch.MemoryBudget;
+import fr.ans.psc.pscextract.service.fetch.PagePrefetcher;
+import fr.ans.psc.pscextract.service.metrics.ExtractionMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class PagePrefetcherTest {
+
+  private static final long PAGE_RESPONSE_BYTES = 1000;
+
+  private MemoryBudget budget;
+
+  @BeforeEach
+  void setUp() {
+    budget = new MemoryBudget();
+    ReflectionTestUtils.setField(budget, "metrics", new ExtractionMetrics(new SimpleMeterRegistry()));
+    budget.init();
+  }
+
+  @Test
+  void fetchesShouldWaitForTheBudget() throws InterruptedException {
+    // room for two pages, while the queue could take five
+    budget.setCapacityBytes(2 * 3 * PAGE_RESPONSE_BYTES);
+    AtomicInteger fetched = new AtomicInteger();
+
+    try (PagePrefetcher prefetcher = new PagePrefetcher(page -> {
+      fetched.incrementAndGet();
+      return new PagePrefetcher.Page(page, Collections.singletonList(new Ps()), PAGE_RESPONSE_BYTES);
+    }, budget, 1, 5)) {
+      PagePrefetcher.Page first = prefetcher.next();
+      Thread.sleep(200);
+
+      assertEquals(2, fetched.get());
+      assertTrue(budget.getUsedBytes() <= budget.getCapacityBytes());
+
+      prefetcher.release(first);
+      PagePrefetcher.Page second = prefetcher.next();
+      prefetcher.release(second);
+      assertEquals(1, second.getNumber());
+      Thread.sleep(200);
+      assertEquals(4, fetched.get());
+    }
+    assertEquals(0, budget.getUsedBytes());
+  }
+
+  @Test
+  void pageLargerThanTheBudgetShouldStillBeFetched() throws InterruptedException {
+    budget.setCapacityBytes(PAGE_RESPONSE_BYTES);
+
+    try (PagePrefetcher prefetcher = new PagePrefetcher(page -> new PagePrefetcher.Page(page,
+            Collections.singletonList(new Ps()), PAGE_RESPONSE_BYTES), budget, 1, 2)) {
+      for (int page = 0; page < 3; page++) {
+        PagePrefetcher.Page fetched = prefetcher.next();
+        assertEquals(page, fetched.getNumber());
+        prefetcher.release(fetched);
+      }
+    }
+    assertEquals(0, budget.getUsedBytes());
+  }
+
+  @Test
+  void failureShouldComeAfterThePagesBeforeIt() throws InterruptedException {
+    budget.setCapacityBytes(1024 * 1024);
+
+    try (PagePrefetcher prefetcher = new PagePrefetcher(page -> {
+      if (page == 2) {
+        throw new HttpClientErrorException(HttpStatus.GONE);
+      }
+      return new PagePrefetcher.Page(page, Collections.singletonList(new Ps()), PAGE_RESPONSE_BYTES);
+    }, budget, 1, 2)) {
+      prefetcher.release(prefetcher.next());
+      prefetcher.release(prefetcher.next());
+      HttpClientErrorException e = assertThrows(HttpClientErrorException.class, prefetcher::next);
+      assertEquals(HttpStatus.GONE, e.getStatusCode());
+    }
+    assertEquals(0, budget.getUsedBytes());
+  }
+}
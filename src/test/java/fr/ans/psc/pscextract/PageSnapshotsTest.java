@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import fr.ans.psc.pscextract.benchmark.PsApiStandIn;
+import fr.ans.psc.pscextract.service.utils.FileNamesUtil;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Batch extractions recording the pages of a local stand-in of psc-api-maj, then replaying them once it is gone.
+ */
+class PageSnapshotsTest {
+
+  private static final Path DIRECTORY = Path.of("target/page-snapshots");
+
+  @BeforeAll
+  static void setUp() throws IOException {
+    FileSystemUtils.deleteRecursively(DIRECTORY);
+    Files.createDirectories(DIRECTORY.resolve("recorded"));
+    Files.createDirectories(DIRECTORY.resolve("replayed"));
+    Files.createDirectories(DIRECTORY.resolve("outbox"));
+  }
+
+  @Test
+  void replayedExtractShouldMatchRecordedOne() throws IOException {
+    try (PsApiStandIn standIn = new PsApiStandIn(20240104L, 700)) {
+      assertEquals(BatchExtraction.EXIT_PUBLISHED, BatchExtraction.run(getArguments(standIn.getBaseUrl(),
+              "recorded", "snapshots", "record", "--page.size=100", "--extract.snapshot.max.mb=1024")));
+      assertEquals(1, getSnapshots().size());
+      // nothing fits, only the new snapshot is kept
+      assertEquals(BatchExtraction.EXIT_UNCHANGED, BatchExtraction.run(getArguments(standIn.getBaseUrl(),
+              "recorded", "snapshots", "record", "--page.size=100", "--extract.snapshot.max.mb=0")));
+      assertEquals(1, getSnapshots().size());
+    }
+    String snapshotManifest = Files.readString(getSnapshots().get(0).resolve("manifest.json"));
+    assertTrue(snapshotManifest.contains("\"pageCount\":7"), snapshotManifest);
+
+    // the pages are served as recorded, whatever the configured page size
+    assertEquals(BatchExtraction.EXIT_PUBLISHED, BatchExtraction.run(getArguments("http://localhost:1",
+            "replayed", "snapshots", "replay", "--page.size=50")));
+    assertEquals(getDigest("recorded"), getDigest("replayed"));
+  }
+
+  @Test
+  void replayWithoutSnapshotShouldFail() {
+    assertEquals(BatchExtraction.EXIT_FAILED, BatchExtraction.run(getArguments("http://localhost:1", "replayed",
+            "no-snapshots", "replay", "--page.size=100")));
+  }
+
+  @Test
+  void snapshotsShouldBeRejectedInDistributedExtractions() {
+    assertThrows(BeanCreationException.class, () -> BatchExtraction.run(getArguments("http://localhost:1", "replayed",
+            "snapshots", "replay", "--page.size=100", "--extract.distributed.role=worker")));
+  }
+
+  private static String[] getArguments(String apiBaseUrl, String directory, String snapshots, String mode,
+                                       String... properties) {
+    return Stream.concat(Stream.of(
+            BatchExtraction.BATCH_ARGUMENT,
+            "--api.base.url=" + apiBaseUrl,
+            "--working.directory=" + DIRECTORY.resolve(directory),
+            "--files.directory=" + DIRECTORY.resolve(directory),
+            "--extract.notification.outbox.directory=" + DIRECTORY.resolve("outbox"),
+            "--extract.snapshot.mode=" + mode,
+            "--extract.snapshot.directory=" + DIRECTORY.resolve(snapshots)),
+            Stream.of(properties))
+            .toArray(String[]::new);
+  }
+
+  private static List<Path> getSnapshots() throws IOException {
+    try (Stream<Path> snapshots = Files.list(DIRECTORY.resolve("snapshots"))) {
+      return snapshots.filter(snapshot -> snapshot.getFileName().toString().startsWith("snapshot-"))
+              .collect(Collectors.toList());
+    }
+  }
+
+  private static String getDigest(String directory) throws IOException {
+    File extract = FileNamesUtil.getLatestExtract(DIRECTORY.resolve(directory).toString(), "deleteme");
+    try (ZipFile zipFile = new ZipFile(extract)) {
+      ZipEntry digestEntry = zipFile.stream().filter(entry -> entry.getName().endsWith(".sha256")).findFirst()
+              .orElseThrow();
+      return new String(zipFile.getInputStream(digestEntry).readAllBytes(), StandardCharsets.US_ASCII);
+    }
+  }
+}
@@ -0,0 +1,47 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.ans.psc.pscextract.service.RunManifest;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class RunManifestTest {
+
+  @Test
+  public void shardManifestsShouldMergeThroughTheirJson() throws Exception {
+    ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+    RunManifest shard = new RunManifest();
+    shard.setStartedAt(Instant.now());
+    for (String idType : List.of("RPPS", "ADELI", "RPPS")) {
+      shard.rowWritten(idType);
+    }
+
+    RunManifest manifest = new RunManifest();
+    manifest.rowWritten("RPPS");
+    manifest.merge(objectMapper.readValue(objectMapper.writeValueAsString(shard), RunManifest.class));
+
+    assertEquals(4, manifest.getRowCount());
+    assertEquals(Map.of("ADELI", 1L, "RPPS", 3L), manifest.getRowsPerIdType());
+    assertEquals(List.of("ADELI", "RPPS"), List.copyOf(manifest.getRowsPerIdType().keySet()));
+  }
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import fr.ans.psc.pscextract.service.distributed.ShardRun;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+class ShardRunTest {
+
+  private static final long LEASE_MS = 200;
+
+  @TempDir
+  Path sharedDirectory;
+
+  @Test
+  void expiredLeaseShouldBeTakenOver() throws IOException, InterruptedException {
+    ShardRun run = ShardRun.create(sharedDirectory, 10, 5, LEASE_MS);
+    ShardRun workerRun = ShardRun.findOpen(sharedDirectory).get(0);
+
+    ShardRun.Lease first = run.claim("coordinator");
+    ShardRun.Lease second = workerRun.claim("worker");
+    assertEquals(0, first.getShard());
+    assertEquals(1, second.getShard());
+    assertEquals(5, second.getFirstPage());
+    assertEquals(10, second.getEndPage());
+
+    Files.writeString(second.getTempFile(), "second\n");
+    assertTrue(second.commit("{}".getBytes(StandardCharsets.UTF_8), true));
+    assertEquals(1, run.getEndShard());
+    assertFalse(run.isComplete());
+
+    // the coordinator stops renewing its lease, as if it were gone
+    Thread.sleep(2 * LEASE_MS);
+    ShardRun.Lease takeOver = workerRun.claim("worker");
+    assertEquals(0, takeOver.getShard());
+    assertEquals(1, takeOver.getAttempt());
+    assertTrue(first.isLost());
+    Files.writeString(first.getTempFile(), "first\n");
+    assertFalse(first.commit("{}".getBytes(StandardCharsets.UTF_8), false));
+
+    Files.writeString(takeOver.getTempFile(), "take over\n");
+    assertTrue(takeOver.commit("{}".getBytes(StandardCharsets.UTF_8), false));
+    assertTrue(run.isComplete());
+    assertEquals("take over\n", Files.readString(run.getShardFile(0)));
+    assertNull(run.claim("coordinator"));
+
+    run.close();
+    assertTrue(ShardRun.findOpen(sharedDirectory).isEmpty());
+  }
+
+  @Test
+  void failedShardShouldFailTheRun() throws IOException {
+    ShardRun run = ShardRun.create(sharedDirectory, 10, 5, LEASE_MS);
+
+    ShardRun.Lease lease = run.claim("worker");
+    lease.renew();
+    lease.fail("503");
+
+    assertTrue(run.isFailed());
+  }
+
+  @Test
+  void abandonedRunShouldBePurged() throws IOException, InterruptedException {
+    ShardRun abandoned = ShardRun.create(sharedDirectory, 10, 5, LEASE_MS);
+    abandoned.claim("coordinator");
+    ShardRun closed = ShardRun.create(sharedDirectory, 10, 5, LEASE_MS);
+    closed.close();
+
+    // the coordinator of the first run died, nothing renews its lease
+    Thread.sleep(2 * LEASE_MS);
+    ShardRun alive = ShardRun.create(sharedDirectory, 10, 5, LEASE_MS);
+    ShardRun.purge(sharedDirectory, 100 * LEASE_MS);
+
+    assertEquals(1, ShardRun.findOpen(sharedDirectory).size());
+    assertEquals(alive.getId(), ShardRun.findOpen(sharedDirectory).get(0).getId());
+    assertFalse(Files.exists(sharedDirectory.resolve(abandoned.getId())));
+    assertTrue(Files.exists(sharedDirectory.resolve(closed.getId())));
+  }
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.ans.psc.model.Ps;
+import fr.ans.psc.pscextract.service.fetch.StringDeduplicationModule;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+class StringDeduplicationModuleTest {
+
+  private static final String PAGE = "["
+          + "{\"id\":\"810000000001\",\"lastName\":\"MARTIN\",\"professions\":[{\"code\":\"10\",\"categoryCode\":\"C\","
+          + "\"lastName\":\"MARTIN\",\"workSituations\":[{\"roleCode\":\"FON-01\",\"structure\":{\"countryCode\":\"99000\"}}]}]},"
+          + "{\"id\":\"810000000002\",\"lastName\":\"MARTIN\",\"professions\":[{\"code\":\"10\",\"categoryCode\":null,"
+          + "\"lastName\":\"MARTIN\",\"workSituations\":[{\"roleCode\":\"FON-01\",\"structure\":{\"countryCode\":\"99000\"}}]}]}"
+          + "]";
+
+  @Test
+  void codesShouldBeSharedBetweenPs() throws IOException {
+    StringDeduplicationModule module = new StringDeduplicationModule(16);
+    ObjectMapper mapper = new ObjectMapper().registerModule(module);
+
+    List<Ps> page = mapper.readValue(PAGE, new TypeReference<List<Ps>>() {});
+
+    assertEquals("10", page.get(1).getProfessions().get(0).getCode());
+    assertSame(page.get(0).getProfessions().get(0).getCode(), page.get(1).getProfessions().get(0).getCode());
+    assertSame(page.get(0).getProfessions().get(0).getWorkSituations().get(0).getRoleCode(),
+            page.get(1).getProfessions().get(0).getWorkSituations().get(0).getRoleCode());
+    assertSame(page.get(0).getProfessions().get(0).getWorkSituations().get(0).getStructure().getCountryCode(),
+            page.get(1).getProfessions().get(0).getWorkSituations().get(0).getStructure().getCountryCode());
+    assertNull(page.get(1).getProfessions().get(0).getCategoryCode());
+    // names are not pooled
+    assertNotSame(page.get(0).getLastName(), page.get(1).getLastName());
+    assertEquals(1, module.getPools().get("Profession.code").getHits());
+  }
+}
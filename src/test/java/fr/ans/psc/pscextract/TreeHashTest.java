@@ -0,0 +1,139 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import fr.ans.psc.pscextract.service.utils.TreeHash;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Random;
+
+class TreeHashTest {
+
+  private static final int CHUNK_SIZE = 1000;
+
+  @Test
+  void rootShouldCombineChunkHashesAsRfc6962() throws Exception {
+    byte[] data = new byte[2 * CHUNK_SIZE + 500];
+    new Random(20240106L).nextBytes(data);
+
+    TreeHash treeHash = build(data, 333);
+    assertEquals(3, treeHash.getChunkCount());
+    byte[] leaf0 = sha256(new byte[]{0}, slice(data, 0, CHUNK_SIZE));
+    byte[] leaf1 = sha256(new byte[]{0}, slice(data, CHUNK_SIZE, 2 * CHUNK_SIZE));
+    byte[] leaf2 = sha256(new byte[]{0}, slice(data, 2 * CHUNK_SIZE, data.length));
+    assertArrayEquals(leaf2, treeHash.getLeafHash(2));
+    assertArrayEquals(sha256(new byte[]{1}, sha256(new byte[]{1}, leaf0, leaf1), leaf2), treeHash.getRoot());
+    // the root doesn't depend on how the data was fed
+    assertArrayEquals(treeHash.getRoot(), build(data, 4096).getRoot());
+    assertArrayEquals(sha256(), build(new byte[0], 1).getRoot());
+  }
+
+  @Test
+  void treeHashShouldBeReadAsWritten() throws Exception {
+    byte[] data = new byte[10 * CHUNK_SIZE + 1];
+    new Random(20240106L).nextBytes(data);
+    TreeHash treeHash = build(data, 700);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    treeHash.write(out);
+
+    TreeHash read = TreeHash.read(new ByteArrayInputStream(out.toByteArray()));
+    assertEquals(data.length, read.getLength());
+    assertEquals(11, read.getChunkCount());
+    assertArrayEquals(treeHash.getRoot(), read.getRoot());
+
+    String tampered = out.toString(StandardCharsets.UTF_8).replace(toHex(treeHash.getLeafHash(4)), "00".repeat(32));
+    assertThrows(IOException.class, () -> TreeHash.read(new ByteArrayInputStream(
+            tampered.getBytes(StandardCharsets.UTF_8))));
+  }
+
+  @Test
+  void malformedHeaderShouldBeRefused() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    build(new byte[CHUNK_SIZE], 1).write(out);
+    String malformed = out.toString(StandardCharsets.UTF_8).replace("chunk.size=", "chunk.size:");
+
+    IOException e = assertThrows(IOException.class, () -> TreeHash.read(new ByteArrayInputStream(
+            malformed.getBytes(StandardCharsets.UTF_8))));
+    assertTrue(e.getMessage().startsWith("Malformed tree hash file"));
+  }
+
+  @Test
+  void corruptChunksShouldBeFound() throws Exception {
+    byte[] data = new byte[10 * CHUNK_SIZE + 1];
+    new Random(20240106L).nextBytes(data);
+    TreeHash treeHash = build(data, 8192);
+    Path dataFile = Files.createTempFile("treehash", ".txt");
+    try {
+      Files.write(dataFile, data);
+      assertEquals(List.of(), treeHash.findCorruptChunks(dataFile, 3));
+
+      data[4 * CHUNK_SIZE + 17]++;
+      data[10 * CHUNK_SIZE]++;
+      Files.write(dataFile, data);
+      assertEquals(List.of(4, 10), treeHash.findCorruptChunks(dataFile, 3));
+
+      Files.write(dataFile, slice(data, 0, 7 * CHUNK_SIZE + 10));
+      assertEquals(List.of(4, 7, 8, 9, 10), treeHash.findCorruptChunks(dataFile, 3));
+    } finally {
+      Files.delete(dataFile);
+    }
+  }
+
+  private static TreeHash build(byte[] data, int bufferSize) throws IOException {
+    try (TreeHash.Builder builder = new TreeHash.Builder(CHUNK_SIZE, 2)) {
+      for (int offset = 0; offset < data.length; offset += bufferSize) {
+        builder.update(data, offset, Math.min(bufferSize, data.length - offset));
+      }
+      return builder.build();
+    }
+  }
+
+  private static byte[] slice(byte[] data, int from, int to) {
+    byte[] slice = new byte[to - from];
+    System.arraycopy(data, from, slice, 0, slice.length);
+    return slice;
+  }
+
+  private static byte[] sha256(byte[]... parts) throws NoSuchAlgorithmException {
+    MessageDigest digest = MessageDigest.getInstance("SHA-256");
+    for (byte[] part : parts) {
+      digest.update(part);
+    }
+    return digest.digest();
+  }
+
+  private static String toHex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder();
+    for (byte b : bytes) {
+      sb.append(String.format("%02x", b));
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,42 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.benchmark;
+
+import fr.ans.psc.pscextract.service.sync.BlockSyncClient;
+import fr.ans.psc.pscextract.service.sync.HttpBlockSource;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Rebuilds the data file of the latest extract of a running pscextract from a previous one, fetching only the blocks
+ * that changed, and prints how many were reused.
+ */
+public final class BlockSyncTool {
+
+  private BlockSyncTool() {
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 3) {
+      System.err.println("usage: BlockSyncTool <pscextract base url> <previous data file> <target data file>");
+      System.exit(2);
+    }
+    BlockSyncClient.Report report = new BlockSyncClient(new HttpBlockSource(args[0]))
+            .synchronize(Path.of(args[1]), Path.of(args[2]));
+    System.out.println(report);
+  }
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.benchmark;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.ans.psc.model.Ps;
+import fr.ans.psc.pscextract.service.TransformationService;
+import fr.ans.psc.pscextract.service.compact.CompactPs;
+import fr.ans.psc.pscextract.service.compact.CompactPsReader;
+import fr.ans.psc.pscextract.service.compact.CompactRowEncoder;
+import fr.ans.psc.pscextract.service.fetch.StringDeduplicationModule;
+import fr.ans.psc.pscextract.service.metrics.ExtractionMetrics;
+import fr.ans.psc.pscextract.service.progress.ExtractionProgress;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.management.ObjectName;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pages of the synthetic national directory read from their JSON and written as rows, through the psc-api-client
+ * model or the compact one (extract.fetch.model).
+ * <p>
+ * Every score is per extract of {@code pages} pages of 1000 Ps. At the end of each trial, the heap retained by the
+ * pages read into the model is printed per 1000 Ps, with the top of the class histogram of the heap holding them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class CompactModelBenchmark {
+
+  private static final long SEED = 20240101L;
+
+  private static final int PAGE_SIZE = 1000;
+
+  @Param({"generated", "compact"})
+  private String model;
+
+  @Param({"20"})
+  private int pages;
+
+  private TransformationService transformationService;
+
+  private ObjectMapper objectMapper;
+
+  private List<byte[]> pageResponses;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME))
+            .setLevel(ch.qos.logback.classic.Level.WARN);
+    transformationService = new TransformationService();
+    ReflectionTestUtils.setField(transformationService, "progress", new ExtractionProgress());
+    ReflectionTestUtils.setField(transformationService, "metrics", new ExtractionMetrics(new SimpleMeterRegistry()));
+    // as the RestTemplate of the api client
+    objectMapper = new ObjectMapper().registerModule(new StringDeduplicationModule(1024));
+
+    pageResponses = new ArrayList<>();
+    ObjectMapper serializer = new ObjectMapper();
+    for (int page = 0; page < pages; page++) {
+      pageResponses.add(serializer.writeValueAsBytes(SyntheticPsGenerator.nationalPage(SEED, page, PAGE_SIZE,
+              (long) pages * PAGE_SIZE)));
+    }
+  }
+
+  @Benchmark
+  public void readAndWrite() throws IOException {
+    Writer writer = Writer.nullWriter();
+    if ("compact".equals(model)) {
+      CompactRowEncoder encoder = new CompactRowEncoder();
+      for (byte[] pageResponse : pageResponses) {
+        for (CompactPs compactPs : readCompactPage(pageResponse)) {
+          encoder.reset(compactPs);
+          while (encoder.nextSituation()) {
+            for (int id = 0; id < encoder.getIdCount(); id++) {
+              writer.write(encoder.getRow(), 0, encoder.encodeRow(id));
+            }
+          }
+        }
+      }
+    } else {
+      for (byte[] pageResponse : pageResponses) {
+        for (Ps responsePs : readPage(pageResponse)) {
+          for (Ps ps : transformationService.unwind(Collections.singletonList(responsePs))) {
+            for (String id : ps.getIds()) {
+              writer.write(transformationService.transformPsToLine(ps, id));
+            }
+          }
+        }
+      }
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void printRetainedHeap() throws Exception {
+    List<Object> retained = new ArrayList<>();
+    long before = usedHeapBytes();
+    for (byte[] pageResponse : pageResponses) {
+      retained.add("compact".equals(model) ? readCompactPage(pageResponse) : readPage(pageResponse));
+    }
+    long after = usedHeapBytes();
+    long responseBytes = pageResponses.stream().mapToLong(pageResponse -> pageResponse.length).sum();
+    System.out.println(model + " : " + (after - before) / pages / 1024 + " KiB retained per 1000 Ps, "
+            + responseBytes / pages / 1024 + " KiB of JSON");
+    String histogram = (String) ManagementFactory.getPlatformMBeanServer().invoke(
+            new ObjectName("com.sun.management:type=DiagnosticCommand"), "gcClassHistogram",
+            new Object[]{new String[0]}, new String[]{String[].class.getName()});
+    histogram.lines().limit(12).forEach(System.out::println);
+    System.out.println(retained.size() + " pages held");
+  }
+
+  private List<Ps> readPage(byte[] pageResponse) throws IOException {
+    return objectMapper.readValue(pageResponse, new TypeReference<List<Ps>>() {});
+  }
+
+  private static List<CompactPs> readCompactPage(byte[] pageResponse) throws IOException {
+    return new CompactPsReader().readPage(new ByteArrayInputStream(pageResponse));
+  }
+
+  private static long usedHeapBytes() {
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    Runtime runtime = Runtime.getRuntime();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
@@ -0,0 +1,167 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.benchmark;
+
+import fr.ans.psc.model.Ps;
+import fr.ans.psc.pscextract.service.TransformationService;
+import fr.ans.psc.pscextract.service.metrics.ExtractionMetrics;
+import fr.ans.psc.pscextract.service.normalized.NormalizedWriter;
+import fr.ans.psc.pscextract.service.progress.ExtractionProgress;
+import fr.ans.psc.pscextract.service.utils.CountingOutputStream;
+import fr.ans.psc.pscextract.service.utils.ExtractWriter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Encoding and zipping the synthetic national directory in the flat layout and in the normalized one.
+ * <p>
+ * Every score is per extract of {@code pages} pages of 1000 Ps, the zipped sizes are printed at the end of each
+ * trial. The synthetic structures are all distinct, whereas the real ones are shared by many situations : the size
+ * of the normalized structures is an upper bound.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class LayoutBenchmark {
+
+  private static final long SEED = 20240101L;
+
+  private static final int PAGE_SIZE = 1000;
+
+  @Param({"flat", "normalized"})
+  private String layout;
+
+  @Param({"20"})
+  private int pages;
+
+  private TransformationService transformationService;
+
+  private List<List<Ps>> unwoundPsList;
+
+  private long deflatedBytes;
+
+  private long encodedBytes;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME))
+            .setLevel(ch.qos.logback.classic.Level.WARN);
+    transformationService = new TransformationService();
+    ReflectionTestUtils.setField(transformationService, "progress", new ExtractionProgress());
+    ReflectionTestUtils.setField(transformationService, "metrics", new ExtractionMetrics(new SimpleMeterRegistry()));
+
+    unwoundPsList = new ArrayList<>();
+    for (int page = 0; page < pages; page++) {
+      for (Ps ps : SyntheticPsGenerator.nationalPage(SEED, page, PAGE_SIZE, (long) pages * PAGE_SIZE)) {
+        unwoundPsList.add(transformationService.unwind(List.of(ps)));
+      }
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    System.out.println(layout + " : " + encodedBytes / 1024 + " KiB encoded, " + deflatedBytes / 1024
+            + " KiB zipped");
+  }
+
+  @Benchmark
+  public long encode() throws IOException {
+    // As in an extraction, the data entries are written, then zipped one after the other
+    List<ByteArrayOutputStream> dataEntries = new ArrayList<>();
+    if ("normalized".equals(layout)) {
+      NormalizedWriter normalizedWriter = new NormalizedWriter(newPart("ps", dataEntries),
+              newPart("structures", dataEntries), newPart("situations", dataEntries));
+      try (NormalizedWriter writer = normalizedWriter) {
+        for (List<Ps> unwound : unwoundPsList) {
+          boolean firstOfPs = true;
+          for (Ps ps : unwound) {
+            if (!ps.getIds().isEmpty()) {
+              String id = ps.getIds().get(0);
+              writer.write(ps, transformationService.getIdType(id), transformationService.transformPsToLine(ps, id),
+                      firstOfPs);
+              firstOfPs = false;
+            }
+          }
+        }
+      }
+    } else {
+      try (Writer writer = newWriter(dataEntries)) {
+        for (List<Ps> unwound : unwoundPsList) {
+          for (Ps ps : unwound) {
+            for (String id : ps.getIds()) {
+              writer.write(transformationService.transformPsToLine(ps, id));
+            }
+          }
+        }
+      }
+    }
+    long encoded = 0;
+    AtomicLong deflated = new AtomicLong();
+    try (ZipOutputStream zos = new ZipOutputStream(new CountingOutputStream(OutputStream.nullOutputStream(),
+            deflated::addAndGet))) {
+      for (int i = 0; i < dataEntries.size(); i++) {
+        zos.putNextEntry(new ZipEntry("entry-" + i + ".txt"));
+        dataEntries.get(i).writeTo(zos);
+        zos.closeEntry();
+        encoded += dataEntries.get(i).size();
+      }
+    }
+    encodedBytes = encoded;
+    deflatedBytes = deflated.get();
+    return deflatedBytes;
+  }
+
+  private NormalizedWriter.Part newPart(String name, List<ByteArrayOutputStream> dataEntries) {
+    return new NormalizedWriter.Part(name, null, null, new ExtractWriter(newWriter(dataEntries), () -> 0));
+  }
+
+  private static Writer newWriter(List<ByteArrayOutputStream> dataEntries) {
+    ByteArrayOutputStream dataEntry = new ByteArrayOutputStream(1 << 20);
+    dataEntries.add(dataEntry);
+    return new BufferedWriter(new OutputStreamWriter(dataEntry, StandardCharsets.UTF_8));
+  }
+}
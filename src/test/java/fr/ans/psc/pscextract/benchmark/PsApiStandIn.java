@@ -0,0 +1,168 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local stand-in for the psc-api-maj {@code /v2/ps} paged endpoint, serving {@link SyntheticPsGenerator#nationalPage}.
+ * <p>
+ * Pages past the last one answer 410 GONE, as the real API does. Latency and errors can be injected to see how the
+ * extraction copes with a slow or failing API.
+ */
+public class PsApiStandIn implements AutoCloseable {
+
+  private final HttpServer server;
+
+  private final ExecutorService executor;
+
+  private final ObjectMapper objectMapper = new ObjectMapper().disable(SerializationFeature.FAIL_ON_EMPTY_BEANS);
+
+  private final long seed;
+
+  private final long totalCount;
+
+  private volatile long latencyMs;
+
+  private volatile double errorRate;
+
+  private final SplittableRandom errorRandom;
+
+  private final AtomicLong servedPages = new AtomicLong();
+
+  private final AtomicLong injectedErrors = new AtomicLong();
+
+  /**
+   * @param seed       generator seed
+   * @param totalCount number of Ps in the directory
+   */
+  public PsApiStandIn(long seed, long totalCount) throws IOException {
+    this.seed = seed;
+    this.totalCount = totalCount;
+    this.errorRandom = new SplittableRandom(seed);
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/v2/ps", this::handle);
+    executor = Executors.newFixedThreadPool(4, runnable -> {
+      Thread thread = new Thread(runnable, "ps-api-stand-in");
+      thread.setDaemon(true);
+      return thread;
+    });
+    server.setExecutor(executor);
+    server.start();
+  }
+
+  /**
+   * @param latencyMs delay added before answering each page
+   */
+  public PsApiStandIn withLatency(long latencyMs) {
+    this.latencyMs = latencyMs;
+    return this;
+  }
+
+  /**
+   * @param errorRate share of the page requests answered with a 503, between 0 and 1
+   */
+  public PsApiStandIn withErrorRate(double errorRate) {
+    this.errorRate = errorRate;
+    return this;
+  }
+
+  public String getBaseUrl() {
+    return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+  }
+
+  public long getServedPages() {
+    return servedPages.get();
+  }
+
+  public long getInjectedErrors() {
+    return injectedErrors.get();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      Map<String, String> query = parseQuery(exchange.getRequestURI());
+      int page = Integer.parseInt(query.getOrDefault("page", "0"));
+      int size = Integer.parseInt(query.getOrDefault("size", "50000"));
+      if (latencyMs > 0) {
+        Thread.sleep(latencyMs);
+      }
+      if (errorRate > 0 && nextErrorDraw() < errorRate) {
+        injectedErrors.incrementAndGet();
+        exchange.sendResponseHeaders(503, -1);
+        return;
+      }
+      if ((long) page * size >= totalCount) {
+        exchange.sendResponseHeaders(410, -1);
+        return;
+      }
+      byte[] body = objectMapper.writeValueAsBytes(SyntheticPsGenerator.nationalPage(seed, page, size, totalCount));
+      exchange.getResponseHeaders().add("Content-Type", "application/json");
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+      servedPages.incrementAndGet();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private synchronized double nextErrorDraw() {
+    return errorRandom.nextDouble();
+  }
+
+  private static Map<String, String> parseQuery(URI uri) {
+    Map<String, String> query = new HashMap<>();
+    String rawQuery = uri.getRawQuery();
+    if (rawQuery == null) {
+      return query;
+    }
+    for (String parameter : rawQuery.split("&")) {
+      int equals = parameter.indexOf('=');
+      if (equals > 0) {
+        query.put(parameter.substring(0, equals),
+                URLDecoder.decode(parameter.substring(equals + 1), StandardCharsets.UTF_8));
+      }
+    }
+    return query;
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+}
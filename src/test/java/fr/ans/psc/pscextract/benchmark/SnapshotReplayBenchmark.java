@@ -0,0 +1,142 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import fr.ans.psc.ApiClient;
+import fr.ans.psc.api.PsApi;
+import fr.ans.psc.model.Ps;
+import fr.ans.psc.pscextract.service.snapshot.PageSnapshots;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Crawling the pages of {@link PsApiStandIn} over HTTP and replaying them from a {@link PageSnapshots} snapshot,
+ * both through the RestTemplate, ApiClient and PsApi of the extraction.
+ * <p>
+ * Every score is per crawl of {@code pages} pages. {@code latencyMs} is added by the stand-in before each page, the
+ * real API takes seconds to build a page of 50000 Ps.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class SnapshotReplayBenchmark {
+
+  private static final long SEED = 20240101L;
+
+  @Param({"api", "snapshot"})
+  private String source;
+
+  @Param({"0", "20"})
+  private long latencyMs;
+
+  @Param({"1000"})
+  private int pageSize;
+
+  @Param({"20"})
+  private int pages;
+
+  private PsApiStandIn standIn;
+
+  private Path directory;
+
+  private PageSnapshots pageSnapshots;
+
+  private PsApi psApi;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME))
+            .setLevel(ch.qos.logback.classic.Level.WARN);
+    standIn = new PsApiStandIn(SEED, (long) pageSize * pages).withLatency(latencyMs);
+    directory = Files.createTempDirectory("snapshot-benchmark");
+    pageSnapshots = newPageSnapshots(PageSnapshots.MODE_RECORD);
+    pageSnapshots.startRun(standIn.getBaseUrl(), pageSize);
+    RestTemplate recordingTemplate = new RestTemplate();
+    recordingTemplate.getInterceptors().add(pageSnapshots);
+    PsApi recordingApi = newPsApi(recordingTemplate);
+    for (int page = 0; page < pages; page++) {
+      recordingApi.getPsByPage(BigDecimal.valueOf(page), BigDecimal.valueOf(pageSize));
+    }
+    pageSnapshots.finishRun(true);
+
+    RestTemplate restTemplate = new RestTemplate();
+    if ("snapshot".equals(source)) {
+      pageSnapshots = newPageSnapshots(PageSnapshots.MODE_REPLAY);
+      pageSnapshots.startRun(standIn.getBaseUrl(), pageSize);
+      restTemplate.setRequestFactory(pageSnapshots.getReplayRequestFactory());
+    }
+    psApi = newPsApi(restTemplate);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    pageSnapshots.finishRun(false);
+    standIn.close();
+    FileSystemUtils.deleteRecursively(directory.toFile());
+  }
+
+  @Benchmark
+  public int crawl() {
+    int count = 0;
+    for (int page = 0; page < pages; page++) {
+      List<Ps> psList = psApi.getPsByPage(BigDecimal.valueOf(page), BigDecimal.valueOf(pageSize));
+      count += psList.size();
+    }
+    return count;
+  }
+
+  private PageSnapshots newPageSnapshots(String mode) {
+    PageSnapshots snapshots = new PageSnapshots();
+    ReflectionTestUtils.setField(snapshots, "mode", mode);
+    ReflectionTestUtils.setField(snapshots, "directory", directory.toString());
+    ReflectionTestUtils.setField(snapshots, "replayId", "");
+    ReflectionTestUtils.setField(snapshots, "maxMb", 1024L);
+    ReflectionTestUtils.setField(snapshots, "objectMapper", new ObjectMapper().findAndRegisterModules());
+    return snapshots;
+  }
+
+  private PsApi newPsApi(RestTemplate restTemplate) {
+    ApiClient apiClient = new ApiClient(restTemplate);
+    apiClient.setBasePath(standIn.getBaseUrl());
+    return new PsApi(apiClient);
+  }
+}
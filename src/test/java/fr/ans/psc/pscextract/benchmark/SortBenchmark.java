@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.benchmark;
+
+import fr.ans.psc.model.Ps;
+import fr.ans.psc.pscextract.service.TransformationService;
+import fr.ans.psc.pscextract.service.metrics.ExtractionMetrics;
+import fr.ans.psc.pscextract.service.progress.ExtractionProgress;
+import fr.ans.psc.pscextract.service.utils.ExternalSort;
+import fr.ans.psc.pscextract.service.utils.ExtractRowOrder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sorting the data entry of a crawl of the synthetic national directory, as extract.sort.enabled does, with
+ * {@code runMb} of rows per sorted run.
+ * <p>
+ * Every score is per data entry of {@code pages} pages of 1000 Ps.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class SortBenchmark {
+
+  private static final long SEED = 20240101L;
+
+  private static final int PAGE_SIZE = 1000;
+
+  @Param({"4", "64"})
+  private int runMb;
+
+  @Param({"50"})
+  private int pages;
+
+  private Path directory;
+
+  private Path dataEntry;
+
+  private Path sorted;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME))
+            .setLevel(ch.qos.logback.classic.Level.WARN);
+    TransformationService transformationService = new TransformationService();
+    ReflectionTestUtils.setField(transformationService, "progress", new ExtractionProgress());
+    ReflectionTestUtils.setField(transformationService, "metrics", new ExtractionMetrics(new SimpleMeterRegistry()));
+
+    directory = Files.createTempDirectory("sort-benchmark");
+    dataEntry = directory.resolve("data.txt");
+    sorted = directory.resolve("sorted.txt");
+    try (Writer writer = Files.newBufferedWriter(dataEntry, StandardCharsets.UTF_8)) {
+      writer.write("header|\n");
+      for (int page = 0; page < pages; page++) {
+        for (Ps ps : transformationService.unwind(SyntheticPsGenerator.nationalPage(SEED, page, PAGE_SIZE,
+                (long) pages * PAGE_SIZE))) {
+          for (String id : ps.getIds()) {
+            writer.write(transformationService.transformPsToLine(ps, id));
+          }
+        }
+      }
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    FileSystemUtils.deleteRecursively(directory.toFile());
+  }
+
+  @Benchmark
+  public long sort() throws IOException {
+    try (OutputStream out = Files.newOutputStream(sorted)) {
+      return new ExternalSort(directory, runMb * 1024L * 1024L, 64, new ExtractRowOrder()).sort(dataEntry, out);
+    }
+  }
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.benchmark;
+
+import fr.ans.psc.model.Ps;
+import fr.ans.psc.pscextract.service.TransformationService;
+import fr.ans.psc.pscextract.service.metrics.ExtractionMetrics;
+import fr.ans.psc.pscextract.service.progress.ExtractionProgress;
+import fr.ans.psc.pscextract.service.statistics.ExtractStatistics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of gathering the statistics in the hot loop : the rows of the synthetic national directory are transformed,
+ * with and without feeding the statistics from their unwound Ps.
+ * <p>
+ * Every score is per extract of {@code pages} pages of 1000 Ps.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class StatisticsBenchmark {
+
+  private static final long SEED = 20240101L;
+
+  private static final int PAGE_SIZE = 1000;
+
+  @Param({"false", "true"})
+  private boolean statistics;
+
+  @Param({"20"})
+  private int pages;
+
+  private TransformationService transformationService;
+
+  private List<List<Ps>> unwoundPsList;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME))
+            .setLevel(ch.qos.logback.classic.Level.WARN);
+    transformationService = new TransformationService();
+    ReflectionTestUtils.setField(transformationService, "progress", new ExtractionProgress());
+    ReflectionTestUtils.setField(transformationService, "metrics", new ExtractionMetrics(new SimpleMeterRegistry()));
+
+    unwoundPsList = new ArrayList<>();
+    for (int page = 0; page < pages; page++) {
+      for (Ps ps : SyntheticPsGenerator.nationalPage(SEED, page, PAGE_SIZE, (long) pages * PAGE_SIZE)) {
+        unwoundPsList.add(transformationService.unwind(List.of(ps)));
+      }
+    }
+  }
+
+  @Benchmark
+  public ExtractStatistics transform(Blackhole blackhole) {
+    ExtractStatistics extractStatistics = statistics ? new ExtractStatistics(14, 1024) : null;
+    for (List<Ps> unwound : unwoundPsList) {
+      for (Ps ps : unwound) {
+        if (extractStatistics != null) {
+          extractStatistics.situationWritten(ps, ps == unwound.get(0));
+        }
+        for (String id : ps.getIds()) {
+          blackhole.consume(transformationService.transformPsToLine(ps, id));
+        }
+      }
+    }
+    return extractStatistics;
+  }
+}
@@ -0,0 +1,255 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.benchmark;
+
+import fr.ans.psc.model.Expertise;
+import fr.ans.psc.model.FirstName;
+import fr.ans.psc.model.Profession;
+import fr.ans.psc.model.Ps;
+import fr.ans.psc.model.Structure;
+import fr.ans.psc.model.WorkSituation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Seeded generator of Ps as psc-api-maj serves them : the same seed always yields the same Ps, so that runs compare.
+ */
+public class SyntheticPsGenerator {
+
+  /**
+   * Ps shapes, from the common one to the corner cases that weigh on the unwinding.
+   */
+  public enum Shape {
+    /** One profession, one expertise, one or two work situations, one id. */
+    TYPICAL(1, 1, 2, 1, 0),
+    /** Ps known under many national ids, each of them yields a line. */
+    MANY_IDS(1, 1, 1, 12, 0),
+    /** Ps working in many places, each work situation yields a line. */
+    MANY_WORK_SITUATIONS(2, 2, 10, 1, 0),
+    /** Structures with every optional field filled at its realistic width. */
+    WIDE_STRUCTURES(1, 1, 2, 1, 1);
+
+    private final int maxProfessions;
+    private final int maxExpertises;
+    private final int maxWorkSituations;
+    private final int maxIds;
+    private final int wideStructures;
+
+    Shape(int maxProfessions, int maxExpertises, int maxWorkSituations, int maxIds, int wideStructures) {
+      this.maxProfessions = maxProfessions;
+      this.maxExpertises = maxExpertises;
+      this.maxWorkSituations = maxWorkSituations;
+      this.maxIds = maxIds;
+      this.wideStructures = wideStructures;
+    }
+  }
+
+  private static final String[] LAST_NAMES = {"MARTIN", "BERNARD", "THOMAS", "PETIT", "ROBERT", "RICHARD", "DURAND",
+          "DUBOIS", "MOREAU", "LAURENT", "SIMON", "MICHEL", "LEFEBVRE", "LEROY", "ROUX", "DAVID", "BERTRAND", "MOREL"};
+
+  private static final String[] FIRST_NAMES = {"MARIE", "JEAN", "PIERRE", "MICHEL", "ANNE", "PHILIPPE", "NATHALIE",
+          "ISABELLE", "FRANCOIS", "CATHERINE", "NICOLAS", "SYLVIE", "CHRISTOPHE", "CELINE", "JULIEN", "CAMILLE"};
+
+  private static final String[] PROFESSION_CODES = {"10", "21", "40", "50", "60", "69", "70", "80", "81", "86", "91"};
+
+  private static final String[] STREET_LABELS = {"DE LA REPUBLIQUE", "VICTOR HUGO", "DU GENERAL DE GAULLE",
+          "JEAN JAURES", "PASTEUR", "DES ECOLES", "DE LA GARE", "DU MOULIN"};
+
+  private static final String[] CITIES = {"75056", "13055", "69123", "31555", "06088", "44109", "67482", "34172"};
+
+  /**
+   * Share of each shape in the national directory, in percent, in {@link Shape} order.
+   */
+  private static final int[] NATIONAL_SHAPE_WEIGHTS = {80, 7, 8, 5};
+
+  private final SplittableRandom random;
+
+  private long sequence;
+
+  public SyntheticPsGenerator(long seed) {
+    this(seed, 0);
+  }
+
+  /**
+   * @param firstSequence number of the first Ps, ids are derived from it so that generators of distinct pages don't
+   *                      collide
+   */
+  public SyntheticPsGenerator(long seed, long firstSequence) {
+    this.random = new SplittableRandom(seed);
+    this.sequence = firstSequence;
+  }
+
+  /**
+   * A page of the national directory : the same seed, page and size always yield the same Ps, whatever the order the
+   * pages are asked in.
+   */
+  public static List<Ps> nationalPage(long seed, int page, int size, long totalCount) {
+    long first = (long) page * size;
+    int count = (int) Math.max(0, Math.min(size, totalCount - first));
+    SyntheticPsGenerator generator = new SyntheticPsGenerator(seed * 31 + page, first);
+    List<Ps> psList = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      psList.add(generator.nextNational());
+    }
+    return psList;
+  }
+
+  /**
+   * @return a Ps of a shape drawn along the national directory distribution
+   */
+  public Ps nextNational() {
+    int draw = random.nextInt(100);
+    Shape[] shapes = Shape.values();
+    for (int i = 0; i < shapes.length; i++) {
+      draw -= NATIONAL_SHAPE_WEIGHTS[i];
+      if (draw < 0) {
+        return next(shapes[i]);
+      }
+    }
+    return next(Shape.TYPICAL);
+  }
+
+  public List<Ps> nextPage(Shape shape, int size) {
+    List<Ps> page = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      page.add(next(shape));
+    }
+    return page;
+  }
+
+  public Ps next(Shape shape) {
+    long number = sequence++;
+    Ps ps = new Ps();
+    String idType = random.nextInt(10) < 7 ? "8" : "0";
+    String id = "8".equals(idType) ? String.format("1%010d", number) : String.format("%09d", number);
+    ps.setIdType(idType);
+    ps.setId(id);
+    ps.setNationalId(idType + id);
+    ps.setLastName(pick(LAST_NAMES));
+    List<FirstName> firstNames = new ArrayList<>();
+    int firstNameCount = 1 + random.nextInt(3);
+    // The API does not sort them.
+    for (int order = firstNameCount - 1; order >= 0; order--) {
+      firstNames.add(new FirstName(pick(FIRST_NAMES), order));
+    }
+    ps.setFirstNames(firstNames);
+    ps.setDateOfBirth(String.format("%02d/%02d/%d", 1 + random.nextInt(28), 1 + random.nextInt(12), 1940 + random.nextInt(60)));
+    ps.setBirthAddressCode(pick(CITIES));
+    ps.setBirthCountryCode("99000");
+    ps.setBirthAddress("");
+    ps.setGenderCode(random.nextBoolean() ? "M" : "F");
+    ps.setPhone(String.format("01%08d", random.nextInt(100_000_000)));
+    ps.setEmail(ps.getLastName().toLowerCase() + number + "@sante.example.fr");
+    ps.setSalutationCode(random.nextBoolean() ? "M" : "MME");
+
+    List<Profession> professions = new ArrayList<>();
+    int professionCount = 1 + random.nextInt(shape.maxProfessions);
+    for (int p = 0; p < professionCount; p++) {
+      professions.add(profession(shape, ps));
+    }
+    ps.setProfessions(professions);
+
+    List<String> ids = new ArrayList<>();
+    ids.add(ps.getNationalId());
+    int extraIds = shape.maxIds > 1 ? shape.maxIds / 2 + random.nextInt(shape.maxIds / 2) : 0;
+    for (int i = 0; i < extraIds; i++) {
+      // ADELI, FINESS / ids, SIREN and SIRET prefixed ids, as psc-api-maj joins them.
+      ids.add((char) ('1' + (i % 5)) + String.format("%09d", number * 16 + i));
+    }
+    ps.setIds(ids);
+    ps.setActivated(1_600_000_000L + random.nextInt(100_000_000));
+    if (random.nextInt(50) == 0) {
+      ps.setDeactivated(ps.getActivated() + 1);
+    }
+    return ps;
+  }
+
+  private Profession profession(Shape shape, Ps ps) {
+    Profession profession = new Profession();
+    profession.setExProId(pick(PROFESSION_CODES));
+    profession.setCode(profession.getExProId());
+    profession.setCategoryCode(random.nextBoolean() ? "C" : "M");
+    profession.setSalutationCode(ps.getSalutationCode());
+    profession.setLastName(ps.getLastName());
+    profession.setFirstName(ps.getFirstNames().get(0).getFirstName());
+
+    List<Expertise> expertises = new ArrayList<>();
+    int expertiseCount = 1 + random.nextInt(shape.maxExpertises);
+    for (int e = 0; e < expertiseCount; e++) {
+      Expertise expertise = new Expertise();
+      expertise.setExpertiseId(profession.getExProId() + "." + e);
+      expertise.setTypeCode("S");
+      expertise.setCode("SM" + (10 + random.nextInt(90)));
+      expertises.add(expertise);
+    }
+    profession.setExpertises(expertises);
+
+    List<WorkSituation> workSituations = new ArrayList<>();
+    int workSituationCount = 1 + random.nextInt(shape.maxWorkSituations);
+    for (int w = 0; w < workSituationCount; w++) {
+      WorkSituation workSituation = new WorkSituation();
+      workSituation.setSituId(profession.getExProId() + "." + w);
+      workSituation.setModeCode(random.nextBoolean() ? "L" : "S");
+      workSituation.setActivitySectorCode("SA0" + random.nextInt(10));
+      workSituation.setPharmacistTableSectionCode("");
+      workSituation.setRoleCode("FON-" + (10 + random.nextInt(20)));
+      workSituation.setActivityKindCode("");
+      workSituation.setRegistrationAuthority("CNOM");
+      workSituation.setStructure(structure(shape.wideStructures > 0));
+      workSituations.add(workSituation);
+    }
+    profession.setWorkSituations(workSituations);
+    return profession;
+  }
+
+  private Structure structure(boolean wide) {
+    Structure structure = new Structure();
+    String siren = String.format("%09d", random.nextInt(1_000_000_000));
+    structure.setSiteSIRET(siren + String.format("%05d", random.nextInt(100_000)));
+    structure.setSiteSIREN(siren);
+    structure.setSiteFINESS(String.format("%09d", random.nextInt(1_000_000_000)));
+    structure.setStructureTechnicalId("R" + structure.getSiteSIRET());
+    structure.setStreetNumber(String.valueOf(1 + random.nextInt(200)));
+    structure.setStreetCategoryCode("R");
+    structure.setStreetLabel(pick(STREET_LABELS));
+    structure.setPostalCode(String.format("%05d", 1000 + random.nextInt(94000)));
+    structure.setCommuneCode(pick(CITIES));
+    structure.setCountryCode("99000");
+    if (wide) {
+      structure.setLegalEstablishmentFINESS(String.format("%09d", random.nextInt(1_000_000_000)));
+      structure.setLegalCommercialName("CENTRE HOSPITALIER INTERCOMMUNAL " + pick(STREET_LABELS));
+      structure.setPublicCommercialName("CABINET MEDICAL DE GROUPE " + pick(STREET_LABELS) + " ET ASSOCIES");
+      structure.setRecipientAdditionalInfo("BATIMENT " + (char) ('A' + random.nextInt(8)) + " ETAGE " + random.nextInt(9));
+      structure.setGeoLocationAdditionalInfo("ZONE D'ACTIVITE " + pick(STREET_LABELS));
+      structure.setStreetNumberRepetitionIndex("B");
+      structure.setDistributionMention("BP " + random.nextInt(1000));
+      structure.setCedexOffice("CEDEX " + random.nextInt(20));
+      structure.setPhone(String.format("01%08d", random.nextInt(100_000_000)));
+      structure.setPhone2(String.format("06%08d", random.nextInt(100_000_000)));
+      structure.setFax(String.format("01%08d", random.nextInt(100_000_000)));
+      structure.setEmail("secretariat" + random.nextInt(1000) + "@structure.example.fr");
+      structure.setDepartmentCode(String.format("%02d", 1 + random.nextInt(95)));
+      structure.setOldStructureId(String.valueOf(random.nextInt(1_000_000)));
+    }
+    return structure;
+  }
+
+  private String pick(String[] values) {
+    return values[random.nextInt(values.length)];
+  }
+}
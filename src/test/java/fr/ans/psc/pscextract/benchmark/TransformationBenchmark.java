@@ -0,0 +1,166 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.benchmark;
+
+import fr.ans.psc.model.Profession;
+import fr.ans.psc.model.Ps;
+import fr.ans.psc.pscextract.service.RunManifest;
+import fr.ans.psc.pscextract.service.TransformationService;
+import fr.ans.psc.pscextract.service.TransformationServiceAccess;
+import fr.ans.psc.pscextract.service.metrics.ExtractionMetrics;
+import fr.ans.psc.pscextract.service.progress.ExtractionProgress;
+import fr.ans.psc.pscextract.service.sync.BlockChecksums;
+import fr.ans.psc.pscextract.service.utils.CloneUtil;
+import fr.ans.psc.pscextract.service.utils.TreeHash;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Benchmarks of the transformation hot path, over one page of synthetic Ps per shape.
+ * <p>
+ * Run with {@code mvn -P benchmark test}, pass JMH options through {@code -Djmh.args="..."}. Every score is per page.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class TransformationBenchmark {
+
+  private static final long SEED = 20240101L;
+
+  private static final int TREE_HASH_CHUNK_BYTES = 1024 * 1024;
+
+  private static final int TREE_HASH_THREADS = 2;
+
+  @Param({"TYPICAL", "MANY_IDS", "MANY_WORK_SITUATIONS", "WIDE_STRUCTURES"})
+  private SyntheticPsGenerator.Shape shape;
+
+  @Param({"1000"})
+  private int pageSize;
+
+  private TransformationService transformationService;
+
+  private List<Ps> page;
+
+  private List<Ps> unwoundPage;
+
+  private byte[] pageLines;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    // No Spring Boot logging setup in the forked JVMs, logback would default to DEBUG.
+    ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME))
+            .setLevel(ch.qos.logback.classic.Level.WARN);
+    transformationService = new TransformationService();
+    ReflectionTestUtils.setField(transformationService, "extractName", "Extraction_ProSanteConnect");
+    ReflectionTestUtils.setField(transformationService, "progress", new ExtractionProgress());
+    ReflectionTestUtils.setField(transformationService, "metrics", new ExtractionMetrics(new SimpleMeterRegistry()));
+
+    page = new SyntheticPsGenerator(SEED).nextPage(shape, pageSize);
+    unwoundPage = transformationService.unwind(page);
+    StringBuilder lines = new StringBuilder();
+    for (Ps ps : unwoundPage) {
+      for (String id : ps.getIds()) {
+        lines.append(transformationService.transformPsToLine(ps, id));
+      }
+    }
+    pageLines = lines.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Benchmark
+  public List<Ps> unwind() {
+    return transformationService.unwind(page);
+  }
+
+  @Benchmark
+  public void transformPsToLine(Blackhole blackhole) {
+    for (Ps ps : unwoundPage) {
+      for (String id : ps.getIds()) {
+        blackhole.consume(transformationService.transformPsToLine(ps, id));
+      }
+    }
+  }
+
+  @Benchmark
+  public void transformIdsToString(Blackhole blackhole) {
+    for (Ps ps : page) {
+      blackhole.consume(transformationService.transformIdsToString(ps.getIds()));
+    }
+  }
+
+  @Benchmark
+  public void transformFirstNamesToStringWithApostrophes(Blackhole blackhole) {
+    for (Ps ps : page) {
+      blackhole.consume(transformationService.transformFirstNamesToStringWithApostrophes(ps.getFirstNames()));
+    }
+  }
+
+  @Benchmark
+  public void clonePs(Blackhole blackhole) {
+    for (Ps ps : page) {
+      for (Profession profession : ps.getProfessions()) {
+        blackhole.consume(CloneUtil.clonePs(ps, profession, profession.getExpertises().get(0),
+                profession.getWorkSituations().get(0)));
+      }
+    }
+  }
+
+  @Benchmark
+  public void cloneStructure(Blackhole blackhole) {
+    for (Ps ps : unwoundPage) {
+      blackhole.consume(CloneUtil.cloneStructure(ps.getProfessions().get(0).getWorkSituations().get(0).getStructure()));
+    }
+  }
+
+  /**
+   * Deflate, block checksums, tree hash and progress accounting of one page worth of lines, as published with the
+   * default extract.treehash settings.
+   */
+  @Benchmark
+  public TreeHash writeExtractEntry() throws IOException {
+    try (ZipOutputStream zos = new ZipOutputStream(OutputStream.nullOutputStream());
+         TreeHash.Builder treeHashBuilder = new TreeHash.Builder(TREE_HASH_CHUNK_BYTES, TREE_HASH_THREADS)) {
+      TransformationServiceAccess.writeExtractEntry(transformationService, zos, "Extraction_ProSanteConnect.txt",
+              new ByteArrayInputStream(pageLines), new BlockChecksums.Builder(65536), treeHashBuilder,
+              new RunManifest());
+      return treeHashBuilder.build();
+    }
+  }
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.benchmark;
+
+import fr.ans.psc.model.Ps;
+import fr.ans.psc.pscextract.service.TransformationService;
+import fr.ans.psc.pscextract.service.metrics.ExtractionMetrics;
+import fr.ans.psc.pscextract.service.progress.ExtractionProgress;
+import fr.ans.psc.pscextract.service.utils.ChannelRingWriter;
+import fr.ans.psc.pscextract.service.utils.CountingOutputStream;
+import fr.ans.psc.pscextract.service.utils.DigestingOutputStream;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing the rows of a synthetic extract to a temp file, SHA-256 included, through the BufferedWriter of the
+ * stream mode and through the {@link ChannelRingWriter} of the ring mode.
+ * <p>
+ * Every score is per extract of {@code pages} pages. Run with
+ * {@code mvn -P benchmark test -Djmh.args="WriterBenchmark -prof gc"} to also compare the allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class WriterBenchmark {
+
+  private static final long SEED = 20240101L;
+
+  @Param({"stream", "ring"})
+  private String mode;
+
+  @Param({"1024"})
+  private int bufferKb;
+
+  @Param({"4"})
+  private int bufferCount;
+
+  @Param({"50"})
+  private int pages;
+
+  private List<String> rows;
+
+  private Path file;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME))
+            .setLevel(ch.qos.logback.classic.Level.WARN);
+    TransformationService transformationService = new TransformationService();
+    ReflectionTestUtils.setField(transformationService, "progress", new ExtractionProgress());
+    ReflectionTestUtils.setField(transformationService, "metrics", new ExtractionMetrics(new SimpleMeterRegistry()));
+
+    rows = new ArrayList<>();
+    SyntheticPsGenerator generator = new SyntheticPsGenerator(SEED);
+    for (int page = 0; page < pages; page++) {
+      for (Ps ps : transformationService.unwind(generator.nextPage(SyntheticPsGenerator.Shape.TYPICAL, 1000))) {
+        for (String id : ps.getIds()) {
+          rows.add(transformationService.transformPsToLine(ps, id));
+        }
+      }
+    }
+    file = Files.createTempFile("writer-benchmark", ".txt");
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(file);
+  }
+
+  @Benchmark
+  public byte[] writeRows() throws IOException, NoSuchAlgorithmException {
+    MessageDigest digest = MessageDigest.getInstance("SHA-256");
+    Writer writer;
+    if ("ring".equals(mode)) {
+      writer = new ChannelRingWriter(file, bufferKb * 1024, bufferCount, false, digest, count -> {});
+    } else {
+      writer = new BufferedWriter(new OutputStreamWriter(new DigestingOutputStream(
+              new CountingOutputStream(Files.newOutputStream(file), count -> {}), digest),
+              StandardCharsets.UTF_8.newEncoder()));
+    }
+    try (Writer rowWriter = writer) {
+      for (String row : rows) {
+        rowWriter.write(row);
+      }
+    }
+    return digest.digest();
+  }
+}
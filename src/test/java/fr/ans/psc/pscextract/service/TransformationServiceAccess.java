@@ -0,0 +1,43 @@
+/**
+ * Copyright (C) 2022-2024 Agence du Numérique en Santé (ANS) (https://esante.gouv.fr)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.ans.psc.pscextract.service;
+
+import fr.ans.psc.pscextract.service.sync.BlockChecksums;
+import fr.ans.psc.pscextract.service.utils.TreeHash;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Gives the benchmarks the package-private steps of {@link TransformationService} that publishing runs.
+ */
+public final class TransformationServiceAccess {
+
+  private TransformationServiceAccess() {
+  }
+
+  /**
+   * @return the time spent computing block checksums, in nanoseconds
+   */
+  public static long writeExtractEntry(TransformationService transformationService, ZipOutputStream zos,
+                                       String entryName, InputStream fileContent,
+                                       BlockChecksums.Builder blockChecksumsBuilder,
+                                       TreeHash.Builder treeHashBuilder, RunManifest manifest) throws IOException {
+    return transformationService.writeExtractEntry(zos, entryName, fileContent, blockChecksumsBuilder,
+            treeHashBuilder, manifest);
+  }
+}